@@ -0,0 +1,16 @@
+#ifndef DECODER_H
+#define DECODER_H
+
+#include "opus.h"
+
+typedef struct Decoder {
+    OpusDecoder *decoder;
+    int frame_size;
+    int channels;
+} Decoder;
+
+Decoder *get_decoder(JNIEnv *env, jlong decoder_pointer);
+
+int init_decoder(Decoder *decoder, OpusDecoder *state, opus_int32 sample_rate, int channels);
+
+#endif
@@ -0,0 +1,24 @@
+#ifndef ENCODER_H
+#define ENCODER_H
+
+#include <stdint.h>
+
+#include "opus.h"
+
+#define DEFAULT_PACKET_LOSS_PERC 0
+#define DEFAULT_INBAND_FEC 2
+
+typedef struct Encoder {
+    OpusEncoder *encoder;
+    uint32_t channels;
+    jint max_payload_size;
+    jfloat packet_loss_perc;
+} Encoder;
+
+Encoder *get_encoder(JNIEnv *env, jlong encoder_pointer);
+
+int init_encoder(Encoder *encoder, OpusEncoder *state, opus_int32 sample_rate, int channels, int application);
+
+int get_opus_application(JNIEnv *env, jobject application);
+
+#endif
@@ -1,6 +1,8 @@
 #ifndef EXCEPTIONS_H
 #define EXCEPTIONS_H
 
+#include <stdbool.h>
+
 char *string_format(const char *fmt, ...);
 
 void throw_runtime_exception(JNIEnv *env, const char *message);
@@ -13,4 +15,8 @@ void throw_illegal_argument_exception(JNIEnv *env, const char *message);
 
 void throw_opus_io_exception(JNIEnv *env, const int error, const char *message);
 
+bool check_bounds(JNIEnv *env, jlong array_length, jlong offset, jlong length);
+
+void *get_direct_buffer_address(JNIEnv *env, jobject buffer, jlong offset, jlong length);
+
 #endif
@@ -0,0 +1,17 @@
+#ifndef PCM_H
+#define PCM_H
+
+#include <stdbool.h>
+#include <stddef.h>
+
+#include "opus_types.h"
+
+/**
+ * @param float_pcm whether the PCM is float or 16 bit
+ * @return the size of a single sample in bytes
+ */
+static inline size_t pcm_sample_size(const bool float_pcm) {
+    return float_pcm ? sizeof(float) : sizeof(opus_int16);
+}
+
+#endif
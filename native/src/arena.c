@@ -0,0 +1,130 @@
+#include <inttypes.h>
+#include <jni.h>
+#include <stdlib.h>
+
+#include "decoder.h"
+#include "encoder.h"
+#include "exceptions.h"
+#include "opus.h"
+
+// Slots start on their own cache line, so codecs used by different threads don't share one
+#define SLOT_ALIGNMENT 64
+
+static jlong align_slot(const jlong size) {
+    return (size + SLOT_ALIGNMENT - 1) & ~((jlong) SLOT_ALIGNMENT - 1);
+}
+
+static void *allocate_aligned(const size_t size) {
+#ifdef _WIN32
+    return _aligned_malloc(size, SLOT_ALIGNMENT);
+#else
+    void *memory = NULL;
+    if (posix_memalign(&memory, SLOT_ALIGNMENT, size) != 0) {
+        return NULL;
+    }
+    return memory;
+#endif
+}
+
+static void free_aligned(void *memory) {
+#ifdef _WIN32
+    _aligned_free(memory);
+#else
+    free(memory);
+#endif
+}
+
+static bool check_channels(JNIEnv *env, const jint channels) {
+    if (channels != 1 && channels != 2) {
+        char *message = string_format("Invalid number of channels: %d", channels);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return false;
+    }
+    return true;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusCodecArena_getEncoderSlotSize0(
+    JNIEnv *env,
+    jclass clazz,
+    const jint channels
+) {
+    if (!check_channels(env, channels)) {
+        return 0;
+    }
+    return (jint) (align_slot(sizeof(Encoder)) + align_slot(opus_encoder_get_size(channels)));
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusCodecArena_getDecoderSlotSize0(
+    JNIEnv *env,
+    jclass clazz,
+    const jint channels
+) {
+    if (!check_channels(env, channels)) {
+        return 0;
+    }
+    return (jint) (align_slot(sizeof(Decoder)) + align_slot(opus_decoder_get_size(channels)));
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusCodecArena_allocate0(
+    JNIEnv *env,
+    jclass clazz,
+    const jlong size
+) {
+    void *memory = allocate_aligned(size > 0 ? (size_t) size : SLOT_ALIGNMENT);
+    if (memory == NULL) {
+        char *message = string_format("Failed to allocate arena of %" PRId64 " bytes", (int64_t) size);
+        throw_runtime_exception(env, message);
+        free(message);
+        return 0;
+    }
+    return (jlong) (uintptr_t) memory;
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusCodecArena_free0(
+    JNIEnv *env,
+    jclass clazz,
+    const jlong memory
+) {
+    if (memory == 0) {
+        return;
+    }
+    free_aligned((void *) (uintptr_t) memory);
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusCodecArena_initEncoder0(
+    JNIEnv *env,
+    jclass clazz,
+    const jlong slot,
+    const jint sample_rate,
+    const jint channels,
+    jobject application
+) {
+    const int opus_application = get_opus_application(env, application);
+    Encoder *encoder = (Encoder *) (uintptr_t) slot;
+    // The opus state directly follows the wrapper struct in the same slot
+    OpusEncoder *state = (OpusEncoder *) (uintptr_t) (slot + align_slot(sizeof(Encoder)));
+    const int err = init_encoder(encoder, state, sample_rate, channels, opus_application);
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to create encoder");
+        return 0;
+    }
+    return slot;
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusCodecArena_initDecoder0(
+    JNIEnv *env,
+    jclass clazz,
+    const jlong slot,
+    const jint sample_rate,
+    const jint channels
+) {
+    Decoder *decoder = (Decoder *) (uintptr_t) slot;
+    OpusDecoder *state = (OpusDecoder *) (uintptr_t) (slot + align_slot(sizeof(Decoder)));
+    const int err = init_decoder(decoder, state, sample_rate, channels);
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to create decoder");
+        return 0;
+    }
+    return slot;
+}
@@ -1,17 +1,16 @@
 #include <jni.h>
 #include <stdbool.h>
 #include <stdlib.h>
+#include <string.h>
 
+#include "decoder.h"
 #include "exceptions.h"
+#include "pcm.h"
 #include "opus.h"
 
 #define DEFAULT_FRAME_SIZE 960
-
-typedef struct Decoder {
-    OpusDecoder *decoder;
-    int frame_size;
-    int channels;
-} Decoder;
+// The longest frame opus can conceal at once
+#define MAX_GAP_FRAME_MS 120
 
 /**
  * @param sample_rate the sample rate
@@ -33,6 +32,26 @@ Decoder *create_decoder(const opus_int32 sample_rate, const int channels, int *e
     return decoder;
 }
 
+/**
+ * Initializes a decoder in preallocated memory.
+ *
+ * @param decoder the decoder
+ * @param state the memory for the opus decoder state - needs to be at least opus_decoder_get_size bytes
+ * @param sample_rate the sample rate
+ * @param channels the number of channels
+ * @return the opus error code
+ */
+int init_decoder(Decoder *decoder, OpusDecoder *state, const opus_int32 sample_rate, const int channels) {
+    decoder->decoder = state;
+    const int err = opus_decoder_init(state, sample_rate, channels);
+    if (err < 0) {
+        return err;
+    }
+    decoder->frame_size = DEFAULT_FRAME_SIZE;
+    decoder->channels = channels;
+    return OPUS_OK;
+}
+
 void destroy_decoder(Decoder *decoder) {
     opus_decoder_destroy(decoder->decoder);
     free(decoder);
@@ -117,12 +136,164 @@ JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_getFrameSize0(
     return decoder->frame_size;
 }
 
-JNIEXPORT jshortArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decode0(
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_setGain0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jint gain
+) {
+    if (gain < -32768 || gain > 32767) {
+        char *message = string_format("Invalid gain: %d", gain);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return;
+    }
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return;
+    }
+    const int err = opus_decoder_ctl(decoder->decoder, OPUS_SET_GAIN(gain));
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to set gain");
+    }
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_getGain0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer
+) {
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    opus_int32 gain = 0;
+    const int err = opus_decoder_ctl(decoder->decoder, OPUS_GET_GAIN(&gain));
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to get gain");
+        return 0;
+    }
+    return gain;
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_setComplexity0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jint complexity
+) {
+    if (complexity < 0 || complexity > 10) {
+        char *message = string_format("Invalid complexity: %d", complexity);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return;
+    }
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return;
+    }
+    const int err = opus_decoder_ctl(decoder->decoder, OPUS_SET_COMPLEXITY(complexity));
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to set complexity");
+    }
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_getComplexity0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer
+) {
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    opus_int32 complexity = 0;
+    const int err = opus_decoder_ctl(decoder->decoder, OPUS_GET_COMPLEXITY(&complexity));
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to get complexity");
+        return 0;
+    }
+    return complexity;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_getLastPacketDuration0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer
+) {
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    opus_int32 duration = 0;
+    const int err = opus_decoder_ctl(decoder->decoder, OPUS_GET_LAST_PACKET_DURATION(&duration));
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to get last packet duration");
+        return 0;
+    }
+    return duration;
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_getFinalRange0(
     JNIEnv *env,
     jobject obj,
+    const jlong decoder_pointer
+) {
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    opus_uint32 range = 0;
+    const int err = opus_decoder_ctl(decoder->decoder, OPUS_GET_FINAL_RANGE(&range));
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to get final range");
+        return 0;
+    }
+    return (jlong) range;
+}
+
+/**
+ * Decodes a single frame.
+ *
+ * @param decoder the decoder
+ * @param data the packet or NULL to do PLC
+ * @param len the length of the packet
+ * @param pcm the buffer to write the frame to - either float or 16 bit
+ * @param float_pcm whether the PCM is float or 16 bit
+ * @param frame_size the maximum number of samples per channel
+ * @param decode_fec whether to decode the in-band FEC data of the packet
+ * @return the number of decoded samples per channel or a negative opus error code
+ */
+int decode_frame(const Decoder *decoder, const unsigned char *data, const opus_int32 len, void *pcm,
+                 const bool float_pcm, const int frame_size, const bool decode_fec) {
+    if (float_pcm) {
+        return opus_decode_float(decoder->decoder, data, len, pcm, frame_size, decode_fec);
+    }
+    return opus_decode(decoder->decoder, data, len, pcm, frame_size, decode_fec);
+}
+
+jarray new_pcm_array(JNIEnv *env, const jsize length, const bool float_pcm) {
+    if (float_pcm) {
+        return (*env)->NewFloatArray(env, length);
+    }
+    return (*env)->NewShortArray(env, length);
+}
+
+void set_pcm_array_region(JNIEnv *env, const jarray array, const jsize length, const void *data,
+                          const bool float_pcm) {
+    if (float_pcm) {
+        (*env)->SetFloatArrayRegion(env, array, 0, length, data);
+    } else {
+        (*env)->SetShortArrayRegion(env, array, 0, length, data);
+    }
+}
+
+jarray decode_array(
+    JNIEnv *env,
     const jlong decoder_pointer,
     const jbyteArray input,
-    const jboolean fec
+    const jboolean fec,
+    const bool float_pcm
 ) {
     const Decoder *decoder = get_decoder(env, decoder_pointer);
     if (decoder == NULL) {
@@ -144,10 +315,10 @@ JNIEXPORT jshortArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decode0(
 
     const int output_length = decoder->frame_size * decoder->channels;
 
-    opus_int16 *opus_output = calloc(output_length, sizeof(opus_int16));
+    void *opus_output = calloc(output_length, pcm_sample_size(float_pcm));
 
-    const int result = opus_decode(decoder->decoder, opus_input, input_length, opus_output,
-                                   decoder->frame_size, use_fec);
+    const int result = decode_frame(decoder, opus_input, input_length, opus_output, float_pcm, decoder->frame_size,
+                                    use_fec);
 
     if (input != NULL) {
         (*env)->ReleaseByteArrayElements(env, input, (jbyte *) opus_input, JNI_ABORT);
@@ -168,45 +339,67 @@ JNIEXPORT jshortArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decode0(
     }
 
     const int total_samples = result * decoder->channels;
-    const jshortArray java_output = (*env)->NewShortArray(env, total_samples);
-    (*env)->SetShortArrayRegion(env, java_output, 0, total_samples, opus_output);
+    const jarray java_output = new_pcm_array(env, total_samples, float_pcm);
+    set_pcm_array_region(env, java_output, total_samples, opus_output, float_pcm);
     free(opus_output);
     return java_output;
 }
 
-jobjectArray create_short_short_array(JNIEnv *env, const int length, const int inner_length) {
-    const jclass shortArrayCls = (*env)->FindClass(env, "[S");
-    if (shortArrayCls == NULL) {
-        throw_illegal_state_exception(env, "Failed to find short array class");
+JNIEXPORT jshortArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decode0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jboolean fec
+) {
+    return decode_array(env, decoder_pointer, input, fec, false);
+}
+
+JNIEXPORT jfloatArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeFloat0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jboolean fec
+) {
+    return decode_array(env, decoder_pointer, input, fec, true);
+}
+
+jobjectArray create_pcm_array_array(JNIEnv *env, const int length, const int inner_length, const bool float_pcm) {
+    const jclass pcmArrayCls = (*env)->FindClass(env, float_pcm ? "[F" : "[S");
+    if (pcmArrayCls == NULL) {
+        throw_illegal_state_exception(env, float_pcm ? "Failed to find float array class" : "Failed to find short array class");
         return NULL;
     }
 
-    const jobjectArray short_short_array = (*env)->NewObjectArray(env, length, shortArrayCls, NULL);
+    const jobjectArray pcm_array_array = (*env)->NewObjectArray(env, length, pcmArrayCls, NULL);
     for (int i = 0; i < length; i++) {
-        (*env)->SetObjectArrayElement(env, short_short_array, i, (*env)->NewShortArray(env, inner_length));
+        const jarray pcm_array = new_pcm_array(env, inner_length, float_pcm);
+        (*env)->SetObjectArrayElement(env, pcm_array_array, i, pcm_array);
+        (*env)->DeleteLocalRef(env, pcm_array);
     }
-    return short_short_array;
+    return pcm_array_array;
 }
 
-void fill_short_short_array(JNIEnv *env, const jobjectArray short_short_array, const int index, const opus_int16 *data,
-                            const int length) {
-    const jshortArray short_array = (*env)->GetObjectArrayElement(env, short_short_array, index);
-    const jsize array_length = (*env)->GetArrayLength(env, short_array);
+void fill_pcm_array_array(JNIEnv *env, const jobjectArray pcm_array_array, const int index, const void *data,
+                          const int length, const bool float_pcm) {
+    const jarray pcm_array = (*env)->GetObjectArrayElement(env, pcm_array_array, index);
+    const jsize array_length = (*env)->GetArrayLength(env, pcm_array);
     if (array_length != length) {
-        (*env)->DeleteLocalRef(env, short_array);
+        (*env)->DeleteLocalRef(env, pcm_array);
         throw_illegal_state_exception(env, "Invalid array length");
         return;
     }
-    (*env)->SetShortArrayRegion(env, short_array, 0, length, data);
-    (*env)->DeleteLocalRef(env, short_array);
+    set_pcm_array_region(env, pcm_array, length, data, float_pcm);
+    (*env)->DeleteLocalRef(env, pcm_array);
 }
 
-JNIEXPORT jobjectArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeRecover0(
+jobjectArray decode_recover_array(
     JNIEnv *env,
-    jobject obj,
     const jlong decoder_pointer,
     const jbyteArray input,
-    const jint frames
+    const jint frames,
+    const bool float_pcm
 ) {
     if (frames <= 0) {
         throw_illegal_argument_exception(env, "Frames must be greater than 0");
@@ -225,35 +418,17 @@ JNIEXPORT jobjectArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeRecove
     const unsigned char *opus_input = (unsigned char *) (*env)->GetByteArrayElements(env, input, false);
     const int output_length = decoder->frame_size * decoder->channels;
 
-    const jobjectArray recovered = create_short_short_array(env, frames, output_length);
+    const jobjectArray recovered = create_pcm_array_array(env, frames, output_length, float_pcm);
 
-    opus_int16 *opus_output = calloc(output_length, sizeof(opus_int16));
+    void *opus_output = calloc(output_length, pcm_sample_size(float_pcm));
 
-    // Recover frames if more than one got lost
-    if (frames > 2) {
-        for (int i = 0; i < frames - 2; i++) {
-            const int result = opus_decode(decoder->decoder, NULL, 0, opus_output, decoder->frame_size, false);
-            if (result < 0) {
-                throw_opus_io_exception(env, result, "Failed to decode");
-                free(opus_output);
-                (*env)->ReleaseByteArrayElements(env, input, (jbyte *) opus_input, JNI_ABORT);
-                return NULL;
-            }
-            if (result > output_length) {
-                char *message = string_format("Invalid output length: %d>%d", result, output_length);
-                throw_illegal_state_exception(env, message);
-                free(message);
-                free(opus_output);
-                (*env)->ReleaseByteArrayElements(env, input, (jbyte *) opus_input, JNI_ABORT);
-                return NULL;
-            }
-            fill_short_short_array(env, recovered, i, opus_output, result * decoder->channels);
-        }
-    }
-    // Recover the last lost frame using FEC
-    if (frames > 1) {
-        const int result = opus_decode(decoder->decoder, opus_input, input_length, opus_output, decoder->frame_size,
-                                       true);
+    for (int i = 0; i < frames; i++) {
+        const bool is_current = i == frames - 1;
+        // All frames but the last lost one use PLC, the last lost frame gets recovered using FEC
+        const bool is_fec = i == frames - 2;
+        const int result = decode_frame(decoder, is_current || is_fec ? opus_input : NULL,
+                                        is_current || is_fec ? input_length : 0, opus_output, float_pcm,
+                                        decoder->frame_size, is_fec);
         if (result < 0) {
             throw_opus_io_exception(env, result, "Failed to decode");
             free(opus_output);
@@ -268,29 +443,510 @@ JNIEXPORT jobjectArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeRecove
             (*env)->ReleaseByteArrayElements(env, input, (jbyte *) opus_input, JNI_ABORT);
             return NULL;
         }
-        fill_short_short_array(env, recovered, frames - 2, opus_output, result * decoder->channels);
+        fill_pcm_array_array(env, recovered, i, opus_output, result * decoder->channels, float_pcm);
+    }
+
+    free(opus_output);
+    (*env)->ReleaseByteArrayElements(env, input, (jbyte *) opus_input, JNI_ABORT);
+    return recovered;
+}
+
+JNIEXPORT jobjectArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeRecover0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint frames
+) {
+    return decode_recover_array(env, decoder_pointer, input, frames, false);
+}
+
+JNIEXPORT jobjectArray JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeRecoverFloat0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint frames
+) {
+    return decode_recover_array(env, decoder_pointer, input, frames, true);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeGap0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jshortArray output,
+    const jint output_offset,
+    const jint samples
+) {
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset,
+                      (jlong) samples * (jlong) decoder->channels)) {
+        return 0;
+    }
+    opus_int32 sample_rate = 0;
+    int result = opus_decoder_ctl(decoder->decoder, OPUS_GET_SAMPLE_RATE(&sample_rate));
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to decode gap");
+        return 0;
+    }
+    const int max_frame_size = sample_rate / 1000 * MAX_GAP_FRAME_MS;
+
+    jshort *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+    if (opus_output == NULL) {
+        return 0;
+    }
+    int decoded = 0;
+    while (decoded < samples) {
+        const int remaining = samples - decoded;
+        result = opus_decode(decoder->decoder, NULL, 0, opus_output + output_offset + decoded * decoder->channels,
+                             remaining < max_frame_size ? remaining : max_frame_size, 0);
+        if (result <= 0) {
+            break;
+        }
+        decoded += result;
     }
-    // Decode the actual frame
-    const int result = opus_decode(decoder->decoder, opus_input, input_length, opus_output, decoder->frame_size, false);
+    if (result >= 0 && decoded < samples) {
+        // Opus didn't conceal the whole gap, so the rest is filled with silence instead of keeping stale data
+        memset(opus_output + output_offset + decoded * decoder->channels, 0,
+               (size_t) (samples - decoded) * (size_t) decoder->channels * sizeof(jshort));
+        decoded = samples;
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to decode gap");
+        return 0;
+    }
+    return decoded;
+}
+
+jint decode_into(
+    JNIEnv *env,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jarray output,
+    const jint output_offset,
+    const bool float_pcm
+) {
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (input != NULL && !check_bounds(env, (*env)->GetArrayLength(env, input), input_offset, input_length)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset,
+                      (jlong) decoder->frame_size * (jlong) decoder->channels)) {
+        return 0;
+    }
+
+    // Decode directly from and into the Java arrays to avoid any intermediate buffers
+    jbyte *opus_input = NULL;
+    if (input != NULL) {
+        opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+        if (opus_input == NULL) {
+            return 0;
+        }
+    }
+    char *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+    if (opus_output == NULL) {
+        if (opus_input != NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        }
+        return 0;
+    }
+
+    const int result = decode_frame(decoder, opus_input == NULL ? NULL : (unsigned char *) opus_input + input_offset,
+                                    opus_input == NULL ? 0 : input_length,
+                                    opus_output + output_offset * pcm_sample_size(float_pcm), float_pcm,
+                                    decoder->frame_size, false);
+
+    (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+    if (opus_input != NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+    }
+
     if (result < 0) {
         throw_opus_io_exception(env, result, "Failed to decode");
-        free(opus_output);
-        (*env)->ReleaseByteArrayElements(env, input, (jbyte *) opus_input, JNI_ABORT);
-        return NULL;
+        return 0;
     }
-    if (result > output_length) {
-        char *message = string_format("Invalid output length: %d>%d", result, output_length);
-        throw_illegal_state_exception(env, message);
-        free(message);
-        free(opus_output);
-        (*env)->ReleaseByteArrayElements(env, input, (jbyte *) opus_input, JNI_ABORT);
-        return NULL;
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jshortArray output,
+    const jint output_offset
+) {
+    return decode_into(env, decoder_pointer, input, input_offset, input_length, output, output_offset, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeFloatInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jfloatArray output,
+    const jint output_offset
+) {
+    return decode_into(env, decoder_pointer, input, input_offset, input_length, output, output_offset, true);
+}
+
+jint decode_recover_into(
+    JNIEnv *env,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jint frames,
+    const jarray output,
+    const jint output_offset,
+    const jintArray frame_sizes,
+    const bool float_pcm
+) {
+    if (frames <= 0) {
+        throw_illegal_argument_exception(env, "Frames must be greater than 0");
+        return 0;
+    }
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Can't recover without input");
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, input), input_offset, input_length)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset,
+                      (jlong) frames * (jlong) decoder->frame_size * (jlong) decoder->channels)) {
+        return 0;
+    }
+    if (frame_sizes != NULL && !check_bounds(env, (*env)->GetArrayLength(env, frame_sizes), 0, frames)) {
+        return 0;
     }
-    fill_short_short_array(env, recovered, frames - 1, opus_output, result * decoder->channels);
 
-    free(opus_output);
-    (*env)->ReleaseByteArrayElements(env, input, (jbyte *) opus_input, JNI_ABORT);
-    return recovered;
+    const size_t sample_size = pcm_sample_size(float_pcm);
+    int total_samples = 0;
+    int result = 0;
+    for (int i = 0; i < frames; i++) {
+        const bool is_current = i == frames - 1;
+        // All frames but the last lost one use PLC, the last lost frame gets recovered using FEC
+        const bool is_fec = i == frames - 2;
+        // The critical regions are only held for a single frame, so the GC is not blocked for the whole recovery
+        jbyte *opus_input = NULL;
+        if (is_current || is_fec) {
+            opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+            if (opus_input == NULL) {
+                return 0;
+            }
+        }
+        char *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+        if (opus_output == NULL) {
+            if (opus_input != NULL) {
+                (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+            }
+            return 0;
+        }
+        result = decode_frame(decoder, opus_input == NULL ? NULL : (unsigned char *) opus_input + input_offset,
+                              opus_input == NULL ? 0 : input_length,
+                              opus_output + (output_offset + (jlong) total_samples * decoder->channels) * sample_size,
+                              float_pcm, decoder->frame_size, is_fec);
+        (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+        if (opus_input != NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        }
+        if (result < 0) {
+            break;
+        }
+        if (frame_sizes != NULL) {
+            const jint frame_size = result;
+            (*env)->SetIntArrayRegion(env, frame_sizes, i, 1, &frame_size);
+        }
+        total_samples += result;
+    }
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to decode");
+        return 0;
+    }
+    return total_samples;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeRecoverInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jint frames,
+    const jshortArray output,
+    const jint output_offset,
+    const jintArray frame_sizes
+) {
+    return decode_recover_into(env, decoder_pointer, input, input_offset, input_length, frames, output, output_offset,
+                               frame_sizes, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeRecoverFloatInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jint frames,
+    const jfloatArray output,
+    const jint output_offset,
+    const jintArray frame_sizes
+) {
+    return decode_recover_into(env, decoder_pointer, input, input_offset, input_length, frames, output, output_offset,
+                               frame_sizes, true);
+}
+
+jint decode_direct(
+    JNIEnv *env,
+    const jlong decoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity,
+    const bool float_pcm
+) {
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    const unsigned char *opus_input = NULL;
+    if (input != NULL) {
+        opus_input = get_direct_buffer_address(env, input, input_offset, input_length);
+        if (opus_input == NULL) {
+            return 0;
+        }
+    }
+    char *opus_output = get_direct_buffer_address(env, output, output_offset, output_capacity);
+    if (opus_output == NULL) {
+        return 0;
+    }
+    // The decoder writes a full frame, which must not exceed the limit of the buffer
+    if (!check_bounds(env, (jlong) output_offset + (jlong) output_capacity, output_offset,
+                      (jlong) decoder->frame_size * (jlong) decoder->channels)) {
+        return 0;
+    }
+
+    const int result = decode_frame(decoder, opus_input == NULL ? NULL : opus_input + input_offset,
+                                    opus_input == NULL ? 0 : input_length,
+                                    opus_output + output_offset * pcm_sample_size(float_pcm), float_pcm,
+                                    decoder->frame_size, false);
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to decode");
+        return 0;
+    }
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeDirect0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return decode_direct(env, decoder_pointer, input, input_offset, input_length, output, output_offset, output_capacity,
+                         false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeFloatDirect0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return decode_direct(env, decoder_pointer, input, input_offset, input_length, output, output_offset, output_capacity,
+                         true);
+}
+
+jint decode_batch(
+    JNIEnv *env,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jintArray packet_offsets,
+    const jintArray packet_lengths,
+    const jint packets,
+    const jarray output,
+    const jint output_offset,
+    const jintArray frame_sizes,
+    const bool float_pcm
+) {
+    if (packets <= 0) {
+        throw_illegal_argument_exception(env, "Packets must be greater than 0");
+        return 0;
+    }
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Input must not be null");
+        return 0;
+    }
+    if (packet_offsets == NULL || packet_lengths == NULL) {
+        throw_illegal_argument_exception(env, "Packet offsets and lengths must not be null");
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, packet_offsets), 0, packets)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, packet_lengths), 0, packets)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset,
+                      (jlong) packets * (jlong) decoder->frame_size * (jlong) decoder->channels)) {
+        return 0;
+    }
+    if (frame_sizes != NULL && !check_bounds(env, (*env)->GetArrayLength(env, frame_sizes), 0, packets)) {
+        return 0;
+    }
+    const jsize input_length = (*env)->GetArrayLength(env, input);
+
+    // Both arrays are copied in one allocation, so no critical region is held outside of the individual decodes
+    jint *packet_info = malloc(sizeof(jint) * packets * 2);
+    if (packet_info == NULL) {
+        throw_runtime_exception(env, "Failed to allocate packet buffer");
+        return 0;
+    }
+    jint *opus_packet_offsets = packet_info;
+    jint *opus_packet_lengths = packet_info + packets;
+    (*env)->GetIntArrayRegion(env, packet_offsets, 0, packets, opus_packet_offsets);
+    (*env)->GetIntArrayRegion(env, packet_lengths, 0, packets, opus_packet_lengths);
+
+    // Validate all packets before decoding anything, so the decoder state is untouched if the batch is invalid
+    for (int i = 0; i < packets; i++) {
+        const jint offset = opus_packet_offsets[i];
+        const jint length = opus_packet_lengths[i];
+        if (offset < 0 || length < 0 || offset > input_length - length) {
+            free(packet_info);
+            check_bounds(env, input_length, offset, length);
+            return 0;
+        }
+    }
+
+    const size_t sample_size = pcm_sample_size(float_pcm);
+    int total_samples = 0;
+    int result = 0;
+    for (int i = 0; i < packets; i++) {
+        // The critical regions are only held for a single frame, so the GC is not blocked for the whole batch
+        jbyte *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+        if (opus_input == NULL) {
+            free(packet_info);
+            return 0;
+        }
+        char *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+        if (opus_output == NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+            free(packet_info);
+            return 0;
+        }
+        const jint length = opus_packet_lengths[i];
+        // Packets with a length of 0 are treated as lost and use PLC
+        result = decode_frame(decoder, length == 0 ? NULL : (unsigned char *) opus_input + opus_packet_offsets[i],
+                              length,
+                              opus_output + (output_offset + (jlong) total_samples * decoder->channels) * sample_size,
+                              float_pcm, decoder->frame_size, false);
+        (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        if (result < 0) {
+            break;
+        }
+        // The packet info is not needed anymore, so the lengths are replaced by the frame sizes
+        opus_packet_lengths[i] = result;
+        total_samples += result;
+    }
+
+    if (result >= 0 && frame_sizes != NULL) {
+        (*env)->SetIntArrayRegion(env, frame_sizes, 0, packets, opus_packet_lengths);
+    }
+    free(packet_info);
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to decode");
+        return 0;
+    }
+    return total_samples;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeBatch0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jintArray packet_offsets,
+    const jintArray packet_lengths,
+    const jint packets,
+    const jshortArray output,
+    const jint output_offset,
+    const jintArray frame_sizes
+) {
+    return decode_batch(env, decoder_pointer, input, packet_offsets, packet_lengths, packets, output, output_offset,
+                        frame_sizes, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_decodeFloatBatch0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jintArray packet_offsets,
+    const jintArray packet_lengths,
+    const jint packets,
+    const jfloatArray output,
+    const jint output_offset,
+    const jintArray frame_sizes
+) {
+    return decode_batch(env, decoder_pointer, input, packet_offsets, packet_lengths, packets, output, output_offset,
+                        frame_sizes, true);
 }
 
 JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusDecoder_resetState0(
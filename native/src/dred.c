@@ -0,0 +1,166 @@
+#include <inttypes.h>
+#include <jni.h>
+#include <stdlib.h>
+
+#include "decoder.h"
+#include "exceptions.h"
+#include "opus.h"
+
+typedef struct DredDecoder {
+    OpusDREDDecoder *decoder;
+    OpusDRED *dred;
+    opus_int32 sample_rate;
+} DredDecoder;
+
+/**
+ * Gets the DRED decoder from the DRED decoder java object.
+ *
+ * @param env the JNI environment
+ * @param dred_decoder_pointer the pointer to the DRED decoder
+ * @return the DRED decoder or NULL - If the DRED decoder could not be retrieved, this will throw a runtime exception in Java
+ */
+DredDecoder *get_dred_decoder(JNIEnv *env, const jlong dred_decoder_pointer) {
+    if (dred_decoder_pointer == 0) {
+        throw_runtime_exception(env, "DRED decoder is closed");
+        return NULL;
+    }
+    return (DredDecoder *) (uintptr_t) dred_decoder_pointer;
+}
+
+void destroy_dred_decoder(DredDecoder *dred_decoder) {
+    if (dred_decoder->dred != NULL) {
+        opus_dred_free(dred_decoder->dred);
+    }
+    if (dred_decoder->decoder != NULL) {
+        opus_dred_decoder_destroy(dred_decoder->decoder);
+    }
+    free(dred_decoder);
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusDredDecoder_createDredDecoder0(
+    JNIEnv *env,
+    jclass clazz,
+    const jint sample_rate
+) {
+    DredDecoder *dred_decoder = calloc(1, sizeof(DredDecoder));
+    if (dred_decoder == NULL) {
+        throw_runtime_exception(env, "Failed to allocate DRED decoder");
+        return 0;
+    }
+    int err = 0;
+    dred_decoder->decoder = opus_dred_decoder_create(&err);
+    if (err >= 0) {
+        dred_decoder->dred = opus_dred_alloc(&err);
+    }
+    if (err < 0) {
+        // Natives that are built without DRED fail with OPUS_UNIMPLEMENTED
+        throw_opus_io_exception(env, err, "Failed to create DRED decoder");
+        destroy_dred_decoder(dred_decoder);
+        return 0;
+    }
+    dred_decoder->sample_rate = sample_rate;
+    return (jlong) (uintptr_t) dred_decoder;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDredDecoder_parse0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong dred_decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jint max_samples,
+    const jintArray end
+) {
+    DredDecoder *dred_decoder = get_dred_decoder(env, dred_decoder_pointer);
+    if (dred_decoder == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Input must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, input), input_offset, input_length)) {
+        return 0;
+    }
+    // Parsing runs the DRED decoder network, so the packet is copied instead of pinning the array for that long
+    unsigned char *data = malloc(input_length > 0 ? input_length : 1);
+    if (data == NULL) {
+        throw_runtime_exception(env, "Failed to allocate packet buffer");
+        return 0;
+    }
+    (*env)->GetByteArrayRegion(env, input, input_offset, input_length, (jbyte *) data);
+
+    int dred_end = 0;
+    const int result = opus_dred_parse(dred_decoder->decoder, dred_decoder->dred, data, input_length, max_samples,
+                                       dred_decoder->sample_rate, &dred_end, 0);
+    free(data);
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to parse DRED");
+        return 0;
+    }
+    const jint end_value = dred_end;
+    (*env)->SetIntArrayRegion(env, end, 0, 1, &end_value);
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusDredDecoder_decode0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong dred_decoder_pointer,
+    const jlong decoder_pointer,
+    const jint dred_offset,
+    const jshortArray output,
+    const jint output_offset,
+    const jint frame_size
+) {
+    const DredDecoder *dred_decoder = get_dred_decoder(env, dred_decoder_pointer);
+    if (dred_decoder == NULL) {
+        return 0;
+    }
+    const Decoder *decoder = get_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (frame_size <= 0) {
+        char *message = string_format("Invalid frame size: %d", frame_size);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset,
+                      (jlong) frame_size * (jlong) decoder->channels)) {
+        return 0;
+    }
+
+    // Decoding runs the DRED synthesis network, so the audio is copied instead of pinning the array for that long
+    opus_int16 *pcm = malloc(sizeof(opus_int16) * frame_size * decoder->channels);
+    if (pcm == NULL) {
+        throw_runtime_exception(env, "Failed to allocate output buffer");
+        return 0;
+    }
+    const int result = opus_decoder_dred_decode(decoder->decoder, dred_decoder->dred, dred_offset, pcm, frame_size);
+    if (result < 0) {
+        free(pcm);
+        throw_opus_io_exception(env, result, "Failed to decode DRED");
+        return 0;
+    }
+    (*env)->SetShortArrayRegion(env, output, output_offset, result * decoder->channels, (jshort *) pcm);
+    free(pcm);
+    return result;
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusDredDecoder_destroyDredDecoder0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong dred_decoder_pointer
+) {
+    if (dred_decoder_pointer == 0) {
+        return;
+    }
+    destroy_dred_decoder((DredDecoder *) (uintptr_t) dred_decoder_pointer);
+}
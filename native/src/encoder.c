@@ -6,18 +6,31 @@
 #include <math.h>
 
 #include "opus.h"
+#include "encoder.h"
 #include "exceptions.h"
+#include "pcm.h"
 
 #define DEFAULT_MAX_PAYLOAD_SIZE 1024
 #define MAX_MAX_PAYLOAD_SIZE 4096
-#define DEFAULT_PACKET_LOSS_PERC 0
 
-typedef struct Encoder {
-    OpusEncoder *encoder;
-    uint32_t channels;
-    jint max_payload_size;
-    jfloat packet_loss_perc;
-} Encoder;
+/**
+ * Applies the options that differ from the opus defaults.
+ *
+ * @param encoder the encoder
+ * @return the opus error code
+ */
+int apply_default_options(Encoder *encoder) {
+    int err = opus_encoder_ctl(encoder->encoder, OPUS_SET_INBAND_FEC(DEFAULT_INBAND_FEC));
+    if (err < 0) {
+        return err;
+    }
+    err = opus_encoder_ctl(encoder->encoder, OPUS_SET_PACKET_LOSS_PERC(DEFAULT_PACKET_LOSS_PERC));
+    if (err < 0) {
+        return err;
+    }
+    encoder->packet_loss_perc = (float) DEFAULT_PACKET_LOSS_PERC / 100.0f;
+    return OPUS_OK;
+}
 
 /**
  *
@@ -37,25 +50,41 @@ Encoder *create_encoder(const opus_int32 sample_rate, const int channels, const
         return NULL;
     }
 
-    opus_encoder_ctl(encoder->encoder, OPUS_SET_INBAND_FEC(2));
+    err = apply_default_options(encoder);
     *error = err;
     if (err < 0) {
-        free(encoder->encoder);
+        opus_encoder_destroy(encoder->encoder);
         free(encoder);
         return NULL;
     }
+    encoder->channels = channels;
+    encoder->max_payload_size = DEFAULT_MAX_PAYLOAD_SIZE;
+    return encoder;
+}
 
-    opus_encoder_ctl(encoder->encoder, OPUS_SET_PACKET_LOSS_PERC(DEFAULT_PACKET_LOSS_PERC));
-    encoder->packet_loss_perc = (float) DEFAULT_PACKET_LOSS_PERC / 100.0f;
-    *error = err;
+/**
+ * Initializes an encoder in preallocated memory.
+ *
+ * @param encoder the encoder
+ * @param state the memory for the opus encoder state - needs to be at least opus_encoder_get_size bytes
+ * @param sample_rate the sample rate
+ * @param channels the number of channels
+ * @param application the application
+ * @return the opus error code
+ */
+int init_encoder(Encoder *encoder, OpusEncoder *state, const opus_int32 sample_rate, const int channels, const int application) {
+    encoder->encoder = state;
+    int err = opus_encoder_init(state, sample_rate, channels, application);
     if (err < 0) {
-        free(encoder->encoder);
-        free(encoder);
-        return NULL;
+        return err;
+    }
+    err = apply_default_options(encoder);
+    if (err < 0) {
+        return err;
     }
     encoder->channels = channels;
     encoder->max_payload_size = DEFAULT_MAX_PAYLOAD_SIZE;
-    return encoder;
+    return OPUS_OK;
 }
 
 void destroy_encoder(Encoder *encoder) {
@@ -79,6 +108,27 @@ Encoder *get_encoder(JNIEnv *env, const jlong encoder_pointer) {
     return (Encoder *) (uintptr_t) pointer;
 }
 
+/**
+ * Converts the application java enum to the opus application.
+ *
+ * @param env the JNI environment
+ * @param application the application enum
+ * @return the opus application
+ */
+int get_opus_application(JNIEnv *env, jobject application) {
+    const jint application_int = (*env)->GetIntField(env, application,
+                                                     (*env)->GetFieldID(env, (*env)->GetObjectClass(env, application),
+                                                                        "value", "I"));
+    switch (application_int) {
+        case 1:
+            return OPUS_APPLICATION_AUDIO;
+        case 2:
+            return OPUS_APPLICATION_RESTRICTED_LOWDELAY;
+        default:
+            return OPUS_APPLICATION_VOIP;
+    }
+}
+
 JNIEXPORT jstring JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_getOpusVersion0(
     JNIEnv *env,
     jclass clazz
@@ -99,22 +149,7 @@ JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_createEncoder0(
         free(message);
         return 0;
     }
-    const jint application_int = (*env)->GetIntField(env, application,
-                                                     (*env)->GetFieldID(env, (*env)->GetObjectClass(env, application),
-                                                                        "value", "I"));
-
-    int opus_application;
-    switch (application_int) {
-        case 1:
-            opus_application = OPUS_APPLICATION_AUDIO;
-            break;
-        case 2:
-            opus_application = OPUS_APPLICATION_RESTRICTED_LOWDELAY;
-            break;
-        default:
-            opus_application = OPUS_APPLICATION_VOIP;
-            break;
-    }
+    const int opus_application = get_opus_application(env, application);
 
     int err = 0;
     Encoder *encoder = create_encoder(sample_rate, channels, opus_application, &err);
@@ -199,11 +234,30 @@ JNIEXPORT jfloat JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_getMaxPacketLossPe
     return encoder->packet_loss_perc;
 }
 
-JNIEXPORT jbyteArray JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encode0(
+/**
+ * Encodes a single frame.
+ *
+ * @param encoder the encoder
+ * @param pcm the first sample of the frame - either float or 16 bit
+ * @param float_pcm whether the PCM is float or 16 bit
+ * @param frame_size the number of samples per channel
+ * @param data the buffer to write the packet to
+ * @param max_data_bytes the size of the buffer
+ * @return the length of the packet or a negative opus error code
+ */
+int encode_frame(const Encoder *encoder, const void *pcm, const bool float_pcm, const int frame_size,
+                 unsigned char *data, const opus_int32 max_data_bytes) {
+    if (float_pcm) {
+        return opus_encode_float(encoder->encoder, pcm, frame_size, data, max_data_bytes);
+    }
+    return opus_encode(encoder->encoder, pcm, frame_size, data, max_data_bytes);
+}
+
+jbyteArray encode_array(
     JNIEnv *env,
-    jobject obj,
     const jlong encoder_pointer,
-    const jshortArray input
+    const jarray input,
+    const bool float_pcm
 ) {
     const Encoder *encoder = get_encoder(env, encoder_pointer);
     if (encoder == NULL) {
@@ -212,24 +266,461 @@ JNIEXPORT jbyteArray JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encode0(
     const jint input_length = (*env)->GetArrayLength(env, input);
     const jint max_payload_size = encoder->max_payload_size;
 
-    const opus_int16 *opus_input = (*env)->GetShortArrayElements(env, input, false);
+    unsigned char output[MAX_MAX_PAYLOAD_SIZE];
 
-    unsigned char *output = malloc(max_payload_size);
-
-    const int result = opus_encode(encoder->encoder, opus_input, input_length / (jint) encoder->channels, output,
-                                   max_payload_size);
-    (*env)->ReleaseShortArrayElements(env, input, (jshort *) opus_input, JNI_ABORT);
+    void *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+    if (opus_input == NULL) {
+        return NULL;
+    }
+    const int result = encode_frame(encoder, opus_input, float_pcm, input_length / (jint) encoder->channels, output,
+                                    max_payload_size);
+    (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
     if (result < 0) {
-        free(output);
         throw_opus_io_exception(env, result, "Failed to encode");
         return NULL;
     }
     const jbyteArray java_output = (*env)->NewByteArray(env, result);
     (*env)->SetByteArrayRegion(env, java_output, 0, result, (jbyte *) output);
-    free(output);
     return java_output;
 }
 
+JNIEXPORT jbyteArray JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encode0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jshortArray input
+) {
+    return encode_array(env, encoder_pointer, input, false);
+}
+
+JNIEXPORT jbyteArray JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encodeFloat0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jfloatArray input
+) {
+    return encode_array(env, encoder_pointer, input, true);
+}
+
+jint encode_into(
+    JNIEnv *env,
+    const jlong encoder_pointer,
+    const jarray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity,
+    const bool float_pcm
+) {
+    const Encoder *encoder = get_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Input must not be null");
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, input), input_offset,
+                      (jlong) frame_size * (jlong) encoder->channels)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset, output_capacity)) {
+        return 0;
+    }
+    const jint max_payload_size = output_capacity < encoder->max_payload_size
+                                      ? output_capacity
+                                      : encoder->max_payload_size;
+
+    // Encode directly from and into the Java arrays to avoid any intermediate buffers
+    char *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+    if (opus_input == NULL) {
+        return 0;
+    }
+    jbyte *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+    if (opus_output == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        return 0;
+    }
+
+    const int result = encode_frame(encoder, opus_input + input_offset * pcm_sample_size(float_pcm), float_pcm,
+                                    frame_size, (unsigned char *) opus_output + output_offset, max_payload_size);
+
+    (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to encode");
+        return 0;
+    }
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encodeInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jshortArray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return encode_into(env, encoder_pointer, input, input_offset, frame_size, output, output_offset, output_capacity,
+                       false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encodeFloatInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jfloatArray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return encode_into(env, encoder_pointer, input, input_offset, frame_size, output, output_offset, output_capacity,
+                       true);
+}
+
+jint encode_direct(
+    JNIEnv *env,
+    const jlong encoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity,
+    const bool float_pcm
+) {
+    const Encoder *encoder = get_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0;
+    }
+    const char *opus_input = get_direct_buffer_address(env, input, input_offset, input_length);
+    if (opus_input == NULL) {
+        return 0;
+    }
+    unsigned char *opus_output = get_direct_buffer_address(env, output, output_offset, output_capacity);
+    if (opus_output == NULL) {
+        return 0;
+    }
+    const jint max_payload_size = output_capacity < encoder->max_payload_size
+                                      ? output_capacity
+                                      : encoder->max_payload_size;
+
+    const int result = encode_frame(encoder, opus_input + input_offset * pcm_sample_size(float_pcm), float_pcm,
+                                    input_length / (jint) encoder->channels, opus_output + output_offset,
+                                    max_payload_size);
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to encode");
+        return 0;
+    }
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encodeDirect0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return encode_direct(env, encoder_pointer, input, input_offset, input_length, output, output_offset,
+                         output_capacity, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encodeFloatDirect0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return encode_direct(env, encoder_pointer, input, input_offset, input_length, output, output_offset,
+                         output_capacity, true);
+}
+
+jint encode_batch(
+    JNIEnv *env,
+    const jlong encoder_pointer,
+    const jarray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jint frames,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity,
+    const jintArray packet_lengths,
+    const bool float_pcm
+) {
+    if (frames <= 0) {
+        throw_illegal_argument_exception(env, "Frames must be greater than 0");
+        return 0;
+    }
+    const Encoder *encoder = get_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Input must not be null");
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (packet_lengths == NULL) {
+        throw_illegal_argument_exception(env, "Packet lengths must not be null");
+        return 0;
+    }
+    const jlong frame_length = (jlong) frame_size * (jlong) encoder->channels;
+    if (!check_bounds(env, (*env)->GetArrayLength(env, input), input_offset, frame_length * frames)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset, output_capacity)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, packet_lengths), 0, frames)) {
+        return 0;
+    }
+
+    jint *opus_packet_lengths = malloc(sizeof(jint) * frames);
+    if (opus_packet_lengths == NULL) {
+        throw_runtime_exception(env, "Failed to allocate packet length buffer");
+        return 0;
+    }
+
+    const size_t sample_size = pcm_sample_size(float_pcm);
+    jint total_length = 0;
+    int result = 0;
+    for (int i = 0; i < frames; i++) {
+        // The critical regions are only held for a single frame, so the GC is not blocked for the whole batch
+        char *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+        if (opus_input == NULL) {
+            free(opus_packet_lengths);
+            return 0;
+        }
+        jbyte *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+        if (opus_output == NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+            free(opus_packet_lengths);
+            return 0;
+        }
+        const jint remaining = output_capacity - total_length;
+        result = encode_frame(encoder, opus_input + (input_offset + frame_length * i) * sample_size, float_pcm,
+                              frame_size, (unsigned char *) opus_output + output_offset + total_length,
+                              remaining < encoder->max_payload_size ? remaining : encoder->max_payload_size);
+        (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        if (result < 0) {
+            break;
+        }
+        opus_packet_lengths[i] = result;
+        total_length += result;
+    }
+
+    if (result >= 0) {
+        (*env)->SetIntArrayRegion(env, packet_lengths, 0, frames, opus_packet_lengths);
+    }
+    free(opus_packet_lengths);
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to encode");
+        return 0;
+    }
+    return total_length;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encodeBatch0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jshortArray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jint frames,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity,
+    const jintArray packet_lengths
+) {
+    return encode_batch(env, encoder_pointer, input, input_offset, frame_size, frames, output, output_offset,
+                        output_capacity, packet_lengths, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_encodeFloatBatch0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jfloatArray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jint frames,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity,
+    const jintArray packet_lengths
+) {
+    return encode_batch(env, encoder_pointer, input, input_offset, frame_size, frames, output, output_offset,
+                        output_capacity, packet_lengths, true);
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_getFinalRange0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer
+) {
+    const Encoder *encoder = get_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0;
+    }
+    opus_uint32 range = 0;
+    const int err = opus_encoder_ctl(encoder->encoder, OPUS_GET_FINAL_RANGE(&range));
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to get final range");
+        return 0;
+    }
+    return (jlong) range;
+}
+
+/**
+ * Only requests that take a single integer are allowed, since the value is passed to opus_encoder_ctl as is.
+ */
+bool is_encoder_set_request(const jint request) {
+    switch (request) {
+        case OPUS_SET_BITRATE_REQUEST:
+        case OPUS_SET_COMPLEXITY_REQUEST:
+        case OPUS_SET_VBR_REQUEST:
+        case OPUS_SET_VBR_CONSTRAINT_REQUEST:
+        case OPUS_SET_DTX_REQUEST:
+        case OPUS_SET_SIGNAL_REQUEST:
+        case OPUS_SET_MAX_BANDWIDTH_REQUEST:
+        case OPUS_SET_EXPERT_FRAME_DURATION_REQUEST:
+        case OPUS_SET_INBAND_FEC_REQUEST:
+        case OPUS_SET_DRED_DURATION_REQUEST:
+            return true;
+        default:
+            return false;
+    }
+}
+
+/**
+ * Only requests that take a single pointer to an integer are allowed.
+ */
+bool is_encoder_get_request(const jint request) {
+    switch (request) {
+        case OPUS_GET_BITRATE_REQUEST:
+        case OPUS_GET_COMPLEXITY_REQUEST:
+        case OPUS_GET_VBR_REQUEST:
+        case OPUS_GET_VBR_CONSTRAINT_REQUEST:
+        case OPUS_GET_DTX_REQUEST:
+        case OPUS_GET_SIGNAL_REQUEST:
+        case OPUS_GET_MAX_BANDWIDTH_REQUEST:
+        case OPUS_GET_EXPERT_FRAME_DURATION_REQUEST:
+        case OPUS_GET_INBAND_FEC_REQUEST:
+        case OPUS_GET_LOOKAHEAD_REQUEST:
+        case OPUS_GET_IN_DTX_REQUEST:
+        case OPUS_GET_DRED_DURATION_REQUEST:
+            return true;
+        default:
+            return false;
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_setOption0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jint request,
+    const jint value
+) {
+    if (!is_encoder_set_request(request)) {
+        char *message = string_format("Unsupported encoder request: %d", request);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return;
+    }
+    const Encoder *encoder = get_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return;
+    }
+    const int err = opus_encoder_ctl(encoder->encoder, request, (opus_int32) value);
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to set encoder option");
+    }
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_getOption0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jint request
+) {
+    if (!is_encoder_get_request(request)) {
+        char *message = string_format("Unsupported encoder request: %d", request);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return 0;
+    }
+    const Encoder *encoder = get_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0;
+    }
+    opus_int32 value = 0;
+    const int err = opus_encoder_ctl(encoder->encoder, request, &value);
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to get encoder option");
+        return 0;
+    }
+    return value;
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_resetOptions0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer
+) {
+    Encoder *encoder = get_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return;
+    }
+    opus_int32 sample_rate = 0;
+    opus_int32 application = 0;
+    int err = opus_encoder_ctl(encoder->encoder, OPUS_GET_SAMPLE_RATE(&sample_rate));
+    if (err >= 0) {
+        err = opus_encoder_ctl(encoder->encoder, OPUS_GET_APPLICATION(&application));
+    }
+    if (err >= 0) {
+        // Re-initializing is the only way to restore the defaults of all options
+        err = opus_encoder_init(encoder->encoder, sample_rate, (int) encoder->channels, application);
+    }
+    if (err >= 0) {
+        err = apply_default_options(encoder);
+    }
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to reset options");
+        return;
+    }
+    encoder->max_payload_size = DEFAULT_MAX_PAYLOAD_SIZE;
+}
+
 JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusEncoder_resetState0(
     JNIEnv *env,
     jobject obj,
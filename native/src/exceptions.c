@@ -1,4 +1,6 @@
+#include <inttypes.h>
 #include <jni.h>
+#include <stdbool.h>
 #include <stdlib.h>
 
 #include "opus_defines.h"
@@ -77,3 +79,52 @@ void throw_opus_io_exception(JNIEnv *env, const int error, const char *message)
     throw_io_exception(env, formatted);
     free(formatted);
 }
+
+void throw_array_index_out_of_bounds_exception(JNIEnv *env, const char *message) {
+    throw_exception(env, "java/lang/ArrayIndexOutOfBoundsException", message);
+}
+
+/**
+ * Checks if the range [offset, offset + length) is within an array of the given length.
+ *
+ * @param env the JNI environment
+ * @param array_length the length of the array
+ * @param offset the start of the range
+ * @param length the length of the range
+ * @return true if the range is valid - If not, this will throw an ArrayIndexOutOfBoundsException in Java
+ */
+bool check_bounds(JNIEnv *env, const jlong array_length, const jlong offset, const jlong length) {
+    if (offset < 0 || length < 0 || offset > array_length - length) {
+        char *message = string_format("Range [%" PRId64 ", %" PRId64 " + %" PRId64 ") out of bounds for length %" PRId64,
+                                      (int64_t) offset, (int64_t) offset, (int64_t) length, (int64_t) array_length);
+        throw_array_index_out_of_bounds_exception(env, message);
+        free(message);
+        return false;
+    }
+    return true;
+}
+
+/**
+ * Gets the address of the element at the given offset of a direct buffer.
+ *
+ * @param env the JNI environment
+ * @param buffer the direct buffer
+ * @param offset the index of the first element in elements
+ * @param length the number of elements that will be accessed
+ * @return the address or NULL - If the buffer is not direct or the range is out of bounds, this will throw an exception in Java
+ */
+void *get_direct_buffer_address(JNIEnv *env, jobject buffer, const jlong offset, const jlong length) {
+    if (buffer == NULL) {
+        throw_illegal_argument_exception(env, "Buffer must not be null");
+        return NULL;
+    }
+    void *address = (*env)->GetDirectBufferAddress(env, buffer);
+    if (address == NULL) {
+        throw_illegal_argument_exception(env, "Buffer must be direct");
+        return NULL;
+    }
+    if (!check_bounds(env, (*env)->GetDirectBufferCapacity(env, buffer), offset, length)) {
+        return NULL;
+    }
+    return address;
+}
@@ -0,0 +1,236 @@
+#include <inttypes.h>
+#include <jni.h>
+#include <stdbool.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "decoder.h"
+#include "exceptions.h"
+#include "opus.h"
+
+typedef struct Mixer {
+    opus_int32 sample_rate;
+    int channels;
+    int frame_size;
+    opus_int32 *accumulator;
+    opus_int16 *buffer;
+} Mixer;
+
+/**
+ * @param sample_rate the sample rate
+ * @param channels the number of channels
+ * @param frame_size the maximum number of samples per channel of a mixed frame
+ * @return the mixer or NULL if the memory could not be allocated
+ */
+Mixer *create_mixer(const opus_int32 sample_rate, const int channels, const int frame_size) {
+    Mixer *mixer = malloc(sizeof(Mixer));
+    if (mixer == NULL) {
+        return NULL;
+    }
+    mixer->sample_rate = sample_rate;
+    mixer->channels = channels;
+    mixer->frame_size = frame_size;
+    mixer->accumulator = calloc((size_t) frame_size * channels, sizeof(opus_int32));
+    mixer->buffer = calloc((size_t) frame_size * channels, sizeof(opus_int16));
+    if (mixer->accumulator == NULL || mixer->buffer == NULL) {
+        free(mixer->accumulator);
+        free(mixer->buffer);
+        free(mixer);
+        return NULL;
+    }
+    return mixer;
+}
+
+void destroy_mixer(Mixer *mixer) {
+    free(mixer->accumulator);
+    free(mixer->buffer);
+    free(mixer);
+}
+
+/**
+ * Gets the mixer from the mixer java object.
+ *
+ * @param env the JNI environment
+ * @param mixer_pointer the pointer to the mixer
+ * @return the mixer or NULL - If the mixer could not be retrieved, this will throw a runtime exception in Java
+ */
+Mixer *get_mixer(JNIEnv *env, const jlong mixer_pointer) {
+    if (mixer_pointer == 0) {
+        throw_runtime_exception(env, "Mixer is closed");
+        return NULL;
+    }
+    return (Mixer *) (uintptr_t) mixer_pointer;
+}
+
+/**
+ * Decodes a single packet and adds it to the accumulator of the mixer.
+ * PLC conceals the frame size of the decoder, limited to the frame size of the mixer, like OpusDecoder.decode does.
+ *
+ * @param env the JNI environment
+ * @param mixer the mixer
+ * @param decoder the decoder
+ * @param packet the packet or NULL to do PLC
+ * @return the number of decoded samples per channel or a negative opus error code
+ */
+int decode_and_accumulate(JNIEnv *env, const Mixer *mixer, const Decoder *decoder, const jbyteArray packet) {
+    int result;
+    if (packet == NULL) {
+        const int frame_size = decoder->frame_size < mixer->frame_size ? decoder->frame_size : mixer->frame_size;
+        result = opus_decode(decoder->decoder, NULL, 0, mixer->buffer, frame_size, false);
+    } else {
+        const jsize packet_length = (*env)->GetArrayLength(env, packet);
+        jbyte *opus_packet = (*env)->GetPrimitiveArrayCritical(env, packet, NULL);
+        if (opus_packet == NULL) {
+            return OPUS_ALLOC_FAIL;
+        }
+        result = opus_decode(decoder->decoder, (unsigned char *) opus_packet, packet_length, mixer->buffer,
+                             mixer->frame_size, false);
+        (*env)->ReleasePrimitiveArrayCritical(env, packet, opus_packet, JNI_ABORT);
+    }
+    if (result < 0) {
+        return result;
+    }
+    const int samples = result * mixer->channels;
+    for (int i = 0; i < samples; i++) {
+        mixer->accumulator[i] += mixer->buffer[i];
+    }
+    return result;
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusMixer_createMixer0(
+    JNIEnv *env,
+    jclass clazz,
+    const jint sample_rate,
+    const jint channels,
+    const jint frame_size
+) {
+    if (sample_rate != 8000 && sample_rate != 12000 && sample_rate != 16000 && sample_rate != 24000 &&
+        sample_rate != 48000) {
+        char *message = string_format("Invalid sample rate: %d", sample_rate);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return 0;
+    }
+    if (channels != 1 && channels != 2) {
+        char *message = string_format("Invalid number of channels: %d", channels);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return 0;
+    }
+    if (frame_size <= 0) {
+        char *message = string_format("Invalid frame size: %d", frame_size);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return 0;
+    }
+    Mixer *mixer = create_mixer(sample_rate, channels, frame_size);
+    if (mixer == NULL) {
+        throw_runtime_exception(env, "Failed to allocate mixer");
+        return 0;
+    }
+    return (jlong) (uintptr_t) mixer;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMixer_mix0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong mixer_pointer,
+    const jlongArray decoder_pointers,
+    const jobjectArray packets,
+    const jint count,
+    const jshortArray output,
+    const jint output_offset
+) {
+    const Mixer *mixer = get_mixer(env, mixer_pointer);
+    if (mixer == NULL) {
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, decoder_pointers), 0, count)) {
+        return 0;
+    }
+    if (packets != NULL && !check_bounds(env, (*env)->GetArrayLength(env, packets), 0, count)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset,
+                      (jlong) mixer->frame_size * (jlong) mixer->channels)) {
+        return 0;
+    }
+
+    // Validate all decoders before decoding anything, so no stream advances if the mix is invalid
+    for (int i = 0; i < count; i++) {
+        jlong decoder_pointer;
+        (*env)->GetLongArrayRegion(env, decoder_pointers, i, 1, &decoder_pointer);
+        const Decoder *decoder = get_decoder(env, decoder_pointer);
+        if (decoder == NULL) {
+            return 0;
+        }
+        if (decoder->channels != mixer->channels) {
+            char *message = string_format("Invalid number of decoder channels: %d", decoder->channels);
+            throw_illegal_argument_exception(env, message);
+            free(message);
+            return 0;
+        }
+        // The frames of decoders with a different sample rate would cover a different duration
+        opus_int32 sample_rate = 0;
+        const int ctl_result = opus_decoder_ctl(decoder->decoder, OPUS_GET_SAMPLE_RATE(&sample_rate));
+        if (ctl_result != OPUS_OK) {
+            throw_opus_io_exception(env, ctl_result, "Failed to get the sample rate");
+            return 0;
+        }
+        if (sample_rate != mixer->sample_rate) {
+            char *message = string_format("Invalid decoder sample rate: %d", sample_rate);
+            throw_illegal_argument_exception(env, message);
+            free(message);
+            return 0;
+        }
+    }
+
+    memset(mixer->accumulator, 0, sizeof(opus_int32) * mixer->frame_size * mixer->channels);
+
+    int mixed_samples = 0;
+    for (int i = 0; i < count; i++) {
+        jlong decoder_pointer;
+        (*env)->GetLongArrayRegion(env, decoder_pointers, i, 1, &decoder_pointer);
+        const Decoder *decoder = (Decoder *) (uintptr_t) decoder_pointer;
+        const jbyteArray packet = packets == NULL ? NULL : (*env)->GetObjectArrayElement(env, packets, i);
+        const int result = decode_and_accumulate(env, mixer, decoder, packet);
+        if (packet != NULL) {
+            (*env)->DeleteLocalRef(env, packet);
+        }
+        if (result < 0) {
+            throw_opus_io_exception(env, result, "Failed to decode");
+            return 0;
+        }
+        if (result > mixed_samples) {
+            mixed_samples = result;
+        }
+    }
+
+    jshort *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+    if (opus_output == NULL) {
+        return 0;
+    }
+    const int samples = mixed_samples * mixer->channels;
+    for (int i = 0; i < samples; i++) {
+        const opus_int32 sample = mixer->accumulator[i];
+        opus_output[output_offset + i] = (jshort) (sample > 32767 ? 32767 : sample < -32768 ? -32768 : sample);
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, 0);
+    return mixed_samples;
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusMixer_destroyMixer0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong mixer_pointer
+) {
+    if (mixer_pointer == 0) {
+        return;
+    }
+    Mixer *mixer = (Mixer *) (uintptr_t) mixer_pointer;
+    destroy_mixer(mixer);
+}
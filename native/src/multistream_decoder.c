@@ -0,0 +1,621 @@
+#include <jni.h>
+#include <inttypes.h>
+#include <stdbool.h>
+#include <stdlib.h>
+
+#include "exceptions.h"
+#include "pcm.h"
+#include "opus_multistream.h"
+
+#define MS_DEFAULT_FRAME_SIZE 960
+
+typedef struct MultistreamDecoder {
+    OpusMSDecoder *decoder;
+    int frame_size;
+    int channels;
+} MultistreamDecoder;
+
+/**
+ * @param sample_rate the sample rate
+ * @param channels the number of channels
+ * @param streams the number of streams
+ * @param coupled_streams the number of coupled streams
+ * @param mapping the mapping of the channels to the streams
+ * @param error the error if the decoder could not be created
+ * @return the decoder or NULL if the decoder could not be created
+ */
+MultistreamDecoder *create_multistream_decoder(const opus_int32 sample_rate, const int channels, const int streams,
+                                               const int coupled_streams, const unsigned char *mapping,
+                                               int *error) {
+    MultistreamDecoder *decoder = malloc(sizeof(MultistreamDecoder));
+    int err = 0;
+    decoder->decoder = opus_multistream_decoder_create(sample_rate, channels, streams, coupled_streams, mapping, &err);
+    *error = err;
+    if (err < 0) {
+        free(decoder);
+        return NULL;
+    }
+    decoder->frame_size = MS_DEFAULT_FRAME_SIZE;
+    decoder->channels = channels;
+    return decoder;
+}
+
+void destroy_multistream_decoder(MultistreamDecoder *decoder) {
+    opus_multistream_decoder_destroy(decoder->decoder);
+    free(decoder);
+}
+
+/**
+ * Gets the decoder from the decoder java object.
+ *
+ * @param env the JNI environment
+ * @param decoder_pointer the pointer to the decoder
+ * @return the decoder or NULL - If the decoder could not be retrieved, this will throw a runtime exception in Java
+ */
+MultistreamDecoder *get_multistream_decoder(JNIEnv *env, const jlong decoder_pointer) {
+    if (decoder_pointer == 0) {
+        throw_runtime_exception(env, "Decoder is closed");
+        return NULL;
+    }
+    return (MultistreamDecoder *) (uintptr_t) decoder_pointer;
+}
+
+/**
+ * Decodes a single frame.
+ *
+ * @param decoder the decoder
+ * @param data the packet or NULL to do PLC
+ * @param len the length of the packet
+ * @param pcm the buffer to write the frame to - either float or 16 bit
+ * @param float_pcm whether the PCM is float or 16 bit
+ * @param decode_fec whether to decode the in-band FEC data of the packet
+ * @return the number of decoded samples per channel or a negative opus error code
+ */
+int decode_multistream_frame(const MultistreamDecoder *decoder, const unsigned char *data, const opus_int32 len,
+                             void *pcm, const bool float_pcm, const bool decode_fec) {
+    if (float_pcm) {
+        return opus_multistream_decode_float(decoder->decoder, data, len, pcm, decoder->frame_size, decode_fec);
+    }
+    return opus_multistream_decode(decoder->decoder, data, len, pcm, decoder->frame_size, decode_fec);
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_createDecoder0(
+    JNIEnv *env,
+    jclass clazz,
+    const jint sample_rate,
+    const jint channels,
+    const jint streams,
+    const jint coupled_streams,
+    const jbyteArray mapping
+) {
+    if (channels < 1 || channels > 255) {
+        char *message = string_format("Invalid number of channels: %d", channels);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return 0;
+    }
+    if (mapping == NULL) {
+        throw_illegal_argument_exception(env, "Mapping must not be null");
+        return 0;
+    }
+    const jsize mapping_length = (*env)->GetArrayLength(env, mapping);
+    if (mapping_length != channels) {
+        char *message = string_format("Invalid mapping length: %d", mapping_length);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return 0;
+    }
+    unsigned char opus_mapping[255];
+    (*env)->GetByteArrayRegion(env, mapping, 0, channels, (jbyte *) opus_mapping);
+
+    int err = 0;
+    MultistreamDecoder *decoder = create_multistream_decoder(sample_rate, channels, streams, coupled_streams,
+                                                             opus_mapping, &err);
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to create decoder");
+        if (decoder != NULL) {
+            destroy_multistream_decoder(decoder);
+        }
+        return 0;
+    }
+
+    return (jlong) (uintptr_t) decoder;
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_setFrameSize0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jint frame_size
+) {
+    if (frame_size <= 0) {
+        char *message = string_format("Invalid frame size: %d", frame_size);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return;
+    }
+    MultistreamDecoder *decoder = get_multistream_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return;
+    }
+    decoder->frame_size = frame_size;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_getFrameSize0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer
+) {
+    const MultistreamDecoder *decoder = get_multistream_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    return decoder->frame_size;
+}
+
+jarray decode_multistream_array(
+    JNIEnv *env,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const bool float_pcm
+) {
+    const MultistreamDecoder *decoder = get_multistream_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return NULL;
+    }
+
+    jsize input_length = 0;
+    unsigned char *opus_input = NULL;
+    if (input != NULL) {
+        input_length = (*env)->GetArrayLength(env, input);
+        opus_input = (unsigned char *) (*env)->GetByteArrayElements(env, input, false);
+    }
+
+    const int output_length = decoder->frame_size * decoder->channels;
+
+    void *opus_output = calloc(output_length, pcm_sample_size(float_pcm));
+
+    const int result = decode_multistream_frame(decoder, opus_input, input_length, opus_output, float_pcm, false);
+
+    if (input != NULL) {
+        (*env)->ReleaseByteArrayElements(env, input, (jbyte *) opus_input, JNI_ABORT);
+    }
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to decode");
+        free(opus_output);
+        return NULL;
+    }
+
+    const int total_samples = result * decoder->channels;
+    jarray java_output;
+    if (float_pcm) {
+        java_output = (*env)->NewFloatArray(env, total_samples);
+        (*env)->SetFloatArrayRegion(env, java_output, 0, total_samples, opus_output);
+    } else {
+        java_output = (*env)->NewShortArray(env, total_samples);
+        (*env)->SetShortArrayRegion(env, java_output, 0, total_samples, opus_output);
+    }
+    free(opus_output);
+    return java_output;
+}
+
+JNIEXPORT jshortArray JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decode0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input
+) {
+    return decode_multistream_array(env, decoder_pointer, input, false);
+}
+
+JNIEXPORT jfloatArray JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decodeFloat0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input
+) {
+    return decode_multistream_array(env, decoder_pointer, input, true);
+}
+
+jint decode_multistream_into(
+    JNIEnv *env,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jint frames,
+    const jarray output,
+    const jint output_offset,
+    const jintArray frame_sizes,
+    const bool float_pcm
+) {
+    const MultistreamDecoder *decoder = get_multistream_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (input != NULL && !check_bounds(env, (*env)->GetArrayLength(env, input), input_offset, input_length)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset,
+                      (jlong) frames * (jlong) decoder->frame_size * (jlong) decoder->channels)) {
+        return 0;
+    }
+    if (frame_sizes != NULL && !check_bounds(env, (*env)->GetArrayLength(env, frame_sizes), 0, frames)) {
+        return 0;
+    }
+
+    const size_t sample_size = pcm_sample_size(float_pcm);
+    int total_samples = 0;
+    int result = 0;
+    for (int i = 0; i < frames; i++) {
+        const bool is_current = i == frames - 1;
+        // All frames but the last lost one use PLC, the last lost frame gets recovered using FEC
+        const bool is_fec = i == frames - 2;
+        // The critical regions are only held for a single frame, so the GC is not blocked for the whole recovery
+        jbyte *opus_input = NULL;
+        if (input != NULL && (is_current || is_fec)) {
+            opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+            if (opus_input == NULL) {
+                return 0;
+            }
+        }
+        char *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+        if (opus_output == NULL) {
+            if (opus_input != NULL) {
+                (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+            }
+            return 0;
+        }
+        result = decode_multistream_frame(decoder,
+                                          opus_input == NULL ? NULL : (unsigned char *) opus_input + input_offset,
+                                          opus_input == NULL ? 0 : input_length,
+                                          opus_output + (output_offset + (jlong) total_samples * decoder->channels) *
+                                          sample_size, float_pcm, is_fec);
+        (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+        if (opus_input != NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        }
+        if (result < 0) {
+            break;
+        }
+        if (frame_sizes != NULL) {
+            const jint frame_size = result;
+            (*env)->SetIntArrayRegion(env, frame_sizes, i, 1, &frame_size);
+        }
+        total_samples += result;
+    }
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to decode");
+        return 0;
+    }
+    return total_samples;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decodeInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jshortArray output,
+    const jint output_offset
+) {
+    return decode_multistream_into(env, decoder_pointer, input, input_offset, input_length, 1, output, output_offset,
+                                   NULL, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decodeFloatInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jfloatArray output,
+    const jint output_offset
+) {
+    return decode_multistream_into(env, decoder_pointer, input, input_offset, input_length, 1, output, output_offset,
+                                   NULL, true);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decodeRecoverInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jint frames,
+    const jshortArray output,
+    const jint output_offset,
+    const jintArray frame_sizes
+) {
+    if (frames <= 0) {
+        throw_illegal_argument_exception(env, "Frames must be greater than 0");
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Can't recover without input");
+        return 0;
+    }
+    return decode_multistream_into(env, decoder_pointer, input, input_offset, input_length, frames, output,
+                                   output_offset, frame_sizes, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decodeRecoverFloatInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jint frames,
+    const jfloatArray output,
+    const jint output_offset,
+    const jintArray frame_sizes
+) {
+    if (frames <= 0) {
+        throw_illegal_argument_exception(env, "Frames must be greater than 0");
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Can't recover without input");
+        return 0;
+    }
+    return decode_multistream_into(env, decoder_pointer, input, input_offset, input_length, frames, output,
+                                   output_offset, frame_sizes, true);
+}
+
+jint decode_multistream_direct(
+    JNIEnv *env,
+    const jlong decoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity,
+    const bool float_pcm
+) {
+    const MultistreamDecoder *decoder = get_multistream_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    const unsigned char *opus_input = NULL;
+    if (input != NULL) {
+        opus_input = get_direct_buffer_address(env, input, input_offset, input_length);
+        if (opus_input == NULL) {
+            return 0;
+        }
+    }
+    char *opus_output = get_direct_buffer_address(env, output, output_offset, output_capacity);
+    if (opus_output == NULL) {
+        return 0;
+    }
+    // The decoder writes a full frame, which must not exceed the limit of the buffer
+    if (!check_bounds(env, (jlong) output_offset + (jlong) output_capacity, output_offset,
+                      (jlong) decoder->frame_size * (jlong) decoder->channels)) {
+        return 0;
+    }
+
+    const int result = decode_multistream_frame(decoder, opus_input == NULL ? NULL : opus_input + input_offset,
+                                                opus_input == NULL ? 0 : input_length,
+                                                opus_output + output_offset * pcm_sample_size(float_pcm), float_pcm,
+                                                false);
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to decode");
+        return 0;
+    }
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decodeDirect0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return decode_multistream_direct(env, decoder_pointer, input, input_offset, input_length, output, output_offset,
+                                     output_capacity, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decodeFloatDirect0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return decode_multistream_direct(env, decoder_pointer, input, input_offset, input_length, output, output_offset,
+                                     output_capacity, true);
+}
+
+jint decode_multistream_batch(
+    JNIEnv *env,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jintArray packet_offsets,
+    const jintArray packet_lengths,
+    const jint packets,
+    const jarray output,
+    const jint output_offset,
+    const jintArray frame_sizes,
+    const bool float_pcm
+) {
+    if (packets <= 0) {
+        throw_illegal_argument_exception(env, "Packets must be greater than 0");
+        return 0;
+    }
+    const MultistreamDecoder *decoder = get_multistream_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Input must not be null");
+        return 0;
+    }
+    if (packet_offsets == NULL || packet_lengths == NULL) {
+        throw_illegal_argument_exception(env, "Packet offsets and lengths must not be null");
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, packet_offsets), 0, packets)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, packet_lengths), 0, packets)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset,
+                      (jlong) packets * (jlong) decoder->frame_size * (jlong) decoder->channels)) {
+        return 0;
+    }
+    if (frame_sizes != NULL && !check_bounds(env, (*env)->GetArrayLength(env, frame_sizes), 0, packets)) {
+        return 0;
+    }
+    const jsize input_length = (*env)->GetArrayLength(env, input);
+
+    // Both arrays are copied in one allocation, so no critical region is held outside of the individual decodes
+    jint *packet_info = malloc(sizeof(jint) * packets * 2);
+    if (packet_info == NULL) {
+        throw_runtime_exception(env, "Failed to allocate packet buffer");
+        return 0;
+    }
+    jint *opus_packet_offsets = packet_info;
+    jint *opus_packet_lengths = packet_info + packets;
+    (*env)->GetIntArrayRegion(env, packet_offsets, 0, packets, opus_packet_offsets);
+    (*env)->GetIntArrayRegion(env, packet_lengths, 0, packets, opus_packet_lengths);
+
+    // Validate all packets before decoding anything, so the decoder state is untouched if the batch is invalid
+    for (int i = 0; i < packets; i++) {
+        const jint offset = opus_packet_offsets[i];
+        const jint length = opus_packet_lengths[i];
+        if (offset < 0 || length < 0 || offset > input_length - length) {
+            free(packet_info);
+            check_bounds(env, input_length, offset, length);
+            return 0;
+        }
+    }
+
+    const size_t sample_size = pcm_sample_size(float_pcm);
+    int total_samples = 0;
+    int result = 0;
+    for (int i = 0; i < packets; i++) {
+        // The critical regions are only held for a single frame, so the GC is not blocked for the whole batch
+        jbyte *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+        if (opus_input == NULL) {
+            free(packet_info);
+            return 0;
+        }
+        char *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+        if (opus_output == NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+            free(packet_info);
+            return 0;
+        }
+        const jint length = opus_packet_lengths[i];
+        // Packets with a length of 0 are treated as lost and use PLC
+        result = decode_multistream_frame(decoder,
+                                          length == 0
+                                              ? NULL
+                                              : (unsigned char *) opus_input + opus_packet_offsets[i], length,
+                                          opus_output + (output_offset + (jlong) total_samples * decoder->channels) *
+                                          sample_size, float_pcm, false);
+        (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        if (result < 0) {
+            break;
+        }
+        // The packet info is not needed anymore, so the lengths are replaced by the frame sizes
+        opus_packet_lengths[i] = result;
+        total_samples += result;
+    }
+
+    if (result >= 0 && frame_sizes != NULL) {
+        (*env)->SetIntArrayRegion(env, frame_sizes, 0, packets, opus_packet_lengths);
+    }
+    free(packet_info);
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to decode");
+        return 0;
+    }
+    return total_samples;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decodeBatch0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jintArray packet_offsets,
+    const jintArray packet_lengths,
+    const jint packets,
+    const jshortArray output,
+    const jint output_offset,
+    const jintArray frame_sizes
+) {
+    return decode_multistream_batch(env, decoder_pointer, input, packet_offsets, packet_lengths, packets, output,
+                                    output_offset, frame_sizes, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_decodeFloatBatch0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer,
+    const jbyteArray input,
+    const jintArray packet_offsets,
+    const jintArray packet_lengths,
+    const jint packets,
+    const jfloatArray output,
+    const jint output_offset,
+    const jintArray frame_sizes
+) {
+    return decode_multistream_batch(env, decoder_pointer, input, packet_offsets, packet_lengths, packets, output,
+                                    output_offset, frame_sizes, true);
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_resetState0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer
+) {
+    const MultistreamDecoder *decoder = get_multistream_decoder(env, decoder_pointer);
+    if (decoder == NULL) {
+        return;
+    }
+    const int err = opus_multistream_decoder_ctl(decoder->decoder, OPUS_RESET_STATE);
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to reset state");
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamDecoder_destroyDecoder0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong decoder_pointer
+) {
+    if (decoder_pointer == 0) {
+        return;
+    }
+    MultistreamDecoder *decoder = (MultistreamDecoder *) (uintptr_t) decoder_pointer;
+    destroy_multistream_decoder(decoder);
+}
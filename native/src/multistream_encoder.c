@@ -0,0 +1,569 @@
+#include <float.h>
+#include <jni.h>
+#include <inttypes.h>
+#include <stdlib.h>
+#include <stdbool.h>
+#include <math.h>
+
+#include "opus_multistream.h"
+#include "encoder.h"
+#include "exceptions.h"
+#include "pcm.h"
+
+#define MS_DEFAULT_MAX_PAYLOAD_SIZE_PER_STREAM 1024
+#define MS_MAX_MAX_PAYLOAD_SIZE 16384
+
+typedef struct MultistreamEncoder {
+    OpusMSEncoder *encoder;
+    int channels;
+    int streams;
+    int coupled_streams;
+    jint max_payload_size;
+    jfloat packet_loss_perc;
+} MultistreamEncoder;
+
+/**
+ * @param sample_rate the sample rate
+ * @param channels the number of channels
+ * @param mapping_family the channel mapping family
+ * @param application the application
+ * @param mapping the mapping of the channels to the streams - needs to have room for channels entries
+ * @param error the error if the encoder could not be created
+ * @return the encoder or NULL if the encoder could not be created
+ */
+MultistreamEncoder *create_multistream_encoder(const opus_int32 sample_rate, const int channels,
+                                               const int mapping_family, const int application,
+                                               unsigned char *mapping, int *error) {
+    MultistreamEncoder *encoder = malloc(sizeof(MultistreamEncoder));
+    int err = 0;
+    encoder->encoder = opus_multistream_surround_encoder_create(sample_rate, channels, mapping_family,
+                                                                &encoder->streams, &encoder->coupled_streams,
+                                                                mapping, application, &err);
+    *error = err;
+    if (err < 0) {
+        free(encoder);
+        return NULL;
+    }
+
+    err = opus_multistream_encoder_ctl(encoder->encoder, OPUS_SET_INBAND_FEC(DEFAULT_INBAND_FEC));
+    if (err >= 0) {
+        err = opus_multistream_encoder_ctl(encoder->encoder, OPUS_SET_PACKET_LOSS_PERC(DEFAULT_PACKET_LOSS_PERC));
+    }
+    *error = err;
+    if (err < 0) {
+        opus_multistream_encoder_destroy(encoder->encoder);
+        free(encoder);
+        return NULL;
+    }
+    encoder->packet_loss_perc = (float) DEFAULT_PACKET_LOSS_PERC / 100.0f;
+    encoder->channels = channels;
+    encoder->max_payload_size = MS_DEFAULT_MAX_PAYLOAD_SIZE_PER_STREAM * encoder->streams;
+    if (encoder->max_payload_size > MS_MAX_MAX_PAYLOAD_SIZE) {
+        encoder->max_payload_size = MS_MAX_MAX_PAYLOAD_SIZE;
+    }
+    return encoder;
+}
+
+void destroy_multistream_encoder(MultistreamEncoder *encoder) {
+    opus_multistream_encoder_destroy(encoder->encoder);
+    free(encoder);
+}
+
+/**
+ * Gets the encoder from the encoder java object.
+ *
+ * @param env the JNI environment
+ * @param encoder_pointer the pointer to the encoder
+ * @return the encoder or NULL - If the encoder could not be retrieved, this will throw a runtime exception in Java
+ */
+MultistreamEncoder *get_multistream_encoder(JNIEnv *env, const jlong encoder_pointer) {
+    if (encoder_pointer == 0) {
+        throw_runtime_exception(env, "Encoder is closed");
+        return NULL;
+    }
+    return (MultistreamEncoder *) (uintptr_t) encoder_pointer;
+}
+
+/**
+ * Encodes a single frame.
+ *
+ * @param encoder the encoder
+ * @param pcm the first sample of the frame - either float or 16 bit
+ * @param float_pcm whether the PCM is float or 16 bit
+ * @param frame_size the number of samples per channel
+ * @param data the buffer to write the packet to
+ * @param max_data_bytes the size of the buffer
+ * @return the length of the packet or a negative opus error code
+ */
+int encode_multistream_frame(const MultistreamEncoder *encoder, const void *pcm, const bool float_pcm,
+                             const int frame_size, unsigned char *data, const opus_int32 max_data_bytes) {
+    if (float_pcm) {
+        return opus_multistream_encode_float(encoder->encoder, pcm, frame_size, data, max_data_bytes);
+    }
+    return opus_multistream_encode(encoder->encoder, pcm, frame_size, data, max_data_bytes);
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_createEncoder0(
+    JNIEnv *env,
+    jclass clazz,
+    const jint sample_rate,
+    const jint channels,
+    const jint mapping_family,
+    jobject application,
+    const jintArray stream_counts,
+    const jbyteArray mapping
+) {
+    if (channels < 1 || channels > 255) {
+        char *message = string_format("Invalid number of channels: %d", channels);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return 0;
+    }
+    const int opus_application = get_opus_application(env, application);
+
+    unsigned char opus_mapping[255];
+    int err = 0;
+    MultistreamEncoder *encoder = create_multistream_encoder(sample_rate, channels, mapping_family,
+                                                             opus_application, opus_mapping, &err);
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to create encoder");
+        if (encoder != NULL) {
+            destroy_multistream_encoder(encoder);
+        }
+        return 0;
+    }
+
+    const jint opus_stream_counts[2] = {encoder->streams, encoder->coupled_streams};
+    (*env)->SetIntArrayRegion(env, stream_counts, 0, 2, opus_stream_counts);
+    (*env)->SetByteArrayRegion(env, mapping, 0, channels, (jbyte *) opus_mapping);
+
+    return (jlong) (uintptr_t) encoder;
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_setMaxPayloadSize0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jint max_payload_size
+) {
+    if (max_payload_size <= 0) {
+        char *message = string_format("Invalid maximum payload size: %d", max_payload_size);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return;
+    }
+    if (max_payload_size > MS_MAX_MAX_PAYLOAD_SIZE) {
+        char *message = string_format("Maximum payload size too large: %d", max_payload_size);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return;
+    }
+    MultistreamEncoder *encoder = get_multistream_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return;
+    }
+    encoder->max_payload_size = max_payload_size;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_getMaxPayloadSize0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer
+) {
+    const MultistreamEncoder *encoder = get_multistream_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0;
+    }
+    return encoder->max_payload_size;
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_setMaxPacketLossPercentage0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jfloat packet_loss_perc
+) {
+    if (isnan(packet_loss_perc) || isinf(packet_loss_perc) || packet_loss_perc < 0.0f || packet_loss_perc > 1.0f || (
+            packet_loss_perc > 0.0f && packet_loss_perc < FLT_MIN)) {
+        char *message = string_format("Invalid max packet loss percentage: %g", packet_loss_perc);
+        throw_illegal_argument_exception(env, message);
+        free(message);
+        return;
+    }
+    MultistreamEncoder *encoder = get_multistream_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return;
+    }
+    encoder->packet_loss_perc = packet_loss_perc;
+    opus_multistream_encoder_ctl(encoder->encoder, OPUS_SET_PACKET_LOSS_PERC((opus_int32) (packet_loss_perc * 100.0f)));
+}
+
+JNIEXPORT jfloat JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_getMaxPacketLossPercentage0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer
+) {
+    const MultistreamEncoder *encoder = get_multistream_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0.0f;
+    }
+    return encoder->packet_loss_perc;
+}
+
+jbyteArray encode_multistream_array(
+    JNIEnv *env,
+    const jlong encoder_pointer,
+    const jarray input,
+    const bool float_pcm
+) {
+    const MultistreamEncoder *encoder = get_multistream_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return NULL;
+    }
+    const jint input_length = (*env)->GetArrayLength(env, input);
+
+    unsigned char output[MS_MAX_MAX_PAYLOAD_SIZE];
+
+    void *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+    if (opus_input == NULL) {
+        return NULL;
+    }
+    const int result = encode_multistream_frame(encoder, opus_input, float_pcm, input_length / encoder->channels,
+                                                output, encoder->max_payload_size);
+    (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to encode");
+        return NULL;
+    }
+    const jbyteArray java_output = (*env)->NewByteArray(env, result);
+    (*env)->SetByteArrayRegion(env, java_output, 0, result, (jbyte *) output);
+    return java_output;
+}
+
+JNIEXPORT jbyteArray JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_encode0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jshortArray input
+) {
+    return encode_multistream_array(env, encoder_pointer, input, false);
+}
+
+JNIEXPORT jbyteArray JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_encodeFloat0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jfloatArray input
+) {
+    return encode_multistream_array(env, encoder_pointer, input, true);
+}
+
+jint encode_multistream_into(
+    JNIEnv *env,
+    const jlong encoder_pointer,
+    const jarray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity,
+    const bool float_pcm
+) {
+    const MultistreamEncoder *encoder = get_multistream_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Input must not be null");
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, input), input_offset,
+                      (jlong) frame_size * (jlong) encoder->channels)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset, output_capacity)) {
+        return 0;
+    }
+    const jint max_payload_size = output_capacity < encoder->max_payload_size
+                                      ? output_capacity
+                                      : encoder->max_payload_size;
+
+    char *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+    if (opus_input == NULL) {
+        return 0;
+    }
+    jbyte *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+    if (opus_output == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        return 0;
+    }
+
+    const int result = encode_multistream_frame(encoder, opus_input + input_offset * pcm_sample_size(float_pcm),
+                                                float_pcm, frame_size, (unsigned char *) opus_output + output_offset,
+                                                max_payload_size);
+
+    (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to encode");
+        return 0;
+    }
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_encodeInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jshortArray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return encode_multistream_into(env, encoder_pointer, input, input_offset, frame_size, output, output_offset,
+                                   output_capacity, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_encodeFloatInto0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jfloatArray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return encode_multistream_into(env, encoder_pointer, input, input_offset, frame_size, output, output_offset,
+                                   output_capacity, true);
+}
+
+jint encode_multistream_direct(
+    JNIEnv *env,
+    const jlong encoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity,
+    const bool float_pcm
+) {
+    const MultistreamEncoder *encoder = get_multistream_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0;
+    }
+    const char *opus_input = get_direct_buffer_address(env, input, input_offset, input_length);
+    if (opus_input == NULL) {
+        return 0;
+    }
+    unsigned char *opus_output = get_direct_buffer_address(env, output, output_offset, output_capacity);
+    if (opus_output == NULL) {
+        return 0;
+    }
+    const jint max_payload_size = output_capacity < encoder->max_payload_size
+                                      ? output_capacity
+                                      : encoder->max_payload_size;
+
+    const int result = encode_multistream_frame(encoder, opus_input + input_offset * pcm_sample_size(float_pcm),
+                                                float_pcm, input_length / encoder->channels,
+                                                opus_output + output_offset, max_payload_size);
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to encode");
+        return 0;
+    }
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_encodeDirect0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return encode_multistream_direct(env, encoder_pointer, input, input_offset, input_length, output, output_offset,
+                                     output_capacity, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_encodeFloatDirect0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    jobject input,
+    const jint input_offset,
+    const jint input_length,
+    jobject output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    return encode_multistream_direct(env, encoder_pointer, input, input_offset, input_length, output, output_offset,
+                                     output_capacity, true);
+}
+
+jint encode_multistream_batch(
+    JNIEnv *env,
+    const jlong encoder_pointer,
+    const jarray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jint frames,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity,
+    const jintArray packet_lengths,
+    const bool float_pcm
+) {
+    if (frames <= 0) {
+        throw_illegal_argument_exception(env, "Frames must be greater than 0");
+        return 0;
+    }
+    const MultistreamEncoder *encoder = get_multistream_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Input must not be null");
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (packet_lengths == NULL) {
+        throw_illegal_argument_exception(env, "Packet lengths must not be null");
+        return 0;
+    }
+    const jlong frame_length = (jlong) frame_size * (jlong) encoder->channels;
+    if (!check_bounds(env, (*env)->GetArrayLength(env, input), input_offset, frame_length * frames)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset, output_capacity)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, packet_lengths), 0, frames)) {
+        return 0;
+    }
+
+    jint *opus_packet_lengths = malloc(sizeof(jint) * frames);
+    if (opus_packet_lengths == NULL) {
+        throw_runtime_exception(env, "Failed to allocate packet length buffer");
+        return 0;
+    }
+
+    const size_t sample_size = pcm_sample_size(float_pcm);
+    jint total_length = 0;
+    int result = 0;
+    for (int i = 0; i < frames; i++) {
+        // The critical regions are only held for a single frame, so the GC is not blocked for the whole batch
+        char *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+        if (opus_input == NULL) {
+            free(opus_packet_lengths);
+            return 0;
+        }
+        jbyte *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+        if (opus_output == NULL) {
+            (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+            free(opus_packet_lengths);
+            return 0;
+        }
+        const jint remaining = output_capacity - total_length;
+        result = encode_multistream_frame(encoder, opus_input + (input_offset + frame_length * i) * sample_size,
+                                          float_pcm, frame_size,
+                                          (unsigned char *) opus_output + output_offset + total_length,
+                                          remaining < encoder->max_payload_size
+                                              ? remaining
+                                              : encoder->max_payload_size);
+        (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, result < 0 ? JNI_ABORT : 0);
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        if (result < 0) {
+            break;
+        }
+        opus_packet_lengths[i] = result;
+        total_length += result;
+    }
+
+    if (result >= 0) {
+        (*env)->SetIntArrayRegion(env, packet_lengths, 0, frames, opus_packet_lengths);
+    }
+    free(opus_packet_lengths);
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to encode");
+        return 0;
+    }
+    return total_length;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_encodeBatch0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jshortArray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jint frames,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity,
+    const jintArray packet_lengths
+) {
+    return encode_multistream_batch(env, encoder_pointer, input, input_offset, frame_size, frames, output,
+                                    output_offset, output_capacity, packet_lengths, false);
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_encodeFloatBatch0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer,
+    const jfloatArray input,
+    const jint input_offset,
+    const jint frame_size,
+    const jint frames,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity,
+    const jintArray packet_lengths
+) {
+    return encode_multistream_batch(env, encoder_pointer, input, input_offset, frame_size, frames, output,
+                                    output_offset, output_capacity, packet_lengths, true);
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_resetState0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer
+) {
+    const MultistreamEncoder *encoder = get_multistream_encoder(env, encoder_pointer);
+    if (encoder == NULL) {
+        return;
+    }
+    const int err = opus_multistream_encoder_ctl(encoder->encoder, OPUS_RESET_STATE);
+    if (err < 0) {
+        throw_opus_io_exception(env, err, "Failed to reset state");
+    }
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusMultistreamEncoder_destroyEncoder0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong encoder_pointer
+) {
+    if (encoder_pointer == 0) {
+        return;
+    }
+    MultistreamEncoder *encoder = (MultistreamEncoder *) (uintptr_t) encoder_pointer;
+    destroy_multistream_encoder(encoder);
+}
@@ -0,0 +1,249 @@
+#include <inttypes.h>
+#include <jni.h>
+#include <stdbool.h>
+#include <stdlib.h>
+
+#include "exceptions.h"
+#include "opus.h"
+
+/**
+ * Gets the repacketizer from the repacketizer java object.
+ *
+ * @param env the JNI environment
+ * @param repacketizer_pointer the pointer to the repacketizer
+ * @return the repacketizer or NULL - If the repacketizer could not be retrieved, this will throw a runtime exception in Java
+ */
+OpusRepacketizer *get_repacketizer(JNIEnv *env, const jlong repacketizer_pointer) {
+    if (repacketizer_pointer == 0) {
+        throw_runtime_exception(env, "Repacketizer is closed");
+        return NULL;
+    }
+    return (OpusRepacketizer *) (uintptr_t) repacketizer_pointer;
+}
+
+JNIEXPORT jlong JNICALL Java_de_maxhenkel_opus4j_OpusRepacketizer_createRepacketizer0(
+    JNIEnv *env,
+    jclass clazz
+) {
+    OpusRepacketizer *repacketizer = opus_repacketizer_create();
+    if (repacketizer == NULL) {
+        throw_runtime_exception(env, "Failed to allocate repacketizer");
+        return 0;
+    }
+    return (jlong) (uintptr_t) repacketizer;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusRepacketizer_merge0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong repacketizer_pointer,
+    const jbyteArray input,
+    const jintArray packet_offsets,
+    const jintArray packet_lengths,
+    const jint packets,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity
+) {
+    if (packets <= 0) {
+        throw_illegal_argument_exception(env, "Packets must be greater than 0");
+        return 0;
+    }
+    OpusRepacketizer *repacketizer = get_repacketizer(env, repacketizer_pointer);
+    if (repacketizer == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Input must not be null");
+        return 0;
+    }
+    if (packet_offsets == NULL || packet_lengths == NULL) {
+        throw_illegal_argument_exception(env, "Packet offsets and lengths must not be null");
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, packet_offsets), 0, packets)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, packet_lengths), 0, packets)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset, output_capacity)) {
+        return 0;
+    }
+    const jsize input_length = (*env)->GetArrayLength(env, input);
+
+    jint *opus_packet_offsets = (*env)->GetPrimitiveArrayCritical(env, packet_offsets, NULL);
+    if (opus_packet_offsets == NULL) {
+        return 0;
+    }
+    jint *opus_packet_lengths = (*env)->GetPrimitiveArrayCritical(env, packet_lengths, NULL);
+    if (opus_packet_lengths == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, packet_offsets, opus_packet_offsets, JNI_ABORT);
+        return 0;
+    }
+
+    int invalid_packet = -1;
+    for (int i = 0; i < packets; i++) {
+        const jint offset = opus_packet_offsets[i];
+        const jint length = opus_packet_lengths[i];
+        if (offset < 0 || length < 0 || offset > input_length - length) {
+            invalid_packet = i;
+            break;
+        }
+    }
+    if (invalid_packet >= 0) {
+        const jint offset = opus_packet_offsets[invalid_packet];
+        const jint length = opus_packet_lengths[invalid_packet];
+        (*env)->ReleasePrimitiveArrayCritical(env, packet_lengths, opus_packet_lengths, JNI_ABORT);
+        (*env)->ReleasePrimitiveArrayCritical(env, packet_offsets, opus_packet_offsets, JNI_ABORT);
+        check_bounds(env, input_length, offset, length);
+        return 0;
+    }
+
+    // The repacketizer keeps pointers into the input, so it needs to stay pinned until the output is written
+    jbyte *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+    if (opus_input == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, packet_lengths, opus_packet_lengths, JNI_ABORT);
+        (*env)->ReleasePrimitiveArrayCritical(env, packet_offsets, opus_packet_offsets, JNI_ABORT);
+        return 0;
+    }
+    jbyte *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+    if (opus_output == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        (*env)->ReleasePrimitiveArrayCritical(env, packet_lengths, opus_packet_lengths, JNI_ABORT);
+        (*env)->ReleasePrimitiveArrayCritical(env, packet_offsets, opus_packet_offsets, JNI_ABORT);
+        return 0;
+    }
+
+    opus_repacketizer_init(repacketizer);
+    int result = OPUS_OK;
+    for (int i = 0; i < packets; i++) {
+        result = opus_repacketizer_cat(repacketizer, (unsigned char *) opus_input + opus_packet_offsets[i],
+                                       opus_packet_lengths[i]);
+        if (result < 0) {
+            break;
+        }
+    }
+    if (result >= 0) {
+        result = opus_repacketizer_out(repacketizer, (unsigned char *) opus_output + output_offset, output_capacity);
+    }
+    // Don't keep dangling pointers into the released input
+    opus_repacketizer_init(repacketizer);
+
+    (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+    (*env)->ReleasePrimitiveArrayCritical(env, packet_lengths, opus_packet_lengths, JNI_ABORT);
+    (*env)->ReleasePrimitiveArrayCritical(env, packet_offsets, opus_packet_offsets, JNI_ABORT);
+
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to merge packets");
+        return 0;
+    }
+    return result;
+}
+
+JNIEXPORT jint JNICALL Java_de_maxhenkel_opus4j_OpusRepacketizer_split0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong repacketizer_pointer,
+    const jbyteArray input,
+    const jint input_offset,
+    const jint input_length,
+    const jbyteArray output,
+    const jint output_offset,
+    const jint output_capacity,
+    const jintArray packet_lengths
+) {
+    OpusRepacketizer *repacketizer = get_repacketizer(env, repacketizer_pointer);
+    if (repacketizer == NULL) {
+        return 0;
+    }
+    if (input == NULL) {
+        throw_illegal_argument_exception(env, "Input must not be null");
+        return 0;
+    }
+    if (output == NULL) {
+        throw_illegal_argument_exception(env, "Output must not be null");
+        return 0;
+    }
+    if (packet_lengths == NULL) {
+        throw_illegal_argument_exception(env, "Packet lengths must not be null");
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, input), input_offset, input_length)) {
+        return 0;
+    }
+    if (!check_bounds(env, (*env)->GetArrayLength(env, output), output_offset, output_capacity)) {
+        return 0;
+    }
+    const jsize packet_lengths_length = (*env)->GetArrayLength(env, packet_lengths);
+
+    jbyte *opus_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+    if (opus_input == NULL) {
+        return 0;
+    }
+    jbyte *opus_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+    if (opus_output == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        return 0;
+    }
+    jint *opus_packet_lengths = (*env)->GetPrimitiveArrayCritical(env, packet_lengths, NULL);
+    if (opus_packet_lengths == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, JNI_ABORT);
+        (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+        return 0;
+    }
+
+    opus_repacketizer_init(repacketizer);
+    int result = opus_repacketizer_cat(repacketizer, (unsigned char *) opus_input + input_offset, input_length);
+    int frames = 0;
+    bool too_many_frames = false;
+    if (result >= 0) {
+        frames = opus_repacketizer_get_nb_frames(repacketizer);
+        if (frames > packet_lengths_length) {
+            too_many_frames = true;
+        } else {
+            opus_int32 written = 0;
+            for (int i = 0; i < frames; i++) {
+                result = opus_repacketizer_out_range(repacketizer, i, i + 1,
+                                                     (unsigned char *) opus_output + output_offset + written,
+                                                     output_capacity - written);
+                if (result < 0) {
+                    break;
+                }
+                opus_packet_lengths[i] = result;
+                written += result;
+            }
+        }
+    }
+    opus_repacketizer_init(repacketizer);
+
+    (*env)->ReleasePrimitiveArrayCritical(env, packet_lengths, opus_packet_lengths, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, output, opus_output, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, input, opus_input, JNI_ABORT);
+
+    if (too_many_frames) {
+        check_bounds(env, packet_lengths_length, 0, frames);
+        return 0;
+    }
+    if (result < 0) {
+        throw_opus_io_exception(env, result, "Failed to split packet");
+        return 0;
+    }
+    return frames;
+}
+
+JNIEXPORT void JNICALL Java_de_maxhenkel_opus4j_OpusRepacketizer_destroyRepacketizer0(
+    JNIEnv *env,
+    jobject obj,
+    const jlong repacketizer_pointer
+) {
+    if (repacketizer_pointer == 0) {
+        return;
+    }
+    opus_repacketizer_destroy((OpusRepacketizer *) (uintptr_t) repacketizer_pointer);
+}
@@ -0,0 +1,44 @@
+package de.maxhenkel.opus4j;
+
+import java.util.Random;
+
+/**
+ * Deterministic test signals for the benchmarks.
+ */
+final class BenchmarkAudio {
+
+    private BenchmarkAudio() {
+
+    }
+
+    /**
+     * @param sampleRate    the sample rate
+     * @param frameDuration the frame duration in milliseconds
+     * @return the number of samples per channel of a frame
+     */
+    static int frameSize(int sampleRate, String frameDuration) {
+        return (int) (sampleRate * Double.parseDouble(frameDuration) / 1000D);
+    }
+
+    /**
+     * Creates interleaved audio with a mix of two tones and some noise, so the encoder doesn't take any silence shortcuts.
+     *
+     * @param sampleRate the sample rate
+     * @param channels   the number of channels
+     * @param samples    the number of samples per channel
+     * @return the interleaved audio
+     */
+    static short[] signal(int sampleRate, int channels, int samples) {
+        Random random = new Random(0);
+        short[] audio = new short[samples * channels];
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / (double) sampleRate;
+            double value = Math.sin(t * 2D * Math.PI * 440D) * 6000D + Math.sin(t * 2D * Math.PI * 1250D) * 3000D;
+            for (int c = 0; c < channels; c++) {
+                audio[i * channels + c] = (short) (value + random.nextGaussian() * 500D);
+            }
+        }
+        return audio;
+    }
+
+}
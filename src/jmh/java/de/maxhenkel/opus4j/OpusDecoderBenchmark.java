@@ -0,0 +1,96 @@
+package de.maxhenkel.opus4j;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpusDecoderBenchmark {
+
+    private static final int FRAMES = 50;
+
+    @Param({"8000", "12000", "16000", "24000", "48000"})
+    public int sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    @Param({"2.5", "5", "10", "20", "40", "60"})
+    public String frameDuration;
+
+    private OpusDecoder decoder;
+    private int frameSize;
+    private byte[][] packets;
+    private short[] output;
+    private int packet;
+
+    @Setup
+    public void setup() throws Exception {
+        frameSize = BenchmarkAudio.frameSize(sampleRate, frameDuration);
+        short[] audio = BenchmarkAudio.signal(sampleRate, channels, frameSize * FRAMES);
+        packets = new byte[FRAMES][];
+        try (OpusEncoder encoder = new OpusEncoder(sampleRate, channels, OpusEncoder.Application.VOIP)) {
+            // Makes the encoder include LBRR data, so the FEC benchmark actually recovers frames
+            encoder.setMaxPacketLossPercentage(0.2F);
+            byte[] buffer = new byte[encoder.getMaxPayloadSize()];
+            for (int i = 0; i < FRAMES; i++) {
+                int length = encoder.encode(audio, i * frameSize * channels, frameSize, buffer, 0, buffer.length);
+                packets[i] = new byte[length];
+                System.arraycopy(buffer, 0, packets[i], 0, length);
+            }
+        }
+        decoder = new OpusDecoder(sampleRate, channels);
+        decoder.setFrameSize(frameSize);
+        output = new short[frameSize * channels];
+    }
+
+    @TearDown
+    public void tearDown() {
+        decoder.close();
+    }
+
+    private byte[] nextPacket() {
+        byte[] current = packets[packet];
+        packet = (packet + 1) % FRAMES;
+        return current;
+    }
+
+    /**
+     * Decodes a packet into a newly allocated array.
+     */
+    @Benchmark
+    public short[] decode() {
+        return decoder.decode(nextPacket());
+    }
+
+    /**
+     * Decodes a packet into a preallocated array.
+     */
+    @Benchmark
+    public int decodeInto() {
+        byte[] current = nextPacket();
+        return decoder.decode(current, 0, current.length, output, 0);
+    }
+
+    /**
+     * Decodes a packet and recovers the previous frame using in-band FEC.
+     */
+    @Benchmark
+    public short[][] decodeFec() {
+        return decoder.decode(nextPacket(), 2);
+    }
+
+    /**
+     * Does packet loss concealment for a lost packet.
+     */
+    @Benchmark
+    public int decodePlc() {
+        return decoder.decode(null, 0, 0, output, 0);
+    }
+
+}
@@ -0,0 +1,89 @@
+package de.maxhenkel.opus4j;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpusEncoderBenchmark {
+
+    private static final int FRAMES = 50;
+    private static final int BATCH = 10;
+
+    @Param({"8000", "12000", "16000", "24000", "48000"})
+    public int sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    @Param({"2.5", "5", "10", "20", "40", "60"})
+    public String frameDuration;
+
+    private OpusEncoder encoder;
+    private int frameSize;
+    private short[] audio;
+    private short[][] frames;
+    private byte[] packet;
+    private byte[] batchOutput;
+    private int[] batchLengths;
+    private int frame;
+
+    @Setup
+    public void setup() throws Exception {
+        encoder = new OpusEncoder(sampleRate, channels, OpusEncoder.Application.AUDIO);
+        frameSize = BenchmarkAudio.frameSize(sampleRate, frameDuration);
+        audio = BenchmarkAudio.signal(sampleRate, channels, frameSize * FRAMES);
+        frames = new short[FRAMES][];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = new short[frameSize * channels];
+            System.arraycopy(audio, i * frameSize * channels, frames[i], 0, frameSize * channels);
+        }
+        packet = new byte[encoder.getMaxPayloadSize()];
+        batchOutput = new byte[encoder.getMaxPayloadSize() * BATCH];
+        batchLengths = new int[BATCH];
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoder.close();
+    }
+
+    private int nextFrame() {
+        int current = frame;
+        frame = (frame + 1) % FRAMES;
+        return current;
+    }
+
+    /**
+     * Encodes a frame into a newly allocated packet array.
+     */
+    @Benchmark
+    public byte[] encode() {
+        return encoder.encode(frames[nextFrame()]);
+    }
+
+    /**
+     * Encodes a frame into a preallocated packet array.
+     */
+    @Benchmark
+    public int encodeInto() {
+        return encoder.encode(audio, nextFrame() * frameSize * channels, frameSize, packet, 0, packet.length);
+    }
+
+    /**
+     * Encodes multiple frames with a single native call.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int encodeBatch() {
+        int start = frame;
+        frame = (frame + BATCH) % (FRAMES - BATCH);
+        return encoder.encodeBatch(audio, start * frameSize * channels, frameSize, BATCH, batchOutput, 0, batchOutput.length, batchLengths);
+    }
+
+}
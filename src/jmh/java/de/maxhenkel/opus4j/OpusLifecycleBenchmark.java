@@ -0,0 +1,39 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpusLifecycleBenchmark {
+
+    @Param({"8000", "12000", "16000", "24000", "48000"})
+    public int sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    /**
+     * Creates and closes an encoder.
+     */
+    @Benchmark
+    public void createEncoder() throws IOException, UnknownPlatformException {
+        new OpusEncoder(sampleRate, channels, OpusEncoder.Application.AUDIO).close();
+    }
+
+    /**
+     * Creates and closes a decoder.
+     */
+    @Benchmark
+    public void createDecoder() throws IOException, UnknownPlatformException {
+        new OpusDecoder(sampleRate, channels).close();
+    }
+
+}
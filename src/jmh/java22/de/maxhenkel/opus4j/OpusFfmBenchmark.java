@@ -0,0 +1,149 @@
+package de.maxhenkel.opus4j;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * Compares the JNI codecs with the codecs that call opus through the FFM API.
+ * <br>
+ * Only compiled and run with <code>-Pjava22_benchmarks=true</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpusFfmBenchmark {
+
+    private static final int FRAMES = 50;
+
+    @Param({"16000", "48000"})
+    public int sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    @Param({"10", "20"})
+    public String frameDuration;
+
+    private OpusEncoder encoder;
+    private OpusDecoder decoder;
+    private OpusFfmEncoder<MemorySegment> ffmEncoder;
+    private OpusFfmDecoder<MemorySegment> ffmDecoder;
+    private Arena arena;
+    private int frameSize;
+    private short[] audio;
+    private byte[][] packets;
+    private byte[] packet;
+    private short[] output;
+    private MemorySegment nativeAudio;
+    private MemorySegment[] nativePackets;
+    private MemorySegment nativePacket;
+    private MemorySegment nativeOutput;
+    private int frame;
+
+    @Setup
+    public void setup() throws Exception {
+        encoder = new OpusEncoder(sampleRate, channels, OpusEncoder.Application.AUDIO);
+        decoder = new OpusDecoder(sampleRate, channels);
+        ffmEncoder = OpusFfm.createEncoder(sampleRate, channels, OpusEncoder.Application.AUDIO);
+        ffmDecoder = OpusFfm.createDecoder(sampleRate, channels);
+        arena = Arena.ofConfined();
+        frameSize = BenchmarkAudio.frameSize(sampleRate, frameDuration);
+        audio = BenchmarkAudio.signal(sampleRate, channels, frameSize * FRAMES);
+        packet = new byte[encoder.getMaxPayloadSize()];
+        output = new short[frameSize * channels];
+
+        packets = new byte[FRAMES][];
+        nativePackets = new MemorySegment[FRAMES];
+        try (OpusEncoder packetEncoder = new OpusEncoder(sampleRate, channels, OpusEncoder.Application.AUDIO)) {
+            for (int i = 0; i < FRAMES; i++) {
+                int length = packetEncoder.encode(audio, i * frameSize * channels, frameSize, packet, 0, packet.length);
+                packets[i] = new byte[length];
+                System.arraycopy(packet, 0, packets[i], 0, length);
+                nativePackets[i] = arena.allocate(length);
+                MemorySegment.copy(MemorySegment.ofArray(packets[i]), 0L, nativePackets[i], 0L, length);
+            }
+        }
+        nativeAudio = arena.allocate(JAVA_SHORT, audio.length);
+        MemorySegment.copy(MemorySegment.ofArray(audio), 0L, nativeAudio, 0L, nativeAudio.byteSize());
+        nativePacket = arena.allocate(packet.length);
+        nativeOutput = arena.allocate(JAVA_SHORT, output.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoder.close();
+        decoder.close();
+        ffmEncoder.close();
+        ffmDecoder.close();
+        arena.close();
+    }
+
+    private int nextFrame() {
+        int current = frame;
+        frame = (frame + 1) % FRAMES;
+        return current;
+    }
+
+    private long frameBytes() {
+        return (long) frameSize * channels * Short.BYTES;
+    }
+
+    /**
+     * Encodes a frame with JNI into a preallocated packet array.
+     */
+    @Benchmark
+    public int jniEncode() {
+        return encoder.encode(audio, nextFrame() * frameSize * channels, frameSize, packet, 0, packet.length);
+    }
+
+    /**
+     * Encodes a frame with FFM from a heap array into a heap array without copying.
+     */
+    @Benchmark
+    public int ffmEncodeHeap() {
+        MemorySegment input = MemorySegment.ofArray(audio).asSlice(nextFrame() * frameBytes(), frameBytes());
+        return ffmEncoder.encode(input, MemorySegment.ofArray(packet));
+    }
+
+    /**
+     * Encodes a frame with FFM from native memory into native memory.
+     */
+    @Benchmark
+    public int ffmEncodeNative() {
+        return ffmEncoder.encode(nativeAudio.asSlice(nextFrame() * frameBytes(), frameBytes()), nativePacket);
+    }
+
+    /**
+     * Decodes a packet with JNI into a preallocated array.
+     */
+    @Benchmark
+    public int jniDecode() {
+        byte[] input = packets[nextFrame()];
+        return decoder.decode(input, 0, input.length, output, 0);
+    }
+
+    /**
+     * Decodes a packet with FFM from a heap array into a heap array without copying.
+     */
+    @Benchmark
+    public int ffmDecodeHeap() {
+        return ffmDecoder.decode(MemorySegment.ofArray(packets[nextFrame()]), MemorySegment.ofArray(output));
+    }
+
+    /**
+     * Decodes a packet with FFM from native memory into native memory.
+     */
+    @Benchmark
+    public int ffmDecodeNative() {
+        return ffmDecoder.decode(nativePackets[nextFrame()], nativeOutput);
+    }
+
+}
@@ -0,0 +1,37 @@
+package de.maxhenkel.opus4j;
+
+public enum Bandwidth {
+    NARROWBAND(1101, 4000),
+    MEDIUMBAND(1102, 6000),
+    WIDEBAND(1103, 8000),
+    SUPERWIDEBAND(1104, 12000),
+    FULLBAND(1105, 20000);
+
+    private final int value;
+    private final int cutoffFrequency;
+
+    Bandwidth(int value, int cutoffFrequency) {
+        this.value = value;
+        this.cutoffFrequency = cutoffFrequency;
+    }
+
+    /**
+     * @return the audio bandwidth in Hz
+     */
+    public int getCutoffFrequency() {
+        return cutoffFrequency;
+    }
+
+    int getValue() {
+        return value;
+    }
+
+    static Bandwidth fromValue(int value) {
+        for (Bandwidth bandwidth : values()) {
+            if (bandwidth.value == value) {
+                return bandwidth;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Invalid bandwidth: %d", value));
+    }
+}
@@ -0,0 +1,106 @@
+package de.maxhenkel.opus4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Guards the native state of a codec.
+ * <br>
+ * Shared codecs use a {@link ReentrantLock}, so virtual threads that wait for a codec don't pin their carrier thread,
+ * which <code>synchronized</code> does before Java 24.
+ * A virtual thread is still pinned while the native call itself is running, regardless of the lock.
+ * Thread confined codecs don't lock at all and only check that they are used by the thread that created them.
+ * <br>
+ * Only methods that touch the native state take the lock.
+ * <code>isClosed()</code> and <code>toString()</code> read the pointer from a volatile field instead, so they work on
+ * any thread, even for thread confined codecs.
+ */
+abstract class CodecLock {
+
+    private static final AtomicLong NEXT_ORDER = new AtomicLong();
+
+    private final long order = NEXT_ORDER.getAndIncrement();
+
+    static CodecLock shared() {
+        return new Shared();
+    }
+
+    static CodecLock confined() {
+        return new Confined(Thread.currentThread());
+    }
+
+    abstract void lock();
+
+    abstract void unlock();
+
+    abstract boolean isThreadConfined();
+
+    /**
+     * @return <code>true</code> if {@link #lock()} doesn't throw on the calling thread
+     */
+    abstract boolean isAccessible();
+
+    /**
+     * Code that holds multiple codec locks at once needs to acquire them in ascending order to avoid deadlocks.
+     *
+     * @return the unique position of this lock in the global lock order
+     */
+    long getOrder() {
+        return order;
+    }
+
+    private static final class Shared extends CodecLock {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        @Override
+        void lock() {
+            lock.lock();
+        }
+
+        @Override
+        void unlock() {
+            lock.unlock();
+        }
+
+        @Override
+        boolean isThreadConfined() {
+            return false;
+        }
+
+        @Override
+        boolean isAccessible() {
+            return true;
+        }
+    }
+
+    private static final class Confined extends CodecLock {
+        private final Thread owner;
+
+        private Confined(Thread owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        void lock() {
+            if (Thread.currentThread() != owner) {
+                throw new IllegalStateException(String.format("Codec is confined to thread %s", owner.getName()));
+            }
+        }
+
+        @Override
+        void unlock() {
+
+        }
+
+        @Override
+        boolean isThreadConfined() {
+            return true;
+        }
+
+        @Override
+        boolean isAccessible() {
+            return Thread.currentThread() == owner;
+        }
+    }
+
+}
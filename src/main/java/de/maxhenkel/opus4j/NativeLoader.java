@@ -0,0 +1,341 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.NativeInitializer;
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Loads the native library once, so creating codecs doesn't need a global lock after the first load.
+ * <br>
+ * The library is extracted to a directory named after the hash of its content, so it is only written once per version
+ * and reused by later JVM starts.
+ * The hash is computed at build time and shipped next to the library with the suffix {@value #HASH_SUFFIX}.
+ * A cached library is only loaded if its content still matches that hash.
+ * The default cache directory is specific to the user and, on POSIX file systems, only accessible by its owner.
+ * If the cache directory can't be secured, the library is extracted to a private temporary file instead.
+ * If the bundled library can't be found or extracted, loading falls back to {@link NativeInitializer}.
+ */
+final class NativeLoader {
+
+    static final String LIBRARY_NAME = "libopus4j";
+    static final String HASH_SUFFIX = ".sha256";
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    private static volatile boolean loaded;
+    @Nullable
+    private static Path libraryPath;
+    private static boolean cached;
+    private static long loadTimeNanos = -1L;
+
+    private NativeLoader() {
+
+    }
+
+    static void load() throws IOException, UnknownPlatformException {
+        if (loaded) {
+            return;
+        }
+        synchronized (NativeLoader.class) {
+            if (loaded) {
+                return;
+            }
+            long startTime = System.nanoTime();
+            Path path = null;
+            String resource = getResourcePath(System.getProperty("os.name"), System.getProperty("os.arch"));
+            if (resource != null) {
+                try {
+                    path = extract(resource);
+                } catch (IOException e) {
+                    // The library could not be extracted at all, so let the native initializer extract it
+                    path = null;
+                }
+            }
+            if (path == null) {
+                NativeInitializer.load(LIBRARY_NAME);
+            } else {
+                System.load(path.toAbsolutePath().toString());
+            }
+            libraryPath = path;
+            loadTimeNanos = System.nanoTime() - startTime;
+            loaded = true;
+        }
+    }
+
+    static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return the path the library was loaded from or <code>null</code> if it was loaded by {@link NativeInitializer}
+     */
+    @Nullable
+    static synchronized Path getLibraryPath() {
+        return libraryPath;
+    }
+
+    /**
+     * @return <code>true</code> if the library was already extracted by a previous JVM start
+     */
+    static synchronized boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * @return the time it took to extract and load the library or <code>-1</code> if it is not loaded yet
+     */
+    static synchronized long getLoadTimeNanos() {
+        return loadTimeNanos;
+    }
+
+    /**
+     * @return the path of the library in the resources or <code>null</code> if the platform is unknown
+     */
+    @Nullable
+    static String getResourcePath(@Nullable String osName, @Nullable String osArch) {
+        if (osName == null || osArch == null) {
+            return null;
+        }
+        String os = osName.toLowerCase(Locale.ROOT);
+        String arch = osArch.toLowerCase(Locale.ROOT);
+        String platform;
+        String extension;
+        if (os.startsWith("windows")) {
+            platform = "windows";
+            extension = "dll";
+        } else if (os.startsWith("mac") || os.startsWith("darwin")) {
+            platform = "mac";
+            extension = "dylib";
+        } else if (os.startsWith("linux")) {
+            platform = "linux";
+            extension = "so";
+        } else {
+            return null;
+        }
+        if (arch.equals("amd64") || arch.equals("x86_64")) {
+            arch = "x64";
+        } else if (arch.equals("aarch64") || arch.equals("arm64")) {
+            arch = "aarch64";
+        } else {
+            return null;
+        }
+        return String.format("/natives/%s-%s/%s.%s", platform, arch, LIBRARY_NAME, extension);
+    }
+
+    /**
+     * Extracts the library into the cache directory, unless it was already extracted before.
+     *
+     * @return the extracted library or <code>null</code> if the resource doesn't exist
+     */
+    @Nullable
+    private static Path extract(String resource) throws IOException {
+        String hash = readHash(resource + HASH_SUFFIX);
+        byte[] library = null;
+        if (hash == null) {
+            // Natives that were copied into the resources without their hash
+            library = readResource(resource);
+            if (library == null) {
+                return null;
+            }
+            hash = sha256(library);
+        }
+        String fileName = resource.substring(resource.lastIndexOf('/') + 1);
+        Path cacheDirectory = getCacheDirectory();
+        Path directory = null;
+        if (cacheDirectory != null) {
+            directory = cacheDirectory.resolve(hash);
+            Path path = directory.resolve(fileName);
+            if (Files.isRegularFile(path) && hash.equals(sha256(path))) {
+                cached = true;
+                return path;
+            }
+        }
+        if (library == null) {
+            library = readResource(resource);
+            if (library == null) {
+                return null;
+            }
+            if (!hash.equals(sha256(library))) {
+                throw new IOException(String.format("Native library %s doesn't match its hash", resource));
+            }
+        }
+        if (directory != null) {
+            try {
+                return extractToCache(directory, fileName, library, hash);
+            } catch (IOException e) {
+                // The cache directory is not usable, so extract a private copy for this JVM only
+            }
+        }
+        return extractToTempFile(fileName, library);
+    }
+
+    private static Path extractToCache(Path directory, String fileName, byte[] library, String hash) throws IOException {
+        createPrivateDirectory(directory);
+        Path path = directory.resolve(fileName);
+        Path temp = Files.createTempFile(directory, LIBRARY_NAME, ".tmp");
+        try {
+            Files.write(temp, library);
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Another JVM might have extracted and loaded the same library in the meantime
+                if (!Files.isRegularFile(path) || !hash.equals(sha256(path))) {
+                    throw e;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return path;
+    }
+
+    private static Path extractToTempFile(String fileName, byte[] library) throws IOException {
+        // Temporary files are only accessible by their owner
+        Path path = Files.createTempFile(LIBRARY_NAME, fileName.substring(fileName.lastIndexOf('.')));
+        path.toFile().deleteOnExit();
+        Files.write(path, library);
+        return path;
+    }
+
+    /**
+     * @return the cache directory or <code>null</code> if it can't be created with owner-only access or if an existing
+     * directory is not owned by the current user or writable by others
+     */
+    @Nullable
+    static Path getCacheDirectory() {
+        Path directory;
+        String cacheDir = System.getProperty(Opus.CACHE_DIR_PROPERTY);
+        if (cacheDir != null && !cacheDir.isEmpty()) {
+            directory = Paths.get(cacheDir);
+        } else {
+            directory = Paths.get(System.getProperty("java.io.tmpdir"), getDefaultCacheDirectoryName(System.getProperty("user.name")));
+        }
+        try {
+            createPrivateDirectory(directory);
+            return directory;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The temporary directory is usually shared by all users, so the cache directory is specific to the user.
+     */
+    static String getDefaultCacheDirectoryName(@Nullable String userName) {
+        if (userName == null || userName.isEmpty()) {
+            return "opus4j";
+        }
+        return "opus4j-" + userName.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static void createPrivateDirectory(Path directory) throws IOException {
+        if (!directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(directory);
+            return;
+        }
+        Path parent = directory.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try {
+            // The umask can only remove permissions, so nobody else has access to the new directory
+            Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            return;
+        } catch (FileAlreadyExistsException e) {
+            // Existing directories might be shared, so their permissions are checked instead of changed
+        }
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException(String.format("Cache directory %s is not a directory", directory));
+        }
+        UserPrincipal owner = Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS);
+        UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+        if (!owner.equals(user)) {
+            throw new IOException(String.format("Cache directory %s is owned by %s", directory, owner.getName()));
+        }
+        Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS);
+        if (permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+            throw new IOException(String.format("Cache directory %s is writable by other users", directory));
+        }
+    }
+
+    @Nullable
+    private static String readHash(String resource) throws IOException {
+        byte[] hash = readResource(resource);
+        if (hash == null) {
+            return null;
+        }
+        return new String(hash, StandardCharsets.US_ASCII).trim().toLowerCase(Locale.ROOT);
+    }
+
+    @Nullable
+    private static byte[] readResource(String resource) throws IOException {
+        try (InputStream in = NativeLoader.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                return null;
+            }
+            return readFully(in);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    static String sha256(byte[] data) {
+        MessageDigest digest = sha256Digest();
+        return toHex(digest.digest(data));
+    }
+
+    static String sha256(Path path) throws IOException {
+        MessageDigest digest = sha256Digest();
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,55 @@
+package de.maxhenkel.opus4j;
+
+/**
+ * The CRC-32 of Ogg pages (polynomial <code>0x04C11DB7</code>, no reflection, initial value and final XOR of <code>0</code>).
+ * <br>
+ * Uses slicing-by-4 lookup tables, so the hot loop processes four bytes per iteration without any branches.
+ */
+final class OggCrc {
+
+    private static final int POLYNOMIAL = 0x04C11DB7;
+    private static final int[] TABLE0 = new int[256];
+    private static final int[] TABLE1 = new int[256];
+    private static final int[] TABLE2 = new int[256];
+    private static final int[] TABLE3 = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            TABLE0[i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            TABLE1[i] = (TABLE0[i] << 8) ^ TABLE0[TABLE0[i] >>> 24];
+            TABLE2[i] = (TABLE1[i] << 8) ^ TABLE0[TABLE1[i] >>> 24];
+            TABLE3[i] = (TABLE2[i] << 8) ^ TABLE0[TABLE2[i] >>> 24];
+        }
+    }
+
+    private OggCrc() {
+
+    }
+
+    /**
+     * @param crc    the CRC of the preceding data or <code>0</code>
+     * @param data   the data
+     * @param offset the index of the first byte in {@param data}
+     * @param length the number of bytes
+     * @return the updated CRC
+     */
+    static int update(int crc, byte[] data, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (int blockEnd = end - 3; i < blockEnd; i += 4) {
+            crc ^= ((data[i] & 0xFF) << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
+            crc = TABLE3[crc >>> 24] ^ TABLE2[(crc >>> 16) & 0xFF] ^ TABLE1[(crc >>> 8) & 0xFF] ^ TABLE0[crc & 0xFF];
+        }
+        for (; i < end; i++) {
+            crc = (crc << 8) ^ TABLE0[((crc >>> 24) ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+}
@@ -0,0 +1,353 @@
+package de.maxhenkel.opus4j;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A memory mapped Ogg Opus file (RFC 7845) with random access.
+ * <br>
+ * On opening, an index of all pages that start with a new packet is created.
+ * Each index entry maps the granule position at the start of the page to the offset of the page in the file.
+ * The index can be persisted next to the file, so it only needs to be built once.
+ * Seeking does a binary search in the index and decodes at least 80 ms of audio before the target as pre-roll,
+ * as recommended in RFC 7845 section 4.6.
+ * <br>
+ * Only files up to 2 GiB, channel mapping family 0 and the first logical stream are supported.
+ */
+public class OggOpusFile implements Closeable {
+
+    /**
+     * The minimum number of samples at 48 kHz that are decoded and discarded before the seek target.
+     */
+    public static final int PRE_ROLL = 3840;
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int INDEX_MAGIC = 0x4F4F4958;
+    private static final int INDEX_VERSION = 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer view;
+    private final OggOpusReader reader;
+    private final OggOpusHeader header;
+    private final int audioOffset;
+
+    private long[] indexGranules;
+    private int[] indexOffsets;
+    private int indexSize;
+    private long startGranule;
+    private long lastGranule;
+
+    @Nullable
+    private short[] preRollBuffer;
+
+    /**
+     * Opens an Ogg Opus file.
+     *
+     * @param path         the file
+     * @param persistIndex whether to load the index from and save it to a file next to {@param path} with the suffix {@value #INDEX_SUFFIX}
+     * @throws IOException if the file could not be read or is not a valid Ogg Opus file
+     */
+    public OggOpusFile(Path path, boolean persistIndex) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("File is too large: %d", size));
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            view = buffer.duplicate();
+            reader = new OggOpusReader(this::read);
+            header = reader.getHeader();
+            // The headers end with the last page that was read, so the next page is the first audio page
+            audioOffset = (int) reader.getPosition();
+            startGranule = reader.nextPage() ? reader.getPageStartGranule() : 0L;
+
+            Path indexPath = path.resolveSibling(path.getFileName() + INDEX_SUFFIX);
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            if (!persistIndex || !loadIndex(indexPath, size, lastModified)) {
+                buildIndex();
+                if (persistIndex) {
+                    try {
+                        saveIndex(indexPath, size, lastModified);
+                    } catch (IOException e) {
+                        // The index is only a cache, so the file can still be used if it can't be written
+                    }
+                }
+            }
+            seekPage(audioOffset, startGranule, startGranule + header.preSkip);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an Ogg Opus file without persisting the index.
+     *
+     * @param path the file
+     * @throws IOException if the file could not be read or is not a valid Ogg Opus file
+     */
+    public OggOpusFile(Path path) throws IOException {
+        this(path, false);
+    }
+
+    public int getChannels() {
+        return header.channels;
+    }
+
+    /**
+     * @return the number of samples at 48 kHz that are discarded at the start of the stream
+     */
+    public int getPreSkip() {
+        return header.preSkip;
+    }
+
+    /**
+     * @return the sample rate of the original audio - only informational
+     */
+    public int getInputSampleRate() {
+        return header.inputSampleRate;
+    }
+
+    public String getVendor() {
+        return header.vendor;
+    }
+
+    public List<String> getComments() {
+        return header.comments;
+    }
+
+    /**
+     * @return the number of samples per channel at 48 kHz of the whole file, excluding the pre-skip
+     */
+    public long getDuration() {
+        return Math.max(0L, lastGranule - startGranule - header.preSkip);
+    }
+
+    /**
+     * @return the number of index entries
+     */
+    public int getIndexSize() {
+        return indexSize;
+    }
+
+    /**
+     * Reads the next packet and decodes it.
+     * <br>
+     * The pre-skip, the remaining pre-roll after seeking and the trimmed samples at the end of the stream are removed
+     * from the decoded audio.
+     * The output array needs to have room for the complete decoded packet and the frame size of the decoder needs to
+     * cover the longest packet of the file.
+     *
+     * @param decoder      the decoder
+     * @param output       the array to write the decoded audio to
+     * @param outputOffset the index in {@param output} to start writing the decoded audio at
+     * @return the number of samples per channel written to {@param output} or <code>-1</code> if the end of the stream is reached
+     * @throws IOException if the file is corrupted
+     */
+    public int decode(OpusDecoder decoder, short[] output, int outputOffset) throws IOException {
+        return reader.decode(decoder, output, outputOffset);
+    }
+
+    /**
+     * Seeks to the provided sample.
+     * <br>
+     * Resets the decoder and decodes the pre-roll, so the next call to {@link #decode(OpusDecoder, short[], int)}
+     * returns the audio starting exactly at the provided sample.
+     *
+     * @param decoder the decoder that is used for decoding the file
+     * @param sample  the sample at 48 kHz relative to the start of the stream, excluding the pre-skip
+     * @throws IOException if the file is corrupted
+     */
+    public void seek(OpusDecoder decoder, long sample) throws IOException {
+        if (sample < 0L) {
+            throw new IllegalArgumentException(String.format("Invalid sample: %d", sample));
+        }
+        if (decoder.getChannels() != header.channels) {
+            throw new IllegalArgumentException(String.format("Invalid number of decoder channels: %d", decoder.getChannels()));
+        }
+        long target = startGranule + sample + header.preSkip;
+        long preRollStart = Math.max(startGranule, target - PRE_ROLL);
+
+        int entry = findEntry(preRollStart);
+        decoder.resetState();
+        if (entry < 0) {
+            // Nothing to seek to, so the next decode call returns the end of the stream
+            seekPage(buffer.limit(), lastGranule, target);
+            return;
+        }
+        seekPage(indexOffsets[entry], indexGranules[entry], target);
+
+        int frameLength = decoder.getFrameSize() * header.channels;
+        if (preRollBuffer == null || preRollBuffer.length < frameLength) {
+            preRollBuffer = new short[frameLength];
+        }
+        reader.preRoll(decoder, preRollBuffer);
+    }
+
+    /**
+     * Continues reading at the page at the provided offset.
+     */
+    private void seekPage(int offset, long granule, long target) {
+        view.position(offset);
+        reader.seek(offset, granule, target);
+    }
+
+    /**
+     * The page source of the reader.
+     */
+    private int read(byte[] data, int offset, int length) {
+        int count = Math.min(length, view.remaining());
+        if (count <= 0 && length > 0) {
+            return -1;
+        }
+        view.get(data, offset, count);
+        return count;
+    }
+
+    /**
+     * @return the index of the last entry that starts at or before the provided granule position or <code>-1</code> if there is none
+     */
+    private int findEntry(long granule) {
+        if (indexSize <= 0) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(indexGranules, 0, indexSize, granule);
+        if (index >= 0) {
+            // Multiple pages can start at the same granule position if they don't complete any packet
+            while (index > 0 && indexGranules[index - 1] == granule) {
+                index--;
+            }
+            return index;
+        }
+        return Math.max(0, -index - 2);
+    }
+
+    private void buildIndex() throws IOException {
+        indexGranules = new long[64];
+        indexOffsets = new int[64];
+        indexSize = 0;
+        seekPage(audioOffset, startGranule, startGranule);
+        long granule = startGranule;
+        while (reader.nextPage()) {
+            long pageGranule = reader.getPageGranule();
+            if ((reader.getPageFlags() & OggOpusOutputStream.FLAG_CONTINUED) == 0) {
+                // The page can start after the end of the previous page if there is a gap in the stream
+                addEntry(pageGranule >= 0L ? Math.max(granule, reader.getPageStartGranule()) : granule, (int) reader.getPageOffset());
+            }
+            if (pageGranule >= 0L) {
+                granule = pageGranule;
+            }
+        }
+        lastGranule = granule;
+    }
+
+    private void addEntry(long granule, int offset) {
+        if (indexSize >= indexGranules.length) {
+            indexGranules = Arrays.copyOf(indexGranules, indexSize * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+        }
+        indexGranules[indexSize] = granule;
+        indexOffsets[indexSize] = offset;
+        indexSize++;
+    }
+
+    /**
+     * The index is only a cache, so any index that can't be read or is invalid is rebuilt instead of failing.
+     *
+     * @return <code>true</code> if the index was loaded
+     */
+    private boolean loadIndex(Path indexPath, long size, long lastModified) {
+        if (!Files.isRegularFile(indexPath)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || in.readLong() != size || in.readLong() != lastModified) {
+                return false;
+            }
+            long last = in.readLong();
+            int count = in.readInt();
+            // Every entry is a page that is at least as large as a page header
+            if (count < 0 || count > size / OggOpusOutputStream.HEADER_SIZE) {
+                return false;
+            }
+            long[] granules = new long[Math.max(count, 1)];
+            int[] offsets = new int[Math.max(count, 1)];
+            long granule = 0L;
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                // Entries are delta encoded, since both values only grow
+                granule += in.readLong();
+                offset += in.readInt();
+                if (offset < 0 || offset >= size) {
+                    return false;
+                }
+                granules[i] = granule;
+                offsets[i] = offset;
+            }
+            indexGranules = granules;
+            indexOffsets = offsets;
+            indexSize = count;
+            lastGranule = last;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void saveIndex(Path indexPath, long size, long lastModified) throws IOException {
+        // A unique temporary file in the same directory, so concurrent writers don't interfere and the move is atomic
+        Path temp = Files.createTempFile(indexPath.toAbsolutePath().getParent(), indexPath.getFileName().toString(), ".tmp");
+        try {
+            writeIndex(temp, size, lastModified);
+            try {
+                Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void writeIndex(Path temp, long size, long lastModified) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeLong(lastGranule);
+            out.writeInt(indexSize);
+            long granule = 0L;
+            int offset = 0;
+            for (int i = 0; i < indexSize; i++) {
+                out.writeLong(indexGranules[i] - granule);
+                out.writeInt(indexOffsets[i] - offset);
+                granule = indexGranules[i];
+                offset = indexOffsets[i];
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
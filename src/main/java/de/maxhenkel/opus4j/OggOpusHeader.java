@@ -0,0 +1,101 @@
+package de.maxhenkel.opus4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The contents of the OpusHead and OpusTags packets of an Ogg Opus stream.
+ */
+final class OggOpusHeader {
+
+    final int channels;
+    final int preSkip;
+    final int inputSampleRate;
+    final int outputGain;
+    final String vendor;
+    final List<String> comments;
+
+    private OggOpusHeader(int channels, int preSkip, int inputSampleRate, int outputGain, String vendor, List<String> comments) {
+        this.channels = channels;
+        this.preSkip = preSkip;
+        this.inputSampleRate = inputSampleRate;
+        this.outputGain = outputGain;
+        this.vendor = vendor;
+        this.comments = comments;
+    }
+
+    /**
+     * Parses the OpusHead packet.
+     *
+     * @return the header without vendor and comments
+     */
+    static OggOpusHeader parseHead(byte[] head, int offset, int length) throws IOException {
+        if (length < 19 || !matches(head, offset, "OpusHead")) {
+            throw new IOException("Missing OpusHead");
+        }
+        if ((head[offset + 8] & 0xF0) != 0) {
+            throw new IOException(String.format("Unsupported Ogg Opus version: %d", head[offset + 8] & 0xFF));
+        }
+        int channels = head[offset + 9] & 0xFF;
+        int preSkip = OggOpusInputStream.getShortLE(head, offset + 10);
+        int inputSampleRate = OggOpusInputStream.getIntLE(head, offset + 12);
+        int outputGain = (short) OggOpusInputStream.getShortLE(head, offset + 16);
+        int mappingFamily = head[offset + 18] & 0xFF;
+        if (mappingFamily != 0 || channels < 1 || channels > 2) {
+            throw new IOException(String.format("Unsupported channel mapping family: %d", mappingFamily));
+        }
+        return new OggOpusHeader(channels, preSkip, inputSampleRate, outputGain, "", Collections.emptyList());
+    }
+
+    /**
+     * Parses the OpusTags packet.
+     *
+     * @return a copy of this header with the vendor and comments of the tags
+     */
+    OggOpusHeader withTags(byte[] tags, int offset, int length) throws IOException {
+        int end = offset + length;
+        if (length < 16 || !matches(tags, offset, "OpusTags")) {
+            throw new IOException("Missing OpusTags");
+        }
+        offset += 8;
+        int vendorLength = OggOpusInputStream.getIntLE(tags, offset);
+        offset += 4;
+        if (vendorLength < 0 || vendorLength > end - offset - 4) {
+            throw new IOException("Invalid OpusTags");
+        }
+        String vendor = new String(tags, offset, vendorLength, StandardCharsets.UTF_8);
+        offset += vendorLength;
+        int commentCount = OggOpusInputStream.getIntLE(tags, offset);
+        offset += 4;
+        if (commentCount < 0 || commentCount > (end - offset) / 4) {
+            throw new IOException("Invalid OpusTags");
+        }
+        List<String> comments = new ArrayList<>(commentCount);
+        for (int i = 0; i < commentCount; i++) {
+            if (end - offset < 4) {
+                throw new IOException("Invalid OpusTags");
+            }
+            int commentLength = OggOpusInputStream.getIntLE(tags, offset);
+            offset += 4;
+            if (commentLength < 0 || commentLength > end - offset) {
+                throw new IOException("Invalid OpusTags");
+            }
+            comments.add(new String(tags, offset, commentLength, StandardCharsets.UTF_8));
+            offset += commentLength;
+        }
+        return new OggOpusHeader(channels, preSkip, inputSampleRate, outputGain, vendor, Collections.unmodifiableList(comments));
+    }
+
+    static boolean matches(byte[] buffer, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer[offset + i] != (byte) value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,127 @@
+package de.maxhenkel.opus4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Reads the packets of an Ogg Opus stream (RFC 7845).
+ * <br>
+ * The stream is read one page at a time into a preallocated page buffer, so the memory usage doesn't depend on the
+ * length of the stream.
+ * Packets that are completely contained in a page are decoded straight from the page buffer.
+ * Only packets that span multiple pages are assembled in a separate preallocated buffer.
+ * Only the first logical stream of the physical stream is read.
+ */
+public class OggOpusInputStream implements Closeable {
+
+    /**
+     * The largest supported packet - 120 ms of 1275 byte frames plus framing.
+     */
+    public static final int MAX_PACKET_SIZE = 48 * 1275 + 1024;
+
+    private final InputStream in;
+    private final OggOpusReader reader;
+    private final OggOpusHeader header;
+
+    /**
+     * Creates a new Ogg Opus input stream and reads the stream headers.
+     *
+     * @param in the stream to read from
+     * @throws IOException if the stream is not a valid Ogg Opus stream
+     */
+    public OggOpusInputStream(InputStream in) throws IOException {
+        this.in = in;
+        this.reader = new OggOpusReader(in::read);
+        this.header = reader.getHeader();
+    }
+
+    public int getChannels() {
+        return header.channels;
+    }
+
+    /**
+     * @return the number of samples at 48 kHz that are discarded at the start of the stream
+     */
+    public int getPreSkip() {
+        return header.preSkip;
+    }
+
+    /**
+     * @return the sample rate of the original audio - only informational
+     */
+    public int getInputSampleRate() {
+        return header.inputSampleRate;
+    }
+
+    /**
+     * @return the gain to apply to the decoded audio in Q7.8 dB
+     */
+    public int getOutputGain() {
+        return header.outputGain;
+    }
+
+    public String getVendor() {
+        return header.vendor;
+    }
+
+    public List<String> getComments() {
+        return header.comments;
+    }
+
+    /**
+     * Reads the next packet into the provided array.
+     *
+     * @param output         the array to write the packet to
+     * @param outputOffset   the index in {@param output} to start writing the packet at
+     * @param outputCapacity the maximum number of bytes that may be written to {@param output}
+     * @return the length of the packet in bytes or <code>-1</code> if the end of the stream is reached
+     * @throws IOException if the stream could not be read or the packet is larger than {@param outputCapacity}
+     */
+    public int readPacket(byte[] output, int outputOffset, int outputCapacity) throws IOException {
+        return reader.readPacket(output, outputOffset, outputCapacity);
+    }
+
+    /**
+     * Reads the next packet and decodes it without copying the packet.
+     * <br>
+     * The pre-skip at the start and the trimmed samples at the end of the stream are removed from the decoded audio.
+     * The output array needs to have room for the complete decoded packet and the frame size of the decoder needs to
+     * cover the longest packet of the stream.
+     *
+     * @param decoder      the decoder
+     * @param output       the array to write the decoded audio to
+     * @param outputOffset the index in {@param output} to start writing the decoded audio at
+     * @return the number of samples per channel written to {@param output} or <code>-1</code> if the end of the stream is reached
+     * @throws IOException if the stream could not be read
+     */
+    public int decode(OpusDecoder decoder, short[] output, int outputOffset) throws IOException {
+        return reader.decode(decoder, output, outputOffset);
+    }
+
+    /**
+     * @return the granule position of the last page that was read
+     */
+    public long getGranulePosition() {
+        return reader.getPageGranule();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    static int getShortLE(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    static int getIntLE(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8) | ((buffer[offset + 2] & 0xFF) << 16) | ((buffer[offset + 3] & 0xFF) << 24);
+    }
+
+    static long getLongLE(byte[] buffer, int offset) {
+        return (getIntLE(buffer, offset) & 0xFFFFFFFFL) | ((long) getIntLE(buffer, offset + 4) << 32);
+    }
+
+}
@@ -0,0 +1,334 @@
+package de.maxhenkel.opus4j;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes Opus packets as an Ogg Opus stream (RFC 7845).
+ * <br>
+ * The OpusHead and OpusTags headers are written on construction.
+ * Packets are collected in a single preallocated page buffer and written as one page as soon as the page covers the
+ * configured page duration or the next packet doesn't fit anymore.
+ * Only mono and stereo streams (channel mapping family 0) are supported.
+ */
+public class OggOpusOutputStream implements Closeable, Flushable {
+
+    public static final int DEFAULT_PRE_SKIP = 312;
+    public static final int DEFAULT_PAGE_DURATION = 1000;
+    public static final String VENDOR = "opus4j";
+
+    static final int HEADER_SIZE = 27;
+    static final int MAX_SEGMENTS = 255;
+    static final int MAX_PAGE_SIZE = HEADER_SIZE + MAX_SEGMENTS + MAX_SEGMENTS * 255;
+
+    static final int FLAG_CONTINUED = 0x01;
+    static final int FLAG_BOS = 0x02;
+    static final int FLAG_EOS = 0x04;
+
+    private final OutputStream out;
+    private final int serialNumber;
+    private final long pageDuration;
+    private final byte[] page;
+    private int pageSequence;
+    private int segments;
+    private int dataLength;
+    private long granulePosition;
+    private long packetGranule;
+    private long pageStartGranule;
+    private boolean closed;
+
+    /**
+     * Creates a new Ogg Opus output stream and writes the stream headers.
+     *
+     * @param out             the stream to write to
+     * @param channels        the number of channels (1 or 2)
+     * @param inputSampleRate the sample rate of the original audio - only informational
+     * @param preSkip         the number of samples at 48 kHz to discard at the start - usually the lookahead of the encoder
+     * @param serialNumber    the serial number of the logical stream
+     * @param pageDuration    the duration of the audio on each page in milliseconds
+     * @param comments        the user comments in the form <code>KEY=value</code>
+     * @throws IOException if the headers could not be written
+     */
+    public OggOpusOutputStream(OutputStream out, int channels, int inputSampleRate, int preSkip, int serialNumber, int pageDuration, List<String> comments) throws IOException {
+        if (channels != 1 && channels != 2) {
+            throw new IllegalArgumentException(String.format("Invalid number of channels: %d", channels));
+        }
+        if (preSkip < 0 || preSkip > 0xFFFF) {
+            throw new IllegalArgumentException(String.format("Invalid pre-skip: %d", preSkip));
+        }
+        if (pageDuration <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid page duration: %d", pageDuration));
+        }
+        this.out = out;
+        this.serialNumber = serialNumber;
+        this.pageDuration = pageDuration * 48L;
+        this.page = new byte[MAX_PAGE_SIZE];
+        writeHead(channels, inputSampleRate, preSkip);
+        writeTags(comments);
+    }
+
+    /**
+     * Creates a new Ogg Opus output stream with the default pre-skip and page duration.
+     *
+     * @param out             the stream to write to
+     * @param channels        the number of channels (1 or 2)
+     * @param inputSampleRate the sample rate of the original audio - only informational
+     * @throws IOException if the headers could not be written
+     */
+    public OggOpusOutputStream(OutputStream out, int channels, int inputSampleRate) throws IOException {
+        this(out, channels, inputSampleRate, DEFAULT_PRE_SKIP, 0, DEFAULT_PAGE_DURATION, Collections.emptyList());
+    }
+
+    private void writeHead(int channels, int inputSampleRate, int preSkip) throws IOException {
+        int offset = dataOffset();
+        offset = putAscii(page, offset, "OpusHead");
+        page[offset++] = 1;
+        page[offset++] = (byte) channels;
+        offset = putShortLE(page, offset, preSkip);
+        offset = putIntLE(page, offset, inputSampleRate);
+        offset = putShortLE(page, offset, 0);
+        page[offset++] = 0;
+        addLacing(offset - dataOffset());
+        writePage(FLAG_BOS, 0L);
+    }
+
+    private void writeTags(List<String> comments) throws IOException {
+        int offset = dataOffset();
+        byte[] vendor = VENDOR.getBytes(StandardCharsets.UTF_8);
+        offset = putAscii(page, offset, "OpusTags");
+        offset = putIntLE(page, offset, vendor.length);
+        System.arraycopy(vendor, 0, page, offset, vendor.length);
+        offset += vendor.length;
+        offset = putIntLE(page, offset, comments.size());
+        for (String comment : comments) {
+            byte[] bytes = comment.getBytes(StandardCharsets.UTF_8);
+            if (offset + 4 + bytes.length > page.length) {
+                throw new IllegalArgumentException("Comments don't fit into a single page");
+            }
+            offset = putIntLE(page, offset, bytes.length);
+            System.arraycopy(bytes, 0, page, offset, bytes.length);
+            offset += bytes.length;
+        }
+        int length = offset - dataOffset();
+        if (length / 255 + 1 > MAX_SEGMENTS) {
+            throw new IllegalArgumentException("Comments don't fit into a single page");
+        }
+        addLacing(length);
+        writePage(0, 0L);
+    }
+
+    /**
+     * Writes a single packet.
+     * <br>
+     * Empty packets can't be written, since their duration is unknown - use {@link #skip(int)} instead.
+     *
+     * @param packet the array containing the packet
+     * @param offset the index of the packet in {@param packet}
+     * @param length the length of the packet in bytes
+     * @throws IOException if a page could not be written
+     */
+    public void writePacket(byte[] packet, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > packet.length - length) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Range [%d, %d + %d) out of bounds for length %d", offset, offset, length, packet.length));
+        }
+        if (length == 0) {
+            throw new IllegalArgumentException("Packet is empty");
+        }
+        ensureOpen();
+        int samples = OpusPacket.getSampleCount(packet, offset, length, 48000);
+        reserve(length);
+        System.arraycopy(packet, offset, page, dataOffset(), length);
+        addPacket(length, samples);
+    }
+
+    /**
+     * Advances the granule position without writing a packet, for example for frames that were skipped by the silence
+     * detection of the encoder.
+     * <br>
+     * The skipped samples only show up as a gap in the granule positions of the stream.
+     * Gaps can only be detected between pages, so the current page is written first.
+     * {@link OggOpusInputStream} and {@link OggOpusFile} fill the gap with {@link OpusDecoder#decodeGap(short[], int, int)}.
+     *
+     * @param samples the number of skipped samples at 48 kHz
+     * @throws IOException if the stream is closed or the current page could not be written
+     */
+    public void skip(int samples) throws IOException {
+        if (samples < 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of samples: %d", samples));
+        }
+        ensureOpen();
+        if (samples <= 0) {
+            return;
+        }
+        if (segments > 0) {
+            writePage(0, packetGranule);
+        }
+        granulePosition += samples;
+        // The next page starts after the gap
+        pageStartGranule = granulePosition;
+    }
+
+    /**
+     * Encodes a single frame directly into the page buffer without any intermediate packet array.
+     * <br>
+     * If the encoder returns an empty packet, for example because of {@link OpusEncoder#setSilenceDetection(double, int)},
+     * no packet is written and the frame is skipped with {@link #skip(int)}.
+     *
+     * @param encoder     the encoder
+     * @param input       the raw audio
+     * @param inputOffset the index of the first sample of the frame in {@param input}
+     * @param frameSize   the number of samples per channel
+     * @return the length of the encoded packet in bytes
+     * @throws IOException if a page could not be written
+     */
+    public int encode(OpusEncoder encoder, short[] input, int inputOffset, int frameSize) throws IOException {
+        ensureOpen();
+        int capacity = encoder.getMaxPayloadSize();
+        reserve(capacity);
+        int offset = dataOffset();
+        int length = encoder.encode(input, inputOffset, frameSize, page, offset, capacity);
+        if (length == 0) {
+            skip(frameSize * (48000 / encoder.getSampleRate()));
+            return 0;
+        }
+        addPacket(length, OpusPacket.getSampleCount(page, offset, length, 48000));
+        return length;
+    }
+
+    /**
+     * Writes the current page if there is not enough space for a packet of the provided length.
+     */
+    private void reserve(int length) throws IOException {
+        int laces = length / 255 + 1;
+        if (laces > MAX_SEGMENTS) {
+            throw new IllegalArgumentException(String.format("Packet is too large: %d", length));
+        }
+        if (segments + laces > MAX_SEGMENTS) {
+            writePage(0, packetGranule);
+        }
+    }
+
+    /**
+     * The packet data is written to the end of the page buffer, because the lacing values are not known in advance.
+     * It gets moved behind the lacing values when the page is written.
+     */
+    private int dataOffset() {
+        return HEADER_SIZE + MAX_SEGMENTS + dataLength;
+    }
+
+    private void addPacket(int length, int samples) throws IOException {
+        addLacing(length);
+        granulePosition += samples;
+        packetGranule = granulePosition;
+        if (granulePosition - pageStartGranule >= pageDuration) {
+            writePage(0, packetGranule);
+        }
+    }
+
+    private void addLacing(int length) {
+        int laces = length / 255 + 1;
+        for (int i = 0; i < laces - 1; i++) {
+            page[HEADER_SIZE + segments++] = (byte) 255;
+        }
+        page[HEADER_SIZE + segments++] = (byte) (length % 255);
+        dataLength += length;
+    }
+
+    private void writePage(int flags, long granule) throws IOException {
+        if (segments < MAX_SEGMENTS) {
+            System.arraycopy(page, HEADER_SIZE + MAX_SEGMENTS, page, HEADER_SIZE + segments, dataLength);
+        }
+        putAscii(page, 0, "OggS");
+        page[4] = 0;
+        page[5] = (byte) flags;
+        putLongLE(page, 6, granule);
+        putIntLE(page, 14, serialNumber);
+        putIntLE(page, 18, pageSequence++);
+        putIntLE(page, 22, 0);
+        page[26] = (byte) segments;
+        int length = HEADER_SIZE + segments + dataLength;
+        putIntLE(page, 22, OggCrc.update(0, page, 0, length));
+        out.write(page, 0, length);
+        segments = 0;
+        dataLength = 0;
+        pageStartGranule = granule;
+    }
+
+    /**
+     * Writes the current page, even if it doesn't cover the page duration yet, and flushes the underlying stream.
+     *
+     * @throws IOException if the page could not be written
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (segments > 0) {
+            writePage(0, packetGranule);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the number of samples at 48 kHz that were written so far, including the pre-skip and skipped samples
+     */
+    public long getGranulePosition() {
+        return granulePosition;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    /**
+     * Writes the remaining packets on a final page that marks the end of the stream and closes the underlying stream.
+     *
+     * @throws IOException if the page could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // The granule position of a page is the end of its last packet, so skipped samples at the end are dropped
+            writePage(FLAG_EOS, packetGranule);
+        } finally {
+            out.close();
+        }
+    }
+
+    static int putAscii(byte[] buffer, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            buffer[offset++] = (byte) value.charAt(i);
+        }
+        return offset;
+    }
+
+    static int putShortLE(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        return offset + 2;
+    }
+
+    static int putIntLE(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+        return offset + 4;
+    }
+
+    static int putLongLE(byte[] buffer, int offset, long value) {
+        putIntLE(buffer, offset, (int) value);
+        return putIntLE(buffer, offset + 4, (int) (value >>> 32));
+    }
+
+}
@@ -0,0 +1,445 @@
+package de.maxhenkel.opus4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads the packets of an Ogg Opus stream (RFC 7845) from a {@link PageSource}.
+ * <br>
+ * This contains the page, lacing and granule position handling of {@link OggOpusInputStream} and {@link OggOpusFile}.
+ * The stream is read one page at a time into a preallocated page buffer.
+ * Packets that are completely contained in a page are decoded straight from the page buffer.
+ * Only packets that span multiple pages are assembled in a separate preallocated buffer.
+ * Only the first logical stream of the physical stream is read.
+ * <br>
+ * If a page starts after the end of the previous packet, for example because frames were skipped with
+ * {@link OggOpusOutputStream#skip(int)}, the gap is filled with {@link OpusDecoder#decodeGap(short[], int, int)}.
+ */
+final class OggOpusReader {
+
+    private final PageSource source;
+    private final byte[] page;
+    private final byte[] packet;
+    private final OggOpusHeader header;
+
+    private long position;
+    private long pageOffset;
+    private int serialNumber;
+    private int segments;
+    private int segmentIndex;
+    private int dataOffset;
+    private int pageFlags;
+    private long pageGranule;
+    private boolean endOfStream;
+
+    private int packetOffset;
+    private int packetLength;
+    private boolean packetInPage;
+    private boolean packetPending;
+    private long decodedGranule;
+    private long gap;
+    private boolean granuleUnknown;
+    private long samplesToSkip;
+
+    /**
+     * Creates a new reader and reads the stream headers.
+     *
+     * @param source the source of the physical stream
+     * @throws IOException if the stream is not a valid Ogg Opus stream
+     */
+    OggOpusReader(PageSource source) throws IOException {
+        this.source = source;
+        this.page = new byte[OggOpusOutputStream.MAX_PAGE_SIZE];
+        this.packet = new byte[OggOpusInputStream.MAX_PACKET_SIZE];
+
+        if (!readPage(true) || (pageFlags & OggOpusOutputStream.FLAG_BOS) == 0 || !nextPacket()) {
+            throw new IOException("Missing OpusHead");
+        }
+        OggOpusHeader header = OggOpusHeader.parseHead(currentPacketArray(), currentPacketOffset(), packetLength);
+        if (!nextPacket()) {
+            throw new IOException("Missing OpusTags");
+        }
+        this.header = header.withTags(currentPacketArray(), currentPacketOffset(), packetLength);
+        samplesToSkip = header.preSkip;
+        granuleUnknown = true;
+    }
+
+    OggOpusHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the number of bytes that were read from the source
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the position of the last page that was read
+     */
+    long getPageOffset() {
+        return pageOffset;
+    }
+
+    int getPageFlags() {
+        return pageFlags;
+    }
+
+    /**
+     * @return the granule position of the last page that was read
+     */
+    long getPageGranule() {
+        return pageGranule;
+    }
+
+    /**
+     * Reads the next packet into the provided array.
+     *
+     * @return the length of the packet in bytes or <code>-1</code> if the end of the stream is reached
+     */
+    int readPacket(byte[] output, int outputOffset, int outputCapacity) throws IOException {
+        if (outputOffset < 0 || outputCapacity < 0 || outputOffset > output.length - outputCapacity) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Range [%d, %d + %d) out of bounds for length %d", outputOffset, outputOffset, outputCapacity, output.length));
+        }
+        if (!nextPacket()) {
+            return -1;
+        }
+        if (packetLength > outputCapacity) {
+            throw new IOException(String.format("Packet is larger than the output capacity: %d", packetLength));
+        }
+        // Gaps are only visible in the granule positions of raw packets
+        decodedGranule += gap;
+        gap = 0L;
+        System.arraycopy(currentPacketArray(), currentPacketOffset(), output, outputOffset, packetLength);
+        advanceGranule();
+        return packetLength;
+    }
+
+    /**
+     * Reads the next packet and decodes it without copying the packet.
+     * <br>
+     * The pre-skip at the start, the remaining pre-roll after {@link #seek(long, long, long)} and the trimmed samples
+     * at the end of the stream are removed from the decoded audio.
+     * A gap before the packet is filled first, in chunks of at most the duration of the packet.
+     *
+     * @return the number of samples per channel written to {@param output} or <code>-1</code> if the end of the stream is reached
+     */
+    int decode(OpusDecoder decoder, short[] output, int outputOffset) throws IOException {
+        if (decoder.getChannels() != header.channels) {
+            throw new IllegalArgumentException(String.format("Invalid number of decoder channels: %d", decoder.getChannels()));
+        }
+        if (!nextPacket()) {
+            return -1;
+        }
+        int gapSamples = decodeGap(decoder, output, outputOffset);
+        if (gapSamples > 0) {
+            packetPending = true;
+            return removeSkipped(decoder, output, outputOffset, gapSamples, 0L);
+        }
+        // A rest shorter than a single sample can't be filled
+        decodedGranule += gap;
+        gap = 0L;
+        int samples = decoder.decode(currentPacketArray(), currentPacketOffset(), packetLength, output, outputOffset);
+        return removeSkipped(decoder, output, outputOffset, samples, advanceGranule());
+    }
+
+    /**
+     * Fills the next chunk of the gap before the current packet.
+     * The chunk is limited to the duration of the packet, so it fits into the output.
+     *
+     * @return the number of samples per channel written to {@param output}
+     */
+    private int decodeGap(OpusDecoder decoder, short[] output, int outputOffset) {
+        long scale = 48000L / decoder.getSampleRate();
+        int duration = OpusPacket.getSampleCount(currentPacketArray(), currentPacketOffset(), packetLength, decoder.getSampleRate());
+        int samples = (int) Math.min(duration, gap / scale);
+        if (samples <= 0) {
+            return 0;
+        }
+        // PLC only works in multiples of 2.5 ms, so a shorter rest is filled with silence
+        int concealed = samples - samples % (decoder.getSampleRate() / 400);
+        if (concealed > 0) {
+            decoder.decodeGap(output, outputOffset, concealed);
+        }
+        Arrays.fill(output, outputOffset + concealed * header.channels, outputOffset + samples * header.channels, (short) 0);
+        gap -= samples * scale;
+        decodedGranule += samples * scale;
+        return samples;
+    }
+
+    /**
+     * Removes the samples that still need to be skipped from the start and the trimmed samples from the end of the
+     * decoded audio.
+     *
+     * @return the remaining number of samples per channel
+     */
+    private int removeSkipped(OpusDecoder decoder, short[] output, int outputOffset, int samples, long trim) {
+        long scale = 48000L / decoder.getSampleRate();
+        int skip = (int) Math.min(samples, samplesToSkip / scale);
+        samplesToSkip -= skip * scale;
+        int end = (int) Math.max(skip, samples - trim / scale);
+        if (skip > 0) {
+            System.arraycopy(output, outputOffset + skip * header.channels, output, outputOffset, (end - skip) * header.channels);
+        }
+        return end - skip;
+    }
+
+    /**
+     * Continues reading at a page boundary.
+     * The source needs to continue at the same position.
+     *
+     * @param position the position of the page
+     * @param granule  the granule position at the start of the page
+     * @param target   the granule position of the first sample that should be returned by {@link #decode(OpusDecoder, short[], int)}
+     */
+    void seek(long position, long granule, long target) {
+        this.position = position;
+        segments = 0;
+        segmentIndex = 0;
+        endOfStream = false;
+        packetPending = false;
+        granuleUnknown = false;
+        decodedGranule = granule;
+        gap = 0L;
+        samplesToSkip = Math.max(0L, target - granule);
+    }
+
+    /**
+     * Decodes and discards all packets that end before the target of the last {@link #seek(long, long, long)}.
+     *
+     * @param decoder the decoder
+     * @param buffer  an array with room for a complete decoded packet
+     */
+    void preRoll(OpusDecoder decoder, short[] buffer) throws IOException {
+        while (nextPacket()) {
+            // The gap isn't concealed, since the decoder converges during the rest of the pre-roll
+            long skippedGap = Math.min(gap, samplesToSkip);
+            decodedGranule += skippedGap;
+            samplesToSkip -= skippedGap;
+            gap -= skippedGap;
+            int duration = OpusPacket.getSampleCount(currentPacketArray(), currentPacketOffset(), packetLength, 48000);
+            if (gap > 0L || samplesToSkip < duration) {
+                // This packet contains the target, so it gets decoded by the next decode call
+                packetPending = true;
+                return;
+            }
+            decoder.decode(currentPacketArray(), currentPacketOffset(), packetLength, buffer, 0);
+            decodedGranule += duration;
+            samplesToSkip -= duration;
+        }
+    }
+
+    /**
+     * Reads the next page of the logical stream without reading its packets.
+     *
+     * @return <code>false</code> if the end of the stream is reached
+     */
+    boolean nextPage() throws IOException {
+        packetPending = false;
+        return readPage(false);
+    }
+
+    /**
+     * Streams don't need to start at granule position <code>0</code> (RFC 7845 section 4.5), so the start is derived
+     * from the granule position of the page minus the duration of the packets that end on it.
+     *
+     * @return the granule position at the start of the last page that was read
+     */
+    long getPageStartGranule() {
+        if (pageGranule < 0L) {
+            return 0L;
+        }
+        long samples = 0L;
+        int offset = OggOpusOutputStream.HEADER_SIZE + segments;
+        int length = 0;
+        // The rest of a packet whose start we didn't see is skipped and doesn't count
+        boolean skip = (pageFlags & OggOpusOutputStream.FLAG_CONTINUED) != 0;
+        for (int i = 0; i < segments; i++) {
+            int lace = page[OggOpusOutputStream.HEADER_SIZE + i] & 0xFF;
+            length += lace;
+            if (lace < 255) {
+                if (!skip) {
+                    samples += OpusPacket.getSampleCount(page, offset, length, 48000);
+                }
+                skip = false;
+                offset += length;
+                length = 0;
+            }
+        }
+        return Math.max(0L, pageGranule - samples);
+    }
+
+    /**
+     * Advances the decoded granule position by the duration of the current packet.
+     *
+     * @return the number of samples at 48 kHz at the end of the current packet that need to be trimmed
+     */
+    private long advanceGranule() {
+        decodedGranule += OpusPacket.getSampleCount(currentPacketArray(), currentPacketOffset(), packetLength, 48000);
+        if (endOfStream && segmentIndex >= segments && pageGranule >= 0L && decodedGranule > pageGranule) {
+            return decodedGranule - pageGranule;
+        }
+        return 0L;
+    }
+
+    private byte[] currentPacketArray() {
+        return packetInPage ? page : packet;
+    }
+
+    private int currentPacketOffset() {
+        return packetInPage ? packetOffset : 0;
+    }
+
+    /**
+     * Finds the next complete packet.
+     *
+     * @return <code>false</code> if the end of the stream is reached
+     */
+    private boolean nextPacket() throws IOException {
+        if (packetPending) {
+            packetPending = false;
+            return true;
+        }
+        int assembled = 0;
+        boolean continued = false;
+        while (true) {
+            if (segmentIndex >= segments) {
+                if (endOfStream || !readPage(false)) {
+                    return false;
+                }
+                if (granuleUnknown) {
+                    granuleUnknown = false;
+                    decodedGranule = getPageStartGranule();
+                } else if (!continued && pageGranule >= 0L) {
+                    gap = Math.max(0L, getPageStartGranule() - decodedGranule);
+                }
+                if (!continued && (pageFlags & OggOpusOutputStream.FLAG_CONTINUED) != 0) {
+                    // Skip the rest of a packet whose start we didn't see
+                    while (segmentIndex < segments) {
+                        int lace = page[OggOpusOutputStream.HEADER_SIZE + segmentIndex++] & 0xFF;
+                        dataOffset += lace;
+                        if (lace < 255) {
+                            break;
+                        }
+                    }
+                    continue;
+                }
+            }
+            int start = dataOffset;
+            int length = 0;
+            boolean complete = false;
+            while (segmentIndex < segments) {
+                int lace = page[OggOpusOutputStream.HEADER_SIZE + segmentIndex++] & 0xFF;
+                length += lace;
+                if (lace < 255) {
+                    complete = true;
+                    break;
+                }
+            }
+            dataOffset += length;
+            if (complete && !continued) {
+                packetInPage = true;
+                packetOffset = start;
+                packetLength = length;
+                return true;
+            }
+            if (assembled + length > packet.length) {
+                throw new IOException(String.format("Packet is larger than %d bytes", packet.length));
+            }
+            System.arraycopy(page, start, packet, assembled, length);
+            assembled += length;
+            if (complete) {
+                packetInPage = false;
+                packetLength = assembled;
+                return true;
+            }
+            continued = true;
+        }
+    }
+
+    /**
+     * Reads the next page of the logical stream into the page buffer.
+     *
+     * @param first if this is the first page of the stream
+     * @return <code>false</code> if the end of the input is reached
+     */
+    private boolean readPage(boolean first) throws IOException {
+        while (true) {
+            long offset = position;
+            if (!readFully(page, 0, OggOpusOutputStream.HEADER_SIZE, true)) {
+                return false;
+            }
+            if (!OggOpusHeader.matches(page, 0, "OggS")) {
+                throw new IOException("Invalid page capture pattern");
+            }
+            if (page[4] != 0) {
+                throw new IOException(String.format("Unsupported Ogg version: %d", page[4] & 0xFF));
+            }
+            int pageSegments = page[26] & 0xFF;
+            readFully(page, OggOpusOutputStream.HEADER_SIZE, pageSegments, false);
+            int dataLength = 0;
+            for (int i = 0; i < pageSegments; i++) {
+                dataLength += page[OggOpusOutputStream.HEADER_SIZE + i] & 0xFF;
+            }
+            int headerLength = OggOpusOutputStream.HEADER_SIZE + pageSegments;
+            readFully(page, headerLength, dataLength, false);
+
+            int crc = OggOpusInputStream.getIntLE(page, 22);
+            OggOpusOutputStream.putIntLE(page, 22, 0);
+            if (OggCrc.update(0, page, 0, headerLength + dataLength) != crc) {
+                throw new IOException("Invalid page checksum");
+            }
+
+            int pageSerialNumber = OggOpusInputStream.getIntLE(page, 14);
+            if (first) {
+                serialNumber = pageSerialNumber;
+            } else if (pageSerialNumber != serialNumber) {
+                continue;
+            }
+            pageOffset = offset;
+            pageFlags = page[5] & 0xFF;
+            pageGranule = OggOpusInputStream.getLongLE(page, 6);
+            endOfStream = (pageFlags & OggOpusOutputStream.FLAG_EOS) != 0;
+            segments = pageSegments;
+            segmentIndex = 0;
+            dataOffset = headerLength;
+            return true;
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the end of the input was reached before reading any byte and {@param allowEof} is set
+     */
+    private boolean readFully(byte[] buffer, int offset, int length, boolean allowEof) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = source.read(buffer, offset + read, length - read);
+            if (count < 0) {
+                if (read == 0 && allowEof) {
+                    return false;
+                }
+                throw new EOFException("Unexpected end of stream");
+            }
+            read += count;
+        }
+        position += read;
+        return true;
+    }
+
+    /**
+     * The bytes of a physical Ogg stream.
+     */
+    interface PageSource {
+
+        /**
+         * Reads up to {@param length} bytes, like {@link java.io.InputStream#read(byte[], int, int)}.
+         *
+         * @return the number of bytes read or <code>-1</code> if the end of the stream is reached
+         */
+        int read(byte[] buffer, int offset, int length) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls the loading of the native library.
+ * <br>
+ * The library is loaded automatically when the first codec is created.
+ * Calling {@link #preload()} during startup moves the cost of extracting and loading the library out of the first
+ * codec construction.
+ * The library is extracted to <code>&lt;java.io.tmpdir&gt;/opus4j-&lt;user name&gt;/&lt;content hash&gt;</code> and reused
+ * by later starts, as long as its content still matches the hash that was computed when the library was built.
+ * On POSIX file systems, the directory is only accessible by its owner.
+ * The directory can be changed with the system property {@value #CACHE_DIR_PROPERTY}, for example to
+ * point it to a persistent volume in containers.
+ * If the directory can't be used, the library is extracted to a private temporary file that is deleted on exit.
+ */
+public final class Opus {
+
+    public static final String CACHE_DIR_PROPERTY = "opus4j.cacheDir";
+
+    private Opus() {
+
+    }
+
+    /**
+     * Extracts and loads the native library if it isn't loaded yet.
+     *
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public static void preload() throws IOException, UnknownPlatformException {
+        NativeLoader.load();
+    }
+
+    public static boolean isLoaded() {
+        return NativeLoader.isLoaded();
+    }
+
+    /**
+     * @param unit the unit of the returned time
+     * @return the time it took to extract and load the native library or <code>-1</code> if it is not loaded yet
+     */
+    public static long getLoadTime(TimeUnit unit) {
+        long nanos = NativeLoader.getLoadTimeNanos();
+        if (nanos < 0L) {
+            return -1L;
+        }
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return <code>true</code> if the native library was already extracted to the cache directory by an earlier start
+     */
+    public static boolean isLoadedFromCache() {
+        return NativeLoader.isCached();
+    }
+
+    /**
+     * @return the path of the loaded native library or <code>null</code> if it is not loaded yet or was not extracted by opus4j
+     */
+    @Nullable
+    public static Path getLibraryPath() {
+        return NativeLoader.getLibraryPath();
+    }
+
+}
@@ -0,0 +1,247 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import java.io.IOException;
+
+/**
+ * A fixed number of encoder and decoder states in a single contiguous off-heap allocation.
+ * <br>
+ * Creating a regular codec allocates the wrapper and the opus state separately, so thousands of codecs end up
+ * scattered across the native heap.
+ * The arena allocates all slots upfront and initializes the opus state of a slot in place when it is acquired.
+ * The returned codecs are regular {@link OpusEncoder}s and {@link OpusDecoder}s - closing them returns their slot to
+ * the arena, where it is reused in constant time.
+ * All codecs of an arena share the same sample rate, number of channels and application.
+ */
+public class OpusCodecArena implements AutoCloseable {
+
+    private final int sampleRate;
+    private final int channels;
+    private final OpusEncoder.Application application;
+    private final int encoderSlotSize;
+    private final int decoderSlotSize;
+    private final long nativeBytes;
+    private final long decoderOffset;
+    private final FreeList freeEncoders;
+    private final FreeList freeDecoders;
+    private long memory;
+
+    /**
+     * Creates a new arena and allocates the memory for all slots.
+     *
+     * @param sampleRate  the sample rate of all codecs (8000, 12000, 16000, 24000, or 48000)
+     * @param channels    the number of channels of all codecs (1 or 2)
+     * @param application the application of all encoders
+     * @param encoders    the number of encoder slots
+     * @param decoders    the number of decoder slots
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public OpusCodecArena(int sampleRate, int channels, OpusEncoder.Application application, int encoders, int decoders) throws IOException, UnknownPlatformException {
+        if (encoders < 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of encoders: %d", encoders));
+        }
+        if (decoders < 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of decoders: %d", decoders));
+        }
+        NativeLoader.load();
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.application = application;
+        this.encoderSlotSize = getEncoderSlotSize0(channels);
+        this.decoderSlotSize = getDecoderSlotSize0(channels);
+        this.decoderOffset = (long) encoderSlotSize * encoders;
+        this.nativeBytes = decoderOffset + (long) decoderSlotSize * decoders;
+        this.freeEncoders = new FreeList(encoders);
+        this.freeDecoders = new FreeList(decoders);
+        this.memory = allocate0(nativeBytes);
+    }
+
+    private static native int getEncoderSlotSize0(int channels);
+
+    private static native int getDecoderSlotSize0(int channels);
+
+    private static native long allocate0(long size);
+
+    private static native void free0(long memory);
+
+    private static native long initEncoder0(long slot, int sampleRate, int channels, OpusEncoder.Application application) throws IOException;
+
+    private static native long initDecoder0(long slot, int sampleRate, int channels) throws IOException;
+
+    /**
+     * Takes a free encoder slot and initializes a new encoder in it.
+     *
+     * @return the encoder - closing it returns the slot to the arena
+     * @throws IllegalStateException if there is no free encoder slot or the arena is closed
+     * @throws IOException           if the encoder could not be initialized
+     */
+    public OpusEncoder acquireEncoder() throws IOException {
+        int slot;
+        long slotPointer;
+        synchronized (this) {
+            ensureOpen();
+            slot = freeEncoders.acquire();
+            if (slot < 0) {
+                throw new IllegalStateException("No free encoder slot");
+            }
+            slotPointer = memory + (long) encoderSlotSize * slot;
+        }
+        boolean initialized = false;
+        try {
+            OpusEncoder encoder = new OpusEncoder(initEncoder0(slotPointer, sampleRate, channels, application), sampleRate, channels, application, this, slot);
+            initialized = true;
+            return encoder;
+        } finally {
+            if (!initialized) {
+                releaseEncoder(slot);
+            }
+        }
+    }
+
+    /**
+     * Takes a free decoder slot and initializes a new decoder in it.
+     *
+     * @return the decoder - closing it returns the slot to the arena
+     * @throws IllegalStateException if there is no free decoder slot or the arena is closed
+     * @throws IOException           if the decoder could not be initialized
+     */
+    public OpusDecoder acquireDecoder() throws IOException {
+        int slot;
+        long slotPointer;
+        synchronized (this) {
+            ensureOpen();
+            slot = freeDecoders.acquire();
+            if (slot < 0) {
+                throw new IllegalStateException("No free decoder slot");
+            }
+            slotPointer = memory + decoderOffset + (long) decoderSlotSize * slot;
+        }
+        boolean initialized = false;
+        try {
+            OpusDecoder decoder = new OpusDecoder(initDecoder0(slotPointer, sampleRate, channels), sampleRate, channels, this, slot);
+            initialized = true;
+            return decoder;
+        } finally {
+            if (!initialized) {
+                releaseDecoder(slot);
+            }
+        }
+    }
+
+    synchronized void releaseEncoder(int slot) {
+        freeEncoders.release(slot);
+    }
+
+    synchronized void releaseDecoder(int slot) {
+        freeDecoders.release(slot);
+    }
+
+    private void ensureOpen() {
+        if (memory == 0L) {
+            throw new IllegalStateException("Arena is closed");
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public OpusEncoder.Application getApplication() {
+        return application;
+    }
+
+    /**
+     * @return the number of bytes of native memory that are allocated by this arena, regardless of how many slots are in use
+     */
+    public long getNativeBytes() {
+        return nativeBytes;
+    }
+
+    public int getEncoderCapacity() {
+        return freeEncoders.capacity();
+    }
+
+    public int getDecoderCapacity() {
+        return freeDecoders.capacity();
+    }
+
+    public synchronized int getEncodersInUse() {
+        return freeEncoders.inUse;
+    }
+
+    public synchronized int getDecodersInUse() {
+        return freeDecoders.inUse;
+    }
+
+    /**
+     * Frees the memory of all slots.
+     *
+     * @throws IllegalStateException if any codec of this arena is not closed yet
+     */
+    @Override
+    public synchronized void close() {
+        if (memory == 0L) {
+            return;
+        }
+        int inUse = freeEncoders.inUse + freeDecoders.inUse;
+        if (inUse > 0) {
+            throw new IllegalStateException(String.format("Arena has %d codecs that are not closed", inUse));
+        }
+        free0(memory);
+        memory = 0L;
+    }
+
+    public synchronized boolean isClosed() {
+        return memory == 0L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("OpusCodecArena[%d]", memory);
+    }
+
+    /**
+     * A stack of free slot indices, linked through an array, so acquiring and releasing never allocates.
+     */
+    private static final class FreeList {
+        private static final int END = -1;
+
+        private final int[] next;
+        private int head;
+        private int inUse;
+
+        private FreeList(int capacity) {
+            next = new int[capacity];
+            for (int i = 0; i < capacity; i++) {
+                next[i] = i + 1 < capacity ? i + 1 : END;
+            }
+            head = capacity > 0 ? 0 : END;
+        }
+
+        private int acquire() {
+            int slot = head;
+            if (slot != END) {
+                head = next[slot];
+                inUse++;
+            }
+            return slot;
+        }
+
+        private void release(int slot) {
+            next[slot] = head;
+            head = slot;
+            inUse--;
+        }
+
+        private int capacity() {
+            return next.length;
+        }
+    }
+
+}
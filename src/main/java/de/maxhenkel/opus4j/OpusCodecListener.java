@@ -0,0 +1,94 @@
+package de.maxhenkel.opus4j;
+
+/**
+ * Receives the timings and sizes of all encode and decode calls of the codecs it is attached to.
+ * <br>
+ * The methods are called on the encoding or decoding thread while the codec is locked, so they should return quickly.
+ *
+ * @see OpusEncoder#setListener(OpusCodecListener)
+ * @see OpusDecoder#setListener(OpusCodecListener)
+ * @see OpusCodecStatistics
+ */
+public interface OpusCodecListener {
+
+    /**
+     * The listener every codec starts with.
+     * <br>
+     * Codecs using this listener skip taking any timestamps, so instrumentation costs nothing unless it is enabled.
+     */
+    OpusCodecListener NONE = new OpusCodecListener() {
+    };
+
+    /**
+     * Creates a listener that forwards all calls to both listeners.
+     *
+     * @param first  the listener that is called first
+     * @param second the listener that is called second
+     * @return the combined listener or one of the provided listeners if the other one is {@link #NONE}
+     */
+    static OpusCodecListener combine(OpusCodecListener first, OpusCodecListener second) {
+        if (first == NONE) {
+            return second;
+        }
+        if (second == NONE) {
+            return first;
+        }
+        return new OpusCodecListener() {
+            @Override
+            public void onEncode(OpusEncoder encoder, int frames, int samples, int bytes, long nanos) {
+                first.onEncode(encoder, frames, samples, bytes, nanos);
+                second.onEncode(encoder, frames, samples, bytes, nanos);
+            }
+
+            @Override
+            public void onDecode(OpusDecoder decoder, int packets, int samples, int bytes, long nanos) {
+                first.onDecode(decoder, packets, samples, bytes, nanos);
+                second.onDecode(decoder, packets, samples, bytes, nanos);
+            }
+
+            @Override
+            public void onConcealment(OpusDecoder decoder, int frames, boolean fec) {
+                first.onConcealment(decoder, frames, fec);
+                second.onConcealment(decoder, frames, fec);
+            }
+        };
+    }
+
+    /**
+     * Called after frames were encoded.
+     *
+     * @param encoder the encoder
+     * @param frames  the number of encoded frames
+     * @param samples the total number of encoded samples per channel
+     * @param bytes   the total length of the encoded packets in bytes
+     * @param nanos   the time the native call took in nanoseconds
+     */
+    default void onEncode(OpusEncoder encoder, int frames, int samples, int bytes, long nanos) {
+
+    }
+
+    /**
+     * Called after packets were decoded.
+     *
+     * @param decoder the decoder
+     * @param packets the number of decoded packets - not including concealed frames
+     * @param samples the total number of decoded samples per channel - including concealed frames
+     * @param bytes   the total length of the decoded packets in bytes
+     * @param nanos   the time the native call took in nanoseconds
+     */
+    default void onDecode(OpusDecoder decoder, int packets, int samples, int bytes, long nanos) {
+
+    }
+
+    /**
+     * Called after lost frames were concealed, in addition to {@link #onDecode(OpusDecoder, int, int, int, long)}.
+     *
+     * @param decoder the decoder
+     * @param frames  the number of concealed frames
+     * @param fec     <code>true</code> if the frames were recovered using in-band FEC or DRED, <code>false</code> for PLC
+     */
+    default void onConcealment(OpusDecoder decoder, int frames, boolean fec) {
+
+    }
+
+}
@@ -0,0 +1,371 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of reusable {@link OpusEncoder}s and {@link OpusDecoder}s keyed by their configuration.
+ * <br>
+ * Returned codecs are reset to their initial state and settings before they are handed out again.
+ * Idle codecs are closed if there are more than {@link #getMaxIdlePerKey()} of the same configuration
+ * or if they have not been used for longer than the idle timeout.
+ * Idle codecs are evicted while borrowing and returning or by calling {@link #evictIdle()}.
+ * <br>
+ * Thread confined codecs (see {@link OpusEncoder#unsynchronized(int, int, OpusEncoder.Application)}) can't be pooled,
+ * since they could only be borrowed by the thread that created them.
+ */
+public class OpusCodecPool implements AutoCloseable {
+
+    private static final int DEFAULT_FRAME_SIZE = 960;
+
+    private final int maxIdlePerKey;
+    private final long idleTimeoutNanos;
+    private final Map<Key, ArrayDeque<Idle<OpusEncoder>>> idleEncoders;
+    private final Map<Key, ArrayDeque<Idle<OpusDecoder>>> idleDecoders;
+    private final Set<AutoCloseable> idleCodecs;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private boolean closed;
+
+    /**
+     * Creates a new codec pool.
+     *
+     * @param maxIdlePerKey the maximum number of idle codecs per configuration
+     * @param idleTimeout   the time after which idle codecs are closed
+     * @param unit          the unit of {@param idleTimeout}
+     */
+    public OpusCodecPool(int maxIdlePerKey, long idleTimeout, TimeUnit unit) {
+        if (maxIdlePerKey < 0) {
+            throw new IllegalArgumentException(String.format("Invalid max idle per key: %d", maxIdlePerKey));
+        }
+        if (idleTimeout < 0L) {
+            throw new IllegalArgumentException(String.format("Invalid idle timeout: %d", idleTimeout));
+        }
+        this.maxIdlePerKey = maxIdlePerKey;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.idleEncoders = new HashMap<>();
+        this.idleDecoders = new HashMap<>();
+        this.idleCodecs = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * Creates a new codec pool that keeps up to 16 idle codecs per configuration for up to one minute.
+     */
+    public OpusCodecPool() {
+        this(16, 1L, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Borrows an encoder from the pool or creates a new one if there is no idle encoder with this configuration.
+     *
+     * @param sampleRate  the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels    the number of channels (1 or 2)
+     * @param application the application (VOIP, AUDIO, or LOW_DELAY)
+     * @return the encoder
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public OpusEncoder borrowEncoder(int sampleRate, int channels, OpusEncoder.Application application) throws IOException, UnknownPlatformException {
+        OpusEncoder encoder = poll(idleEncoders, new Key(sampleRate, channels, application));
+        if (encoder != null) {
+            return encoder;
+        }
+        return new OpusEncoder(sampleRate, channels, application);
+    }
+
+    /**
+     * Returns an encoder to the pool.
+     * <br>
+     * The encoder must not be used by the caller after returning it.
+     *
+     * @param encoder the encoder
+     * @throws IllegalArgumentException if the encoder is thread confined
+     * @throws IllegalStateException    if the encoder was already returned
+     */
+    public void returnEncoder(OpusEncoder encoder) {
+        if (encoder.isThreadConfined()) {
+            throw new IllegalArgumentException("Thread confined codecs can't be pooled");
+        }
+        if (encoder.isClosed()) {
+            return;
+        }
+        checkNotIdle(encoder);
+        encoder.resetOptions();
+        encoder.setListener(null);
+        offer(idleEncoders, new Key(encoder.getSampleRate(), encoder.getChannels(), encoder.getApplication()), encoder);
+    }
+
+    /**
+     * Borrows a decoder from the pool or creates a new one if there is no idle decoder with this configuration.
+     *
+     * @param sampleRate the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels   the number of channels (1 or 2)
+     * @return the decoder
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public OpusDecoder borrowDecoder(int sampleRate, int channels) throws IOException, UnknownPlatformException {
+        OpusDecoder decoder = poll(idleDecoders, new Key(sampleRate, channels, null));
+        if (decoder != null) {
+            return decoder;
+        }
+        return new OpusDecoder(sampleRate, channels);
+    }
+
+    /**
+     * Returns a decoder to the pool.
+     * <br>
+     * The decoder must not be used by the caller after returning it.
+     *
+     * @param decoder the decoder
+     * @throws IllegalArgumentException if the decoder is thread confined
+     * @throws IllegalStateException    if the decoder was already returned
+     */
+    public void returnDecoder(OpusDecoder decoder) {
+        if (decoder.isThreadConfined()) {
+            throw new IllegalArgumentException("Thread confined codecs can't be pooled");
+        }
+        if (decoder.isClosed()) {
+            return;
+        }
+        checkNotIdle(decoder);
+        decoder.resetState();
+        decoder.setFrameSize(DEFAULT_FRAME_SIZE);
+        decoder.setGain(0);
+        decoder.setComplexity(0);
+        decoder.setListener(null);
+        offer(idleDecoders, new Key(decoder.getSampleRate(), decoder.getChannels(), null), decoder);
+    }
+
+    /**
+     * Prevents returning the same codec twice, which would hand out its native state to two borrowers.
+     */
+    private void checkNotIdle(AutoCloseable codec) {
+        synchronized (this) {
+            if (idleCodecs.contains(codec)) {
+                throw new IllegalStateException("Codec was already returned to the pool");
+            }
+        }
+    }
+
+    @Nullable
+    private <T extends AutoCloseable> T poll(Map<Key, ArrayDeque<Idle<T>>> idle, Key key) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Pool is closed");
+            }
+            evictExpired(System.nanoTime());
+            ArrayDeque<Idle<T>> queue = idle.get(key);
+            Idle<T> entry = queue == null ? null : queue.pollLast();
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            idleCodecs.remove(entry.codec);
+            return entry.codec;
+        }
+    }
+
+    private <T extends AutoCloseable> void offer(Map<Key, ArrayDeque<Idle<T>>> idle, Key key, T codec) {
+        synchronized (this) {
+            // Checked again, since the codec could have been returned concurrently while it was reset
+            checkNotIdle(codec);
+            long now = System.nanoTime();
+            evictExpired(now);
+            if (closed || maxIdlePerKey <= 0) {
+                closeCodec(codec);
+                return;
+            }
+            ArrayDeque<Idle<T>> queue = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+            if (queue.size() >= maxIdlePerKey) {
+                // Evict the least recently used codec to make room for the returned one
+                closeIdle(queue.pollFirst().codec);
+                evictions++;
+            }
+            queue.addLast(new Idle<>(codec, now));
+            idleCodecs.add(codec);
+        }
+    }
+
+    /**
+     * Closes all idle codecs that have not been used for longer than the idle timeout.
+     */
+    public void evictIdle() {
+        synchronized (this) {
+            evictExpired(System.nanoTime());
+        }
+    }
+
+    private void evictExpired(long now) {
+        evictExpired(idleEncoders, now);
+        evictExpired(idleDecoders, now);
+    }
+
+    private <T extends AutoCloseable> void evictExpired(Map<Key, ArrayDeque<Idle<T>>> idle, long now) {
+        Iterator<ArrayDeque<Idle<T>>> iterator = idle.values().iterator();
+        while (iterator.hasNext()) {
+            ArrayDeque<Idle<T>> queue = iterator.next();
+            // The queues are ordered from least to most recently returned
+            Idle<T> entry;
+            while ((entry = queue.peekFirst()) != null && now - entry.returnedAt >= idleTimeoutNanos) {
+                queue.pollFirst();
+                closeIdle(entry.codec);
+                evictions++;
+            }
+            if (queue.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of borrows that were served by an idle codec
+     */
+    public long getHits() {
+        synchronized (this) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return the number of borrows that needed to create a new codec
+     */
+    public long getMisses() {
+        synchronized (this) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return the number of idle codecs that were closed because of the idle limit or timeout
+     */
+    public long getEvictions() {
+        synchronized (this) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return the number of codecs that are currently idle in the pool
+     */
+    public int getIdleCount() {
+        synchronized (this) {
+            int count = 0;
+            for (ArrayDeque<Idle<OpusEncoder>> queue : idleEncoders.values()) {
+                count += queue.size();
+            }
+            for (ArrayDeque<Idle<OpusDecoder>> queue : idleDecoders.values()) {
+                count += queue.size();
+            }
+            return count;
+        }
+    }
+
+    public int getMaxIdlePerKey() {
+        return maxIdlePerKey;
+    }
+
+    /**
+     * Closes all idle codecs.
+     * Codecs that are returned after closing the pool are closed immediately.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            closeAll(idleEncoders);
+            closeAll(idleDecoders);
+        }
+    }
+
+    private <T extends AutoCloseable> void closeAll(Map<Key, ArrayDeque<Idle<T>>> idle) {
+        for (ArrayDeque<Idle<T>> queue : idle.values()) {
+            for (Idle<T> entry : queue) {
+                closeIdle(entry.codec);
+            }
+        }
+        idle.clear();
+    }
+
+    private void closeIdle(AutoCloseable codec) {
+        idleCodecs.remove(codec);
+        closeCodec(codec);
+    }
+
+    private static void closeCodec(AutoCloseable codec) {
+        try {
+            codec.close();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to close codec", e);
+        }
+    }
+
+    public boolean isClosed() {
+        synchronized (this) {
+            return closed;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (this) {
+            return String.format("OpusCodecPool[hits=%d, misses=%d, evictions=%d]", hits, misses, evictions);
+        }
+    }
+
+    private static final class Idle<T> {
+        private final T codec;
+        private final long returnedAt;
+
+        private Idle(T codec, long returnedAt) {
+            this.codec = codec;
+            this.returnedAt = returnedAt;
+        }
+    }
+
+    private static final class Key {
+        private final int sampleRate;
+        private final int channels;
+        @Nullable
+        private final OpusEncoder.Application application;
+
+        private Key(int sampleRate, int channels, @Nullable OpusEncoder.Application application) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.application = application;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return sampleRate == key.sampleRate && channels == key.channels && application == key.application;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = sampleRate;
+            result = 31 * result + channels;
+            result = 31 * result + (application == null ? 0 : application.hashCode());
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package de.maxhenkel.opus4j;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link OpusCodecListener} that aggregates the statistics of all codecs it is attached to.
+ * <br>
+ * A single instance can be shared between any number of encoders and decoders.
+ * The statistics can be published through JMX with {@link #register(String)}.
+ */
+public class OpusCodecStatistics implements OpusCodecListener, OpusCodecStatisticsMXBean {
+
+    public static final String DOMAIN = "de.maxhenkel.opus4j";
+
+    private final LongAdder framesEncoded;
+    private final LongAdder bytesEncoded;
+    private final LongAdder nanosEncoded;
+    private final LatencyHistogram encodeLatency;
+
+    private final LongAdder packetsDecoded;
+    private final LongAdder bytesDecoded;
+    private final LongAdder nanosDecoded;
+    private final LongAdder concealedFrames;
+    private final LongAdder recoveredFrames;
+    private final LatencyHistogram decodeLatency;
+
+    @Nullable
+    private ObjectName objectName;
+
+    public OpusCodecStatistics() {
+        framesEncoded = new LongAdder();
+        bytesEncoded = new LongAdder();
+        nanosEncoded = new LongAdder();
+        encodeLatency = new LatencyHistogram();
+        packetsDecoded = new LongAdder();
+        bytesDecoded = new LongAdder();
+        nanosDecoded = new LongAdder();
+        concealedFrames = new LongAdder();
+        recoveredFrames = new LongAdder();
+        decodeLatency = new LatencyHistogram();
+    }
+
+    @Override
+    public void onEncode(OpusEncoder encoder, int frames, int samples, int bytes, long nanos) {
+        framesEncoded.add(frames);
+        bytesEncoded.add(bytes);
+        nanosEncoded.add(samples * 1_000_000_000L / encoder.getSampleRate());
+        encodeLatency.record(nanos);
+    }
+
+    @Override
+    public void onDecode(OpusDecoder decoder, int packets, int samples, int bytes, long nanos) {
+        packetsDecoded.add(packets);
+        bytesDecoded.add(bytes);
+        nanosDecoded.add(samples * 1_000_000_000L / decoder.getSampleRate());
+        decodeLatency.record(nanos);
+    }
+
+    @Override
+    public void onConcealment(OpusDecoder decoder, int frames, boolean fec) {
+        if (fec) {
+            recoveredFrames.add(frames);
+        } else {
+            concealedFrames.add(frames);
+        }
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server.
+     *
+     * @param name the name of the statistics - used as the <code>name</code> key of the object name
+     * @return the object name the statistics were registered with
+     * @throws JMException if the statistics could not be registered
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException(String.format("Statistics are already registered as %s", objectName));
+        }
+        ObjectName newName = new ObjectName(String.format("%s:type=%s,name=%s", DOMAIN, OpusCodecStatistics.class.getSimpleName(), ObjectName.quote(name)));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        objectName = newName;
+        return newName;
+    }
+
+    /**
+     * Removes these statistics from the platform MBean server if they were registered.
+     *
+     * @throws JMException if the statistics could not be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        objectName = null;
+    }
+
+    private static double bitrate(long bytes, long nanos) {
+        if (nanos <= 0L) {
+            return 0D;
+        }
+        return bytes * 8D * 1_000_000_000D / nanos;
+    }
+
+    @Override
+    public long getFramesEncoded() {
+        return framesEncoded.sum();
+    }
+
+    @Override
+    public long getBytesEncoded() {
+        return bytesEncoded.sum();
+    }
+
+    @Override
+    public double getAverageEncodedPacketSize() {
+        long frames = framesEncoded.sum();
+        if (frames <= 0L) {
+            return 0D;
+        }
+        return (double) bytesEncoded.sum() / (double) frames;
+    }
+
+    @Override
+    public double getEncodedBitrate() {
+        return bitrate(bytesEncoded.sum(), nanosEncoded.sum());
+    }
+
+    @Override
+    public double getEncodeLatencyMean() {
+        return encodeLatency.getMean();
+    }
+
+    @Override
+    public long getEncodeLatencyMedian() {
+        return encodeLatency.getPercentile(50D);
+    }
+
+    @Override
+    public long getEncodeLatency99thPercentile() {
+        return encodeLatency.getPercentile(99D);
+    }
+
+    @Override
+    public long getEncodeLatencyMax() {
+        return encodeLatency.getMax();
+    }
+
+    @Override
+    public long getPacketsDecoded() {
+        return packetsDecoded.sum();
+    }
+
+    @Override
+    public long getBytesDecoded() {
+        return bytesDecoded.sum();
+    }
+
+    @Override
+    public double getDecodedBitrate() {
+        return bitrate(bytesDecoded.sum(), nanosDecoded.sum());
+    }
+
+    @Override
+    public long getConcealedFrames() {
+        return concealedFrames.sum();
+    }
+
+    @Override
+    public long getRecoveredFrames() {
+        return recoveredFrames.sum();
+    }
+
+    @Override
+    public double getDecodeLatencyMean() {
+        return decodeLatency.getMean();
+    }
+
+    @Override
+    public long getDecodeLatencyMedian() {
+        return decodeLatency.getPercentile(50D);
+    }
+
+    @Override
+    public long getDecodeLatency99thPercentile() {
+        return decodeLatency.getPercentile(99D);
+    }
+
+    @Override
+    public long getDecodeLatencyMax() {
+        return decodeLatency.getMax();
+    }
+
+    @Override
+    public void reset() {
+        framesEncoded.reset();
+        bytesEncoded.reset();
+        nanosEncoded.reset();
+        encodeLatency.reset();
+        packetsDecoded.reset();
+        bytesDecoded.reset();
+        nanosDecoded.reset();
+        concealedFrames.reset();
+        recoveredFrames.reset();
+        decodeLatency.reset();
+    }
+
+}
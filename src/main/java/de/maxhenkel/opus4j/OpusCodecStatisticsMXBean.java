@@ -0,0 +1,55 @@
+package de.maxhenkel.opus4j;
+
+/**
+ * The JMX view of {@link OpusCodecStatistics}.
+ * <br>
+ * All latencies are in nanoseconds and all bitrates are in bits per second of audio.
+ */
+public interface OpusCodecStatisticsMXBean {
+
+    long getFramesEncoded();
+
+    long getBytesEncoded();
+
+    double getAverageEncodedPacketSize();
+
+    double getEncodedBitrate();
+
+    double getEncodeLatencyMean();
+
+    long getEncodeLatencyMedian();
+
+    long getEncodeLatency99thPercentile();
+
+    long getEncodeLatencyMax();
+
+    long getPacketsDecoded();
+
+    long getBytesDecoded();
+
+    double getDecodedBitrate();
+
+    /**
+     * @return the number of lost frames that were concealed using PLC
+     */
+    long getConcealedFrames();
+
+    /**
+     * @return the number of lost frames that were recovered using in-band FEC
+     */
+    long getRecoveredFrames();
+
+    double getDecodeLatencyMean();
+
+    long getDecodeLatencyMedian();
+
+    long getDecodeLatency99thPercentile();
+
+    long getDecodeLatencyMax();
+
+    /**
+     * Resets all statistics to zero.
+     */
+    void reset();
+
+}
@@ -0,0 +1,295 @@
+package de.maxhenkel.opus4j;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lowers the complexity of encoders when their combined encode time exceeds a CPU budget.
+ * <br>
+ * All registered encoders count towards the budget, but only degradable encoders have their complexity changed.
+ * {@link #tick()} needs to be called periodically, for example by a {@link java.util.concurrent.ScheduledExecutorService}.
+ * On every tick, the complexity is lowered by one step if the encode time since the last tick exceeded the budget.
+ * It is raised by one step again after the encode time stayed below the recovery threshold for a number of
+ * consecutive ticks, so the complexity doesn't oscillate around the budget.
+ * <br>
+ * The new complexity is applied by each encoder after its next encode call on the encoding thread, so this also
+ * works for encoders created with {@link OpusEncoder#unsynchronized(int, int, OpusEncoder.Application)}.
+ * <br>
+ * Encoders are only weakly referenced, so encoders that are closed and discarded without being unregistered don't
+ * keep counting as registered.
+ */
+public class OpusComplexityGovernor implements OpusComplexityGovernorMXBean {
+
+    public static final double DEFAULT_RECOVERY_THRESHOLD = 0.7D;
+    public static final int DEFAULT_RECOVERY_TICKS = 5;
+
+    private final long budgetNanos;
+    private final int minComplexity;
+    private final int maxComplexity;
+    private final double recoveryThreshold;
+    private final int recoveryTicks;
+    /**
+     * Only accessed while synchronized on the map - the registrations don't reference their encoders.
+     */
+    private final Map<OpusEncoder, Registration> encoders;
+    private final LongAdder encodeNanos;
+
+    private volatile int complexity;
+    private volatile long lastTickNanos;
+    private volatile long ticks;
+    private volatile long stepDowns;
+    private volatile long stepUps;
+    private int quietTicks;
+
+    @Nullable
+    private ObjectName objectName;
+
+    /**
+     * @param budget            the maximum combined encode time of all registered encoders per tick
+     * @param unit              the unit of {@param budget}
+     * @param minComplexity     the lowest complexity the encoders are degraded to (0 to 10)
+     * @param maxComplexity     the complexity the encoders use when the budget is not exceeded (0 to 10)
+     * @param recoveryThreshold the fraction of the budget the encode time needs to stay below to raise the complexity again
+     * @param recoveryTicks     the number of consecutive ticks below the recovery threshold before raising the complexity
+     */
+    public OpusComplexityGovernor(long budget, TimeUnit unit, int minComplexity, int maxComplexity, double recoveryThreshold, int recoveryTicks) {
+        if (budget <= 0L) {
+            throw new IllegalArgumentException(String.format("Invalid budget: %d", budget));
+        }
+        if (minComplexity < 0 || maxComplexity > 10 || minComplexity > maxComplexity) {
+            throw new IllegalArgumentException(String.format("Invalid complexity range: %d - %d", minComplexity, maxComplexity));
+        }
+        if (!(recoveryThreshold > 0D && recoveryThreshold < 1D)) {
+            throw new IllegalArgumentException(String.format("Invalid recovery threshold: %s", recoveryThreshold));
+        }
+        if (recoveryTicks <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of recovery ticks: %d", recoveryTicks));
+        }
+        this.budgetNanos = unit.toNanos(budget);
+        this.minComplexity = minComplexity;
+        this.maxComplexity = maxComplexity;
+        this.recoveryThreshold = recoveryThreshold;
+        this.recoveryTicks = recoveryTicks;
+        this.encoders = new WeakHashMap<>();
+        this.encodeNanos = new LongAdder();
+        this.complexity = maxComplexity;
+    }
+
+    /**
+     * Creates a governor that degrades the encoders from complexity 10 down to 0.
+     *
+     * @param budget the maximum combined encode time of all registered encoders per tick
+     * @param unit   the unit of {@param budget}
+     */
+    public OpusComplexityGovernor(long budget, TimeUnit unit) {
+        this(budget, unit, 0, 10, DEFAULT_RECOVERY_THRESHOLD, DEFAULT_RECOVERY_TICKS);
+    }
+
+    /**
+     * Registers an encoder.
+     * <br>
+     * The governor is added to the listener of the encoder.
+     * Replacing the listener of the encoder afterward, for example with {@link OpusEncoder#setListener(OpusCodecListener)}
+     * and <code>null</code>, removes the encoder from the control of the governor until it is registered again.
+     *
+     * @param encoder    the encoder
+     * @param degradable whether the complexity of the encoder may be changed
+     */
+    public void register(OpusEncoder encoder, boolean degradable) {
+        synchronized (encoders) {
+            OpusCodecListener listener = encoder.getListener();
+            Registration existing = encoders.get(encoder);
+            if (existing != null) {
+                if (listener == existing.installed) {
+                    throw new IllegalStateException("Encoder is already registered");
+                }
+                // The listener was replaced, so the old registration doesn't receive any encode calls anymore
+                existing.active = false;
+            }
+            Registration registration = new Registration(degradable, listener);
+            registration.installed = OpusCodecListener.combine(listener, registration);
+            encoder.setListener(registration.installed);
+            encoders.put(encoder, registration);
+        }
+    }
+
+    /**
+     * Unregisters an encoder and restores its previous listener if it wasn't changed in the meantime.
+     * <br>
+     * The complexity of the encoder is not restored.
+     * <br>
+     * This can be called from any thread.
+     * A thread confined encoder that is unregistered from another thread keeps the listener of the governor, which
+     * stops controlling the encoder and only passes the encode calls on to the previous listener.
+     *
+     * @param encoder the encoder
+     */
+    public void unregister(OpusEncoder encoder) {
+        synchronized (encoders) {
+            Registration registration = encoders.remove(encoder);
+            if (registration == null) {
+                return;
+            }
+            registration.active = false;
+            if (encoder.isClosed() || !encoder.isAccessible()) {
+                return;
+            }
+            if (encoder.getListener() == registration.installed) {
+                encoder.setListener(registration.previous);
+            }
+        }
+    }
+
+    void record(long nanos) {
+        encodeNanos.add(nanos);
+    }
+
+    /**
+     * Compares the encode time since the last tick against the budget and adjusts the complexity.
+     */
+    public synchronized void tick() {
+        long used = encodeNanos.sumThenReset();
+        lastTickNanos = used;
+        ticks++;
+        if (used > budgetNanos) {
+            quietTicks = 0;
+            if (complexity > minComplexity) {
+                complexity--;
+                stepDowns++;
+            }
+        } else if (used < budgetNanos * recoveryThreshold) {
+            quietTicks++;
+            if (quietTicks >= recoveryTicks && complexity < maxComplexity) {
+                complexity++;
+                stepUps++;
+                quietTicks = 0;
+            }
+        } else {
+            quietTicks = 0;
+        }
+    }
+
+    /**
+     * Registers the governor with the platform MBean server.
+     *
+     * @param name the name of the governor - used as the <code>name</code> key of the object name
+     * @return the object name the governor was registered with
+     * @throws JMException if the governor could not be registered
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException(String.format("Governor is already registered as %s", objectName));
+        }
+        ObjectName newName = new ObjectName(String.format("%s:type=%s,name=%s", OpusCodecStatistics.DOMAIN, OpusComplexityGovernor.class.getSimpleName(), ObjectName.quote(name)));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        objectName = newName;
+        return newName;
+    }
+
+    /**
+     * Removes the governor from the platform MBean server if it was registered.
+     *
+     * @throws JMException if the governor could not be unregistered
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public int getComplexity() {
+        return complexity;
+    }
+
+    @Override
+    public int getMinComplexity() {
+        return minComplexity;
+    }
+
+    @Override
+    public int getMaxComplexity() {
+        return maxComplexity;
+    }
+
+    @Override
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    @Override
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    @Override
+    public long getTicks() {
+        return ticks;
+    }
+
+    @Override
+    public long getStepDowns() {
+        return stepDowns;
+    }
+
+    @Override
+    public long getStepUps() {
+        return stepUps;
+    }
+
+    @Override
+    public int getRegisteredEncoders() {
+        synchronized (encoders) {
+            return encoders.size();
+        }
+    }
+
+    /**
+     * Installed as the listener of the encoder, so encode calls don't need to look up the registration.
+     */
+    private class Registration implements OpusCodecListener {
+        private final boolean degradable;
+        private final OpusCodecListener previous;
+        private OpusCodecListener installed;
+        private volatile boolean active;
+        /**
+         * Only accessed while holding the lock of the encoder.
+         */
+        private int complexity;
+
+        private Registration(boolean degradable, OpusCodecListener previous) {
+            this.degradable = degradable;
+            this.previous = previous;
+            this.installed = OpusCodecListener.NONE;
+            this.active = true;
+            this.complexity = -1;
+        }
+
+        @Override
+        public void onEncode(OpusEncoder encoder, int frames, int samples, int bytes, long nanos) {
+            if (!active) {
+                return;
+            }
+            record(nanos);
+            int target = OpusComplexityGovernor.this.complexity;
+            if (degradable && complexity != target) {
+                // Called while holding the lock of the encoder, so this works for thread confined encoders too
+                encoder.setComplexity(target);
+                complexity = target;
+            }
+        }
+    }
+
+}
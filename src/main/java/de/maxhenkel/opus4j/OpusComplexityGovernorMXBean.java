@@ -0,0 +1,41 @@
+package de.maxhenkel.opus4j;
+
+/**
+ * The JMX view of {@link OpusComplexityGovernor}.
+ */
+public interface OpusComplexityGovernorMXBean {
+
+    /**
+     * @return the complexity that is currently applied to all degradable encoders
+     */
+    int getComplexity();
+
+    int getMinComplexity();
+
+    int getMaxComplexity();
+
+    /**
+     * @return the encode time budget per tick in nanoseconds
+     */
+    long getBudgetNanos();
+
+    /**
+     * @return the total encode time of all registered encoders during the last tick in nanoseconds
+     */
+    long getLastTickNanos();
+
+    long getTicks();
+
+    /**
+     * @return the number of times the complexity was lowered because the budget was exceeded
+     */
+    long getStepDowns();
+
+    /**
+     * @return the number of times the complexity was raised again
+     */
+    long getStepUps();
+
+    int getRegisteredEncoders();
+
+}
@@ -1,14 +1,24 @@
 package de.maxhenkel.opus4j;
 
-import de.maxhenkel.nativeutils.NativeInitializer;
 import de.maxhenkel.nativeutils.UnknownPlatformException;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 
 public class OpusDecoder implements AutoCloseable {
 
-    private long decoder;
+    private final CodecLock lock;
+    private volatile long decoder;
+    private final int sampleRate;
+    private final int channels;
+    @Nullable
+    private final OpusCodecArena arena;
+    private final int slot;
+    private OpusCodecListener listener = OpusCodecListener.NONE;
 
     /**
      * Creates a new Opus decoder.
@@ -19,18 +29,66 @@ public class OpusDecoder implements AutoCloseable {
      * @throws IOException              if the native library could not be extracted
      */
     public OpusDecoder(int sampleRate, int channels) throws IOException, UnknownPlatformException {
-        synchronized (OpusDecoder.class) {
-            NativeInitializer.load("libopus4j");
-            decoder = createDecoder0(sampleRate, channels);
-        }
+        this(sampleRate, channels, CodecLock.shared());
+    }
+
+    private OpusDecoder(int sampleRate, int channels, CodecLock lock) throws IOException, UnknownPlatformException {
+        NativeLoader.load();
+        decoder = createDecoder0(sampleRate, channels);
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.lock = lock;
+        this.arena = null;
+        this.slot = -1;
+    }
+
+    /**
+     * Creates a decoder on an initialized slot of an arena.
+     * Closing the decoder returns the slot to the arena instead of freeing it.
+     */
+    OpusDecoder(long decoder, int sampleRate, int channels, OpusCodecArena arena, int slot) {
+        this.decoder = decoder;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.lock = CodecLock.shared();
+        this.arena = arena;
+        this.slot = slot;
+    }
+
+    /**
+     * Creates a new Opus decoder that is confined to the calling thread.
+     * <br>
+     * The decoder doesn't do any locking and throws an {@link IllegalStateException} if it is used by any other thread.
+     *
+     * @param sampleRate the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels   the number of channels (1 or 2)
+     * @return the decoder
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public static OpusDecoder unsynchronized(int sampleRate, int channels) throws IOException, UnknownPlatformException {
+        return new OpusDecoder(sampleRate, channels, CodecLock.confined());
+    }
+
+    /**
+     * @return <code>true</code> if this decoder was created with {@link #unsynchronized(int, int)}
+     */
+    public boolean isThreadConfined() {
+        return lock.isThreadConfined();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
     }
 
     private static native String getOpusVersion0();
 
     public String getOpusVersion() {
-        synchronized (this) {
-            return getOpusVersion0();
-        }
+        return getOpusVersion0();
     }
 
     private static native long createDecoder0(int sampleRate, int channels) throws IOException;
@@ -38,16 +96,98 @@ public class OpusDecoder implements AutoCloseable {
     private native void setFrameSize0(long decoderPointer, int frameSize);
 
     public void setFrameSize(int frameSize) {
-        synchronized (this) {
+        lock.lock();
+        try {
             setFrameSize0(decoder, frameSize);
+        } finally {
+            lock.unlock();
         }
     }
 
     private native int getFrameSize0(long decoderPointer);
 
     public int getFrameSize() {
-        synchronized (this) {
+        lock.lock();
+        try {
             return getFrameSize0(decoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void setGain0(long decoderPointer, int gain);
+
+    /**
+     * Sets the gain that is applied to the decoded audio.
+     *
+     * @param gain the gain in Q8 dB (-32768 to 32767) - <code>256</code> equals 1 dB
+     */
+    public void setGain(int gain) {
+        lock.lock();
+        try {
+            setGain0(decoder, gain);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int getGain0(long decoderPointer);
+
+    /**
+     * @return the gain in Q8 dB
+     */
+    public int getGain() {
+        lock.lock();
+        try {
+            return getGain0(decoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void setComplexity0(long decoderPointer, int complexity);
+
+    /**
+     * Sets the computational complexity of the decoder.
+     * <br>
+     * If the natives were built with the <code>opus_dred</code> build option, higher complexities enable the neural
+     * decoder features: <code>5</code> and above use deep PLC for lost packets and DRED reconstruction,
+     * <code>6</code> enables LACE and <code>7</code> and above enable NoLACE to enhance low bitrate speech.
+     * Otherwise, the complexity has no effect.
+     *
+     * @param complexity the complexity (0 to 10) - defaults to <code>0</code>
+     */
+    public void setComplexity(int complexity) {
+        lock.lock();
+        try {
+            setComplexity0(decoder, complexity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int getComplexity0(long decoderPointer);
+
+    public int getComplexity() {
+        lock.lock();
+        try {
+            return getComplexity0(decoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int getLastPacketDuration0(long decoderPointer);
+
+    /**
+     * @return the number of samples per channel of the last decoded or concealed packet
+     */
+    public int getLastPacketDuration() {
+        lock.lock();
+        try {
+            return getLastPacketDuration0(decoder);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -63,8 +203,14 @@ public class OpusDecoder implements AutoCloseable {
      */
     @Deprecated
     public short[] decode(@Nullable byte[] input, boolean fec) {
-        synchronized (this) {
-            return decode0(decoder, input, fec);
+        lock.lock();
+        try {
+            long startTime = startTime();
+            short[] audio = decode0(decoder, input, fec);
+            onDecode(startTime, input == null ? 0 : 1, audio.length / channels, input == null ? 0 : input.length);
+            return audio;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -87,6 +233,26 @@ public class OpusDecoder implements AutoCloseable {
         return decode(null, true);
     }
 
+    private native float[] decodeFloat0(long decoderPointer, @Nullable byte[] input, boolean fec);
+
+    /**
+     * Decodes the provided packet to float PCM.
+     *
+     * @param input the input packet or <code>null</code> to do PLC
+     * @return the decoded audio with samples in the range of <code>-1</code> to <code>1</code>
+     */
+    public float[] decodeFloat(@Nullable byte[] input) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            float[] audio = decodeFloat0(decoder, input, false);
+            onDecode(startTime, input == null ? 0 : 1, audio.length / channels, input == null ? 0 : input.length);
+            return audio;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private native short[][] decodeRecover0(long decoderPointer, byte[] input, int frames);
 
     /**
@@ -107,16 +273,450 @@ public class OpusDecoder implements AutoCloseable {
      * @return an array containing the decoded frames - the length of the array is equal to {@param frames}
      */
     public short[][] decode(byte[] input, int frames) {
-        synchronized (this) {
-            return decodeRecover0(decoder, input, frames);
+        lock.lock();
+        try {
+            long startTime = startTime();
+            short[][] audio = decodeRecover0(decoder, input, frames);
+            onRecover(startTime, input, frames, audio);
+            return audio;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native float[][] decodeRecoverFloat0(long decoderPointer, byte[] input, int frames);
+
+    /**
+     * Decodes the provided packet to float PCM and recovers previous lost frames using FEC.
+     *
+     * @see #decode(byte[], int)
+     */
+    public float[][] decodeFloat(byte[] input, int frames) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            float[][] audio = decodeRecoverFloat0(decoder, input, frames);
+            onRecover(startTime, input, frames, audio);
+            return audio;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeInto0(long decoderPointer, @Nullable byte[] input, int inputOffset, int inputLength, short[] output, int outputOffset);
+
+    /**
+     * Decodes the provided packet into the provided output array without allocating any memory.
+     * <br>
+     * The output array needs to have room for at least {@link #getFrameSize()} samples per channel.
+     *
+     * @param input        the input packet or <code>null</code> to do PLC
+     * @param inputOffset  the index of the first byte of the packet in {@param input}
+     * @param inputLength  the length of the packet in bytes
+     * @param output       the array to write the decoded audio to
+     * @param outputOffset the index in {@param output} to start writing the decoded audio at
+     * @return the number of decoded samples per channel
+     */
+    public int decode(@Nullable byte[] input, int inputOffset, int inputLength, short[] output, int outputOffset) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int samples = decodeInto0(decoder, input, inputOffset, inputLength, output, outputOffset);
+            onDecode(startTime, input == null ? 0 : 1, samples, inputLength);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeFloatInto0(long decoderPointer, @Nullable byte[] input, int inputOffset, int inputLength, float[] output, int outputOffset);
+
+    /**
+     * Decodes the provided packet to float PCM into the provided output array without allocating any memory.
+     *
+     * @see #decode(byte[], int, int, short[], int)
+     */
+    public int decode(@Nullable byte[] input, int inputOffset, int inputLength, float[] output, int outputOffset) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int samples = decodeFloatInto0(decoder, input, inputOffset, inputLength, output, outputOffset);
+            onDecode(startTime, input == null ? 0 : 1, samples, inputLength);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeRecoverInto0(long decoderPointer, byte[] input, int inputOffset, int inputLength, int frames, short[] output, int outputOffset, @Nullable int[] frameSizes);
+
+    /**
+     * Decodes the provided packet and recovers previous lost frames using FEC without allocating any memory.
+     * <br>
+     * This behaves like {@link #decode(byte[], int)}, but writes all frames contiguously into {@param output}.
+     * The output array needs to have room for at least {@param frames} times {@link #getFrameSize()} samples per channel.
+     *
+     * @param input        the input packet
+     * @param inputOffset  the index of the first byte of the packet in {@param input}
+     * @param inputLength  the length of the packet in bytes
+     * @param frames       the number of frames to decode (min 1 for just the current frame)
+     * @param output       the array to write the decoded audio to
+     * @param outputOffset the index in {@param output} to start writing the decoded audio at
+     * @param frameSizes   an optional array that receives the number of samples per channel of each frame
+     * @return the total number of decoded samples per channel
+     */
+    public int decode(byte[] input, int inputOffset, int inputLength, int frames, short[] output, int outputOffset, @Nullable int[] frameSizes) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int samples = decodeRecoverInto0(decoder, input, inputOffset, inputLength, frames, output, outputOffset, frameSizes);
+            onRecover(startTime, input, inputOffset, inputLength, frames, samples);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeRecoverFloatInto0(long decoderPointer, byte[] input, int inputOffset, int inputLength, int frames, float[] output, int outputOffset, @Nullable int[] frameSizes);
+
+    /**
+     * Decodes the provided packet to float PCM and recovers previous lost frames using FEC without allocating any memory.
+     *
+     * @see #decode(byte[], int, int, int, short[], int, int[])
+     */
+    public int decode(byte[] input, int inputOffset, int inputLength, int frames, float[] output, int outputOffset, @Nullable int[] frameSizes) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int samples = decodeRecoverFloatInto0(decoder, input, inputOffset, inputLength, frames, output, outputOffset, frameSizes);
+            onRecover(startTime, input, inputOffset, inputLength, frames, samples);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeDirect0(long decoderPointer, @Nullable ByteBuffer input, int inputOffset, int inputLength, ShortBuffer output, int outputOffset, int outputCapacity);
+
+    /**
+     * Decodes the remaining bytes of the input buffer as a single packet without copying any data.
+     * <br>
+     * Both buffers need to be direct and the output buffer needs to use the native byte order.
+     * The output buffer needs to have room for at least {@link #getFrameSize()} samples per channel between its
+     * position and its limit.
+     * On success, the position of the input buffer is set to its limit and the position of the output buffer is
+     * advanced by the number of decoded samples.
+     *
+     * @param input  the input packet or <code>null</code> to do PLC
+     * @param output the buffer to write the decoded audio to
+     * @return the number of decoded samples per channel
+     */
+    public int decode(@Nullable ByteBuffer input, ShortBuffer output) {
+        if (output.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Output buffer must use the native byte order");
+        }
+        lock.lock();
+        try {
+            int inputOffset = input == null ? 0 : input.position();
+            int inputLength = input == null ? 0 : input.remaining();
+            long startTime = startTime();
+            int samples = decodeDirect0(decoder, input, inputOffset, inputLength, output, output.position(), output.remaining());
+            onDecode(startTime, input == null ? 0 : 1, samples, inputLength);
+            if (input != null) {
+                input.position(input.limit());
+            }
+            output.position(output.position() + samples * channels);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeFloatDirect0(long decoderPointer, @Nullable ByteBuffer input, int inputOffset, int inputLength, FloatBuffer output, int outputOffset, int outputCapacity);
+
+    /**
+     * Decodes the remaining bytes of the input buffer to float PCM without copying any data.
+     *
+     * @see #decode(ByteBuffer, ShortBuffer)
+     */
+    public int decode(@Nullable ByteBuffer input, FloatBuffer output) {
+        if (output.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Output buffer must use the native byte order");
+        }
+        lock.lock();
+        try {
+            int inputOffset = input == null ? 0 : input.position();
+            int inputLength = input == null ? 0 : input.remaining();
+            long startTime = startTime();
+            int samples = decodeFloatDirect0(decoder, input, inputOffset, inputLength, output, output.position(), output.remaining());
+            onDecode(startTime, input == null ? 0 : 1, samples, inputLength);
+            if (input != null) {
+                input.position(input.limit());
+            }
+            output.position(output.position() + samples * channels);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeGap0(long decoderPointer, short[] output, int outputOffset, int samples);
+
+    /**
+     * Fills a gap in the stream, for example frames that were skipped by the silence detection of the encoder
+     * (see {@link OpusEncoder#setSilenceDetection(double, int)}) or packets that were lost.
+     * <br>
+     * This uses packet loss concealment, which continues the last decoded audio and fades into comfort noise for
+     * longer gaps.
+     * The gap is not limited by {@link #getFrameSize()}.
+     * If opus stops concealing before the end of the gap, the rest is filled with silence.
+     *
+     * @param output       the array to write the generated audio to
+     * @param outputOffset the index in {@param output} to start writing the generated audio at
+     * @param samples      the number of samples per channel to generate - needs to be a multiple of 2.5 ms
+     * @return the number of generated samples per channel
+     */
+    public int decodeGap(short[] output, int outputOffset, int samples) {
+        if (samples <= 0 || samples % (sampleRate / 400) != 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of samples: %d", samples));
+        }
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int decoded = decodeGap0(decoder, output, outputOffset, samples);
+            onDecode(startTime, 0, decoded, 0);
+            return decoded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeBatch0(long decoderPointer, byte[] input, int[] packetOffsets, int[] packetLengths, int packets, short[] output, int outputOffset, @Nullable int[] frameSizes);
+
+    /**
+     * Decodes multiple consecutive packets in a single call.
+     * <br>
+     * Packet <code>i</code> is read from {@param input} at <code>packetOffsets[i]</code> with a length of
+     * <code>packetLengths[i]</code> bytes. A packet length of <code>0</code> does PLC for that frame.
+     * The decoded frames are written back to back to {@param output}, which needs to have room for at least
+     * {@param packets} times {@link #getFrameSize()} samples per channel.
+     *
+     * @param input         the array containing the packets
+     * @param packetOffsets the index of each packet in {@param input}
+     * @param packetLengths the length of each packet in bytes
+     * @param packets       the number of packets to decode
+     * @param output        the array to write the decoded audio to
+     * @param outputOffset  the index in {@param output} to start writing the decoded audio at
+     * @param frameSizes    an optional array that receives the number of samples per channel of each frame
+     * @return the total number of decoded samples per channel
+     */
+    public int decodeBatch(byte[] input, int[] packetOffsets, int[] packetLengths, int packets, short[] output, int outputOffset, @Nullable int[] frameSizes) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int samples = decodeBatch0(decoder, input, packetOffsets, packetLengths, packets, output, outputOffset, frameSizes);
+            onDecodeBatch(startTime, packetLengths, packets, samples);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeFloatBatch0(long decoderPointer, byte[] input, int[] packetOffsets, int[] packetLengths, int packets, float[] output, int outputOffset, @Nullable int[] frameSizes);
+
+    /**
+     * Decodes multiple consecutive packets to float PCM in a single call.
+     *
+     * @see #decodeBatch(byte[], int[], int[], int, short[], int, int[])
+     */
+    public int decodeBatch(byte[] input, int[] packetOffsets, int[] packetLengths, int packets, float[] output, int outputOffset, @Nullable int[] frameSizes) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int samples = decodeFloatBatch0(decoder, input, packetOffsets, packetLengths, packets, output, outputOffset, frameSizes);
+            onDecodeBatch(startTime, packetLengths, packets, samples);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reconstructs lost audio from the DRED data that was parsed by {@param dred} from a packet received after the loss.
+     * <br>
+     * Lost frames are reconstructed in order, starting with the oldest one.
+     * The offset of a frame is the number of samples per channel between the start of that frame and the start of the
+     * audio of the packet the DRED data was parsed from.
+     * For example, if two 20 ms frames at 48 kHz were lost, the offsets of the lost frames are <code>1920</code> and
+     * <code>960</code>.
+     * A frame can only be reconstructed if its offset doesn't exceed {@link OpusDredDecoder#getAvailableSamples()}.
+     * Set the complexity to at least <code>5</code> (see {@link #setComplexity(int)}) for the best quality.
+     *
+     * @param dred         the DRED decoder containing the parsed redundancy - needs to use the sample rate of this decoder
+     * @param dredOffset   the position of the frame to reconstruct in samples per channel before the start of the parsed packet
+     * @param output       the array to write the reconstructed audio to
+     * @param outputOffset the index in {@param output} to start writing the reconstructed audio at
+     * @param frameSize    the number of samples per channel to reconstruct - needs to be a multiple of 2.5 ms
+     * @return the number of reconstructed samples per channel
+     */
+    public int decodeDred(OpusDredDecoder dred, int dredOffset, short[] output, int outputOffset, int frameSize) {
+        // The offsets are in samples of the DRED decoder, so they would be misinterpreted at a different sample rate
+        if (dred.getSampleRate() != sampleRate) {
+            throw new IllegalArgumentException(String.format("Invalid DRED decoder sample rate: %d", dred.getSampleRate()));
+        }
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int samples = dred.decode(decoder, dredOffset, output, outputOffset, frameSize);
+            if (listener != OpusCodecListener.NONE) {
+                listener.onDecode(this, 0, samples, 0, System.nanoTime() - startTime);
+                listener.onConcealment(this, 1, true);
+            }
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the listener that receives the timings and sizes of all decode calls.
+     *
+     * @param listener the listener or <code>null</code> to disable instrumentation
+     */
+    public void setListener(@Nullable OpusCodecListener listener) {
+        lock.lock();
+        try {
+            this.listener = listener == null ? OpusCodecListener.NONE : listener;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public OpusCodecListener getListener() {
+        lock.lock();
+        try {
+            return listener;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must only be called while holding the lock.
+     *
+     * @return the current time or <code>0</code> if there is no listener
+     */
+    private long startTime() {
+        if (listener == OpusCodecListener.NONE) {
+            return 0L;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Must only be called while holding the lock.
+     */
+    private void onDecode(long startTime, int packets, int samples, int bytes) {
+        if (listener == OpusCodecListener.NONE) {
+            return;
+        }
+        listener.onDecode(this, packets, samples, bytes, System.nanoTime() - startTime);
+        if (packets <= 0) {
+            listener.onConcealment(this, 1, false);
+        }
+    }
+
+    /**
+     * Must only be called while holding the lock.
+     */
+    private void onRecover(long startTime, byte[] input, int inputOffset, int inputLength, int frames, int samples) {
+        if (listener == OpusCodecListener.NONE) {
+            return;
+        }
+        listener.onDecode(this, 1, samples, inputLength, System.nanoTime() - startTime);
+        if (frames >= 3) {
+            listener.onConcealment(this, frames - 2, false);
+        }
+        if (frames >= 2) {
+            // The decoder falls back to PLC if the packet doesn't contain any FEC data
+            listener.onConcealment(this, 1, OpusPacket.hasLbrr(input, inputOffset, inputLength));
+        }
+    }
+
+    /**
+     * Must only be called while holding the lock.
+     */
+    private void onDecodeBatch(long startTime, int[] packetLengths, int packets, int samples) {
+        if (listener == OpusCodecListener.NONE) {
+            return;
+        }
+        int decoded = 0;
+        int bytes = 0;
+        for (int i = 0; i < packets; i++) {
+            if (packetLengths[i] > 0) {
+                decoded++;
+                bytes += packetLengths[i];
+            }
+        }
+        listener.onDecode(this, decoded, samples, bytes, System.nanoTime() - startTime);
+        if (decoded < packets) {
+            listener.onConcealment(this, packets - decoded, false);
+        }
+    }
+
+    /**
+     * Must only be called while holding the lock.
+     */
+    private void onRecover(long startTime, byte[] input, int frames, short[][] audio) {
+        if (listener == OpusCodecListener.NONE) {
+            return;
+        }
+        int length = 0;
+        for (short[] frame : audio) {
+            length += frame.length;
+        }
+        onRecover(startTime, input, 0, input.length, frames, length / channels);
+    }
+
+    /**
+     * Must only be called while holding the lock.
+     */
+    private void onRecover(long startTime, byte[] input, int frames, float[][] audio) {
+        if (listener == OpusCodecListener.NONE) {
+            return;
+        }
+        int length = 0;
+        for (float[] frame : audio) {
+            length += frame.length;
+        }
+        onRecover(startTime, input, 0, input.length, frames, length / channels);
+    }
+
+    private native long getFinalRange0(long decoderPointer);
+
+    /**
+     * The final state of the range coder after decoding the last packet.
+     *
+     * @return the final range as an unsigned 32 bit value
+     * @see OpusEncoder#getFinalRange()
+     */
+    public long getFinalRange() {
+        lock.lock();
+        try {
+            return getFinalRange0(decoder);
+        } finally {
+            lock.unlock();
         }
     }
 
     private native void resetState0(long decoderPointer);
 
     public void resetState() {
-        synchronized (this) {
+        lock.lock();
+        try {
             resetState0(decoder);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -124,22 +724,38 @@ public class OpusDecoder implements AutoCloseable {
 
     @Override
     public void close() {
-        synchronized (this) {
-            destroyDecoder0(decoder);
+        lock.lock();
+        try {
+            if (arena == null) {
+                destroyDecoder0(decoder);
+            } else if (decoder != 0L) {
+                arena.releaseDecoder(slot);
+            }
             decoder = 0L;
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Must only be used while holding the lock of this decoder.
+     *
+     * @return the native decoder pointer
+     */
+    long getPointer() {
+        return decoder;
+    }
+
+    CodecLock getLock() {
+        return lock;
+    }
+
     public boolean isClosed() {
-        synchronized (this) {
-            return decoder == 0L;
-        }
+        return decoder == 0L;
     }
 
     @Override
     public String toString() {
-        synchronized (this) {
-            return String.format("OpusDecoder[%d]", decoder);
-        }
+        return String.format("OpusDecoder[%d]", decoder);
     }
 }
@@ -0,0 +1,163 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import java.io.IOException;
+
+/**
+ * Parses the Deep REDundancy (DRED) data of received packets, so lost audio can be reconstructed with
+ * {@link OpusDecoder#decodeDred(OpusDredDecoder, int, short[], int, int)}.
+ * <br>
+ * DRED needs natives that were built with the <code>opus_dred</code> build option and an encoder with a non-zero
+ * {@link OpusEncoder#setDredDuration(int)}.
+ * Creating a DRED decoder fails with an {@link IOException} if the natives were built without DRED.
+ * <br>
+ * After a loss, parse the first packet that was received afterward and reconstruct the lost frames before decoding it.
+ * Only the data of the last parsed packet is kept.
+ */
+public class OpusDredDecoder implements AutoCloseable {
+
+    private final CodecLock lock = CodecLock.shared();
+    private final int sampleRate;
+    private final int[] end = new int[1];
+    private long dredDecoder;
+    private int availableSamples;
+    private int endSamples;
+
+    /**
+     * Creates a new DRED decoder.
+     *
+     * @param sampleRate the sample rate of the decoder the audio is reconstructed with (8000, 12000, 16000, 24000, or 48000)
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted or doesn't support DRED
+     */
+    public OpusDredDecoder(int sampleRate) throws IOException, UnknownPlatformException {
+        if (sampleRate != 8000 && sampleRate != 12000 && sampleRate != 16000 && sampleRate != 24000 && sampleRate != 48000) {
+            throw new IllegalArgumentException(String.format("Invalid sample rate: %d", sampleRate));
+        }
+        NativeLoader.load();
+        dredDecoder = createDredDecoder0(sampleRate);
+        this.sampleRate = sampleRate;
+    }
+
+    private static native long createDredDecoder0(int sampleRate) throws IOException;
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    private native int parse0(long dredDecoderPointer, byte[] input, int inputOffset, int inputLength, int maxSamples, int[] end) throws IOException;
+
+    /**
+     * Parses the DRED data of a packet, replacing the data of the previously parsed packet.
+     * <br>
+     * Only the redundancy up to {@param maxSamples} before the start of the packet is decoded, so this should be
+     * limited to the duration of the loss.
+     *
+     * @param input       the array containing the packet
+     * @param inputOffset the index of the packet in {@param input}
+     * @param inputLength the length of the packet in bytes
+     * @param maxSamples  the maximum number of samples per channel before the start of the packet to decode
+     * @return the number of samples per channel before the start of the packet that can be reconstructed or <code>0</code> if the packet doesn't contain any DRED data
+     * @throws IOException if the packet is invalid
+     */
+    public int parse(byte[] input, int inputOffset, int inputLength, int maxSamples) throws IOException {
+        if (maxSamples < 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of samples: %d", maxSamples));
+        }
+        lock.lock();
+        try {
+            availableSamples = 0;
+            endSamples = 0;
+            end[0] = 0;
+            availableSamples = parse0(dredDecoder, input, inputOffset, inputLength, maxSamples, end);
+            endSamples = end[0];
+            return availableSamples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @see #parse(byte[], int, int, int)
+     */
+    public int parse(byte[] input, int maxSamples) throws IOException {
+        return parse(input, 0, input.length, maxSamples);
+    }
+
+    /**
+     * @return the number of samples per channel before the start of the last parsed packet that can be reconstructed
+     */
+    public int getAvailableSamples() {
+        lock.lock();
+        try {
+            return availableSamples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The most recent part of the redundancy can be missing, for example if the encoder was still in silence.
+     * Reconstructing this part only produces silence.
+     *
+     * @return the number of samples per channel right before the start of the last parsed packet that are not covered by the DRED data
+     */
+    public int getEndSamples() {
+        lock.lock();
+        try {
+            return endSamples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decode0(long dredDecoderPointer, long decoderPointer, int dredOffset, short[] output, int outputOffset, int frameSize);
+
+    /**
+     * Must only be called while holding the lock of the decoder.
+     */
+    int decode(long decoderPointer, int dredOffset, short[] output, int outputOffset, int frameSize) {
+        lock.lock();
+        try {
+            return decode0(dredDecoder, decoderPointer, dredOffset, output, outputOffset, frameSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void destroyDredDecoder0(long dredDecoderPointer);
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            destroyDredDecoder0(dredDecoder);
+            dredDecoder = 0L;
+            availableSamples = 0;
+            endSamples = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return dredDecoder == 0L;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("OpusDredDecoder[%d]", dredDecoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -1,13 +1,72 @@
 package de.maxhenkel.opus4j;
 
-import de.maxhenkel.nativeutils.NativeInitializer;
 import de.maxhenkel.nativeutils.UnknownPlatformException;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 
 public class OpusEncoder implements AutoCloseable {
 
-    private long encoder;
+    /**
+     * Lets the encoder choose the bitrate based on the sample rate and the number of channels.
+     */
+    public static final int BITRATE_AUTO = -1000;
+    /**
+     * Uses as many bits as possible, limited by the maximum payload size.
+     */
+    public static final int BITRATE_MAX = -1;
+    /**
+     * Disables the silence detection.
+     */
+    public static final double SILENCE_DETECTION_DISABLED = Double.NEGATIVE_INFINITY;
+    /**
+     * The interval in milliseconds in which a frame is encoded during silence, like opus does with DTX.
+     */
+    public static final int SILENCE_REFRESH_INTERVAL = 400;
+
+    private static final byte[] NO_PACKET = new byte[0];
+
+    private static final int SET_BITRATE_REQUEST = 4002;
+    private static final int GET_BITRATE_REQUEST = 4003;
+    private static final int SET_MAX_BANDWIDTH_REQUEST = 4004;
+    private static final int GET_MAX_BANDWIDTH_REQUEST = 4005;
+    private static final int SET_VBR_REQUEST = 4006;
+    private static final int GET_VBR_REQUEST = 4007;
+    private static final int SET_COMPLEXITY_REQUEST = 4010;
+    private static final int GET_COMPLEXITY_REQUEST = 4011;
+    private static final int SET_INBAND_FEC_REQUEST = 4012;
+    private static final int GET_INBAND_FEC_REQUEST = 4013;
+    private static final int SET_DTX_REQUEST = 4016;
+    private static final int GET_DTX_REQUEST = 4017;
+    private static final int SET_VBR_CONSTRAINT_REQUEST = 4020;
+    private static final int GET_VBR_CONSTRAINT_REQUEST = 4021;
+    private static final int SET_SIGNAL_REQUEST = 4024;
+    private static final int GET_SIGNAL_REQUEST = 4025;
+    private static final int GET_LOOKAHEAD_REQUEST = 4027;
+    private static final int SET_EXPERT_FRAME_DURATION_REQUEST = 4040;
+    private static final int GET_EXPERT_FRAME_DURATION_REQUEST = 4041;
+    private static final int GET_IN_DTX_REQUEST = 4049;
+    private static final int SET_DRED_DURATION_REQUEST = 4050;
+    private static final int GET_DRED_DURATION_REQUEST = 4051;
+
+    private final CodecLock lock;
+    private volatile long encoder;
+    private final int sampleRate;
+    private final int channels;
+    private final Application application;
+    @Nullable
+    private final OpusCodecArena arena;
+    private final int slot;
+    private OpusCodecListener listener = OpusCodecListener.NONE;
+    private double silenceThreshold = SILENCE_DETECTION_DISABLED;
+    private double silenceEnergy = -1D;
+    private int hangoverSamples;
+    private int silentSamples;
+    private int samplesSinceRefresh;
 
     /**
      * Creates a new Opus encoder.
@@ -19,16 +78,80 @@ public class OpusEncoder implements AutoCloseable {
      * @throws IOException              if the native library could not be extracted
      */
     public OpusEncoder(int sampleRate, int channels, Application application) throws IOException, UnknownPlatformException {
-        NativeInitializer.load("libopus4j");
+        this(sampleRate, channels, application, CodecLock.shared());
+    }
+
+    private OpusEncoder(int sampleRate, int channels, Application application, CodecLock lock) throws IOException, UnknownPlatformException {
+        NativeLoader.load();
         encoder = createEncoder0(sampleRate, channels, application);
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.application = application;
+        this.lock = lock;
+        this.arena = null;
+        this.slot = -1;
+    }
+
+    /**
+     * Creates an encoder on an initialized slot of an arena.
+     * Closing the encoder returns the slot to the arena instead of freeing it.
+     */
+    OpusEncoder(long encoder, int sampleRate, int channels, Application application, OpusCodecArena arena, int slot) {
+        this.encoder = encoder;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.application = application;
+        this.lock = CodecLock.shared();
+        this.arena = arena;
+        this.slot = slot;
+    }
+
+    /**
+     * Creates a new Opus encoder that is confined to the calling thread.
+     * <br>
+     * The encoder doesn't do any locking and throws an {@link IllegalStateException} if it is used by any other thread.
+     *
+     * @param sampleRate  the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels    the number of channels (1 or 2)
+     * @param application the application (VOIP, AUDIO, or LOW_DELAY)
+     * @return the encoder
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public static OpusEncoder unsynchronized(int sampleRate, int channels, Application application) throws IOException, UnknownPlatformException {
+        return new OpusEncoder(sampleRate, channels, application, CodecLock.confined());
+    }
+
+    /**
+     * @return <code>true</code> if this encoder was created with {@link #unsynchronized(int, int, Application)}
+     */
+    public boolean isThreadConfined() {
+        return lock.isThreadConfined();
+    }
+
+    /**
+     * @return <code>false</code> if this encoder is thread confined and the calling thread is not its owner
+     */
+    boolean isAccessible() {
+        return lock.isAccessible();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public Application getApplication() {
+        return application;
     }
 
     private static native String getOpusVersion0();
 
     public String getOpusVersion() {
-        synchronized (this) {
-            return getOpusVersion0();
-        }
+        return getOpusVersion0();
     }
 
     private static native long createEncoder0(int sampleRate, int channels, Application application) throws IOException;
@@ -36,48 +159,618 @@ public class OpusEncoder implements AutoCloseable {
     private native void setMaxPayloadSize0(long encoderPointer, int maxPayloadSize);
 
     public void setMaxPayloadSize(int maxPayloadSize) {
-        synchronized (this) {
+        lock.lock();
+        try {
             setMaxPayloadSize0(encoder, maxPayloadSize);
+        } finally {
+            lock.unlock();
         }
     }
 
     private native int getMaxPayloadSize0(long encoderPointer);
 
     public int getMaxPayloadSize() {
-        synchronized (this) {
+        lock.lock();
+        try {
             return getMaxPayloadSize0(encoder);
+        } finally {
+            lock.unlock();
         }
     }
 
     private native void setMaxPacketLossPercentage0(long encoderPointer, float maxPacketLossPercentage);
 
     public void setMaxPacketLossPercentage(float maxPacketLossPercentage) {
-        synchronized (this) {
+        lock.lock();
+        try {
             setMaxPacketLossPercentage0(encoder, maxPacketLossPercentage);
+        } finally {
+            lock.unlock();
         }
     }
 
     private native float getMaxPacketLossPercentage0(long encoderPointer);
 
     public float getMaxPacketLossPercentage() {
-        synchronized (this) {
+        lock.lock();
+        try {
             return getMaxPacketLossPercentage0(encoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void setOption0(long encoderPointer, int request, int value);
+
+    private native int getOption0(long encoderPointer, int request);
+
+    private void setOption(int request, int value) {
+        lock.lock();
+        try {
+            setOption0(encoder, request, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getOption(int request) {
+        lock.lock();
+        try {
+            return getOption0(encoder, request);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the target bitrate.
+     *
+     * @param bitrate the bitrate in bits per second (500 to 512000), {@link #BITRATE_AUTO} or {@link #BITRATE_MAX}
+     */
+    public void setBitrate(int bitrate) {
+        if (bitrate != BITRATE_AUTO && bitrate != BITRATE_MAX && (bitrate < 500 || bitrate > 512000)) {
+            throw new IllegalArgumentException(String.format("Invalid bitrate: %d", bitrate));
+        }
+        setOption(SET_BITRATE_REQUEST, bitrate);
+    }
+
+    /**
+     * @return the bitrate in bits per second that is currently used - this resolves {@link #BITRATE_AUTO} and {@link #BITRATE_MAX}
+     */
+    public int getBitrate() {
+        return getOption(GET_BITRATE_REQUEST);
+    }
+
+    /**
+     * Sets the computational complexity of the encoder.
+     * <br>
+     * Lower values reduce the CPU usage at the cost of quality.
+     *
+     * @param complexity the complexity (0 to 10)
+     */
+    public void setComplexity(int complexity) {
+        if (complexity < 0 || complexity > 10) {
+            throw new IllegalArgumentException(String.format("Invalid complexity: %d", complexity));
+        }
+        setOption(SET_COMPLEXITY_REQUEST, complexity);
+    }
+
+    public int getComplexity() {
+        return getOption(GET_COMPLEXITY_REQUEST);
+    }
+
+    /**
+     * @param vbr <code>true</code> for variable bitrate, <code>false</code> for constant bitrate
+     */
+    public void setVbr(boolean vbr) {
+        setOption(SET_VBR_REQUEST, vbr ? 1 : 0);
+    }
+
+    public boolean isVbr() {
+        return getOption(GET_VBR_REQUEST) != 0;
+    }
+
+    /**
+     * Only has an effect if variable bitrate is enabled.
+     *
+     * @param constrained <code>true</code> to limit the bitrate variation to the size of a single frame
+     */
+    public void setVbrConstraint(boolean constrained) {
+        setOption(SET_VBR_CONSTRAINT_REQUEST, constrained ? 1 : 0);
+    }
+
+    public boolean isVbrConstraint() {
+        return getOption(GET_VBR_CONSTRAINT_REQUEST) != 0;
+    }
+
+    /**
+     * Enables discontinuous transmission.
+     * <br>
+     * During silence, the encoder only produces a packet every 400 ms and one or two byte packets otherwise.
+     *
+     * @param dtx whether to enable discontinuous transmission
+     */
+    public void setDtx(boolean dtx) {
+        setOption(SET_DTX_REQUEST, dtx ? 1 : 0);
+    }
+
+    public boolean isDtx() {
+        return getOption(GET_DTX_REQUEST) != 0;
+    }
+
+    /**
+     * @return <code>true</code> if the last encoded frame was silence and discontinuous transmission is active
+     */
+    public boolean isInDtx() {
+        return getOption(GET_IN_DTX_REQUEST) != 0;
+    }
+
+    /**
+     * @param signal the type of the signal that is encoded
+     */
+    public void setSignal(Signal signal) {
+        setOption(SET_SIGNAL_REQUEST, signal.value);
+    }
+
+    public Signal getSignal() {
+        return Signal.fromValue(getOption(GET_SIGNAL_REQUEST));
+    }
+
+    /**
+     * @param bandwidth the maximum bandwidth the encoder may use
+     */
+    public void setMaxBandwidth(Bandwidth bandwidth) {
+        setOption(SET_MAX_BANDWIDTH_REQUEST, bandwidth.getValue());
+    }
+
+    public Bandwidth getMaxBandwidth() {
+        return Bandwidth.fromValue(getOption(GET_MAX_BANDWIDTH_REQUEST));
+    }
+
+    /**
+     * Forces a frame duration, which needs to be smaller than or equal to the frame size passed to the encode methods.
+     *
+     * @param frameDuration the frame duration or {@link FrameDuration#ARGUMENT} to use the frame size of each encode call
+     */
+    public void setFrameDuration(FrameDuration frameDuration) {
+        setOption(SET_EXPERT_FRAME_DURATION_REQUEST, frameDuration.value);
+    }
+
+    public FrameDuration getFrameDuration() {
+        return FrameDuration.fromValue(getOption(GET_EXPERT_FRAME_DURATION_REQUEST));
+    }
+
+    /**
+     * Note that FEC data is only included if {@link #setMaxPacketLossPercentage(float)} is set to a non-zero value.
+     *
+     * @param inbandFec the in-band FEC mode - defaults to {@link InbandFec#ENABLED_WITHOUT_SILK_SWITCH}
+     */
+    public void setInbandFec(InbandFec inbandFec) {
+        setOption(SET_INBAND_FEC_REQUEST, inbandFec.value);
+    }
+
+    public InbandFec getInbandFec() {
+        return InbandFec.fromValue(getOption(GET_INBAND_FEC_REQUEST));
+    }
+
+    /**
+     * Sets the amount of past audio that is redundantly encoded into every packet using Deep REDundancy (DRED).
+     * A decoder can use {@link OpusDredDecoder} to reconstruct lost audio from a later packet.
+     * <br>
+     * DRED is only included if {@link #setMaxPacketLossPercentage(float)} is set to a non-zero value and the bitrate is
+     * high enough to fit the redundancy.
+     * This requires natives that were built with the <code>opus_dred</code> build option, otherwise the DRED options
+     * fail with an {@link IOException}.
+     *
+     * @param frames the duration in 10 ms frames (0 to 104) - <code>0</code> disables DRED
+     */
+    public void setDredDuration(int frames) {
+        if (frames < 0 || frames > 104) {
+            throw new IllegalArgumentException(String.format("Invalid DRED duration: %d", frames));
         }
+        setOption(SET_DRED_DURATION_REQUEST, frames);
+    }
+
+    /**
+     * @return the DRED duration in 10 ms frames
+     */
+    public int getDredDuration() {
+        return getOption(GET_DRED_DURATION_REQUEST);
+    }
+
+    /**
+     * The lookahead is the number of samples the decoded audio is delayed by.
+     * It is usually used as the pre-skip of Ogg Opus streams.
+     *
+     * @return the lookahead in samples per channel at the sample rate of the encoder
+     */
+    public int getLookahead() {
+        return getOption(GET_LOOKAHEAD_REQUEST);
+    }
+
+    private native void resetOptions0(long encoderPointer);
+
+    /**
+     * Resets the encoder state and all options, including the maximum payload size and the maximum packet loss
+     * percentage, to their defaults.
+     */
+    public void resetOptions() {
+        lock.lock();
+        try {
+            resetOptions0(encoder);
+            silenceThreshold = SILENCE_DETECTION_DISABLED;
+            silenceEnergy = -1D;
+            hangoverSamples = 0;
+            silentSamples = 0;
+            samplesSinceRefresh = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Enables a cheap energy based silence detection for {@link #encode(short[])} and
+     * {@link #encode(short[], int, int, byte[], int, int)}.
+     * <br>
+     * Once the input stayed below the threshold for longer than the hangover, frames are not encoded anymore and the
+     * encode methods return an empty packet.
+     * Empty packets don't need to be sent and can be filled by the decoder with {@link OpusDecoder#decodeGap(short[], int, int)}.
+     * Like opus DTX, a frame is still encoded every {@value #SILENCE_REFRESH_INTERVAL} ms during silence, so the decoder
+     * can keep its comfort noise up to date.
+     * Consider enabling {@link #setDtx(boolean)} as well, so the remaining silent frames are as small as possible.
+     *
+     * @param threshold the level in dBFS below which a frame is considered silent or {@link #SILENCE_DETECTION_DISABLED}
+     * @param hangover  the time in milliseconds the input needs to be silent before frames are skipped - prevents cutting off the end of speech
+     */
+    public void setSilenceDetection(double threshold, int hangover) {
+        if (Double.isNaN(threshold) || threshold > 0D) {
+            throw new IllegalArgumentException(String.format("Invalid silence threshold: %s", threshold));
+        }
+        if (hangover < 0) {
+            throw new IllegalArgumentException(String.format("Invalid hangover: %d", hangover));
+        }
+        lock.lock();
+        try {
+            silenceThreshold = threshold;
+            if (threshold == SILENCE_DETECTION_DISABLED) {
+                silenceEnergy = -1D;
+            } else {
+                double amplitude = 32768D * Math.pow(10D, threshold / 20D);
+                silenceEnergy = amplitude * amplitude;
+            }
+            hangoverSamples = (int) ((long) hangover * sampleRate / 1000L);
+            silentSamples = 0;
+            samplesSinceRefresh = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the silence threshold in dBFS or {@link #SILENCE_DETECTION_DISABLED}
+     */
+    public double getSilenceThreshold() {
+        lock.lock();
+        try {
+            return silenceThreshold;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must only be called while holding the lock.
+     *
+     * @return <code>true</code> if the frame is silent and doesn't need to be encoded
+     */
+    private boolean isSkippable(short[] input, int inputOffset, int frameSize) {
+        if (silenceEnergy < 0D) {
+            return false;
+        }
+        int length = frameSize * channels;
+        if (frameSize <= 0 || inputOffset < 0 || inputOffset > input.length - length) {
+            // Let the native code report the invalid arguments
+            return false;
+        }
+        if (meanSquare(input, inputOffset, length) >= silenceEnergy) {
+            silentSamples = 0;
+            samplesSinceRefresh = 0;
+            return false;
+        }
+        silentSamples = (int) Math.min((long) silentSamples + frameSize, Integer.MAX_VALUE);
+        if (silentSamples <= hangoverSamples) {
+            return false;
+        }
+        samplesSinceRefresh += frameSize;
+        if ((long) samplesSinceRefresh * 1000L >= (long) SILENCE_REFRESH_INTERVAL * sampleRate) {
+            samplesSinceRefresh = 0;
+            return false;
+        }
+        return true;
+    }
+
+    static double meanSquare(short[] input, int offset, int length) {
+        long sum = 0L;
+        for (int i = offset; i < offset + length; i++) {
+            sum += input[i] * input[i];
+        }
+        return (double) sum / (double) length;
     }
 
     private native byte[] encode0(long encoderPointer, short[] input);
 
+    /**
+     * Encodes a single frame.
+     *
+     * @param input the raw audio
+     * @return the encoded packet or an empty array if the frame was skipped by the silence detection
+     */
     public byte[] encode(short[] input) {
-        synchronized (this) {
-            return encode0(encoder, input);
+        lock.lock();
+        try {
+            long startTime = startTime();
+            if (isSkippable(input, 0, input.length / channels)) {
+                onEncode(startTime, 1, input.length / channels, 0);
+                return NO_PACKET;
+            }
+            byte[] packet = encode0(encoder, input);
+            onEncode(startTime, 1, input.length / channels, packet.length);
+            return packet;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native byte[] encodeFloat0(long encoderPointer, float[] input);
+
+    /**
+     * Encodes a single frame of float PCM.
+     *
+     * @param input the raw audio with samples in the range of <code>-1</code> to <code>1</code>
+     * @return the encoded packet
+     */
+    public byte[] encode(float[] input) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            byte[] packet = encodeFloat0(encoder, input);
+            onEncode(startTime, 1, input.length / channels, packet.length);
+            return packet;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeInto0(long encoderPointer, short[] input, int inputOffset, int frameSize, byte[] output, int outputOffset, int outputCapacity);
+
+    /**
+     * Encodes a single frame into the provided output array without allocating any memory.
+     * <br>
+     * The size of the resulting packet is limited by both {@param outputCapacity} and {@link #getMaxPayloadSize()}.
+     *
+     * @param input          the raw audio
+     * @param inputOffset    the index of the first sample of the frame in {@param input}
+     * @param frameSize      the number of samples per channel
+     * @param output         the array to write the encoded packet to
+     * @param outputOffset   the index in {@param output} to start writing the packet at
+     * @param outputCapacity the maximum number of bytes that may be written to {@param output}
+     * @return the length of the encoded packet in bytes or <code>0</code> if the frame was skipped by the silence detection
+     */
+    public int encode(short[] input, int inputOffset, int frameSize, byte[] output, int outputOffset, int outputCapacity) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            if (isSkippable(input, inputOffset, frameSize)) {
+                onEncode(startTime, 1, frameSize, 0);
+                return 0;
+            }
+            int length = encodeInto0(encoder, input, inputOffset, frameSize, output, outputOffset, outputCapacity);
+            onEncode(startTime, 1, frameSize, length);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeFloatInto0(long encoderPointer, float[] input, int inputOffset, int frameSize, byte[] output, int outputOffset, int outputCapacity);
+
+    /**
+     * Encodes a single frame of float PCM into the provided output array without allocating any memory.
+     *
+     * @see #encode(short[], int, int, byte[], int, int)
+     */
+    public int encode(float[] input, int inputOffset, int frameSize, byte[] output, int outputOffset, int outputCapacity) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int length = encodeFloatInto0(encoder, input, inputOffset, frameSize, output, outputOffset, outputCapacity);
+            onEncode(startTime, 1, frameSize, length);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeDirect0(long encoderPointer, ShortBuffer input, int inputOffset, int inputLength, ByteBuffer output, int outputOffset, int outputCapacity);
+
+    /**
+     * Encodes the remaining samples of the input buffer as a single frame without copying any data.
+     * <br>
+     * Both buffers need to be direct and the input buffer needs to use the native byte order.
+     * On success, the position of the input buffer is set to its limit and the position of the output buffer is
+     * advanced by the length of the encoded packet.
+     * The size of the resulting packet is limited by both the remaining space in the output buffer and
+     * {@link #getMaxPayloadSize()}.
+     *
+     * @param input  the raw audio
+     * @param output the buffer to write the encoded packet to
+     * @return the length of the encoded packet in bytes
+     */
+    public int encode(ShortBuffer input, ByteBuffer output) {
+        if (input.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Input buffer must use the native byte order");
+        }
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int length = encodeDirect0(encoder, input, input.position(), input.remaining(), output, output.position(), output.remaining());
+            onEncode(startTime, 1, input.remaining() / channels, length);
+            input.position(input.limit());
+            output.position(output.position() + length);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeFloatDirect0(long encoderPointer, FloatBuffer input, int inputOffset, int inputLength, ByteBuffer output, int outputOffset, int outputCapacity);
+
+    /**
+     * Encodes the remaining float samples of the input buffer as a single frame without copying any data.
+     *
+     * @see #encode(ShortBuffer, ByteBuffer)
+     */
+    public int encode(FloatBuffer input, ByteBuffer output) {
+        if (input.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Input buffer must use the native byte order");
+        }
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int length = encodeFloatDirect0(encoder, input, input.position(), input.remaining(), output, output.position(), output.remaining());
+            onEncode(startTime, 1, input.remaining() / channels, length);
+            input.position(input.limit());
+            output.position(output.position() + length);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeBatch0(long encoderPointer, short[] input, int inputOffset, int frameSize, int frames, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths);
+
+    /**
+     * Encodes multiple consecutive frames in a single call.
+     * <br>
+     * The frames are read back to back from {@param input} and the resulting packets are written back to back to
+     * {@param output}.
+     * The size of each packet is limited by both the remaining output capacity and {@link #getMaxPayloadSize()}.
+     * If encoding fails, the frames preceding the failing one have already been encoded.
+     *
+     * @param input          the raw audio
+     * @param inputOffset    the index of the first sample of the first frame in {@param input}
+     * @param frameSize      the number of samples per channel of each frame
+     * @param frames         the number of frames to encode
+     * @param output         the array to write the encoded packets to
+     * @param outputOffset   the index in {@param output} to start writing the packets at
+     * @param outputCapacity the maximum number of bytes that may be written to {@param output}
+     * @param packetLengths  the array that receives the length of each packet in bytes
+     * @return the total number of bytes written to {@param output}
+     */
+    public int encodeBatch(short[] input, int inputOffset, int frameSize, int frames, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int length = encodeBatch0(encoder, input, inputOffset, frameSize, frames, output, outputOffset, outputCapacity, packetLengths);
+            onEncode(startTime, frames, frameSize * frames, length);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeFloatBatch0(long encoderPointer, float[] input, int inputOffset, int frameSize, int frames, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths);
+
+    /**
+     * Encodes multiple consecutive frames of float PCM in a single call.
+     *
+     * @see #encodeBatch(short[], int, int, int, byte[], int, int, int[])
+     */
+    public int encodeBatch(float[] input, int inputOffset, int frameSize, int frames, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths) {
+        lock.lock();
+        try {
+            long startTime = startTime();
+            int length = encodeFloatBatch0(encoder, input, inputOffset, frameSize, frames, output, outputOffset, outputCapacity, packetLengths);
+            onEncode(startTime, frames, frameSize * frames, length);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the listener that receives the timings and sizes of all encode calls.
+     *
+     * @param listener the listener or <code>null</code> to disable instrumentation
+     */
+    public void setListener(@Nullable OpusCodecListener listener) {
+        lock.lock();
+        try {
+            this.listener = listener == null ? OpusCodecListener.NONE : listener;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public OpusCodecListener getListener() {
+        lock.lock();
+        try {
+            return listener;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must only be called while holding the lock.
+     *
+     * @return the current time or <code>0</code> if there is no listener
+     */
+    private long startTime() {
+        if (listener == OpusCodecListener.NONE) {
+            return 0L;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Must only be called while holding the lock.
+     */
+    private void onEncode(long startTime, int frames, int samples, int bytes) {
+        if (listener == OpusCodecListener.NONE) {
+            return;
+        }
+        listener.onEncode(this, frames, samples, bytes, System.nanoTime() - startTime);
+    }
+
+    private native long getFinalRange0(long encoderPointer);
+
+    /**
+     * The final state of the range coder after encoding the last packet.
+     * <br>
+     * A decoder that decoded the same packet has the same final range, so this can be used to verify that both are in sync.
+     *
+     * @return the final range as an unsigned 32 bit value
+     */
+    public long getFinalRange() {
+        lock.lock();
+        try {
+            return getFinalRange0(encoder);
+        } finally {
+            lock.unlock();
         }
     }
 
     private native void resetState0(long encoderPointer);
 
     public void resetState() {
-        synchronized (this) {
+        lock.lock();
+        try {
             resetState0(encoder);
+            silentSamples = 0;
+            samplesSinceRefresh = 0;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -85,23 +778,26 @@ public class OpusEncoder implements AutoCloseable {
 
     @Override
     public void close() {
-        synchronized (this) {
-            destroyEncoder0(encoder);
+        lock.lock();
+        try {
+            if (arena == null) {
+                destroyEncoder0(encoder);
+            } else if (encoder != 0L) {
+                arena.releaseEncoder(slot);
+            }
             encoder = 0L;
+        } finally {
+            lock.unlock();
         }
     }
 
     public boolean isClosed() {
-        synchronized (this) {
-            return encoder == 0L;
-        }
+        return encoder == 0L;
     }
 
     @Override
     public String toString() {
-        synchronized (this) {
-            return String.format("OpusEncoder[%d]", encoder);
-        }
+        return String.format("OpusEncoder[%d]", encoder);
     }
 
     public static enum Application {
@@ -116,4 +812,80 @@ public class OpusEncoder implements AutoCloseable {
         }
     }
 
+    public static enum Signal {
+        AUTO(-1000),
+        VOICE(3001),
+        MUSIC(3002);
+
+        private final int value;
+
+        Signal(int value) {
+            this.value = value;
+        }
+
+        private static Signal fromValue(int value) {
+            for (Signal signal : values()) {
+                if (signal.value == value) {
+                    return signal;
+                }
+            }
+            throw new IllegalArgumentException(String.format("Invalid signal: %d", value));
+        }
+    }
+
+    public static enum FrameDuration {
+        ARGUMENT(5000),
+        MS_2_5(5001),
+        MS_5(5002),
+        MS_10(5003),
+        MS_20(5004),
+        MS_40(5005),
+        MS_60(5006),
+        MS_80(5007),
+        MS_100(5008),
+        MS_120(5009);
+
+        private final int value;
+
+        FrameDuration(int value) {
+            this.value = value;
+        }
+
+        private static FrameDuration fromValue(int value) {
+            for (FrameDuration frameDuration : values()) {
+                if (frameDuration.value == value) {
+                    return frameDuration;
+                }
+            }
+            throw new IllegalArgumentException(String.format("Invalid frame duration: %d", value));
+        }
+    }
+
+    public static enum InbandFec {
+        DISABLED(0),
+        /**
+         * Switches to the SILK layer if needed to include FEC data.
+         */
+        ENABLED(1),
+        /**
+         * Only includes FEC data if the SILK layer is used anyway, so music is not forced to SILK.
+         */
+        ENABLED_WITHOUT_SILK_SWITCH(2);
+
+        private final int value;
+
+        InbandFec(int value) {
+            this.value = value;
+        }
+
+        private static InbandFec fromValue(int value) {
+            for (InbandFec inbandFec : values()) {
+                if (inbandFec.value == value) {
+                    return inbandFec;
+                }
+            }
+            throw new IllegalArgumentException(String.format("Invalid in-band FEC mode: %d", value));
+        }
+    }
+
 }
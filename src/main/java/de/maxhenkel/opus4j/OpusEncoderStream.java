@@ -0,0 +1,300 @@
+package de.maxhenkel.opus4j;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Adapts raw audio of arbitrary length to the fixed frame size of an encoder.
+ * <br>
+ * Full frames are encoded straight from the written arrays.
+ * Only the samples that don't fill a complete frame are copied into a preallocated frame buffer, which is encoded
+ * in place as soon as it is full.
+ * Every packet is passed to a {@link PacketConsumer} using a single reused packet array, so writing doesn't allocate.
+ * Frames that are skipped by the silence detection of the encoder don't produce a packet and are reported with
+ * {@link PacketConsumer#skipped(int)} instead.
+ * <br>
+ * This class is not thread safe.
+ */
+public class OpusEncoderStream implements Closeable, Flushable {
+
+    /**
+     * The largest maximum payload size an encoder supports.
+     */
+    private static final int MAX_PACKET_SIZE = 4096;
+    private static final int[] FRAME_MULTIPLIERS = {24, 16, 8, 4, 2, 1};
+    /**
+     * The frame durations Opus supports in multiples of 2.5 ms.
+     */
+    private static final int[] VALID_FRAME_MULTIPLIERS = {1, 2, 4, 8, 16, 24, 32, 40, 48};
+
+    private final OpusEncoder encoder;
+    private final int frameSize;
+    private final int channels;
+    private final int frameLength;
+    private final FlushMode flushMode;
+    private final PacketConsumer consumer;
+    private final short[] frame;
+    private final byte[] packet;
+    private int buffered;
+    private long paddedSamples;
+    private boolean closed;
+
+    /**
+     * Creates a new encoder stream.
+     * <br>
+     * The encoder is not closed when this stream is closed.
+     *
+     * @param encoder   the encoder
+     * @param frameSize the number of samples per channel of each frame, which must be 2.5, 5, 10, 20, 40, 60, 80, 100
+     *                  or 120 ms long
+     * @param flushMode how the incomplete frame is encoded when flushing
+     * @param consumer  the consumer that receives the encoded packets
+     */
+    public OpusEncoderStream(OpusEncoder encoder, int frameSize, FlushMode flushMode, PacketConsumer consumer) {
+        if (!isValidFrameSize(frameSize, encoder.getSampleRate() / 400)) {
+            throw new IllegalArgumentException(String.format("Invalid frame size: %d", frameSize));
+        }
+        this.encoder = encoder;
+        this.frameSize = frameSize;
+        this.channels = encoder.getChannels();
+        this.frameLength = frameSize * channels;
+        this.flushMode = flushMode;
+        this.consumer = consumer;
+        this.frame = new short[frameLength];
+        this.packet = new byte[MAX_PACKET_SIZE];
+    }
+
+    /**
+     * Writes raw audio and encodes all frames that are complete afterward.
+     *
+     * @param input  the interleaved raw audio
+     * @param offset the index of the first sample in {@param input}
+     * @param length the number of samples of all channels
+     * @throws IOException if a packet could not be consumed
+     */
+    public void write(short[] input, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > input.length - length) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Range [%d, %d + %d) out of bounds for length %d", offset, offset, length, input.length));
+        }
+        ensureOpen();
+        if (buffered > 0) {
+            int count = Math.min(frameLength - buffered, length);
+            System.arraycopy(input, offset, frame, buffered, count);
+            buffered += count;
+            offset += count;
+            length -= count;
+            if (buffered < frameLength) {
+                return;
+            }
+            buffered = 0;
+            encodeFrame(frame, 0, frameSize);
+        }
+        while (length >= frameLength) {
+            encodeFrame(input, offset, frameSize);
+            offset += frameLength;
+            length -= frameLength;
+        }
+        System.arraycopy(input, offset, frame, 0, length);
+        buffered = length;
+    }
+
+    /**
+     * @see #write(short[], int, int)
+     */
+    public void write(short[] input) throws IOException {
+        write(input, 0, input.length);
+    }
+
+    /**
+     * Writes the remaining 16 bit samples of the buffer in the byte order of the buffer and encodes all frames that
+     * are complete afterward.
+     * <br>
+     * The position of the buffer is set to its limit.
+     *
+     * @param input the interleaved raw audio
+     * @throws IOException if a packet could not be consumed
+     */
+    public void write(ByteBuffer input) throws IOException {
+        if (input.remaining() % Short.BYTES != 0) {
+            throw new IllegalArgumentException(String.format("Invalid input length: %d", input.remaining()));
+        }
+        ensureOpen();
+        ShortBuffer samples = input.asShortBuffer();
+        while (samples.hasRemaining()) {
+            int count = Math.min(frameLength - buffered, samples.remaining());
+            samples.get(frame, buffered, count);
+            buffered += count;
+            if (buffered >= frameLength) {
+                buffered = 0;
+                encodeFrame(frame, 0, frameSize);
+            }
+            input.position(input.position() + count * Short.BYTES);
+        }
+    }
+
+    private void encodeFrame(short[] input, int offset, int size) throws IOException {
+        int length = encoder.encode(input, offset, size, packet, 0, packet.length);
+        if (length > 0) {
+            consumer.accept(packet, 0, length);
+        } else {
+            consumer.skipped(size * (48000 / encoder.getSampleRate()));
+        }
+    }
+
+    /**
+     * Encodes the incomplete frame, if there is any, according to the flush mode.
+     *
+     * @throws IOException if a packet could not be consumed
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (buffered <= 0) {
+            return;
+        }
+        int samples = (buffered + channels - 1) / channels;
+        Arrays.fill(frame, buffered, frameLength, (short) 0);
+        buffered = 0;
+        if (flushMode == FlushMode.PAD) {
+            paddedSamples += frameSize - samples;
+            encodeFrame(frame, 0, frameSize);
+            return;
+        }
+        int minFrameSize = encoder.getSampleRate() / 400;
+        int position = 0;
+        while (position < samples) {
+            int size = getShortenedFrameSize(samples - position, minFrameSize);
+            encodeFrame(frame, position * channels, size);
+            position += size;
+        }
+        paddedSamples += position - samples;
+    }
+
+    private static boolean isValidFrameSize(int frameSize, int minFrameSize) {
+        for (int multiplier : VALID_FRAME_MULTIPLIERS) {
+            if (frameSize == minFrameSize * multiplier) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the largest valid frame size that doesn't exceed the remaining samples or the smallest frame size
+     */
+    private int getShortenedFrameSize(int remaining, int minFrameSize) {
+        for (int multiplier : FRAME_MULTIPLIERS) {
+            int size = minFrameSize * multiplier;
+            if (size <= frameSize && size <= remaining) {
+                return size;
+            }
+        }
+        return minFrameSize;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return the number of samples per channel that are waiting for the frame to be completed
+     */
+    public int getBufferedSamples() {
+        return buffered / channels;
+    }
+
+    /**
+     * @return the number of silent samples per channel that were added when flushing
+     */
+    public long getPaddedSamples() {
+        return paddedSamples;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    /**
+     * Flushes the incomplete frame.
+     *
+     * @throws IOException if a packet could not be consumed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+        }
+    }
+
+    public static enum FlushMode {
+        /**
+         * Pads the incomplete frame with silence to the full frame size.
+         */
+        PAD,
+        /**
+         * Encodes the incomplete frame as a sequence of shorter frames.
+         * Only the last frame is padded with silence up to 2.5 ms.
+         */
+        SHORTEN
+    }
+
+    @FunctionalInterface
+    public interface PacketConsumer {
+        /**
+         * Called for every encoded packet.
+         * <br>
+         * The packet array is reused, so the packet needs to be copied if it is used after this method returns.
+         *
+         * @param packet the array containing the packet
+         * @param offset the index of the packet in {@param packet}
+         * @param length the length of the packet in bytes
+         * @throws IOException if the packet could not be consumed
+         */
+        void accept(byte[] packet, int offset, int length) throws IOException;
+
+        /**
+         * Called for every frame that was skipped by the silence detection of the encoder instead of {@link #accept(byte[], int, int)}.
+         * <br>
+         * Consumers that keep track of time, like {@link OggOpusOutputStream#skip(int)}, need to advance by the skipped samples.
+         *
+         * @param samples the number of skipped samples per channel at 48 kHz
+         * @throws IOException if the skip could not be consumed
+         */
+        default void skipped(int samples) throws IOException {
+
+        }
+
+        /**
+         * Creates a consumer that writes the packets to the provided Ogg Opus stream and skips the silent frames with
+         * {@link OggOpusOutputStream#skip(int)}.
+         *
+         * @param out the Ogg Opus stream
+         * @return the consumer
+         */
+        static PacketConsumer of(OggOpusOutputStream out) {
+            return new PacketConsumer() {
+                @Override
+                public void accept(byte[] packet, int offset, int length) throws IOException {
+                    out.writePacket(packet, offset, length);
+                }
+
+                @Override
+                public void skipped(int samples) throws IOException {
+                    out.skip(samples);
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Creates codecs that call libopus through the foreign function and memory API instead of JNI.
+ * <br>
+ * The codecs are only contained in the Java 22 classes of the multi-release jar, so they are only available on
+ * Java 22 or newer.
+ * Check {@link #isAvailable()} before creating them.
+ * The JVM should be started with <code>--enable-native-access=ALL-UNNAMED</code>, otherwise a warning is printed on first use.
+ */
+public final class OpusFfm {
+
+    @Nullable
+    private static final OpusFfmFactory FACTORY = loadFactory();
+
+    private OpusFfm() {
+
+    }
+
+    @Nullable
+    private static OpusFfmFactory loadFactory() {
+        try {
+            return (OpusFfmFactory) Class.forName("de.maxhenkel.opus4j.OpusFfmFactoryImpl").getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            // Older Java versions don't see the versioned classes
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create the FFM codec factory", e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the FFM codecs are available, which requires Java 22 or newer
+     */
+    public static boolean isAvailable() {
+        return FACTORY != null;
+    }
+
+    private static OpusFfmFactory getFactory() {
+        if (FACTORY == null) {
+            throw new UnsupportedOperationException("The FFM codecs require Java 22 or newer");
+        }
+        return FACTORY;
+    }
+
+    /**
+     * Creates a new Opus encoder.
+     *
+     * @param sampleRate  the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels    the number of channels (1 or 2)
+     * @param application the application (VOIP, AUDIO, or LOW_DELAY)
+     * @param <S>         the memory segment type - always <code>java.lang.foreign.MemorySegment</code>
+     * @return the encoder
+     * @throws UnsupportedOperationException if the FFM codecs are not available
+     * @throws UnknownPlatformException      if the operating system is not supported
+     * @throws IOException                   if the native library could not be extracted
+     */
+    @SuppressWarnings("unchecked")
+    public static <S> OpusFfmEncoder<S> createEncoder(int sampleRate, int channels, OpusEncoder.Application application) throws IOException, UnknownPlatformException {
+        return (OpusFfmEncoder<S>) getFactory().createEncoder(sampleRate, channels, application, false);
+    }
+
+    /**
+     * Creates a new Opus encoder that is confined to the calling thread.
+     * <br>
+     * The encoder doesn't do any locking and throws an {@link IllegalStateException} if it is used by any other thread.
+     *
+     * @see #createEncoder(int, int, OpusEncoder.Application)
+     */
+    @SuppressWarnings("unchecked")
+    public static <S> OpusFfmEncoder<S> createUnsynchronizedEncoder(int sampleRate, int channels, OpusEncoder.Application application) throws IOException, UnknownPlatformException {
+        return (OpusFfmEncoder<S>) getFactory().createEncoder(sampleRate, channels, application, true);
+    }
+
+    /**
+     * Creates a new Opus decoder.
+     *
+     * @param sampleRate the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels   the number of channels (1 or 2)
+     * @param <S>        the memory segment type - always <code>java.lang.foreign.MemorySegment</code>
+     * @return the decoder
+     * @throws UnsupportedOperationException if the FFM codecs are not available
+     * @throws UnknownPlatformException      if the operating system is not supported
+     * @throws IOException                   if the native library could not be extracted
+     */
+    @SuppressWarnings("unchecked")
+    public static <S> OpusFfmDecoder<S> createDecoder(int sampleRate, int channels) throws IOException, UnknownPlatformException {
+        return (OpusFfmDecoder<S>) getFactory().createDecoder(sampleRate, channels, false);
+    }
+
+    /**
+     * Creates a new Opus decoder that is confined to the calling thread.
+     * <br>
+     * The decoder doesn't do any locking and throws an {@link IllegalStateException} if it is used by any other thread.
+     *
+     * @see #createDecoder(int, int)
+     */
+    @SuppressWarnings("unchecked")
+    public static <S> OpusFfmDecoder<S> createUnsynchronizedDecoder(int sampleRate, int channels) throws IOException, UnknownPlatformException {
+        return (OpusFfmDecoder<S>) getFactory().createDecoder(sampleRate, channels, true);
+    }
+
+}
@@ -0,0 +1,63 @@
+package de.maxhenkel.opus4j;
+
+import javax.annotation.Nullable;
+
+/**
+ * An Opus decoder that calls libopus through the foreign function and memory API instead of JNI.
+ * <br>
+ * Decoders are created with {@link OpusFfm#createDecoder(int, int)} and are only available on Java 22 or newer.
+ * The segment type {@param <S>} is always <code>java.lang.foreign.MemorySegment</code>, which doesn't exist in older
+ * Java versions.
+ * The packets and the decoded audio are passed as memory segments, so both native memory and heap arrays wrapped with
+ * <code>MemorySegment.ofArray</code> are decoded without any copy.
+ * The decode functions are linked as critical functions, which avoids the array pinning and thread state transitions
+ * of the JNI decoder.
+ *
+ * @param <S> the memory segment type
+ */
+public interface OpusFfmDecoder<S> extends AutoCloseable {
+
+    /**
+     * @return <code>true</code> if this decoder was created with {@link OpusFfm#createUnsynchronizedDecoder(int, int)}
+     */
+    boolean isThreadConfined();
+
+    int getSampleRate();
+
+    int getChannels();
+
+    /**
+     * Decodes the provided packet.
+     * <br>
+     * The frame size is derived from the size of {@param output}, so it needs to have room for the complete packet.
+     * For PLC and FEC it needs to match the duration of the missing audio.
+     *
+     * @param input  the packet or <code>null</code> to do PLC
+     * @param output the segment to write the decoded audio to in the native byte order
+     * @param fec    whether to decode the in-band FEC data of {@param input} for the previous, lost packet
+     * @return the number of decoded samples per channel
+     */
+    int decode(@Nullable S input, S output, boolean fec);
+
+    /**
+     * Decodes the provided packet.
+     *
+     * @see #decode(Object, Object, boolean)
+     */
+    int decode(@Nullable S input, S output);
+
+    /**
+     * Decodes the provided packet to float PCM.
+     *
+     * @see #decode(Object, Object, boolean)
+     */
+    int decodeFloat(@Nullable S input, S output, boolean fec);
+
+    void resetState();
+
+    @Override
+    void close();
+
+    boolean isClosed();
+
+}
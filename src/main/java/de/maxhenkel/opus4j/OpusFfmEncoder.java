@@ -0,0 +1,77 @@
+package de.maxhenkel.opus4j;
+
+/**
+ * An Opus encoder that calls libopus through the foreign function and memory API instead of JNI.
+ * <br>
+ * Encoders are created with {@link OpusFfm#createEncoder(int, int, OpusEncoder.Application)} and are only available on
+ * Java 22 or newer.
+ * The segment type {@param <S>} is always <code>java.lang.foreign.MemorySegment</code>, which doesn't exist in older
+ * Java versions.
+ * The raw audio and the packets are passed as memory segments, so both native memory and heap arrays wrapped with
+ * <code>MemorySegment.ofArray</code> are encoded without any copy.
+ * The encode functions are linked as critical functions, which avoids the array pinning and thread state transitions
+ * of the JNI encoder.
+ *
+ * @param <S> the memory segment type
+ */
+public interface OpusFfmEncoder<S> extends AutoCloseable {
+
+    /**
+     * @return <code>true</code> if this encoder was created with {@link OpusFfm#createUnsynchronizedEncoder(int, int, OpusEncoder.Application)}
+     */
+    boolean isThreadConfined();
+
+    int getSampleRate();
+
+    int getChannels();
+
+    OpusEncoder.Application getApplication();
+
+    /**
+     * Encodes a single frame.
+     * <br>
+     * The frame size is derived from the size of {@param input}.
+     * The size of the resulting packet is limited by the size of {@param output}.
+     *
+     * @param input  the raw audio in the native byte order
+     * @param output the segment to write the encoded packet to
+     * @return the length of the encoded packet in bytes
+     */
+    int encode(S input, S output);
+
+    /**
+     * Encodes a single frame of float PCM.
+     *
+     * @see #encode(Object, Object)
+     */
+    int encodeFloat(S input, S output);
+
+    /**
+     * @param bitrate the bitrate in bits per second (500 to 512000), {@link OpusEncoder#BITRATE_AUTO} or {@link OpusEncoder#BITRATE_MAX}
+     * @see OpusEncoder#setBitrate(int)
+     */
+    void setBitrate(int bitrate);
+
+    int getBitrate();
+
+    /**
+     * @param complexity the complexity (0 to 10)
+     * @see OpusEncoder#setComplexity(int)
+     */
+    void setComplexity(int complexity);
+
+    int getComplexity();
+
+    /**
+     * @return the number of samples per channel the encoder delays the audio by
+     */
+    int getLookahead();
+
+    void resetState();
+
+    @Override
+    void close();
+
+    boolean isClosed();
+
+}
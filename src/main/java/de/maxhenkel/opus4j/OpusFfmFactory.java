@@ -0,0 +1,16 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import java.io.IOException;
+
+/**
+ * Creates the FFM codecs - only implemented by the Java 22 classes of the multi-release jar.
+ */
+interface OpusFfmFactory {
+
+    OpusFfmEncoder<?> createEncoder(int sampleRate, int channels, OpusEncoder.Application application, boolean confined) throws IOException, UnknownPlatformException;
+
+    OpusFfmDecoder<?> createDecoder(int sampleRate, int channels, boolean confined) throws IOException, UnknownPlatformException;
+
+}
@@ -0,0 +1,497 @@
+package de.maxhenkel.opus4j;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reorders incoming packets and hands out exactly one frame per tick.
+ * <br>
+ * Packets can be added from any thread with {@link #put(int, byte[], int, int)}.
+ * {@link #get(short[], int)} is meant to be called at a fixed rate, once per frame duration.
+ * The playout delay adapts to the measured interarrival jitter (RFC 3550) between the configured minimum and maximum.
+ * Missing packets are recovered with in-band FEC if the following packet has already arrived, otherwise PLC is used.
+ * <br>
+ * Packets are identified by consecutive 32-bit sequence numbers, one per frame, that may wrap around.
+ * 16-bit RTP sequence numbers need to be extended to 32 bits first (RFC 3550, appendix A.1), since a wrap from
+ * 65535 to 0 would otherwise look like a jump backwards.
+ * Corrupt packets don't interrupt the playout, their frames are concealed with PLC instead.
+ * All packets need to contain a single frame of the configured frame size.
+ * Packets are copied into preallocated slots, so nothing is allocated after construction.
+ */
+public class OpusJitterBuffer {
+
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_MIN_DELAY = 1;
+    public static final int DEFAULT_MAX_DELAY = 16;
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1500;
+
+    /**
+     * The playout delay in frames per mean interarrival jitter.
+     */
+    private static final double JITTER_MULTIPLIER = 3D;
+
+    private static final int ACTION_DECODE = 0;
+    private static final int ACTION_FEC = 1;
+    private static final int ACTION_PLC = 2;
+
+    private final ReentrantLock lock;
+    private final ReentrantLock readLock;
+    private final OpusDecoder decoder;
+    private final int frameSize;
+    private final int channels;
+    private final int minDelay;
+    private final int maxDelay;
+    private final int maxPacketSize;
+    private final long frameDurationNanos;
+
+    private final byte[][] slotData;
+    private final int[] slotLengths;
+    private final int[] slotSequences;
+    private final boolean[] slotPresent;
+
+    private boolean started;
+    private int nextSequence;
+    private int highestSequence;
+    private int buffered;
+    private int targetDelay;
+    private int consecutiveConcealed;
+    private double jitterNanos;
+    private boolean hasLastArrival;
+    private int lastArrivalSequence;
+    private long lastArrivalNanos;
+
+    private long latePackets;
+    private long droppedPackets;
+    private long corruptPackets;
+    private long concealedFrames;
+    private long recoveredFrames;
+
+    private final byte[] readScratch;
+    private final short[] fecOutput;
+    private final int[] fecFrameSizes;
+    private int pendingSamples;
+
+    /**
+     * Creates a new jitter buffer.
+     *
+     * @param decoder       the decoder to decode the packets with - needs to be used exclusively by this jitter buffer
+     * @param frameSize     the number of samples per channel of each frame
+     * @param capacity      the maximum number of buffered packets
+     * @param minDelay      the minimum playout delay in frames
+     * @param maxDelay      the maximum playout delay in frames
+     * @param maxPacketSize the maximum size of a packet in bytes
+     */
+    public OpusJitterBuffer(OpusDecoder decoder, int frameSize, int capacity, int minDelay, int maxDelay, int maxPacketSize) {
+        if (frameSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid frame size: %d", frameSize));
+        }
+        if (minDelay < 1 || maxDelay < minDelay) {
+            throw new IllegalArgumentException(String.format("Invalid delay range: %d - %d", minDelay, maxDelay));
+        }
+        if (capacity <= maxDelay) {
+            throw new IllegalArgumentException(String.format("Capacity needs to be greater than the max delay: %d", capacity));
+        }
+        if (maxPacketSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid max packet size: %d", maxPacketSize));
+        }
+        this.lock = new ReentrantLock();
+        this.readLock = new ReentrantLock();
+        this.decoder = decoder;
+        this.frameSize = frameSize;
+        this.channels = decoder.getChannels();
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.maxPacketSize = maxPacketSize;
+        this.frameDurationNanos = frameSize * 1_000_000_000L / decoder.getSampleRate();
+        this.slotData = new byte[capacity][maxPacketSize];
+        this.slotLengths = new int[capacity];
+        this.slotSequences = new int[capacity];
+        this.slotPresent = new boolean[capacity];
+        this.targetDelay = minDelay;
+        this.readScratch = new byte[maxPacketSize];
+        this.fecOutput = new short[2 * frameSize * channels];
+        this.fecFrameSizes = new int[2];
+        decoder.setFrameSize(frameSize);
+    }
+
+    /**
+     * Creates a new jitter buffer with a capacity of {@value #DEFAULT_CAPACITY} packets, a delay of
+     * {@value #DEFAULT_MIN_DELAY} to {@value #DEFAULT_MAX_DELAY} frames and packets of up to
+     * {@value #DEFAULT_MAX_PACKET_SIZE} bytes.
+     *
+     * @param decoder   the decoder to decode the packets with - needs to be used exclusively by this jitter buffer
+     * @param frameSize the number of samples per channel of each frame
+     */
+    public OpusJitterBuffer(OpusDecoder decoder, int frameSize) {
+        this(decoder, frameSize, DEFAULT_CAPACITY, DEFAULT_MIN_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_PACKET_SIZE);
+    }
+
+    /**
+     * Adds a packet to the jitter buffer.
+     *
+     * @param sequence the 32-bit sequence number of the packet
+     * @param packet   the array containing the packet
+     * @param offset   the index of the packet in {@param packet}
+     * @param length   the length of the packet in bytes
+     * @return <code>false</code> if the packet was discarded because it arrived too late or was a duplicate
+     */
+    public boolean put(int sequence, byte[] packet, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > packet.length - length) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Range [%d, %d + %d) out of bounds for length %d", offset, offset, length, packet.length));
+        }
+        if (length == 0) {
+            throw new IllegalArgumentException("Packet must not be empty");
+        }
+        if (length > maxPacketSize) {
+            throw new IllegalArgumentException(String.format("Packet is larger than the max packet size: %d", length));
+        }
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            updateJitter(sequence, now);
+            if (buffered == 0 && !started) {
+                nextSequence = sequence;
+                highestSequence = sequence;
+            } else if (sequence - nextSequence < 0) {
+                if (started || highestSequence - sequence >= slotData.length) {
+                    latePackets++;
+                    return false;
+                }
+                // Packets that arrive out of order before the playout started move the start back
+                nextSequence = sequence;
+            }
+            if (sequence - nextSequence >= slotData.length) {
+                // The packet is too far ahead, so skip the packets that can't be played out in time anymore
+                skipTo(sequence - slotData.length + 1);
+            }
+            int slot = slot(sequence);
+            if (slotPresent[slot]) {
+                return false;
+            }
+            System.arraycopy(packet, offset, slotData[slot], 0, length);
+            slotLengths[slot] = length;
+            slotSequences[slot] = sequence;
+            slotPresent[slot] = true;
+            buffered++;
+            if (sequence - highestSequence > 0) {
+                highestSequence = sequence;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the next frame.
+     * <br>
+     * Until enough packets are buffered to cover the playout delay, silence is returned.
+     * The output array needs to have room for at least one frame.
+     *
+     * @param output       the array to write the frame to
+     * @param outputOffset the index in {@param output} to start writing the frame at
+     * @return the number of samples per channel written to {@param output}
+     */
+    public int get(short[] output, int outputOffset) {
+        int frameLength = frameSize * channels;
+        if (outputOffset < 0 || outputOffset > output.length - frameLength) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Range [%d, %d + %d) out of bounds for length %d", outputOffset, outputOffset, frameLength, output.length));
+        }
+        readLock.lock();
+        try {
+            if (pendingSamples > 0) {
+                // The second frame of the last FEC recovery
+                int samples = pendingSamples;
+                System.arraycopy(fecOutput, fecFrameSizes[0] * channels, output, outputOffset, samples * channels);
+                pendingSamples = 0;
+                return samples;
+            }
+            int action;
+            int length = 0;
+            lock.lock();
+            try {
+                if (!started) {
+                    if (buffered <= 0 || highestSequence - nextSequence + 1 < targetDelay) {
+                        Arrays.fill(output, outputOffset, outputOffset + frameLength, (short) 0);
+                        return frameSize;
+                    }
+                    started = true;
+                }
+                // Catch up if the buffered audio exceeds the target delay, for example after the jitter decreased
+                if (buffered > 0 && highestSequence - nextSequence + 1 > targetDelay + 1) {
+                    skipTo(highestSequence - targetDelay);
+                }
+                int slot = slot(nextSequence);
+                int nextSlot = slot(nextSequence + 1);
+                if (isPresent(slot, nextSequence)) {
+                    action = ACTION_DECODE;
+                    length = take(slot);
+                    consecutiveConcealed = 0;
+                    nextSequence++;
+                } else if (isPresent(nextSlot, nextSequence + 1)) {
+                    action = ACTION_FEC;
+                    length = take(nextSlot);
+                    consecutiveConcealed = 0;
+                    nextSequence += 2;
+                } else {
+                    action = ACTION_PLC;
+                    consecutiveConcealed++;
+                    nextSequence++;
+                    if (buffered <= 0 && consecutiveConcealed > maxDelay) {
+                        // The stream stopped, so buffer again before playing the next packets
+                        started = false;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            switch (action) {
+                case ACTION_DECODE:
+                    try {
+                        return decoder.decode(readScratch, 0, length, output, outputOffset);
+                    } catch (Exception e) {
+                        // The packet is corrupt, so it is treated as lost
+                        incrementCorrupt();
+                        return conceal(output, outputOffset);
+                    }
+                case ACTION_FEC:
+                    try {
+                        decoder.decode(readScratch, 0, length, 2, fecOutput, 0, fecFrameSizes);
+                    } catch (Exception e) {
+                        // Both the lost frame and the corrupt packet itself need to be concealed
+                        incrementCorrupt();
+                        fecFrameSizes[0] = conceal(fecOutput, 0);
+                        fecFrameSizes[1] = conceal(fecOutput, fecFrameSizes[0] * channels);
+                        System.arraycopy(fecOutput, 0, output, outputOffset, fecFrameSizes[0] * channels);
+                        pendingSamples = fecFrameSizes[1];
+                        return fecFrameSizes[0];
+                    }
+                    System.arraycopy(fecOutput, 0, output, outputOffset, fecFrameSizes[0] * channels);
+                    pendingSamples = fecFrameSizes[1];
+                    incrementRecovered();
+                    return fecFrameSizes[0];
+                default:
+                    return conceal(output, outputOffset);
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Clears all buffered packets and resets the decoder.
+     */
+    public void reset() {
+        readLock.lock();
+        try {
+            lock.lock();
+            try {
+                Arrays.fill(slotPresent, false);
+                buffered = 0;
+                started = false;
+                consecutiveConcealed = 0;
+                hasLastArrival = false;
+                jitterNanos = 0D;
+                targetDelay = minDelay;
+            } finally {
+                lock.unlock();
+            }
+            pendingSamples = 0;
+            decoder.resetState();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void updateJitter(int sequence, long now) {
+        if (hasLastArrival && sequence - lastArrivalSequence > 0) {
+            long expected = (long) (sequence - lastArrivalSequence) * frameDurationNanos;
+            double deviation = Math.abs((now - lastArrivalNanos) - expected);
+            jitterNanos += (deviation - jitterNanos) / 16D;
+            int delay = (int) Math.ceil(JITTER_MULTIPLIER * jitterNanos / frameDurationNanos);
+            targetDelay = Math.max(minDelay, Math.min(maxDelay, delay));
+        }
+        if (!hasLastArrival || sequence - lastArrivalSequence > 0) {
+            hasLastArrival = true;
+            lastArrivalSequence = sequence;
+            lastArrivalNanos = now;
+        }
+    }
+
+    private void skipTo(int sequence) {
+        if (sequence - nextSequence >= slotData.length) {
+            // All buffered packets are behind the new position, so there is no need to step through every sequence number
+            Arrays.fill(slotPresent, false);
+            droppedPackets += buffered;
+            buffered = 0;
+            nextSequence = sequence;
+            return;
+        }
+        while (nextSequence - sequence < 0) {
+            int slot = slot(nextSequence);
+            if (isPresent(slot, nextSequence)) {
+                slotPresent[slot] = false;
+                buffered--;
+                droppedPackets++;
+            }
+            nextSequence++;
+        }
+    }
+
+    private int conceal(short[] output, int outputOffset) {
+        int samples = decoder.decode(null, 0, 0, output, outputOffset);
+        incrementConcealed();
+        return samples;
+    }
+
+    private int take(int slot) {
+        int length = slotLengths[slot];
+        System.arraycopy(slotData[slot], 0, readScratch, 0, length);
+        slotPresent[slot] = false;
+        buffered--;
+        return length;
+    }
+
+    private boolean isPresent(int slot, int sequence) {
+        return slotPresent[slot] && slotSequences[slot] == sequence;
+    }
+
+    private int slot(int sequence) {
+        return Math.floorMod(sequence, slotData.length);
+    }
+
+    private void incrementRecovered() {
+        lock.lock();
+        try {
+            recoveredFrames++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void incrementCorrupt() {
+        lock.lock();
+        try {
+            corruptPackets++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void incrementConcealed() {
+        lock.lock();
+        try {
+            concealedFrames++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the current playout delay in frames
+     */
+    public int getTargetDelay() {
+        lock.lock();
+        try {
+            return targetDelay;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the estimated interarrival jitter in milliseconds
+     */
+    public double getJitter() {
+        lock.lock();
+        try {
+            return jitterNanos / 1_000_000D;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of packets that are currently buffered
+     */
+    public int getBufferedPackets() {
+        lock.lock();
+        try {
+            return buffered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of packets that arrived after their frame was already played out
+     */
+    public long getLatePackets() {
+        lock.lock();
+        try {
+            return latePackets;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of buffered packets that were skipped to reduce the delay
+     */
+    public long getDroppedPackets() {
+        lock.lock();
+        try {
+            return droppedPackets;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of packets that could not be decoded and were concealed with PLC
+     */
+    public long getCorruptPackets() {
+        lock.lock();
+        try {
+            return corruptPackets;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of lost frames that were recovered with in-band FEC
+     */
+    public long getRecoveredFrames() {
+        lock.lock();
+        try {
+            return recoveredFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of lost or corrupt frames that were concealed with PLC
+     */
+    public long getConcealedFrames() {
+        lock.lock();
+        try {
+            return concealedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("OpusJitterBuffer[delay=%d, buffered=%d]", targetDelay, buffered);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
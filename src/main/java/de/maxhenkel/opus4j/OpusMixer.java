@@ -0,0 +1,139 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Decodes the packets of multiple {@link OpusDecoder}s and mixes them into a single frame in one native call.
+ */
+public class OpusMixer implements AutoCloseable {
+
+    private final CodecLock lock = CodecLock.shared();
+    private long mixer;
+    private long[] decoderPointers;
+    private int[] lockOrder;
+
+    /**
+     * Creates a new Opus mixer.
+     *
+     * @param sampleRate the sample rate (8000, 12000, 16000, 24000, or 48000) - needs to match the sample rate of all mixed decoders
+     * @param channels   the number of channels (1 or 2) - needs to match the channels of all mixed decoders
+     * @param frameSize  the maximum number of samples per channel of a mixed frame
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public OpusMixer(int sampleRate, int channels, int frameSize) throws IOException, UnknownPlatformException {
+        NativeLoader.load();
+        mixer = createMixer0(sampleRate, channels, frameSize);
+        decoderPointers = new long[0];
+        lockOrder = new int[0];
+    }
+
+    private static native long createMixer0(int sampleRate, int channels, int frameSize);
+
+    private native int mix0(long mixerPointer, long[] decoderPointers, @Nullable byte[][] packets, int count, short[] output, int outputOffset);
+
+    /**
+     * Decodes one packet per decoder and writes the clipped sum of all decoded frames to {@param output}.
+     * <br>
+     * Frames that are shorter than the longest decoded frame are mixed as if they were padded with silence.
+     * PLC conceals {@link OpusDecoder#getFrameSize()} samples per channel, limited to the frame size of this mixer.
+     * The output array needs to have room for at least the frame size of this mixer.
+     *
+     * @param decoders     the decoders to decode the packets with
+     * @param packets      the packet for each decoder or <code>null</code> to do PLC - a <code>null</code> array does PLC for all decoders
+     * @param count        the number of decoders to mix
+     * @param output       the array to write the mixed audio to
+     * @param outputOffset the index in {@param output} to start writing the mixed audio at
+     * @return the number of mixed samples per channel
+     */
+    public int mix(OpusDecoder[] decoders, @Nullable byte[][] packets, int count, short[] output, int outputOffset) {
+        if (count < 0 || count > decoders.length) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Range [0, 0 + %d) out of bounds for length %d", count, decoders.length));
+        }
+        lock.lock();
+        try {
+            if (decoderPointers.length < count) {
+                decoderPointers = new long[count];
+                lockOrder = new int[count];
+            }
+            return mixLocked(decoders, packets, count, output, outputOffset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds the lock of every decoder while mixing, so no decoder can be used or closed concurrently.
+     * The locks are acquired in the global lock order, so concurrent mixes of the same decoders in a different order
+     * can't deadlock.
+     */
+    private int mixLocked(OpusDecoder[] decoders, @Nullable byte[][] packets, int count, short[] output, int outputOffset) {
+        sortByLockOrder(decoders, count);
+        int locked = 0;
+        try {
+            for (; locked < count; locked++) {
+                int index = lockOrder[locked];
+                OpusDecoder decoder = decoders[index];
+                decoder.getLock().lock();
+                decoderPointers[index] = decoder.getPointer();
+            }
+            return mix0(mixer, decoderPointers, packets, count, output, outputOffset);
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                decoders[lockOrder[i]].getLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Fills {@link #lockOrder} with the indices of the decoders sorted by their lock order.
+     * This uses an insertion sort, since the number of mixed decoders is usually small and it doesn't allocate.
+     */
+    private void sortByLockOrder(OpusDecoder[] decoders, int count) {
+        for (int i = 0; i < count; i++) {
+            long order = decoders[i].getLock().getOrder();
+            int j = i - 1;
+            while (j >= 0 && decoders[lockOrder[j]].getLock().getOrder() > order) {
+                lockOrder[j + 1] = lockOrder[j];
+                j--;
+            }
+            lockOrder[j + 1] = i;
+        }
+    }
+
+    private native void destroyMixer0(long mixerPointer);
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            destroyMixer0(mixer);
+            mixer = 0L;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return mixer == 0L;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("OpusMixer[%d]", mixer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,311 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * An Opus decoder for multistream packets as produced by {@link OpusMultistreamEncoder}.
+ */
+public class OpusMultistreamDecoder implements AutoCloseable {
+
+    private final CodecLock lock;
+    private volatile long decoder;
+    private final int channels;
+
+    /**
+     * Creates a new Opus multistream decoder.
+     *
+     * @param sampleRate     the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels       the number of output channels (1 to 255)
+     * @param streams        the total number of streams in each packet
+     * @param coupledStreams the number of streams that decode to two channels
+     * @param mapping        the mapping of the output channels to the decoded channels of the streams
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public OpusMultistreamDecoder(int sampleRate, int channels, int streams, int coupledStreams, byte[] mapping) throws IOException, UnknownPlatformException {
+        this(sampleRate, channels, streams, coupledStreams, mapping, CodecLock.shared());
+    }
+
+    private OpusMultistreamDecoder(int sampleRate, int channels, int streams, int coupledStreams, byte[] mapping, CodecLock lock) throws IOException, UnknownPlatformException {
+        NativeLoader.load();
+        decoder = createDecoder0(sampleRate, channels, streams, coupledStreams, mapping);
+        this.channels = channels;
+        this.lock = lock;
+    }
+
+    /**
+     * Creates a new Opus multistream decoder that is confined to the calling thread.
+     *
+     * @see OpusDecoder#unsynchronized(int, int)
+     * @see #OpusMultistreamDecoder(int, int, int, int, byte[])
+     */
+    public static OpusMultistreamDecoder unsynchronized(int sampleRate, int channels, int streams, int coupledStreams, byte[] mapping) throws IOException, UnknownPlatformException {
+        return new OpusMultistreamDecoder(sampleRate, channels, streams, coupledStreams, mapping, CodecLock.confined());
+    }
+
+    public boolean isThreadConfined() {
+        return lock.isThreadConfined();
+    }
+
+    /**
+     * Creates a new Opus multistream decoder matching the stream layout of the provided encoder.
+     *
+     * @param sampleRate the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param encoder    the encoder that produces the packets
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public OpusMultistreamDecoder(int sampleRate, OpusMultistreamEncoder encoder) throws IOException, UnknownPlatformException {
+        this(sampleRate, encoder.getChannels(), encoder.getStreams(), encoder.getCoupledStreams(), encoder.getMapping());
+    }
+
+    private static native long createDecoder0(int sampleRate, int channels, int streams, int coupledStreams, byte[] mapping) throws IOException;
+
+    public int getChannels() {
+        return channels;
+    }
+
+    private native void setFrameSize0(long decoderPointer, int frameSize);
+
+    public void setFrameSize(int frameSize) {
+        lock.lock();
+        try {
+            setFrameSize0(decoder, frameSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int getFrameSize0(long decoderPointer);
+
+    public int getFrameSize() {
+        lock.lock();
+        try {
+            return getFrameSize0(decoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native short[] decode0(long decoderPointer, @Nullable byte[] input);
+
+    /**
+     * Decodes the provided packet.
+     *
+     * @param input the input packet or <code>null</code> to do PLC
+     * @return the decoded interleaved audio
+     */
+    public short[] decode(@Nullable byte[] input) {
+        lock.lock();
+        try {
+            return decode0(decoder, input);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native float[] decodeFloat0(long decoderPointer, @Nullable byte[] input);
+
+    /**
+     * Decodes the provided packet to float PCM.
+     *
+     * @param input the input packet or <code>null</code> to do PLC
+     * @return the decoded interleaved audio with samples in the range of <code>-1</code> to <code>1</code>
+     */
+    public float[] decodeFloat(@Nullable byte[] input) {
+        lock.lock();
+        try {
+            return decodeFloat0(decoder, input);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeInto0(long decoderPointer, @Nullable byte[] input, int inputOffset, int inputLength, short[] output, int outputOffset);
+
+    /**
+     * Decodes a single packet into the provided output array without allocating any memory.
+     *
+     * @see OpusDecoder#decode(byte[], int, int, short[], int)
+     */
+    public int decode(@Nullable byte[] input, int inputOffset, int inputLength, short[] output, int outputOffset) {
+        lock.lock();
+        try {
+            return decodeInto0(decoder, input, inputOffset, inputLength, output, outputOffset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeFloatInto0(long decoderPointer, @Nullable byte[] input, int inputOffset, int inputLength, float[] output, int outputOffset);
+
+    /**
+     * Decodes a single packet to float PCM into the provided output array without allocating any memory.
+     *
+     * @see OpusDecoder#decode(byte[], int, int, float[], int)
+     */
+    public int decode(@Nullable byte[] input, int inputOffset, int inputLength, float[] output, int outputOffset) {
+        lock.lock();
+        try {
+            return decodeFloatInto0(decoder, input, inputOffset, inputLength, output, outputOffset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeRecoverInto0(long decoderPointer, byte[] input, int inputOffset, int inputLength, int frames, short[] output, int outputOffset, @Nullable int[] frameSizes);
+
+    /**
+     * Decodes the provided packet and recovers lost frames using FEC and PLC into the provided output array.
+     *
+     * @see OpusDecoder#decode(byte[], int, int, int, short[], int, int[])
+     */
+    public int decode(byte[] input, int inputOffset, int inputLength, int frames, short[] output, int outputOffset, @Nullable int[] frameSizes) {
+        lock.lock();
+        try {
+            return decodeRecoverInto0(decoder, input, inputOffset, inputLength, frames, output, outputOffset, frameSizes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeRecoverFloatInto0(long decoderPointer, byte[] input, int inputOffset, int inputLength, int frames, float[] output, int outputOffset, @Nullable int[] frameSizes);
+
+    /**
+     * Decodes the provided packet to float PCM and recovers lost frames using FEC and PLC into the provided output array.
+     *
+     * @see OpusDecoder#decode(byte[], int, int, int, float[], int, int[])
+     */
+    public int decode(byte[] input, int inputOffset, int inputLength, int frames, float[] output, int outputOffset, @Nullable int[] frameSizes) {
+        lock.lock();
+        try {
+            return decodeRecoverFloatInto0(decoder, input, inputOffset, inputLength, frames, output, outputOffset, frameSizes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeDirect0(long decoderPointer, @Nullable ByteBuffer input, int inputOffset, int inputLength, ShortBuffer output, int outputOffset, int outputCapacity);
+
+    /**
+     * Decodes the remaining bytes of the input buffer as a single packet without copying any data.
+     *
+     * @see OpusDecoder#decode(ByteBuffer, ShortBuffer)
+     */
+    public int decode(@Nullable ByteBuffer input, ShortBuffer output) {
+        if (output.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Output buffer must use the native byte order");
+        }
+        lock.lock();
+        try {
+            int inputOffset = input == null ? 0 : input.position();
+            int inputLength = input == null ? 0 : input.remaining();
+            int samples = decodeDirect0(decoder, input, inputOffset, inputLength, output, output.position(), output.remaining());
+            if (input != null) {
+                input.position(input.limit());
+            }
+            output.position(output.position() + samples * channels);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeFloatDirect0(long decoderPointer, @Nullable ByteBuffer input, int inputOffset, int inputLength, FloatBuffer output, int outputOffset, int outputCapacity);
+
+    /**
+     * Decodes the remaining bytes of the input buffer to float PCM without copying any data.
+     *
+     * @see OpusDecoder#decode(ByteBuffer, FloatBuffer)
+     */
+    public int decode(@Nullable ByteBuffer input, FloatBuffer output) {
+        if (output.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Output buffer must use the native byte order");
+        }
+        lock.lock();
+        try {
+            int inputOffset = input == null ? 0 : input.position();
+            int inputLength = input == null ? 0 : input.remaining();
+            int samples = decodeFloatDirect0(decoder, input, inputOffset, inputLength, output, output.position(), output.remaining());
+            if (input != null) {
+                input.position(input.limit());
+            }
+            output.position(output.position() + samples * channels);
+            return samples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeBatch0(long decoderPointer, byte[] input, int[] packetOffsets, int[] packetLengths, int packets, short[] output, int outputOffset, @Nullable int[] frameSizes);
+
+    /**
+     * Decodes multiple consecutive packets in a single call.
+     *
+     * @see OpusDecoder#decodeBatch(byte[], int[], int[], int, short[], int, int[])
+     */
+    public int decodeBatch(byte[] input, int[] packetOffsets, int[] packetLengths, int packets, short[] output, int outputOffset, @Nullable int[] frameSizes) {
+        lock.lock();
+        try {
+            return decodeBatch0(decoder, input, packetOffsets, packetLengths, packets, output, outputOffset, frameSizes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int decodeFloatBatch0(long decoderPointer, byte[] input, int[] packetOffsets, int[] packetLengths, int packets, float[] output, int outputOffset, @Nullable int[] frameSizes);
+
+    /**
+     * Decodes multiple consecutive packets to float PCM in a single call.
+     *
+     * @see OpusDecoder#decodeBatch(byte[], int[], int[], int, float[], int, int[])
+     */
+    public int decodeBatch(byte[] input, int[] packetOffsets, int[] packetLengths, int packets, float[] output, int outputOffset, @Nullable int[] frameSizes) {
+        lock.lock();
+        try {
+            return decodeFloatBatch0(decoder, input, packetOffsets, packetLengths, packets, output, outputOffset, frameSizes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void resetState0(long decoderPointer);
+
+    public void resetState() {
+        lock.lock();
+        try {
+            resetState0(decoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void destroyDecoder0(long decoderPointer);
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            destroyDecoder0(decoder);
+            decoder = 0L;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return decoder == 0L;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OpusMultistreamDecoder[%d]", decoder);
+    }
+}
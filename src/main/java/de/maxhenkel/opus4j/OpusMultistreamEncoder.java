@@ -0,0 +1,313 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * An Opus encoder for more than two channels that encodes every frame as a single multistream packet.
+ * <br>
+ * The streams and the channel mapping are chosen by libopus based on the mapping family and can be retrieved with
+ * {@link #getStreams()}, {@link #getCoupledStreams()} and {@link #getMapping()} to create a matching
+ * {@link OpusMultistreamDecoder}.
+ */
+public class OpusMultistreamEncoder implements AutoCloseable {
+
+    private final CodecLock lock;
+    private volatile long encoder;
+    private final int channels;
+    private final int streams;
+    private final int coupledStreams;
+    private final byte[] mapping;
+
+    /**
+     * Creates a new Opus multistream encoder.
+     *
+     * @param sampleRate    the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels      the number of channels (1 to 255)
+     * @param mappingFamily the channel mapping family (0 for mono/stereo, 1 for up to 8 channels in Vorbis order, or 255 for undefined)
+     * @param application   the application (VOIP, AUDIO, or LOW_DELAY)
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public OpusMultistreamEncoder(int sampleRate, int channels, int mappingFamily, OpusEncoder.Application application) throws IOException, UnknownPlatformException {
+        this(sampleRate, channels, mappingFamily, application, CodecLock.shared());
+    }
+
+    private OpusMultistreamEncoder(int sampleRate, int channels, int mappingFamily, OpusEncoder.Application application, CodecLock lock) throws IOException, UnknownPlatformException {
+        NativeLoader.load();
+        int[] streamCounts = new int[2];
+        byte[] mapping = new byte[Math.max(channels, 0)];
+        encoder = createEncoder0(sampleRate, channels, mappingFamily, application, streamCounts, mapping);
+        this.channels = channels;
+        this.streams = streamCounts[0];
+        this.coupledStreams = streamCounts[1];
+        this.mapping = mapping;
+        this.lock = lock;
+    }
+
+    /**
+     * Creates a new Opus multistream encoder that is confined to the calling thread.
+     *
+     * @see OpusEncoder#unsynchronized(int, int, OpusEncoder.Application)
+     * @see #OpusMultistreamEncoder(int, int, int, OpusEncoder.Application)
+     */
+    public static OpusMultistreamEncoder unsynchronized(int sampleRate, int channels, int mappingFamily, OpusEncoder.Application application) throws IOException, UnknownPlatformException {
+        return new OpusMultistreamEncoder(sampleRate, channels, mappingFamily, application, CodecLock.confined());
+    }
+
+    public boolean isThreadConfined() {
+        return lock.isThreadConfined();
+    }
+
+    private static native long createEncoder0(int sampleRate, int channels, int mappingFamily, OpusEncoder.Application application, int[] streamCounts, byte[] mapping) throws IOException;
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return the total number of streams in each packet
+     */
+    public int getStreams() {
+        return streams;
+    }
+
+    /**
+     * @return the number of streams that encode two channels
+     */
+    public int getCoupledStreams() {
+        return coupledStreams;
+    }
+
+    /**
+     * @return a copy of the mapping of the input channels to the decoded channels of the streams
+     */
+    public byte[] getMapping() {
+        return mapping.clone();
+    }
+
+    private native void setMaxPayloadSize0(long encoderPointer, int maxPayloadSize);
+
+    public void setMaxPayloadSize(int maxPayloadSize) {
+        lock.lock();
+        try {
+            setMaxPayloadSize0(encoder, maxPayloadSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int getMaxPayloadSize0(long encoderPointer);
+
+    public int getMaxPayloadSize() {
+        lock.lock();
+        try {
+            return getMaxPayloadSize0(encoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void setMaxPacketLossPercentage0(long encoderPointer, float maxPacketLossPercentage);
+
+    public void setMaxPacketLossPercentage(float maxPacketLossPercentage) {
+        lock.lock();
+        try {
+            setMaxPacketLossPercentage0(encoder, maxPacketLossPercentage);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native float getMaxPacketLossPercentage0(long encoderPointer);
+
+    public float getMaxPacketLossPercentage() {
+        lock.lock();
+        try {
+            return getMaxPacketLossPercentage0(encoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native byte[] encode0(long encoderPointer, short[] input);
+
+    /**
+     * Encodes a single frame.
+     *
+     * @param input the raw interleaved audio
+     * @return the encoded multistream packet
+     */
+    public byte[] encode(short[] input) {
+        lock.lock();
+        try {
+            return encode0(encoder, input);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native byte[] encodeFloat0(long encoderPointer, float[] input);
+
+    /**
+     * Encodes a single frame of float PCM.
+     *
+     * @param input the raw interleaved audio with samples in the range of <code>-1</code> to <code>1</code>
+     * @return the encoded multistream packet
+     */
+    public byte[] encode(float[] input) {
+        lock.lock();
+        try {
+            return encodeFloat0(encoder, input);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeInto0(long encoderPointer, short[] input, int inputOffset, int frameSize, byte[] output, int outputOffset, int outputCapacity);
+
+    /**
+     * Encodes a single frame into the provided output array without allocating any memory.
+     *
+     * @see OpusEncoder#encode(short[], int, int, byte[], int, int)
+     */
+    public int encode(short[] input, int inputOffset, int frameSize, byte[] output, int outputOffset, int outputCapacity) {
+        lock.lock();
+        try {
+            return encodeInto0(encoder, input, inputOffset, frameSize, output, outputOffset, outputCapacity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeFloatInto0(long encoderPointer, float[] input, int inputOffset, int frameSize, byte[] output, int outputOffset, int outputCapacity);
+
+    /**
+     * Encodes a single frame of float PCM into the provided output array without allocating any memory.
+     *
+     * @see OpusEncoder#encode(float[], int, int, byte[], int, int)
+     */
+    public int encode(float[] input, int inputOffset, int frameSize, byte[] output, int outputOffset, int outputCapacity) {
+        lock.lock();
+        try {
+            return encodeFloatInto0(encoder, input, inputOffset, frameSize, output, outputOffset, outputCapacity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeDirect0(long encoderPointer, ShortBuffer input, int inputOffset, int inputLength, ByteBuffer output, int outputOffset, int outputCapacity);
+
+    /**
+     * Encodes the remaining samples of the input buffer as a single frame without copying any data.
+     *
+     * @see OpusEncoder#encode(ShortBuffer, ByteBuffer)
+     */
+    public int encode(ShortBuffer input, ByteBuffer output) {
+        if (input.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Input buffer must use the native byte order");
+        }
+        lock.lock();
+        try {
+            int length = encodeDirect0(encoder, input, input.position(), input.remaining(), output, output.position(), output.remaining());
+            input.position(input.limit());
+            output.position(output.position() + length);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeFloatDirect0(long encoderPointer, FloatBuffer input, int inputOffset, int inputLength, ByteBuffer output, int outputOffset, int outputCapacity);
+
+    /**
+     * Encodes the remaining float samples of the input buffer as a single frame without copying any data.
+     *
+     * @see OpusEncoder#encode(FloatBuffer, ByteBuffer)
+     */
+    public int encode(FloatBuffer input, ByteBuffer output) {
+        if (input.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Input buffer must use the native byte order");
+        }
+        lock.lock();
+        try {
+            int length = encodeFloatDirect0(encoder, input, input.position(), input.remaining(), output, output.position(), output.remaining());
+            input.position(input.limit());
+            output.position(output.position() + length);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeBatch0(long encoderPointer, short[] input, int inputOffset, int frameSize, int frames, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths);
+
+    /**
+     * Encodes multiple consecutive frames in a single call.
+     *
+     * @see OpusEncoder#encodeBatch(short[], int, int, int, byte[], int, int, int[])
+     */
+    public int encodeBatch(short[] input, int inputOffset, int frameSize, int frames, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths) {
+        lock.lock();
+        try {
+            return encodeBatch0(encoder, input, inputOffset, frameSize, frames, output, outputOffset, outputCapacity, packetLengths);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int encodeFloatBatch0(long encoderPointer, float[] input, int inputOffset, int frameSize, int frames, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths);
+
+    /**
+     * Encodes multiple consecutive frames of float PCM in a single call.
+     *
+     * @see OpusEncoder#encodeBatch(float[], int, int, int, byte[], int, int, int[])
+     */
+    public int encodeBatch(float[] input, int inputOffset, int frameSize, int frames, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths) {
+        lock.lock();
+        try {
+            return encodeFloatBatch0(encoder, input, inputOffset, frameSize, frames, output, outputOffset, outputCapacity, packetLengths);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void resetState0(long encoderPointer);
+
+    public void resetState() {
+        lock.lock();
+        try {
+            resetState0(encoder);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void destroyEncoder0(long encoderPointer);
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            destroyEncoder0(encoder);
+            encoder = 0L;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return encoder == 0L;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OpusMultistreamEncoder[%d]", encoder);
+    }
+
+}
@@ -0,0 +1,412 @@
+package de.maxhenkel.opus4j;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Inspects Opus packets without decoding them.
+ * <br>
+ * All methods parse the packet in Java as specified in RFC 6716 section 3, so they neither allocate memory nor
+ * need a decoder or the native library.
+ * The {@link ByteBuffer} variants read the remaining bytes of heap and direct buffers without changing their position.
+ * Malformed packets cause an {@link IllegalArgumentException}.
+ */
+public final class OpusPacket {
+
+    private static final int MAX_FRAME_SIZE = 1275;
+    private static final int MAX_PACKET_DURATION_48K = 5760;
+
+    private OpusPacket() {
+
+    }
+
+    /**
+     * @param packet the array containing the packet
+     * @param offset the index of the packet in {@param packet}
+     * @param length the length of the packet in bytes
+     * @return the number of samples per channel of a single frame at 48 kHz
+     */
+    public static int getSamplesPerFrame(byte[] packet, int offset, int length) {
+        checkBounds(packet.length, offset, length);
+        return samplesPerFrame(toc(packet, null, offset, length), 48000);
+    }
+
+    /**
+     * @param packet the packet
+     * @return the number of samples per channel of a single frame at 48 kHz
+     * @see #getSamplesPerFrame(byte[], int, int)
+     */
+    public static int getSamplesPerFrame(ByteBuffer packet) {
+        return samplesPerFrame(toc(null, packet, packet.position(), packet.remaining()), 48000);
+    }
+
+    /**
+     * @param packet the array containing the packet
+     * @param offset the index of the packet in {@param packet}
+     * @param length the length of the packet in bytes
+     * @return the number of frames in the packet
+     */
+    public static int getFrameCount(byte[] packet, int offset, int length) {
+        checkBounds(packet.length, offset, length);
+        return frameCount(packet, null, offset, length);
+    }
+
+    /**
+     * @param packet the packet
+     * @return the number of frames in the packet
+     * @see #getFrameCount(byte[], int, int)
+     */
+    public static int getFrameCount(ByteBuffer packet) {
+        return frameCount(null, packet, packet.position(), packet.remaining());
+    }
+
+    /**
+     * @param packet     the array containing the packet
+     * @param offset     the index of the packet in {@param packet}
+     * @param length     the length of the packet in bytes
+     * @param sampleRate the sample rate the packet would be decoded at
+     * @return the number of samples per channel of the whole packet
+     */
+    public static int getSampleCount(byte[] packet, int offset, int length, int sampleRate) {
+        checkBounds(packet.length, offset, length);
+        return sampleCount(packet, null, offset, length, sampleRate);
+    }
+
+    /**
+     * @param packet     the packet
+     * @param sampleRate the sample rate the packet would be decoded at
+     * @return the number of samples per channel of the whole packet
+     * @see #getSampleCount(byte[], int, int, int)
+     */
+    public static int getSampleCount(ByteBuffer packet, int sampleRate) {
+        return sampleCount(null, packet, packet.position(), packet.remaining(), sampleRate);
+    }
+
+    /**
+     * @param packet the array containing the packet
+     * @param offset the index of the packet in {@param packet}
+     * @param length the length of the packet in bytes
+     * @return the audio bandwidth of the packet
+     */
+    public static Bandwidth getBandwidth(byte[] packet, int offset, int length) {
+        checkBounds(packet.length, offset, length);
+        return bandwidth(toc(packet, null, offset, length));
+    }
+
+    /**
+     * @param packet the packet
+     * @return the audio bandwidth of the packet
+     * @see #getBandwidth(byte[], int, int)
+     */
+    public static Bandwidth getBandwidth(ByteBuffer packet) {
+        return bandwidth(toc(null, packet, packet.position(), packet.remaining()));
+    }
+
+    /**
+     * @param packet the array containing the packet
+     * @param offset the index of the packet in {@param packet}
+     * @param length the length of the packet in bytes
+     * @return the number of channels encoded in the packet (1 or 2)
+     */
+    public static int getChannelCount(byte[] packet, int offset, int length) {
+        checkBounds(packet.length, offset, length);
+        return channelCount(toc(packet, null, offset, length));
+    }
+
+    /**
+     * @param packet the packet
+     * @return the number of channels encoded in the packet (1 or 2)
+     * @see #getChannelCount(byte[], int, int)
+     */
+    public static int getChannelCount(ByteBuffer packet) {
+        return channelCount(toc(null, packet, packet.position(), packet.remaining()));
+    }
+
+    /**
+     * Checks whether the packet contains in-band FEC data (LBRR) that can be used to recover the previous frame.
+     *
+     * @param packet the array containing the packet
+     * @param offset the index of the packet in {@param packet}
+     * @param length the length of the packet in bytes
+     * @return if the packet contains in-band FEC data
+     */
+    public static boolean hasLbrr(byte[] packet, int offset, int length) {
+        checkBounds(packet.length, offset, length);
+        return hasLbrr(packet, null, offset, length);
+    }
+
+    /**
+     * @param packet the packet
+     * @return if the packet contains in-band FEC data
+     * @see #hasLbrr(byte[], int, int)
+     */
+    public static boolean hasLbrr(ByteBuffer packet) {
+        return hasLbrr(null, packet, packet.position(), packet.remaining());
+    }
+
+    /**
+     * Checks whether the frame sizes of the packet are consistent with its length.
+     *
+     * @param packet the array containing the packet
+     * @param offset the index of the packet in {@param packet}
+     * @param length the length of the packet in bytes
+     * @return if the packet is well-formed
+     */
+    public static boolean isValid(byte[] packet, int offset, int length) {
+        checkBounds(packet.length, offset, length);
+        return parse(packet, null, offset, length) >= 0L;
+    }
+
+    /**
+     * @param packet the packet
+     * @return if the packet is well-formed
+     * @see #isValid(byte[], int, int)
+     */
+    public static boolean isValid(ByteBuffer packet) {
+        return parse(null, packet, packet.position(), packet.remaining()) >= 0L;
+    }
+
+    private static int get(@Nullable byte[] array, @Nullable ByteBuffer buffer, int index) {
+        if (array != null) {
+            return array[index] & 0xFF;
+        }
+        return buffer.get(index) & 0xFF;
+    }
+
+    private static int toc(@Nullable byte[] array, @Nullable ByteBuffer buffer, int offset, int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Packet is empty");
+        }
+        return get(array, buffer, offset);
+    }
+
+    private static int samplesPerFrame(int toc, int sampleRate) {
+        if ((toc & 0x80) != 0) {
+            // CELT only - 2.5, 5, 10 or 20 ms
+            return (sampleRate << ((toc >> 3) & 0x3)) / 400;
+        }
+        if ((toc & 0x60) == 0x60) {
+            // Hybrid - 10 or 20 ms
+            return (toc & 0x08) != 0 ? sampleRate / 50 : sampleRate / 100;
+        }
+        // SILK only - 10, 20, 40 or 60 ms
+        int size = (toc >> 3) & 0x3;
+        if (size == 3) {
+            return sampleRate * 60 / 1000;
+        }
+        return (sampleRate << size) / 100;
+    }
+
+    private static int frameCount(@Nullable byte[] array, @Nullable ByteBuffer buffer, int offset, int length) {
+        int code = toc(array, buffer, offset, length) & 0x3;
+        if (code == 0) {
+            return 1;
+        }
+        if (code != 3) {
+            return 2;
+        }
+        if (length < 2) {
+            throw new IllegalArgumentException("Packet is missing the frame count");
+        }
+        int count = get(array, buffer, offset + 1) & 0x3F;
+        if (count == 0) {
+            throw new IllegalArgumentException("Packet has no frames");
+        }
+        return count;
+    }
+
+    private static int sampleCount(@Nullable byte[] array, @Nullable ByteBuffer buffer, int offset, int length, int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid sample rate: %d", sampleRate));
+        }
+        int count = frameCount(array, buffer, offset, length);
+        long samples = (long) count * samplesPerFrame(get(array, buffer, offset), sampleRate);
+        // Packets can't be longer than 120 ms
+        if (samples * 25L > sampleRate * 3L) {
+            throw new IllegalArgumentException("Packet is longer than 120 ms");
+        }
+        return (int) samples;
+    }
+
+    private static Bandwidth bandwidth(int toc) {
+        if ((toc & 0x80) != 0) {
+            int bandwidth = Bandwidth.MEDIUMBAND.getValue() + ((toc >> 5) & 0x3);
+            // CELT doesn't support mediumband, so the first configurations are narrowband
+            if (bandwidth == Bandwidth.MEDIUMBAND.getValue()) {
+                return Bandwidth.NARROWBAND;
+            }
+            return Bandwidth.fromValue(bandwidth);
+        }
+        if ((toc & 0x60) == 0x60) {
+            return (toc & 0x10) != 0 ? Bandwidth.FULLBAND : Bandwidth.SUPERWIDEBAND;
+        }
+        return Bandwidth.fromValue(Bandwidth.NARROWBAND.getValue() + ((toc >> 5) & 0x3));
+    }
+
+    private static int channelCount(int toc) {
+        return (toc & 0x4) != 0 ? 2 : 1;
+    }
+
+    private static boolean hasLbrr(@Nullable byte[] array, @Nullable ByteBuffer buffer, int offset, int length) {
+        int toc = toc(array, buffer, offset, length);
+        // CELT only packets don't contain any SILK data
+        if ((toc & 0x80) != 0) {
+            return false;
+        }
+        long firstFrame = parse(array, buffer, offset, length);
+        if (firstFrame < 0L) {
+            throw new IllegalArgumentException("Packet is malformed");
+        }
+        int frameOffset = (int) (firstFrame >>> 32);
+        int frameSize = (int) firstFrame;
+        if (frameSize == 0) {
+            return false;
+        }
+        int frameSize48k = samplesPerFrame(toc, 48000);
+        int silkFrames = frameSize48k > 960 ? frameSize48k / 960 : 1;
+        int header = get(array, buffer, offset + frameOffset);
+        // The VAD flags of all SILK frames are followed by the LBRR flag for each channel
+        boolean lbrr = ((header >> (7 - silkFrames)) & 0x1) != 0;
+        if (channelCount(toc) == 2) {
+            lbrr |= ((header >> (6 - 2 * silkFrames)) & 0x1) != 0;
+        }
+        return lbrr;
+    }
+
+    /**
+     * Parses the frame sizes of the packet as specified in RFC 6716 section 3.2.
+     *
+     * @return the offset of the first frame relative to the packet in the upper 32 bits and its size in the lower 32 bits or <code>-1</code> if the packet is malformed
+     */
+    private static long parse(@Nullable byte[] array, @Nullable ByteBuffer buffer, int offset, int length) {
+        if (length < 1) {
+            return -1L;
+        }
+        int toc = get(array, buffer, offset);
+        int pos = 1;
+        int remaining = length - 1;
+        int firstSize;
+        int lastSize;
+        switch (toc & 0x3) {
+            case 0:
+                firstSize = remaining;
+                lastSize = remaining;
+                break;
+            case 1:
+                if ((remaining & 0x1) != 0) {
+                    return -1L;
+                }
+                firstSize = remaining / 2;
+                lastSize = firstSize;
+                break;
+            case 2: {
+                int size = parseSize(array, buffer, offset + pos, remaining);
+                if (size < 0) {
+                    return -1L;
+                }
+                int bytes = size >= 252 ? 2 : 1;
+                remaining -= bytes;
+                pos += bytes;
+                if (size > remaining) {
+                    return -1L;
+                }
+                firstSize = size;
+                lastSize = remaining - size;
+                break;
+            }
+            default: {
+                if (remaining < 1) {
+                    return -1L;
+                }
+                int ch = get(array, buffer, offset + pos);
+                pos++;
+                remaining--;
+                int count = ch & 0x3F;
+                if (count <= 0 || samplesPerFrame(toc, 48000) * count > MAX_PACKET_DURATION_48K) {
+                    return -1L;
+                }
+                if ((ch & 0x40) != 0) {
+                    // Padding
+                    int p;
+                    do {
+                        if (remaining <= 0) {
+                            return -1L;
+                        }
+                        p = get(array, buffer, offset + pos);
+                        pos++;
+                        remaining--;
+                        remaining -= p == 255 ? 254 : p;
+                    } while (p == 255);
+                }
+                if (remaining < 0) {
+                    return -1L;
+                }
+                if ((ch & 0x80) != 0) {
+                    // VBR
+                    lastSize = remaining;
+                    firstSize = -1;
+                    int sizeBytes = 0;
+                    for (int i = 0; i < count - 1; i++) {
+                        int size = parseSize(array, buffer, offset + pos + sizeBytes, remaining);
+                        if (size < 0) {
+                            return -1L;
+                        }
+                        int bytes = size >= 252 ? 2 : 1;
+                        remaining -= bytes;
+                        sizeBytes += bytes;
+                        if (size > remaining) {
+                            return -1L;
+                        }
+                        if (i == 0) {
+                            firstSize = size;
+                        }
+                        lastSize -= bytes + size;
+                    }
+                    pos += sizeBytes;
+                    if (lastSize < 0) {
+                        return -1L;
+                    }
+                    if (count == 1) {
+                        firstSize = lastSize;
+                    }
+                } else {
+                    // CBR
+                    lastSize = remaining / count;
+                    if (lastSize * count != remaining) {
+                        return -1L;
+                    }
+                    firstSize = lastSize;
+                }
+                break;
+            }
+        }
+        if (lastSize > MAX_FRAME_SIZE || firstSize > MAX_FRAME_SIZE) {
+            return -1L;
+        }
+        return ((long) pos << 32) | (firstSize & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the frame size or <code>-1</code> if there are not enough bytes
+     */
+    private static int parseSize(@Nullable byte[] array, @Nullable ByteBuffer buffer, int index, int remaining) {
+        if (remaining < 1) {
+            return -1;
+        }
+        int first = get(array, buffer, index);
+        if (first < 252) {
+            return first;
+        }
+        if (remaining < 2) {
+            return -1;
+        }
+        return 4 * get(array, buffer, index + 1) + first;
+    }
+
+    private static void checkBounds(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > arrayLength - length) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Range [%d, %d + %d) out of bounds for length %d", offset, offset, length, arrayLength));
+        }
+    }
+
+}
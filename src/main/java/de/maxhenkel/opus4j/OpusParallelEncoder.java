@@ -0,0 +1,224 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Encodes long audio on multiple cores.
+ * <br>
+ * The audio is split into segments that are encoded in parallel on a {@link ForkJoinPool}, each with its own encoder.
+ * Before encoding its segment, each encoder is primed by encoding the frames preceding the segment (the pre-roll) and
+ * discarding the resulting packets.
+ * This way, the state of the encoder at the start of each segment is close to the state a single encoder would have at
+ * that point, and the packets of all segments can be decoded back to back as one continuous stream without any gaps.
+ * All encoders have the same lookahead, so the packets of all segments line up with the input.
+ */
+public class OpusParallelEncoder {
+
+    /**
+     * 10 seconds of 20 ms frames.
+     */
+    public static final int DEFAULT_SEGMENT_FRAMES = 500;
+    /**
+     * 200 ms of 20 ms frames.
+     */
+    public static final int DEFAULT_PRE_ROLL_FRAMES = 10;
+
+    private final int sampleRate;
+    private final int channels;
+    private final OpusEncoder.Application application;
+    private final int frameSize;
+    private final int segmentFrames;
+    private final int preRollFrames;
+    @Nullable
+    private final Consumer<OpusEncoder> configurator;
+    private final ForkJoinPool pool;
+    private final int lookahead;
+
+    /**
+     * @param sampleRate    the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels      the number of channels (1 or 2)
+     * @param application   the application (VOIP, AUDIO, or LOW_DELAY)
+     * @param frameSize     the number of samples per channel of each frame
+     * @param segmentFrames the number of frames each task encodes
+     * @param preRollFrames the number of frames each encoder is primed with before its segment - at least enough to cover the lookahead of the encoder
+     * @param configurator  an optional callback that configures each encoder, for example its bitrate
+     * @param pool          the pool the segments are encoded on
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted or the encoder arguments are invalid
+     */
+    public OpusParallelEncoder(int sampleRate, int channels, OpusEncoder.Application application, int frameSize, int segmentFrames, int preRollFrames, @Nullable Consumer<OpusEncoder> configurator, ForkJoinPool pool) throws IOException, UnknownPlatformException {
+        if (frameSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid frame size: %d", frameSize));
+        }
+        if (segmentFrames <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of segment frames: %d", segmentFrames));
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.application = application;
+        this.frameSize = frameSize;
+        this.segmentFrames = segmentFrames;
+        this.preRollFrames = preRollFrames;
+        this.configurator = configurator;
+        this.pool = pool;
+        // Validates the arguments and the configurator before any task is started
+        try (OpusEncoder encoder = createEncoder()) {
+            lookahead = encoder.getLookahead();
+        }
+        // Segments would start with a gap if the encoder didn't see the input its lookahead covers
+        if (preRollFrames < (lookahead + frameSize - 1) / frameSize) {
+            throw new IllegalArgumentException(String.format("Invalid number of pre-roll frames: %d", preRollFrames));
+        }
+    }
+
+    /**
+     * Creates a parallel encoder with the default segment length and pre-roll on the common pool.
+     *
+     * @param sampleRate  the sample rate (8000, 12000, 16000, 24000, or 48000)
+     * @param channels    the number of channels (1 or 2)
+     * @param application the application (VOIP, AUDIO, or LOW_DELAY)
+     * @param frameSize   the number of samples per channel of each frame
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted or the encoder arguments are invalid
+     */
+    public OpusParallelEncoder(int sampleRate, int channels, OpusEncoder.Application application, int frameSize) throws IOException, UnknownPlatformException {
+        this(sampleRate, channels, application, frameSize, DEFAULT_SEGMENT_FRAMES, DEFAULT_PRE_ROLL_FRAMES, null, ForkJoinPool.commonPool());
+    }
+
+    private OpusEncoder createEncoder() throws IOException, UnknownPlatformException {
+        // Each encoder is only used by the task that created it
+        OpusEncoder encoder = OpusEncoder.unsynchronized(sampleRate, channels, application);
+        if (configurator != null) {
+            try {
+                configurator.accept(encoder);
+            } catch (RuntimeException e) {
+                encoder.close();
+                throw e;
+            }
+        }
+        return encoder;
+    }
+
+    /**
+     * @return the number of samples at 48 kHz the decoded audio is delayed by - the pre-skip of an Ogg Opus stream
+     */
+    public int getPreSkip() {
+        return (int) ((long) lookahead * 48000L / sampleRate);
+    }
+
+    /**
+     * Encodes consecutive frames in parallel.
+     *
+     * @param input       the raw audio
+     * @param inputOffset the index of the first sample of the first frame in {@param input}
+     * @param frames      the number of frames to encode
+     * @return the packets in order
+     * @throws IOException if encoding failed
+     */
+    public byte[][] encode(short[] input, int inputOffset, int frames) throws IOException {
+        long length = (long) frames * frameSize * channels;
+        if (frames < 0 || inputOffset < 0 || inputOffset > input.length - length) {
+            throw new ArrayIndexOutOfBoundsException(String.format("Range [%d, %d + %d) out of bounds for length %d", inputOffset, inputOffset, length, input.length));
+        }
+        byte[][] packets = new byte[frames][];
+        int segments = (frames + segmentFrames - 1) / segmentFrames;
+        try {
+            pool.invoke(new SegmentTask(input, inputOffset, frames, packets, 0, segments));
+        } catch (CompletionException e) {
+            // Exceptions of other worker threads are wrapped once more when they are rethrown
+            Throwable cause = e;
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+        return packets;
+    }
+
+    /**
+     * Encodes consecutive frames in parallel and writes the packets in order to an Ogg Opus stream.
+     * <br>
+     * The stream should be created with {@link #getPreSkip()} as the pre-skip.
+     *
+     * @param input       the raw audio
+     * @param inputOffset the index of the first sample of the first frame in {@param input}
+     * @param frames      the number of frames to encode
+     * @param out         the stream to write the packets to
+     * @throws IOException if encoding failed or the packets could not be written
+     */
+    public void encode(short[] input, int inputOffset, int frames, OggOpusOutputStream out) throws IOException {
+        for (byte[] packet : encode(input, inputOffset, frames)) {
+            out.writePacket(packet, 0, packet.length);
+        }
+    }
+
+    private void encodeSegment(short[] input, int inputOffset, int frames, byte[][] packets, int segment) {
+        int firstFrame = segment * segmentFrames;
+        int lastFrame = Math.min(firstFrame + segmentFrames, frames);
+        int preRollStart = Math.max(0, firstFrame - preRollFrames);
+        int frameLength = frameSize * channels;
+        try (OpusEncoder encoder = createEncoder()) {
+            byte[] buffer = new byte[encoder.getMaxPayloadSize()];
+            for (int frame = preRollStart; frame < firstFrame; frame++) {
+                encoder.encode(input, inputOffset + frame * frameLength, frameSize, buffer, 0, buffer.length);
+            }
+            for (int frame = firstFrame; frame < lastFrame; frame++) {
+                int length = encoder.encode(input, inputOffset + frame * frameLength, frameSize, buffer, 0, buffer.length);
+                byte[] packet = new byte[length];
+                System.arraycopy(buffer, 0, packet, 0, length);
+                packets[frame] = packet;
+            }
+        } catch (IOException | UnknownPlatformException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Splits the segments in halves until a single segment is left.
+     */
+    private class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final short[] input;
+        private final int inputOffset;
+        private final int frames;
+        private final byte[][] packets;
+        private final int fromSegment;
+        private final int toSegment;
+
+        private SegmentTask(short[] input, int inputOffset, int frames, byte[][] packets, int fromSegment, int toSegment) {
+            this.input = input;
+            this.inputOffset = inputOffset;
+            this.frames = frames;
+            this.packets = packets;
+            this.fromSegment = fromSegment;
+            this.toSegment = toSegment;
+        }
+
+        @Override
+        protected void compute() {
+            if (toSegment - fromSegment <= 1) {
+                if (toSegment > fromSegment) {
+                    encodeSegment(input, inputOffset, frames, packets, fromSegment);
+                }
+                return;
+            }
+            int middle = (fromSegment + toSegment) >>> 1;
+            invokeAll(new SegmentTask(input, inputOffset, frames, packets, fromSegment, middle), new SegmentTask(input, inputOffset, frames, packets, middle, toSegment));
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import java.io.IOException;
+
+/**
+ * Merges multiple Opus packets into a single packet or splits a packet into its frames without re-encoding.
+ * <br>
+ * All packets of a merge need to share the same configuration (mode, bandwidth, frame size and channels)
+ * and the merged packet can't contain more than 120 ms of audio.
+ */
+public class OpusRepacketizer implements AutoCloseable {
+
+    private final CodecLock lock = CodecLock.shared();
+    private long repacketizer;
+
+    /**
+     * Creates a new Opus repacketizer.
+     *
+     * @throws UnknownPlatformException if the operating system is not supported
+     * @throws IOException              if the native library could not be extracted
+     */
+    public OpusRepacketizer() throws IOException, UnknownPlatformException {
+        NativeLoader.load();
+        repacketizer = createRepacketizer0();
+    }
+
+    private static native long createRepacketizer0();
+
+    private native int merge0(long repacketizerPointer, byte[] input, int[] packetOffsets, int[] packetLengths, int packets, byte[] output, int outputOffset, int outputCapacity) throws IOException;
+
+    /**
+     * Merges multiple consecutive packets into a single packet.
+     * <br>
+     * Packet <code>i</code> is read from {@param input} at <code>packetOffsets[i]</code> with a length of
+     * <code>packetLengths[i]</code> bytes.
+     *
+     * @param input          the array containing the packets
+     * @param packetOffsets  the index of each packet in {@param input}
+     * @param packetLengths  the length of each packet in bytes
+     * @param packets        the number of packets to merge
+     * @param output         the array to write the merged packet to
+     * @param outputOffset   the index in {@param output} to start writing the merged packet at
+     * @param outputCapacity the maximum number of bytes that may be written to {@param output}
+     * @return the length of the merged packet in bytes
+     * @throws IOException if the packets are invalid, can't be merged or the merged packet doesn't fit into the output
+     */
+    public int merge(byte[] input, int[] packetOffsets, int[] packetLengths, int packets, byte[] output, int outputOffset, int outputCapacity) throws IOException {
+        lock.lock();
+        try {
+            return merge0(repacketizer, input, packetOffsets, packetLengths, packets, output, outputOffset, outputCapacity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native int split0(long repacketizerPointer, byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths) throws IOException;
+
+    /**
+     * Splits a packet into one packet per frame.
+     * <br>
+     * The resulting packets are written back to back to {@param output}.
+     *
+     * @param input          the array containing the packet
+     * @param inputOffset    the index of the packet in {@param input}
+     * @param inputLength    the length of the packet in bytes
+     * @param output         the array to write the resulting packets to
+     * @param outputOffset   the index in {@param output} to start writing the packets at
+     * @param outputCapacity the maximum number of bytes that may be written to {@param output}
+     * @param packetLengths  the array that receives the length of each resulting packet in bytes
+     * @return the number of resulting packets
+     * @throws IOException if the packet is invalid or the resulting packets don't fit into the output
+     */
+    public int split(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset, int outputCapacity, int[] packetLengths) throws IOException {
+        lock.lock();
+        try {
+            return split0(repacketizer, input, inputOffset, inputLength, output, outputOffset, outputCapacity, packetLengths);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private native void destroyRepacketizer0(long repacketizerPointer);
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            destroyRepacketizer0(repacketizer);
+            repacketizer = 0L;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return repacketizer == 0L;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("OpusRepacketizer[%d]", repacketizer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+/**
+ * The {@link OpusFfmDecoder} of Java 22 and newer.
+ */
+final class OpusFfmDecoderImpl implements OpusFfmDecoder<MemorySegment> {
+
+    private final CodecLock lock;
+    private volatile MemorySegment decoder;
+    private final int sampleRate;
+    private final int channels;
+
+    OpusFfmDecoderImpl(int sampleRate, int channels, CodecLock lock) throws IOException, UnknownPlatformException {
+        if (channels != 1 && channels != 2) {
+            throw new IllegalArgumentException(String.format("Invalid number of channels: %d", channels));
+        }
+        NativeLoader.load();
+        decoder = createDecoder(sampleRate, channels);
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.lock = lock;
+    }
+
+    private static MemorySegment createDecoder(int sampleRate, int channels) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment error = arena.allocate(JAVA_INT);
+            MemorySegment decoder = (MemorySegment) OpusLibrary.DECODER_CREATE.invokeExact(sampleRate, channels, error);
+            int err = error.get(JAVA_INT, 0L);
+            if (err < 0) {
+                throw OpusLibrary.opusException(err, "Failed to create decoder");
+            }
+            return decoder;
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        }
+    }
+
+    @Override
+    public boolean isThreadConfined() {
+        return lock.isThreadConfined();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    private MemorySegment getDecoder() {
+        if (decoder.equals(MemorySegment.NULL)) {
+            throw new RuntimeException("Decoder is closed");
+        }
+        return decoder;
+    }
+
+    @Override
+    public int decode(@Nullable MemorySegment input, MemorySegment output, boolean fec) {
+        int frameSize = OpusLibrary.getFrameSize(output, Short.BYTES, channels);
+        lock.lock();
+        try {
+            int result = (int) OpusLibrary.DECODE.invokeExact(getDecoder(), input == null ? MemorySegment.NULL : input, input == null ? 0 : OpusLibrary.getLength(input), output, frameSize, fec ? 1 : 0);
+            if (result < 0) {
+                throw OpusLibrary.opusException(result, "Failed to decode");
+            }
+            return result;
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int decode(@Nullable MemorySegment input, MemorySegment output) {
+        return decode(input, output, false);
+    }
+
+    @Override
+    public int decodeFloat(@Nullable MemorySegment input, MemorySegment output, boolean fec) {
+        int frameSize = OpusLibrary.getFrameSize(output, Float.BYTES, channels);
+        lock.lock();
+        try {
+            int result = (int) OpusLibrary.DECODE_FLOAT.invokeExact(getDecoder(), input == null ? MemorySegment.NULL : input, input == null ? 0 : OpusLibrary.getLength(input), output, frameSize, fec ? 1 : 0);
+            if (result < 0) {
+                throw OpusLibrary.opusException(result, "Failed to decode");
+            }
+            return result;
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void resetState() {
+        lock.lock();
+        try {
+            int err = (int) OpusLibrary.DECODER_CTL.invokeExact(getDecoder(), OpusLibrary.RESET_STATE, 0);
+            if (err < 0) {
+                throw OpusLibrary.opusException(err, "Failed to reset state");
+            }
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (!decoder.equals(MemorySegment.NULL)) {
+                OpusLibrary.DECODER_DESTROY.invokeExact(decoder);
+                decoder = MemorySegment.NULL;
+            }
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return decoder.equals(MemorySegment.NULL);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OpusFfmDecoder[%d]", decoder.address());
+    }
+
+}
@@ -0,0 +1,210 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+/**
+ * The {@link OpusFfmEncoder} of Java 22 and newer.
+ */
+final class OpusFfmEncoderImpl implements OpusFfmEncoder<MemorySegment> {
+
+    private final CodecLock lock;
+    private volatile MemorySegment encoder;
+    private final int sampleRate;
+    private final int channels;
+    private final OpusEncoder.Application application;
+
+    OpusFfmEncoderImpl(int sampleRate, int channels, OpusEncoder.Application application, CodecLock lock) throws IOException, UnknownPlatformException {
+        if (channels != 1 && channels != 2) {
+            throw new IllegalArgumentException(String.format("Invalid number of channels: %d", channels));
+        }
+        NativeLoader.load();
+        encoder = createEncoder(sampleRate, channels, application);
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.application = application;
+        this.lock = lock;
+    }
+
+    private static MemorySegment createEncoder(int sampleRate, int channels, OpusEncoder.Application application) throws IOException {
+        int opusApplication = switch (application) {
+            case VOIP -> OpusLibrary.APPLICATION_VOIP;
+            case AUDIO -> OpusLibrary.APPLICATION_AUDIO;
+            case LOW_DELAY -> OpusLibrary.APPLICATION_RESTRICTED_LOWDELAY;
+        };
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment error = arena.allocate(JAVA_INT);
+            MemorySegment encoder = (MemorySegment) OpusLibrary.ENCODER_CREATE.invokeExact(sampleRate, channels, opusApplication, error);
+            int err = error.get(JAVA_INT, 0L);
+            if (err < 0) {
+                throw OpusLibrary.opusException(err, "Failed to create encoder");
+            }
+            err = (int) OpusLibrary.ENCODER_CTL.invokeExact(encoder, OpusLibrary.SET_INBAND_FEC_REQUEST, OpusLibrary.DEFAULT_INBAND_FEC);
+            if (err < 0) {
+                OpusLibrary.ENCODER_DESTROY.invokeExact(encoder);
+                throw OpusLibrary.opusException(err, "Failed to create encoder");
+            }
+            return encoder;
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        }
+    }
+
+    @Override
+    public boolean isThreadConfined() {
+        return lock.isThreadConfined();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public OpusEncoder.Application getApplication() {
+        return application;
+    }
+
+    private MemorySegment getEncoder() {
+        if (encoder.equals(MemorySegment.NULL)) {
+            throw new RuntimeException("Encoder is closed");
+        }
+        return encoder;
+    }
+
+    @Override
+    public int encode(MemorySegment input, MemorySegment output) {
+        int frameSize = OpusLibrary.getFrameSize(input, Short.BYTES, channels);
+        lock.lock();
+        try {
+            int result = (int) OpusLibrary.ENCODE.invokeExact(getEncoder(), input, frameSize, output, OpusLibrary.getLength(output));
+            if (result < 0) {
+                throw OpusLibrary.opusException(result, "Failed to encode");
+            }
+            return result;
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int encodeFloat(MemorySegment input, MemorySegment output) {
+        int frameSize = OpusLibrary.getFrameSize(input, Float.BYTES, channels);
+        lock.lock();
+        try {
+            int result = (int) OpusLibrary.ENCODE_FLOAT.invokeExact(getEncoder(), input, frameSize, output, OpusLibrary.getLength(output));
+            if (result < 0) {
+                throw OpusLibrary.opusException(result, "Failed to encode");
+            }
+            return result;
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setOption(int request, int value, String error) {
+        lock.lock();
+        try {
+            int err = (int) OpusLibrary.ENCODER_CTL.invokeExact(getEncoder(), request, value);
+            if (err < 0) {
+                throw OpusLibrary.opusException(err, error);
+            }
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getOption(int request) {
+        lock.lock();
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment value = arena.allocate(JAVA_INT);
+            int err = (int) OpusLibrary.ENCODER_CTL_GET.invokeExact(getEncoder(), request, value);
+            if (err < 0) {
+                throw OpusLibrary.opusException(err, "Failed to get encoder option");
+            }
+            return value.get(JAVA_INT, 0L);
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setBitrate(int bitrate) {
+        if (bitrate != OpusEncoder.BITRATE_AUTO && bitrate != OpusEncoder.BITRATE_MAX && (bitrate < 500 || bitrate > 512000)) {
+            throw new IllegalArgumentException(String.format("Invalid bitrate: %d", bitrate));
+        }
+        setOption(OpusLibrary.SET_BITRATE_REQUEST, bitrate, "Failed to set encoder option");
+    }
+
+    @Override
+    public int getBitrate() {
+        return getOption(OpusLibrary.GET_BITRATE_REQUEST);
+    }
+
+    @Override
+    public void setComplexity(int complexity) {
+        if (complexity < 0 || complexity > 10) {
+            throw new IllegalArgumentException(String.format("Invalid complexity: %d", complexity));
+        }
+        setOption(OpusLibrary.SET_COMPLEXITY_REQUEST, complexity, "Failed to set encoder option");
+    }
+
+    @Override
+    public int getComplexity() {
+        return getOption(OpusLibrary.GET_COMPLEXITY_REQUEST);
+    }
+
+    @Override
+    public int getLookahead() {
+        return getOption(OpusLibrary.GET_LOOKAHEAD_REQUEST);
+    }
+
+    @Override
+    public void resetState() {
+        setOption(OpusLibrary.RESET_STATE, 0, "Failed to reset state");
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (!encoder.equals(MemorySegment.NULL)) {
+                OpusLibrary.ENCODER_DESTROY.invokeExact(encoder);
+                encoder = MemorySegment.NULL;
+            }
+        } catch (Throwable t) {
+            throw OpusLibrary.sneakyThrow(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return encoder.equals(MemorySegment.NULL);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OpusFfmEncoder[%d]", encoder.address());
+    }
+
+}
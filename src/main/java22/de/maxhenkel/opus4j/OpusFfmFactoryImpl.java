@@ -0,0 +1,22 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+
+import java.io.IOException;
+
+/**
+ * Loaded by {@link OpusFfm} if the Java 22 classes of the multi-release jar are used.
+ */
+final class OpusFfmFactoryImpl implements OpusFfmFactory {
+
+    @Override
+    public OpusFfmEncoder<?> createEncoder(int sampleRate, int channels, OpusEncoder.Application application, boolean confined) throws IOException, UnknownPlatformException {
+        return new OpusFfmEncoderImpl(sampleRate, channels, application, confined ? CodecLock.confined() : CodecLock.shared());
+    }
+
+    @Override
+    public OpusFfmDecoder<?> createDecoder(int sampleRate, int channels, boolean confined) throws IOException, UnknownPlatformException {
+        return new OpusFfmDecoderImpl(sampleRate, channels, confined ? CodecLock.confined() : CodecLock.shared());
+    }
+
+}
@@ -0,0 +1,105 @@
+package de.maxhenkel.opus4j;
+
+import java.io.IOException;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+/**
+ * The downcall handles for the opus functions that are exported by the native library.
+ * <br>
+ * The encode and decode functions are linked as critical functions, so calling them doesn't transition the thread
+ * state and heap segments are passed to opus without copying.
+ * This class must only be initialized after the native library was loaded with {@link NativeLoader#load()}.
+ */
+final class OpusLibrary {
+
+    static final int APPLICATION_VOIP = 2048;
+    static final int APPLICATION_AUDIO = 2049;
+    static final int APPLICATION_RESTRICTED_LOWDELAY = 2051;
+
+    static final int SET_BITRATE_REQUEST = 4002;
+    static final int GET_BITRATE_REQUEST = 4003;
+    static final int SET_COMPLEXITY_REQUEST = 4010;
+    static final int GET_COMPLEXITY_REQUEST = 4011;
+    static final int SET_INBAND_FEC_REQUEST = 4012;
+    static final int GET_LOOKAHEAD_REQUEST = 4027;
+    static final int RESET_STATE = 4028;
+
+    /**
+     * The same as <code>DEFAULT_INBAND_FEC</code> of the JNI encoder.
+     */
+    static final int DEFAULT_INBAND_FEC = 2;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final SymbolLookup LOOKUP = SymbolLookup.loaderLookup();
+
+    static final MethodHandle ENCODER_CREATE = downcall("opus_encoder_create", FunctionDescriptor.of(ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS));
+    static final MethodHandle ENCODER_DESTROY = downcall("opus_encoder_destroy", FunctionDescriptor.ofVoid(ADDRESS));
+    static final MethodHandle ENCODE = downcall("opus_encode", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT), Linker.Option.critical(true));
+    static final MethodHandle ENCODE_FLOAT = downcall("opus_encode_float", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT), Linker.Option.critical(true));
+    static final MethodHandle ENCODER_CTL = downcall("opus_encoder_ctl", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT), Linker.Option.firstVariadicArg(2));
+    static final MethodHandle ENCODER_CTL_GET = downcall("opus_encoder_ctl", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, ADDRESS), Linker.Option.firstVariadicArg(2));
+
+    static final MethodHandle DECODER_CREATE = downcall("opus_decoder_create", FunctionDescriptor.of(ADDRESS, JAVA_INT, JAVA_INT, ADDRESS));
+    static final MethodHandle DECODER_DESTROY = downcall("opus_decoder_destroy", FunctionDescriptor.ofVoid(ADDRESS));
+    static final MethodHandle DECODE = downcall("opus_decode", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT), Linker.Option.critical(true));
+    static final MethodHandle DECODE_FLOAT = downcall("opus_decode_float", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT), Linker.Option.critical(true));
+    static final MethodHandle DECODER_CTL = downcall("opus_decoder_ctl", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT), Linker.Option.firstVariadicArg(2));
+
+    private static final MethodHandle STRERROR = downcall("opus_strerror", FunctionDescriptor.of(ADDRESS, JAVA_INT));
+
+    private OpusLibrary() {
+
+    }
+
+    private static MethodHandle downcall(String name, FunctionDescriptor descriptor, Linker.Option... options) {
+        MemorySegment symbol = LOOKUP.find(name).orElseThrow(() -> new UnsatisfiedLinkError(String.format("Failed to find symbol: %s", name)));
+        return LINKER.downcallHandle(symbol, descriptor, options);
+    }
+
+    static String strerror(int error) {
+        try {
+            MemorySegment message = (MemorySegment) STRERROR.invokeExact(error);
+            return message.reinterpret(Long.MAX_VALUE).getString(0L);
+        } catch (Throwable t) {
+            throw sneakyThrow(t);
+        }
+    }
+
+    /**
+     * Throws the same exception as <code>throw_opus_io_exception</code> on the native side.
+     */
+    static RuntimeException opusException(int error, String message) {
+        throw sneakyThrow(new IOException(String.format("%s: %s", message, strerror(error))));
+    }
+
+    /**
+     * Rethrows any exception without wrapping it, like exceptions thrown by native methods.
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Throwable> RuntimeException sneakyThrow(Throwable t) throws T {
+        throw (T) t;
+    }
+
+    /**
+     * @return the number of samples per channel in {@param pcm}
+     */
+    static int getFrameSize(MemorySegment pcm, int sampleSize, int channels) {
+        long frameBytes = (long) sampleSize * channels;
+        if (pcm.byteSize() % frameBytes != 0L || pcm.byteSize() / frameBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Invalid PCM length: %d", pcm.byteSize()));
+        }
+        return (int) (pcm.byteSize() / frameBytes);
+    }
+
+    static int getLength(MemorySegment segment) {
+        return (int) Math.min(segment.byteSize(), Integer.MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,186 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OggOpusFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Headers and duration")
+    void headersAndDuration() throws IOException {
+        Path path = writeRandomPackets(200);
+        try (OggOpusFile file = new OggOpusFile(path)) {
+            assertEquals(2, file.getChannels());
+            assertEquals(312, file.getPreSkip());
+            assertEquals(44100, file.getInputSampleRate());
+            assertEquals("opus4j", file.getVendor());
+            assertEquals(Collections.singletonList("TITLE=Test"), file.getComments());
+            assertEquals(200 * 960 - 312, file.getDuration());
+            assertTrue(file.getIndexSize() >= 40);
+        }
+    }
+
+    @Test
+    @DisplayName("Persisted index")
+    void persistedIndex() throws IOException {
+        Path path = writeRandomPackets(200);
+        Path indexPath = tempDir.resolve("test.opus" + OggOpusFile.INDEX_SUFFIX);
+        int indexSize;
+        try (OggOpusFile file = new OggOpusFile(path, true)) {
+            indexSize = file.getIndexSize();
+        }
+        assertTrue(Files.isRegularFile(indexPath));
+        try (OggOpusFile file = new OggOpusFile(path, true)) {
+            assertEquals(indexSize, file.getIndexSize());
+            assertEquals(200 * 960 - 312, file.getDuration());
+        }
+
+        byte[] index = Files.readAllBytes(indexPath);
+        index[0] ^= 1;
+        Files.write(indexPath, index);
+        try (OggOpusFile file = new OggOpusFile(path, true)) {
+            assertEquals(indexSize, file.getIndexSize());
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid index entry count")
+    void invalidIndexCount() throws IOException {
+        Path path = writeRandomPackets(200);
+        Path indexPath = tempDir.resolve("test.opus" + OggOpusFile.INDEX_SUFFIX);
+        int indexSize;
+        try (OggOpusFile file = new OggOpusFile(path, true)) {
+            indexSize = file.getIndexSize();
+        }
+        // The entry count follows the magic, version, size, modification time and last granule
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        index.putInt(32, Integer.MAX_VALUE);
+        Files.write(indexPath, index.array());
+        try (OggOpusFile file = new OggOpusFile(path, true)) {
+            assertEquals(indexSize, file.getIndexSize());
+            assertEquals(200 * 960 - 312, file.getDuration());
+        }
+    }
+
+    @Test
+    @DisplayName("Index can't be saved")
+    void indexNotSaved() throws IOException {
+        Path path = writeRandomPackets(200);
+        Path indexPath = tempDir.resolve("test.opus" + OggOpusFile.INDEX_SUFFIX);
+        Files.createDirectory(indexPath);
+        Files.createFile(indexPath.resolve("file"));
+        try (OggOpusFile file = new OggOpusFile(path, true)) {
+            assertEquals(200 * 960 - 312, file.getDuration());
+        }
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(2L, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid checksum")
+    void invalidChecksum() throws IOException {
+        Path path = writeRandomPackets(10);
+        byte[] data = Files.readAllBytes(path);
+        data[30] ^= 1;
+        Files.write(path, data);
+        IOException e = assertThrowsExactly(IOException.class, () -> {
+            new OggOpusFile(path).close();
+        });
+        assertEquals("Invalid page checksum", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Seek")
+    void seek() throws IOException, UnknownPlatformException {
+        Path path = tempDir.resolve("sine.opus");
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.AUDIO);
+             OggOpusOutputStream out = new OggOpusOutputStream(Files.newOutputStream(path), 1, 48000)) {
+            short[] input = new short[960];
+            for (int i = 0; i < 250; i++) {
+                for (int j = 0; j < input.length; j++) {
+                    input[j] = (short) (Math.sin((i * 960 + j) * 2D * Math.PI * 440D / 48000D) * 10000D);
+                }
+                out.encode(encoder, input, 0, 960);
+            }
+        }
+
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1);
+             OggOpusFile file = new OggOpusFile(path)) {
+            short[] output = new short[960];
+            assertEquals(250 * 960 - OggOpusOutputStream.DEFAULT_PRE_SKIP, countSamples(file, decoder, output));
+
+            for (long target : new long[]{0L, 1L, 1000L, 100000L, 200000L, file.getDuration()}) {
+                file.seek(decoder, target);
+                assertEquals(file.getDuration() - target, countSamples(file, decoder, output));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Non-zero start")
+    void nonZeroStart() throws IOException, UnknownPlatformException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.AUDIO);
+             OggOpusOutputStream out = new OggOpusOutputStream(bytes, 1, 48000, OggOpusOutputStream.DEFAULT_PRE_SKIP, 0, 100, Collections.emptyList())) {
+            short[] input = new short[960];
+            for (int i = 0; i < 100; i++) {
+                out.encode(encoder, input, 0, 960);
+            }
+        }
+        Path path = tempDir.resolve("shifted.opus");
+        Files.write(path, OggOpusStreamTest.shiftGranules(bytes.toByteArray(), 480000L, 0L));
+
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1);
+             OggOpusFile file = new OggOpusFile(path)) {
+            short[] output = new short[960];
+            assertEquals(100 * 960 - OggOpusOutputStream.DEFAULT_PRE_SKIP, file.getDuration());
+            assertEquals(file.getDuration(), countSamples(file, decoder, output));
+            file.seek(decoder, 1000L);
+            assertEquals(file.getDuration() - 1000L, countSamples(file, decoder, output));
+        }
+    }
+
+    private static long countSamples(OggOpusFile file, OpusDecoder decoder, short[] output) throws IOException {
+        long total = 0L;
+        int samples;
+        while ((samples = file.decode(decoder, output, 0)) >= 0) {
+            total += samples;
+        }
+        return total;
+    }
+
+    private Path writeRandomPackets(int count) throws IOException {
+        Path path = tempDir.resolve("test.opus");
+        Random random = new Random(0);
+        try (OutputStream stream = Files.newOutputStream(path);
+             OggOpusOutputStream out = new OggOpusOutputStream(stream, 2, 44100, 312, 1234, 100, Collections.singletonList("TITLE=Test"))) {
+            for (int i = 0; i < count; i++) {
+                // Hybrid fullband 20 ms stereo
+                byte[] packet = new byte[1 + random.nextInt(600)];
+                random.nextBytes(packet);
+                packet[0] = 0x7C;
+                out.writePacket(packet, 0, packet.length);
+            }
+        }
+        return path;
+    }
+
+}
@@ -0,0 +1,214 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OggOpusStreamTest {
+
+    @Test
+    @DisplayName("CRC")
+    void crc() {
+        byte[] data = "123456789".getBytes();
+        assertEquals(0x89A1897F, OggCrc.update(0, data, 0, data.length));
+        assertEquals(OggCrc.update(OggCrc.update(0, data, 0, 4), data, 4, 5), OggCrc.update(0, data, 0, data.length));
+    }
+
+    @Test
+    @DisplayName("Write and read packets")
+    void writeAndReadPackets() throws IOException {
+        Random random = new Random(0);
+        byte[][] packets = new byte[200][];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OggOpusOutputStream out = new OggOpusOutputStream(bytes, 2, 44100, 312, 1234, 100, Collections.singletonList("TITLE=Test"))) {
+            for (int i = 0; i < packets.length; i++) {
+                // Hybrid fullband 20 ms stereo
+                packets[i] = new byte[1 + random.nextInt(600)];
+                random.nextBytes(packets[i]);
+                packets[i][0] = 0x7C;
+                out.writePacket(packets[i], 0, packets[i].length);
+            }
+            assertEquals(200 * 960, out.getGranulePosition());
+        }
+
+        try (OggOpusInputStream in = new OggOpusInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(2, in.getChannels());
+            assertEquals(312, in.getPreSkip());
+            assertEquals(44100, in.getInputSampleRate());
+            assertEquals("opus4j", in.getVendor());
+            assertEquals(Collections.singletonList("TITLE=Test"), in.getComments());
+
+            byte[] packet = new byte[1500];
+            for (byte[] expected : packets) {
+                int length = in.readPacket(packet, 0, packet.length);
+                assertArrayEquals(expected, Arrays.copyOf(packet, length));
+            }
+            assertEquals(-1, in.readPacket(packet, 0, packet.length));
+            assertEquals(200 * 960, in.getGranulePosition());
+        }
+    }
+
+    @Test
+    @DisplayName("Skip empty packets")
+    void skipEmptyPackets() throws IOException {
+        byte[] packet = new byte[]{0x78, 1, 2, 3};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OggOpusOutputStream out = new OggOpusOutputStream(bytes, 1, 48000)) {
+            out.writePacket(packet, 0, packet.length);
+            out.skip(1920);
+            out.writePacket(packet, 0, packet.length);
+            assertEquals(4 * 960, out.getGranulePosition());
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                out.writePacket(packet, 0, 0);
+            });
+            assertEquals("Packet is empty", e.getMessage());
+            out.skip(960);
+            assertEquals(5 * 960, out.getGranulePosition());
+        }
+
+        try (OggOpusInputStream in = new OggOpusInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            byte[] output = new byte[16];
+            assertEquals(packet.length, in.readPacket(output, 0, output.length));
+            assertEquals(packet.length, in.readPacket(output, 0, output.length));
+            assertEquals(-1, in.readPacket(output, 0, output.length));
+            // Skipped samples at the end are dropped
+            assertEquals(4 * 960, in.getGranulePosition());
+        }
+    }
+
+    @Test
+    @DisplayName("Encode silence")
+    void encodeSilence() throws IOException, UnknownPlatformException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int packets = 0;
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OggOpusOutputStream out = new OggOpusOutputStream(bytes, 1, 48000)) {
+            encoder.setSilenceDetection(-60D, 0);
+            short[] input = new short[960];
+            for (int i = 0; i < 50; i++) {
+                if (out.encode(encoder, input, 0, 960) > 0) {
+                    packets++;
+                }
+            }
+            assertTrue(packets < 50);
+            assertEquals(50 * 960, out.getGranulePosition());
+        }
+
+        try (OggOpusInputStream in = new OggOpusInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            byte[] output = new byte[OggOpusInputStream.MAX_PACKET_SIZE];
+            int read = 0;
+            while (in.readPacket(output, 0, output.length) > 0) {
+                read++;
+            }
+            assertEquals(packets, read);
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid checksum")
+    void invalidChecksum() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new OggOpusOutputStream(bytes, 1, 48000).close();
+        byte[] data = bytes.toByteArray();
+        data[30] ^= 1;
+        IOException e = assertThrowsExactly(IOException.class, () -> {
+            new OggOpusInputStream(new ByteArrayInputStream(data));
+        });
+        assertEquals("Invalid page checksum", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Closed")
+    void closed() throws IOException {
+        OggOpusOutputStream out = new OggOpusOutputStream(new ByteArrayOutputStream(), 1, 48000);
+        out.close();
+        IOException e = assertThrowsExactly(IOException.class, () -> {
+            out.writePacket(new byte[]{0x78}, 0, 1);
+        });
+        assertEquals("Stream is closed", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Encode and decode")
+    void encodeAndDecode() throws IOException, UnknownPlatformException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.AUDIO);
+             OggOpusOutputStream out = new OggOpusOutputStream(bytes, 1, 48000)) {
+            short[] input = new short[960];
+            for (int i = 0; i < 50; i++) {
+                out.encode(encoder, input, 0, 960);
+            }
+        }
+
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1);
+             OggOpusInputStream in = new OggOpusInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            short[] output = new short[960];
+            int total = 0;
+            int samples;
+            while ((samples = in.decode(decoder, output, 0)) >= 0) {
+                total += samples;
+            }
+            assertEquals(50 * 960 - OggOpusOutputStream.DEFAULT_PRE_SKIP, total);
+        }
+    }
+
+    @Test
+    @DisplayName("Decode stream with non-zero start")
+    void decodeNonZeroStart() throws IOException, UnknownPlatformException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.AUDIO);
+             OggOpusOutputStream out = new OggOpusOutputStream(bytes, 1, 48000, OggOpusOutputStream.DEFAULT_PRE_SKIP, 0, 100, Collections.emptyList())) {
+            short[] input = new short[960];
+            for (int i = 0; i < 52; i++) {
+                out.encode(encoder, input, 0, 960);
+            }
+        }
+        // Shift the stream by 10 seconds and trim 500 samples at the end
+        byte[] data = shiftGranules(bytes.toByteArray(), 480000L, 500L);
+
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1);
+             OggOpusInputStream in = new OggOpusInputStream(new ByteArrayInputStream(data))) {
+            short[] output = new short[960];
+            int total = 0;
+            int samples;
+            while ((samples = in.decode(decoder, output, 0)) >= 0) {
+                total += samples;
+            }
+            assertEquals(52 * 960 - OggOpusOutputStream.DEFAULT_PRE_SKIP - 500, total);
+            assertEquals(480000L + 52 * 960 - 500, in.getGranulePosition());
+        }
+    }
+
+    static byte[] shiftGranules(byte[] data, long offset, long trim) {
+        int position = 0;
+        while (position < data.length) {
+            int segments = data[position + 26] & 0xFF;
+            int length = OggOpusOutputStream.HEADER_SIZE + segments;
+            for (int i = 0; i < segments; i++) {
+                length += data[position + OggOpusOutputStream.HEADER_SIZE + i] & 0xFF;
+            }
+            long granule = OggOpusInputStream.getLongLE(data, position + 6);
+            if (granule > 0L) {
+                granule += offset;
+                if ((data[position + 5] & OggOpusOutputStream.FLAG_EOS) != 0) {
+                    granule -= trim;
+                }
+                OggOpusOutputStream.putLongLE(data, position + 6, granule);
+                OggOpusOutputStream.putIntLE(data, position + 22, 0);
+                OggOpusOutputStream.putIntLE(data, position + 22, OggCrc.update(0, data, position, length));
+            }
+            position += length;
+        }
+        return data;
+    }
+
+}
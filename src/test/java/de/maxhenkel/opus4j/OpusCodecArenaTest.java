@@ -0,0 +1,77 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusCodecArenaTest {
+
+    @Test
+    @DisplayName("Encode and decode")
+    void encodeDecode() throws IOException, UnknownPlatformException {
+        try (OpusCodecArena arena = new OpusCodecArena(48000, 2, OpusEncoder.Application.AUDIO, 4, 4)) {
+            assertTrue(arena.getNativeBytes() > 0L);
+            try (OpusEncoder encoder = arena.acquireEncoder(); OpusDecoder decoder = arena.acquireDecoder()) {
+                assertEquals(1, arena.getEncodersInUse());
+                assertEquals(1, arena.getDecodersInUse());
+                assertEquals(2, encoder.getChannels());
+                byte[] encoded = encoder.encode(new short[960 * 2]);
+                assertEquals(960 * 2, decoder.decode(encoded).length);
+            }
+            assertEquals(0, arena.getEncodersInUse());
+            assertEquals(0, arena.getDecodersInUse());
+        }
+    }
+
+    @Test
+    @DisplayName("Slot reuse")
+    void slotReuse() throws IOException, UnknownPlatformException {
+        try (OpusCodecArena arena = new OpusCodecArena(48000, 1, OpusEncoder.Application.VOIP, 2, 0)) {
+            OpusEncoder encoder1 = arena.acquireEncoder();
+            OpusEncoder encoder2 = arena.acquireEncoder();
+            IllegalStateException e = assertThrowsExactly(IllegalStateException.class, arena::acquireEncoder);
+            assertEquals("No free encoder slot", e.getMessage());
+
+            encoder1.setComplexity(2);
+            encoder1.close();
+            encoder1.close();
+            assertEquals(1, arena.getEncodersInUse());
+
+            // The reused slot is initialized from scratch
+            OpusEncoder encoder3 = arena.acquireEncoder();
+            assertEquals(10, encoder3.getComplexity());
+            encoder3.encode(new short[960]);
+
+            encoder2.close();
+            encoder3.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Close with codecs in use")
+    void closeInUse() throws IOException, UnknownPlatformException {
+        OpusCodecArena arena = new OpusCodecArena(48000, 1, OpusEncoder.Application.VOIP, 0, 1);
+        OpusDecoder decoder = arena.acquireDecoder();
+        assertThrowsExactly(IllegalStateException.class, arena::close);
+        decoder.close();
+        arena.close();
+        assertTrue(arena.isClosed());
+        IllegalStateException e = assertThrowsExactly(IllegalStateException.class, arena::acquireDecoder);
+        assertEquals("Arena is closed", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Invalid sample rate")
+    void invalidSampleRate() throws IOException, UnknownPlatformException {
+        try (OpusCodecArena arena = new OpusCodecArena(44100, 1, OpusEncoder.Application.VOIP, 1, 1)) {
+            IOException e = assertThrowsExactly(IOException.class, arena::acquireEncoder);
+            assertEquals("Failed to create encoder: invalid argument", e.getMessage());
+            assertEquals(0, arena.getEncodersInUse());
+        }
+    }
+
+}
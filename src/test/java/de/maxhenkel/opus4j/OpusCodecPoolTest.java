@@ -0,0 +1,138 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusCodecPoolTest {
+
+    @Test
+    @DisplayName("Reuse encoder")
+    void reuseEncoder() throws IOException, UnknownPlatformException {
+        try (OpusCodecPool pool = new OpusCodecPool()) {
+            OpusEncoder encoder = pool.borrowEncoder(48000, 1, OpusEncoder.Application.VOIP);
+            encoder.setMaxPayloadSize(500);
+            pool.returnEncoder(encoder);
+            assertEquals(1, pool.getIdleCount());
+
+            assertSame(encoder, pool.borrowEncoder(48000, 1, OpusEncoder.Application.VOIP));
+            assertEquals(1024, encoder.getMaxPayloadSize());
+            assertNotSame(encoder, pool.borrowEncoder(48000, 1, OpusEncoder.Application.AUDIO));
+            assertEquals(1, pool.getHits());
+            assertEquals(2, pool.getMisses());
+        }
+    }
+
+    @Test
+    @DisplayName("Reuse decoder")
+    void reuseDecoder() throws IOException, UnknownPlatformException {
+        try (OpusCodecPool pool = new OpusCodecPool()) {
+            OpusDecoder decoder = pool.borrowDecoder(48000, 2);
+            decoder.setFrameSize(480);
+            pool.returnDecoder(decoder);
+
+            assertNotSame(decoder, pool.borrowDecoder(48000, 1));
+            assertSame(decoder, pool.borrowDecoder(48000, 2));
+            assertEquals(960, decoder.getFrameSize());
+            assertEquals(1, pool.getHits());
+            assertEquals(2, pool.getMisses());
+        }
+    }
+
+    @Test
+    @DisplayName("Max idle")
+    void maxIdle() throws IOException, UnknownPlatformException {
+        try (OpusCodecPool pool = new OpusCodecPool(1, 1L, TimeUnit.MINUTES)) {
+            OpusDecoder decoder1 = pool.borrowDecoder(48000, 1);
+            OpusDecoder decoder2 = pool.borrowDecoder(48000, 1);
+            pool.returnDecoder(decoder1);
+            pool.returnDecoder(decoder2);
+            assertTrue(decoder1.isClosed());
+            assertFalse(decoder2.isClosed());
+            assertEquals(1, pool.getIdleCount());
+            assertEquals(1, pool.getEvictions());
+        }
+    }
+
+    @Test
+    @DisplayName("Idle timeout")
+    void idleTimeout() throws IOException, UnknownPlatformException {
+        try (OpusCodecPool pool = new OpusCodecPool(16, 0L, TimeUnit.MILLISECONDS)) {
+            OpusEncoder encoder = pool.borrowEncoder(48000, 1, OpusEncoder.Application.VOIP);
+            pool.returnEncoder(encoder);
+            pool.evictIdle();
+            assertTrue(encoder.isClosed());
+            assertEquals(0, pool.getIdleCount());
+            assertEquals(1, pool.getEvictions());
+        }
+    }
+
+    @Test
+    @DisplayName("Return twice")
+    void returnTwice() throws IOException, UnknownPlatformException {
+        try (OpusCodecPool pool = new OpusCodecPool()) {
+            OpusEncoder encoder = pool.borrowEncoder(48000, 1, OpusEncoder.Application.VOIP);
+            pool.returnEncoder(encoder);
+            IllegalStateException e = assertThrowsExactly(IllegalStateException.class, () -> {
+                pool.returnEncoder(encoder);
+            });
+            assertEquals("Codec was already returned to the pool", e.getMessage());
+            assertEquals(1, pool.getIdleCount());
+
+            OpusDecoder decoder = pool.borrowDecoder(48000, 1);
+            pool.returnDecoder(decoder);
+            assertThrowsExactly(IllegalStateException.class, () -> {
+                pool.returnDecoder(decoder);
+            });
+            assertEquals(2, pool.getIdleCount());
+
+            assertSame(encoder, pool.borrowEncoder(48000, 1, OpusEncoder.Application.VOIP));
+            assertNotSame(encoder, pool.borrowEncoder(48000, 1, OpusEncoder.Application.VOIP));
+            pool.returnEncoder(encoder);
+        }
+    }
+
+    @Test
+    @DisplayName("Return thread confined codec")
+    void returnThreadConfined() throws IOException, UnknownPlatformException {
+        try (OpusCodecPool pool = new OpusCodecPool();
+             OpusEncoder encoder = OpusEncoder.unsynchronized(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = OpusDecoder.unsynchronized(48000, 1)) {
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                pool.returnEncoder(encoder);
+            });
+            assertEquals("Thread confined codecs can't be pooled", e.getMessage());
+            assertThrowsExactly(IllegalArgumentException.class, () -> {
+                pool.returnDecoder(decoder);
+            });
+            assertEquals(0, pool.getIdleCount());
+            assertFalse(encoder.isClosed());
+        }
+    }
+
+    @Test
+    @DisplayName("Closed")
+    void closed() throws IOException, UnknownPlatformException {
+        OpusCodecPool pool = new OpusCodecPool();
+        OpusEncoder idle = pool.borrowEncoder(48000, 1, OpusEncoder.Application.VOIP);
+        OpusEncoder borrowed = pool.borrowEncoder(48000, 1, OpusEncoder.Application.VOIP);
+        pool.returnEncoder(idle);
+        pool.close();
+        assertTrue(pool.isClosed());
+        assertTrue(idle.isClosed());
+
+        pool.returnEncoder(borrowed);
+        assertTrue(borrowed.isClosed());
+
+        IllegalStateException e = assertThrowsExactly(IllegalStateException.class, () -> {
+            pool.borrowDecoder(48000, 1);
+        });
+        assertEquals("Pool is closed", e.getMessage());
+    }
+
+}
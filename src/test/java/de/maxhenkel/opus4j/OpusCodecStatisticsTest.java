@@ -0,0 +1,100 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusCodecStatisticsTest {
+
+    @Test
+    @DisplayName("Histogram buckets")
+    void histogramBuckets() {
+        int lastIndex = -1;
+        for (long value = 0L; value < 100_000L; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index == lastIndex || index == lastIndex + 1);
+            assertTrue(LatencyHistogram.bucketLowerBound(index) <= value);
+            assertTrue(LatencyHistogram.bucketLowerBound(index + 1) > value);
+            lastIndex = index;
+        }
+        assertTrue(LatencyHistogram.bucketIndex(Long.MAX_VALUE) < 64 * 8);
+    }
+
+    @Test
+    @DisplayName("Histogram percentiles")
+    void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getPercentile(50D));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(500_500D, histogram.getMean(), 0.001D);
+        assertEquals(1_000_000L, histogram.getMax());
+        assertEquals(500_000D, histogram.getPercentile(50D), 500_000D * 0.125D);
+        assertEquals(990_000D, histogram.getPercentile(99D), 990_000D * 0.125D);
+        assertEquals(1_000_000L, histogram.getPercentile(100D));
+        histogram.reset();
+        assertEquals(0L, histogram.getMax());
+        assertEquals(0D, histogram.getMean());
+    }
+
+    @Test
+    @DisplayName("Encode and decode statistics")
+    void encodeAndDecodeStatistics() throws IOException, UnknownPlatformException {
+        OpusCodecStatistics statistics = new OpusCodecStatistics();
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            assertSame(OpusCodecListener.NONE, encoder.getListener());
+            encoder.setListener(statistics);
+            decoder.setListener(statistics);
+
+            short[] input = new short[960];
+            long bytes = 0L;
+            for (int i = 0; i < 50; i++) {
+                byte[] packet = encoder.encode(input);
+                bytes += packet.length;
+                decoder.decode(packet);
+                assertEquals(encoder.getFinalRange(), decoder.getFinalRange());
+            }
+            decoder.decode(null);
+
+            assertEquals(50L, statistics.getFramesEncoded());
+            assertEquals(bytes, statistics.getBytesEncoded());
+            assertEquals(bytes * 8D, statistics.getEncodedBitrate(), 0.001D);
+            assertEquals(50L, statistics.getPacketsDecoded());
+            assertEquals(1L, statistics.getConcealedFrames());
+            assertEquals(0L, statistics.getRecoveredFrames());
+            assertTrue(statistics.getEncodeLatencyMax() > 0L);
+            assertTrue(statistics.getDecodeLatencyMedian() > 0L);
+
+            encoder.setListener(null);
+            encoder.encode(input);
+            assertEquals(50L, statistics.getFramesEncoded());
+        }
+    }
+
+    @Test
+    @DisplayName("JMX")
+    void jmx() throws JMException {
+        OpusCodecStatistics statistics = new OpusCodecStatistics();
+        ObjectName name = statistics.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertTrue(server.isRegistered(name));
+            assertEquals(0L, server.getAttribute(name, "FramesEncoded"));
+            assertThrowsExactly(IllegalStateException.class, () -> statistics.register("test"));
+        } finally {
+            statistics.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+}
@@ -0,0 +1,150 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusComplexityGovernorTest {
+
+    @Test
+    @DisplayName("Step down and up")
+    void stepDownAndUp() {
+        OpusComplexityGovernor governor = new OpusComplexityGovernor(10L, TimeUnit.MILLISECONDS, 2, 10, 0.5D, 3);
+        assertEquals(10, governor.getComplexity());
+
+        for (int i = 0; i < 10; i++) {
+            governor.record(TimeUnit.MILLISECONDS.toNanos(11L));
+            governor.tick();
+        }
+        assertEquals(2, governor.getComplexity());
+        assertEquals(8L, governor.getStepDowns());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(11L), governor.getLastTickNanos());
+
+        // Between the recovery threshold and the budget, nothing changes
+        for (int i = 0; i < 10; i++) {
+            governor.record(TimeUnit.MILLISECONDS.toNanos(7L));
+            governor.tick();
+        }
+        assertEquals(2, governor.getComplexity());
+
+        governor.tick();
+        governor.tick();
+        assertEquals(2, governor.getComplexity());
+        governor.tick();
+        assertEquals(3, governor.getComplexity());
+        assertEquals(1L, governor.getStepUps());
+        assertEquals(23L, governor.getTicks());
+    }
+
+    @Test
+    @DisplayName("Invalid arguments")
+    void invalidArguments() {
+        IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+            new OpusComplexityGovernor(0L, TimeUnit.MILLISECONDS);
+        });
+        assertEquals("Invalid budget: 0", e.getMessage());
+        e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+            new OpusComplexityGovernor(1L, TimeUnit.MILLISECONDS, 5, 4, 0.5D, 1);
+        });
+        assertEquals("Invalid complexity range: 5 - 4", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Apply complexity")
+    void applyComplexity() throws IOException, UnknownPlatformException {
+        OpusComplexityGovernor governor = new OpusComplexityGovernor(1L, TimeUnit.NANOSECONDS, 0, 10, 0.5D, 1);
+        OpusCodecStatistics statistics = new OpusCodecStatistics();
+        try (OpusEncoder degradable = OpusEncoder.unsynchronized(48000, 1, OpusEncoder.Application.VOIP);
+             OpusEncoder fixed = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            degradable.setListener(statistics);
+            fixed.setComplexity(7);
+            governor.register(degradable, true);
+            governor.register(fixed, false);
+            assertEquals(2, governor.getRegisteredEncoders());
+
+            short[] input = new short[960];
+            degradable.encode(input);
+            fixed.encode(input);
+            assertEquals(10, degradable.getComplexity());
+            governor.tick();
+            assertEquals(9, governor.getComplexity());
+            degradable.encode(input);
+            fixed.encode(input);
+            assertEquals(9, degradable.getComplexity());
+            assertEquals(7, fixed.getComplexity());
+            assertEquals(2L, statistics.getFramesEncoded());
+
+            governor.unregister(degradable);
+            assertSame(statistics, degradable.getListener());
+            governor.unregister(fixed);
+            assertSame(OpusCodecListener.NONE, fixed.getListener());
+        }
+    }
+
+    @Test
+    @DisplayName("Replaced listener")
+    void replacedListener() throws IOException, UnknownPlatformException {
+        OpusComplexityGovernor governor = new OpusComplexityGovernor(1L, TimeUnit.NANOSECONDS, 0, 10, 0.5D, 1);
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            governor.register(encoder, true);
+            IllegalStateException e = assertThrowsExactly(IllegalStateException.class, () -> {
+                governor.register(encoder, true);
+            });
+            assertEquals("Encoder is already registered", e.getMessage());
+
+            short[] input = new short[960];
+            encoder.setListener(null);
+            encoder.setComplexity(4);
+            encoder.encode(input);
+            governor.tick();
+            encoder.encode(input);
+            assertEquals(4, encoder.getComplexity());
+
+            governor.register(encoder, true);
+            assertEquals(1, governor.getRegisteredEncoders());
+            encoder.encode(input);
+            governor.tick();
+            encoder.encode(input);
+            assertEquals(9, encoder.getComplexity());
+        }
+    }
+
+    @Test
+    @DisplayName("Unregister from another thread")
+    void unregisterFromOtherThread() throws Exception {
+        OpusComplexityGovernor governor = new OpusComplexityGovernor(1L, TimeUnit.NANOSECONDS, 0, 10, 0.5D, 1);
+        OpusCodecStatistics statistics = new OpusCodecStatistics();
+        try (OpusEncoder encoder = OpusEncoder.unsynchronized(48000, 1, OpusEncoder.Application.VOIP)) {
+            encoder.setListener(statistics);
+            governor.register(encoder, true);
+
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    governor.unregister(encoder);
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }, "Other");
+            thread.start();
+            thread.join();
+            assertNull(error.get());
+            assertEquals(0, governor.getRegisteredEncoders());
+
+            short[] input = new short[960];
+            encoder.encode(input);
+            governor.tick();
+            encoder.encode(input);
+            // The governor doesn't control the encoder anymore, but the previous listener still receives the encode calls
+            assertEquals(10, encoder.getComplexity());
+            assertEquals(2L, statistics.getFramesEncoded());
+        }
+    }
+
+}
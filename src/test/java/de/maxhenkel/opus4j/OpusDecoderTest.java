@@ -5,6 +5,12 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -117,6 +123,302 @@ public class OpusDecoderTest {
         }
     }
 
+    @Test
+    @DisplayName("Decode into array")
+    void decodeIntoArray() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 2, OpusEncoder.Application.VOIP)) {
+            byte[] encoded = encoder.encode(sine(960 * 2));
+            byte[] input = new byte[encoded.length + 3];
+            System.arraycopy(encoded, 0, input, 3, encoded.length);
+
+            try (OpusDecoder decoder1 = new OpusDecoder(48000, 2);
+                 OpusDecoder decoder2 = new OpusDecoder(48000, 2)) {
+                short[] expected = decoder1.decode(encoded);
+                short[] output = new short[960 * 2 + 10];
+                assertEquals(960, decoder2.decode(input, 3, encoded.length, output, 10));
+                short[] actual = new short[960 * 2];
+                System.arraycopy(output, 10, actual, 0, actual.length);
+                assertArrayEquals(expected, actual);
+
+                short[] expectedPlc = decoder1.decode(null);
+                assertEquals(960, decoder2.decode(null, 0, 0, output, 0));
+                System.arraycopy(output, 0, actual, 0, actual.length);
+                assertArrayEquals(expectedPlc, actual);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Decode into array out of bounds")
+    void decodeIntoArrayOutOfBounds() throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            decoder.setFrameSize(960);
+            ArrayIndexOutOfBoundsException e1 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decode(null, 0, 0, new short[959], 0);
+            });
+            assertEquals("Range [0, 0 + 960) out of bounds for length 959", e1.getMessage());
+            ArrayIndexOutOfBoundsException e2 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decode(new byte[10], 5, 6, new short[960], 0);
+            });
+            assertEquals("Range [5, 5 + 6) out of bounds for length 10", e2.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Decode direct buffer")
+    void decodeDirectBuffer() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            byte[] encoded = encoder.encode(sine(960));
+
+            try (OpusDecoder decoder1 = new OpusDecoder(48000, 1);
+                 OpusDecoder decoder2 = new OpusDecoder(48000, 1)) {
+                decoder1.setFrameSize(960);
+                decoder2.setFrameSize(960);
+                short[] expected = decoder1.decode(encoded);
+
+                ByteBuffer input = ByteBuffer.allocateDirect(encoded.length);
+                input.put(encoded).flip();
+                ShortBuffer output = ByteBuffer.allocateDirect(960 * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+                assertEquals(960, decoder2.decode(input, output));
+                assertEquals(input.limit(), input.position());
+                assertEquals(960, output.position());
+                short[] actual = new short[960];
+                output.flip();
+                output.get(actual);
+                assertArrayEquals(expected, actual);
+
+                short[] expectedPlc = decoder1.decode(null);
+                output.clear();
+                assertEquals(960, decoder2.decode(null, output));
+                output.flip();
+                output.get(actual);
+                assertArrayEquals(expectedPlc, actual);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Decode invalid buffers")
+    void decodeInvalidBuffers() throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            decoder.setFrameSize(960);
+            IllegalArgumentException e1 = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                decoder.decode(null, ByteBuffer.allocateDirect(960 * 2).order(nonNativeOrder()).asShortBuffer());
+            });
+            assertEquals("Output buffer must use the native byte order", e1.getMessage());
+            IllegalArgumentException e2 = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                decoder.decode(null, ShortBuffer.allocate(960));
+            });
+            assertEquals("Buffer must be direct", e2.getMessage());
+            ArrayIndexOutOfBoundsException e3 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decode(null, ByteBuffer.allocateDirect(959 * 2).order(ByteOrder.nativeOrder()).asShortBuffer());
+            });
+            assertEquals("Range [0, 0 + 960) out of bounds for length 959", e3.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Decode into buffer with limit")
+    void decodeBufferLimit() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            decoder.setFrameSize(960);
+            byte[] encoded = encoder.encode(sine(960));
+            ByteBuffer input = ByteBuffer.allocateDirect(encoded.length);
+            input.put(encoded).flip();
+            ShortBuffer output = ByteBuffer.allocateDirect(1920 * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+            output.position(100).limit(1000);
+            ArrayIndexOutOfBoundsException e = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decode(input, output);
+            });
+            assertEquals("Range [100, 100 + 960) out of bounds for length 1000", e.getMessage());
+            assertEquals(100, output.position());
+            assertEquals(0, input.position());
+            for (int i = 1000; i < output.capacity(); i++) {
+                assertEquals(0, output.get(i));
+            }
+            FloatBuffer floatOutput = ByteBuffer.allocateDirect(1920 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            floatOutput.limit(959);
+            assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decode(null, floatOutput);
+            });
+
+            output.limit(1060);
+            assertEquals(960, decoder.decode(input, output));
+            assertEquals(1060, output.position());
+        }
+    }
+
+    @Test
+    @DisplayName("Decode in-band FEC into array")
+    void decodeInBandFecIntoArray() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            encoder.setMaxPacketLossPercentage(0.4F);
+            byte[][] encoded = new byte[10][];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = encoder.encode(sine(960));
+            }
+
+            try (OpusDecoder decoder1 = new OpusDecoder(48000, 1);
+                 OpusDecoder decoder2 = new OpusDecoder(48000, 1)) {
+                decoder1.setFrameSize(960);
+                decoder2.setFrameSize(960);
+                for (int i = 0; i < 5; i++) {
+                    decoder1.decode(encoded[i]);
+                    decoder2.decode(encoded[i]);
+                }
+                short[][] expected = decoder1.decode(encoded[encoded.length - 1], 5);
+
+                short[] output = new short[960 * 5];
+                int[] frameSizes = new int[5];
+                byte[] packet = encoded[encoded.length - 1];
+                assertEquals(960 * 5, decoder2.decode(packet, 0, packet.length, 5, output, 0, frameSizes));
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(960, frameSizes[i]);
+                    short[] actual = new short[960];
+                    System.arraycopy(output, i * 960, actual, 0, actual.length);
+                    assertArrayEquals(expected[i], actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Decode in-band FEC into array with null")
+    void decodeInBandFecIntoArrayNull() throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            IllegalArgumentException e1 = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                decoder.decode(null, 0, 0, 5, new short[960 * 5], 0, null);
+            });
+            assertEquals("Can't recover without input", e1.getMessage());
+            IllegalArgumentException e2 = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                decoder.decode(new byte[1], 0, 1, 0, new short[960 * 5], 0, null);
+            });
+            assertEquals("Frames must be greater than 0", e2.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Decode float")
+    void decodeFloat() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 2, OpusEncoder.Application.VOIP)) {
+            byte[] encoded = encoder.encode(sine(960 * 2));
+
+            try (OpusDecoder decoder1 = new OpusDecoder(48000, 2);
+                 OpusDecoder decoder2 = new OpusDecoder(48000, 2);
+                 OpusDecoder decoder3 = new OpusDecoder(48000, 2)) {
+                float[] expected = decoder1.decodeFloat(encoded);
+                assertEquals(960 * 2, expected.length);
+
+                float[] output = new float[960 * 2];
+                assertEquals(960, decoder2.decode(encoded, 0, encoded.length, output, 0));
+                assertArrayEquals(expected, output);
+
+                ByteBuffer input = ByteBuffer.allocateDirect(encoded.length);
+                input.put(encoded).flip();
+                FloatBuffer directOutput = ByteBuffer.allocateDirect(960 * 2 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                assertEquals(960, decoder3.decode(input, directOutput));
+                directOutput.flip();
+                directOutput.get(output);
+                assertArrayEquals(expected, output);
+
+                float[] plc = decoder1.decodeFloat(null);
+                assertEquals(960 * 2, plc.length);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Decode float in-band FEC")
+    void decodeFloatInBandFec() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            encoder.setMaxPacketLossPercentage(0.4F);
+            byte[][] encoded = new byte[10][];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = encoder.encode(sine(960));
+            }
+
+            try (OpusDecoder decoder1 = new OpusDecoder(48000, 1);
+                 OpusDecoder decoder2 = new OpusDecoder(48000, 1)) {
+                decoder1.setFrameSize(960);
+                decoder2.setFrameSize(960);
+                for (int i = 0; i < 5; i++) {
+                    decoder1.decode(encoded[i]);
+                    decoder2.decode(encoded[i]);
+                }
+                byte[] packet = encoded[encoded.length - 1];
+                float[][] expected = decoder1.decodeFloat(packet, 3);
+                assertEquals(3, expected.length);
+
+                float[] output = new float[960 * 3];
+                int[] frameSizes = new int[3];
+                assertEquals(960 * 3, decoder2.decode(packet, 0, packet.length, 3, output, 0, frameSizes));
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(960, frameSizes[i]);
+                    float[] actual = new float[960];
+                    System.arraycopy(output, i * 960, actual, 0, actual.length);
+                    assertArrayEquals(expected[i], actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Decode batch")
+    void decodeBatch() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            byte[][] encoded = new byte[6][];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = encoder.encode(sine(480));
+            }
+            // Simulate a lost packet
+            encoded[3] = new byte[0];
+
+            byte[] input = new byte[6 * 1500];
+            int[] packetOffsets = new int[encoded.length];
+            int[] packetLengths = new int[encoded.length];
+            int offset = 0;
+            for (int i = 0; i < encoded.length; i++) {
+                System.arraycopy(encoded[i], 0, input, offset, encoded[i].length);
+                packetOffsets[i] = offset;
+                packetLengths[i] = encoded[i].length;
+                offset += encoded[i].length;
+            }
+
+            try (OpusDecoder decoder1 = new OpusDecoder(48000, 1);
+                 OpusDecoder decoder2 = new OpusDecoder(48000, 1)) {
+                decoder1.setFrameSize(480);
+                decoder2.setFrameSize(480);
+                short[] output = new short[480 * encoded.length];
+                int[] frameSizes = new int[encoded.length];
+                assertEquals(480 * encoded.length, decoder2.decodeBatch(input, packetOffsets, packetLengths, encoded.length, output, 0, frameSizes));
+                for (int i = 0; i < encoded.length; i++) {
+                    short[] expected = decoder1.decode(encoded[i].length == 0 ? null : encoded[i]);
+                    assertEquals(480, frameSizes[i]);
+                    short[] actual = new short[480];
+                    System.arraycopy(output, i * 480, actual, 0, actual.length);
+                    assertArrayEquals(expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Decode batch out of bounds")
+    void decodeBatchOutOfBounds() throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            decoder.setFrameSize(960);
+            ArrayIndexOutOfBoundsException e1 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decodeBatch(new byte[10], new int[]{0, 8}, new int[]{4, 4}, 2, new short[960 * 2], 0, null);
+            });
+            assertEquals("Range [8, 8 + 4) out of bounds for length 10", e1.getMessage());
+            ArrayIndexOutOfBoundsException e2 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decodeBatch(new byte[10], new int[]{0, 4}, new int[]{4, 4}, 2, new short[960], 0, null);
+            });
+            assertEquals("Range [0, 0 + 1920) out of bounds for length 960", e2.getMessage());
+        }
+    }
+
     @Test
     @DisplayName("Decode invalid packet")
     void decodeInvalidFrameSize() throws IOException, UnknownPlatformException {
@@ -282,4 +584,116 @@ public class OpusDecoderTest {
         }
     }
 
+    @Test
+    @DisplayName("Unsynchronized")
+    void unsynchronized() throws Exception {
+        try (OpusDecoder decoder = OpusDecoder.unsynchronized(48000, 1)) {
+            assertTrue(decoder.isThreadConfined());
+            assertEquals(960, decoder.decode(null).length);
+
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    decoder.decode(null);
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }, "Other");
+            thread.start();
+            thread.join();
+            assertInstanceOf(IllegalStateException.class, error.get());
+            assertEquals("Codec is confined to thread " + Thread.currentThread().getName(), error.get().getMessage());
+
+            // Methods that don't touch the native state work on any thread
+            AtomicReference<String> state = new AtomicReference<>();
+            thread = new Thread(() -> state.set(decoder.isClosed() + " " + decoder), "Other");
+            thread.start();
+            thread.join();
+            assertEquals("false " + decoder, state.get());
+        }
+    }
+
+    @Test
+    @DisplayName("Gain and last packet duration")
+    void gainAndLastPacketDuration() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.AUDIO);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            assertEquals(0, decoder.getGain());
+            decoder.setGain(-256);
+            assertEquals(-256, decoder.getGain());
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                decoder.setGain(40000);
+            });
+            assertEquals("Invalid gain: 40000", e.getMessage());
+
+            short[] input = new short[480];
+            byte[] encoded = new byte[1024];
+            int length = encoder.encode(input, 0, 480, encoded, 0, encoded.length);
+            decoder.decode(encoded, 0, length, new short[960], 0);
+            assertEquals(480, decoder.getLastPacketDuration());
+        }
+    }
+
+    @Test
+    @DisplayName("Complexity")
+    void complexity() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            assertEquals(0, decoder.getComplexity());
+            decoder.setComplexity(7);
+            assertEquals(7, decoder.getComplexity());
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                decoder.setComplexity(11);
+            });
+            assertEquals("Invalid complexity: 11", e.getMessage());
+
+            assertEquals(960, decoder.decode(encoder.encode(sine(960))).length);
+            assertEquals(960, decoder.decode(null).length);
+        }
+    }
+
+    @Test
+    @DisplayName("Decode gap")
+    void decodeGap() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            decoder.decode(encoder.encode(sine(960)));
+            short[] output = new short[48000];
+            assertEquals(48000, decoder.decodeGap(output, 0, 48000));
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                decoder.decodeGap(output, 0, 100);
+            });
+            assertEquals("Invalid number of samples: 100", e.getMessage());
+            ArrayIndexOutOfBoundsException e2 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decodeGap(output, 960, 48000);
+            });
+            assertEquals("Range [960, 960 + 48000) out of bounds for length 48000", e2.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Decode gap overwrites the whole range")
+    void decodeGapOverwrites() throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder = new OpusDecoder(48000, 2)) {
+            short[] output = new short[2 * 9600];
+            Arrays.fill(output, Short.MIN_VALUE);
+            assertEquals(9600, decoder.decodeGap(output, 0, 9600));
+            for (short sample : output) {
+                assertNotEquals(Short.MIN_VALUE, sample);
+            }
+        }
+    }
+
+    private static short[] sine(int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (Math.sin(i * 0.05D) * 8000D);
+        }
+        return samples;
+    }
+
+    private static ByteOrder nonNativeOrder() {
+        return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    }
+
 }
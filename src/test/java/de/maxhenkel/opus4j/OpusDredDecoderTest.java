@@ -0,0 +1,128 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class OpusDredDecoderTest {
+
+    @Test
+    @DisplayName("Reconstruct lost frames")
+    void reconstruct() throws IOException, UnknownPlatformException {
+        assumeTrue(isDredSupported(), "Natives were built without DRED");
+        try (OpusEncoder encoder = new OpusEncoder(16000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(16000, 1);
+             OpusDredDecoder dred = new OpusDredDecoder(16000)) {
+            encoder.setBitrate(32000);
+            encoder.setMaxPacketLossPercentage(0.2F);
+            encoder.setDredDuration(100);
+            assertEquals(100, encoder.getDredDuration());
+            decoder.setComplexity(5);
+
+            List<byte[]> packets = new ArrayList<>();
+            short[] frame = new short[320];
+            for (int i = 0; i < 100; i++) {
+                for (int j = 0; j < frame.length; j++) {
+                    frame[j] = (short) (Math.sin((i * frame.length + j) * 0.05D) * 8000D);
+                }
+                packets.add(encoder.encode(frame));
+            }
+
+            AtomicInteger recovered = new AtomicInteger();
+            decoder.setListener(new OpusCodecListener() {
+                @Override
+                public void onConcealment(OpusDecoder decoder, int frames, boolean fec) {
+                    if (fec) {
+                        recovered.addAndGet(frames);
+                    }
+                }
+            });
+
+            for (int i = 0; i < 90; i++) {
+                decoder.decode(packets.get(i));
+            }
+            // Packets 90 and 91 are lost
+            byte[] next = packets.get(92);
+            int available = dred.parse(next, 640);
+            assertEquals(available, dred.getAvailableSamples());
+            assertTrue(available >= 640);
+
+            short[] output = new short[640];
+            assertEquals(320, decoder.decodeDred(dred, 640, output, 0, 320));
+            assertEquals(320, decoder.decodeDred(dred, 320, output, 320, 320));
+            assertEquals(2, recovered.get());
+            assertFalse(Arrays.equals(new short[output.length], output));
+            assertEquals(320, decoder.decode(next).length);
+        }
+    }
+
+    @Test
+    @DisplayName("Packet without DRED")
+    void noDred() throws IOException, UnknownPlatformException {
+        assumeTrue(isDredSupported(), "Natives were built without DRED");
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDredDecoder dred = new OpusDredDecoder(48000)) {
+            byte[] packet = encoder.encode(new short[960]);
+            assertEquals(0, dred.parse(packet, 960));
+            assertEquals(0, dred.getAvailableSamples());
+            ArrayIndexOutOfBoundsException e = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                dred.parse(packet, 1, packet.length, 960);
+            });
+            assertEquals(String.format("Range [1, 1 + %d) out of bounds for length %d", packet.length, packet.length), e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Sample rate mismatch")
+    void sampleRateMismatch() throws IOException, UnknownPlatformException {
+        assumeTrue(isDredSupported(), "Natives were built without DRED");
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1);
+             OpusDredDecoder dred = new OpusDredDecoder(16000)) {
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                decoder.decodeDred(dred, 960, new short[960], 0, 960);
+            });
+            assertEquals("Invalid DRED decoder sample rate: 16000", e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid arguments")
+    void invalidArguments() {
+        IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+            new OpusDredDecoder(44100);
+        });
+        assertEquals("Invalid sample rate: 44100", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Closed")
+    void closed() throws IOException, UnknownPlatformException {
+        assumeTrue(isDredSupported(), "Natives were built without DRED");
+        OpusDredDecoder dred = new OpusDredDecoder(48000);
+        assertFalse(dred.isClosed());
+        dred.close();
+        assertTrue(dred.isClosed());
+        RuntimeException e = assertThrowsExactly(RuntimeException.class, () -> {
+            dred.parse(new byte[10], 960);
+        });
+        assertEquals("DRED decoder is closed", e.getMessage());
+    }
+
+    private static boolean isDredSupported() throws IOException, UnknownPlatformException {
+        try (OpusDredDecoder ignored = new OpusDredDecoder(48000)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+}
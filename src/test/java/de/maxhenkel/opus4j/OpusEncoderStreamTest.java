@@ -0,0 +1,140 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusEncoderStreamTest {
+
+    @Test
+    @DisplayName("Arbitrary write sizes")
+    void arbitraryWriteSizes() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 2, OpusEncoder.Application.AUDIO)) {
+            List<Integer> durations = new ArrayList<>();
+            int[] chunks = {1, 333, 1919, 4000, 7, 960 * 2, 1500};
+            int total = Arrays.stream(chunks).sum();
+            try (OpusEncoderStream stream = new OpusEncoderStream(encoder, 960, OpusEncoderStream.FlushMode.PAD, (packet, offset, length) -> durations.add(OpusPacket.getSampleCount(packet, offset, length, 48000)))) {
+                for (int chunk : chunks) {
+                    stream.write(new short[chunk]);
+                }
+                assertEquals(total / (960 * 2), durations.size());
+                assertEquals((total % (960 * 2)) / 2, stream.getBufferedSamples());
+            }
+            assertEquals(total / (960 * 2) + 1, durations.size());
+            durations.forEach(duration -> assertEquals(960, duration));
+        }
+    }
+
+    @Test
+    @DisplayName("Flush with padding")
+    void flushPad() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            List<Integer> durations = new ArrayList<>();
+            OpusEncoderStream stream = new OpusEncoderStream(encoder, 960, OpusEncoderStream.FlushMode.PAD, (packet, offset, length) -> durations.add(OpusPacket.getSampleCount(packet, offset, length, 48000)));
+            stream.write(new short[700]);
+            assertTrue(durations.isEmpty());
+            stream.close();
+            assertEquals(Arrays.asList(960), durations);
+            assertEquals(260L, stream.getPaddedSamples());
+            assertThrowsExactly(IOException.class, () -> stream.write(new short[960]));
+        }
+    }
+
+    @Test
+    @DisplayName("Flush with shorter frames")
+    void flushShorten() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            List<Integer> durations = new ArrayList<>();
+            OpusEncoderStream stream = new OpusEncoderStream(encoder, 960, OpusEncoderStream.FlushMode.SHORTEN, (packet, offset, length) -> durations.add(OpusPacket.getSampleCount(packet, offset, length, 48000)));
+            stream.write(new short[960 + 700]);
+            stream.flush();
+            assertEquals(Arrays.asList(960, 480, 120, 120), durations);
+            assertEquals(20L, stream.getPaddedSamples());
+            assertEquals(0, stream.getBufferedSamples());
+            stream.close();
+            assertEquals(4, durations.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Write byte buffer")
+    void writeByteBuffer() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            List<byte[]> packets = new ArrayList<>();
+            try (OpusEncoderStream stream = new OpusEncoderStream(encoder, 480, OpusEncoderStream.FlushMode.PAD, (packet, offset, length) -> packets.add(Arrays.copyOfRange(packet, offset, offset + length)))) {
+                ByteBuffer buffer = ByteBuffer.allocate(1000 * 2).order(ByteOrder.LITTLE_ENDIAN);
+                stream.write(buffer);
+                assertFalse(buffer.hasRemaining());
+                assertEquals(2, packets.size());
+                assertEquals(40, stream.getBufferedSamples());
+                assertThrowsExactly(IllegalArgumentException.class, () -> stream.write(ByteBuffer.allocate(3)));
+            }
+            assertEquals(3, packets.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Silence detection")
+    void silenceDetection() throws IOException, UnknownPlatformException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OpusEncoder encoder = new OpusEncoder(24000, 1, OpusEncoder.Application.VOIP);
+             OggOpusOutputStream out = new OggOpusOutputStream(bytes, 1, 24000)) {
+            encoder.setSilenceDetection(-60D, 0);
+            OpusEncoderStream.PacketConsumer oggConsumer = OpusEncoderStream.PacketConsumer.of(out);
+            List<Integer> skipped = new ArrayList<>();
+            OpusEncoderStream.PacketConsumer consumer = new OpusEncoderStream.PacketConsumer() {
+                @Override
+                public void accept(byte[] packet, int offset, int length) throws IOException {
+                    oggConsumer.accept(packet, offset, length);
+                }
+
+                @Override
+                public void skipped(int samples) throws IOException {
+                    skipped.add(samples);
+                    oggConsumer.skipped(samples);
+                }
+            };
+            try (OpusEncoderStream stream = new OpusEncoderStream(encoder, 480, OpusEncoderStream.FlushMode.PAD, consumer)) {
+                for (int i = 0; i < 50; i++) {
+                    stream.write(new short[480]);
+                }
+            }
+            assertFalse(skipped.isEmpty());
+            skipped.forEach(samples -> assertEquals(960, samples));
+            // The skipped frames still count towards the duration of the stream
+            assertEquals(50 * 960, out.getGranulePosition());
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid frame size")
+    void invalidFrameSize() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> new OpusEncoderStream(encoder, 100, OpusEncoderStream.FlushMode.PAD, (packet, offset, length) -> {
+            }));
+            assertEquals("Invalid frame size: 100", e.getMessage());
+            // 7.5 ms and 140 ms are multiples of 2.5 ms, but not valid Opus frame durations
+            e = assertThrowsExactly(IllegalArgumentException.class, () -> new OpusEncoderStream(encoder, 360, OpusEncoderStream.FlushMode.PAD, (packet, offset, length) -> {
+            }));
+            assertEquals("Invalid frame size: 360", e.getMessage());
+            e = assertThrowsExactly(IllegalArgumentException.class, () -> new OpusEncoderStream(encoder, 6720, OpusEncoderStream.FlushMode.PAD, (packet, offset, length) -> {
+            }));
+            assertEquals("Invalid frame size: 6720", e.getMessage());
+            for (int frameSize : new int[]{120, 240, 480, 960, 1920, 2880, 3840, 4800, 5760}) {
+                assertEquals(frameSize, new OpusEncoderStream(encoder, frameSize, OpusEncoderStream.FlushMode.PAD, (packet, offset, length) -> {
+                }).getFrameSize());
+            }
+        }
+    }
+
+}
@@ -5,6 +5,11 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -68,6 +73,189 @@ public class OpusEncoderTest {
         }
     }
 
+    @Test
+    @DisplayName("Encode into array")
+    void encodeIntoArray() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder1 = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusEncoder encoder2 = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            short[] input = new short[960 + 16];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = (short) (Math.sin(i * 0.05D) * 8000D);
+            }
+            short[] frame = new short[960];
+            System.arraycopy(input, 16, frame, 0, frame.length);
+            byte[] expected = encoder1.encode(frame);
+
+            byte[] output = new byte[1500];
+            int length = encoder2.encode(input, 16, 960, output, 8, output.length - 8);
+            assertEquals(expected.length, length);
+            byte[] actual = new byte[length];
+            System.arraycopy(output, 8, actual, 0, length);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    @DisplayName("Encode into array with limited capacity")
+    void encodeIntoArrayLimitedCapacity() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            byte[] output = new byte[16];
+            assertEquals(1, encoder.encode(new short[960], 0, 960, output, 0, 1));
+            encoder.setMaxPayloadSize(1);
+            assertEquals(1, encoder.encode(new short[960], 0, 960, output, 0, output.length));
+        }
+    }
+
+    @Test
+    @DisplayName("Encode into array out of bounds")
+    void encodeIntoArrayOutOfBounds() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 2, OpusEncoder.Application.VOIP)) {
+            ArrayIndexOutOfBoundsException e1 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                encoder.encode(new short[960], 0, 960, new byte[1500], 0, 1500);
+            });
+            assertEquals("Range [0, 0 + 1920) out of bounds for length 960", e1.getMessage());
+            ArrayIndexOutOfBoundsException e2 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                encoder.encode(new short[1920], 0, 960, new byte[1500], 1000, 1000);
+            });
+            assertEquals("Range [1000, 1000 + 1000) out of bounds for length 1500", e2.getMessage());
+            assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                encoder.encode(new short[1920], -1, 960, new byte[1500], 0, 1500);
+            });
+            IOException e3 = assertThrowsExactly(IOException.class, () -> {
+                encoder.encode(new short[1922], 0, 961, new byte[1500], 0, 1500);
+            });
+            assertEquals("Failed to encode: invalid argument", e3.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Encode direct buffer")
+    void encodeDirectBuffer() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder1 = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusEncoder encoder2 = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            short[] frame = new short[960];
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = (short) (Math.sin(i * 0.05D) * 8000D);
+            }
+            byte[] expected = encoder1.encode(frame);
+
+            ShortBuffer input = ByteBuffer.allocateDirect(frame.length * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+            input.put(frame).flip();
+            ByteBuffer output = ByteBuffer.allocateDirect(1500);
+            output.position(4);
+            int length = encoder2.encode(input, output);
+            assertEquals(expected.length, length);
+            assertEquals(input.limit(), input.position());
+            assertEquals(4 + length, output.position());
+            byte[] actual = new byte[length];
+            output.position(4);
+            output.get(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    @DisplayName("Encode invalid buffers")
+    void encodeInvalidBuffers() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            IllegalArgumentException e1 = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                encoder.encode(ByteBuffer.allocateDirect(960 * 2).order(nonNativeOrder()).asShortBuffer(), ByteBuffer.allocateDirect(1500));
+            });
+            assertEquals("Input buffer must use the native byte order", e1.getMessage());
+            IllegalArgumentException e2 = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                encoder.encode(ShortBuffer.allocate(960), ByteBuffer.allocateDirect(1500));
+            });
+            assertEquals("Buffer must be direct", e2.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Encode batch")
+    void encodeBatch() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder1 = new OpusEncoder(48000, 2, OpusEncoder.Application.VOIP);
+             OpusEncoder encoder2 = new OpusEncoder(48000, 2, OpusEncoder.Application.VOIP)) {
+            short[] input = new short[480 * 2 * 8];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = (short) (Math.sin(i * 0.05D) * 8000D);
+            }
+            byte[] output = new byte[8 * 1500];
+            int[] packetLengths = new int[8];
+            int totalLength = encoder2.encodeBatch(input, 0, 480, 8, output, 0, output.length, packetLengths);
+
+            int offset = 0;
+            for (int i = 0; i < 8; i++) {
+                short[] frame = new short[480 * 2];
+                System.arraycopy(input, i * frame.length, frame, 0, frame.length);
+                byte[] expected = encoder1.encode(frame);
+                assertEquals(expected.length, packetLengths[i]);
+                byte[] actual = new byte[packetLengths[i]];
+                System.arraycopy(output, offset, actual, 0, actual.length);
+                assertArrayEquals(expected, actual);
+                offset += packetLengths[i];
+            }
+            assertEquals(offset, totalLength);
+        }
+    }
+
+    @Test
+    @DisplayName("Encode batch out of bounds")
+    void encodeBatchOutOfBounds() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            ArrayIndexOutOfBoundsException e1 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                encoder.encodeBatch(new short[960 * 2], 0, 960, 3, new byte[1500], 0, 1500, new int[3]);
+            });
+            assertEquals("Range [0, 0 + 2880) out of bounds for length 1920", e1.getMessage());
+            ArrayIndexOutOfBoundsException e2 = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                encoder.encodeBatch(new short[960 * 2], 0, 960, 2, new byte[1500], 0, 1500, new int[1]);
+            });
+            assertEquals("Range [0, 0 + 2) out of bounds for length 1", e2.getMessage());
+            IllegalArgumentException e3 = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                encoder.encodeBatch(new short[960], 0, 960, 0, new byte[1500], 0, 1500, new int[1]);
+            });
+            assertEquals("Frames must be greater than 0", e3.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Encode float")
+    void encodeFloat() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder1 = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusEncoder encoder2 = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusEncoder encoder3 = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            float[] frame = new float[960];
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = (float) Math.sin(i * 0.05D) * 0.25F;
+            }
+            byte[] expected = encoder1.encode(frame);
+            assertTrue(expected.length > 0);
+
+            byte[] output = new byte[1500];
+            int length = encoder2.encode(frame, 0, 960, output, 0, output.length);
+            byte[] actual = new byte[length];
+            System.arraycopy(output, 0, actual, 0, length);
+            assertArrayEquals(expected, actual);
+
+            FloatBuffer input = ByteBuffer.allocateDirect(frame.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            input.put(frame).flip();
+            ByteBuffer directOutput = ByteBuffer.allocateDirect(1500);
+            assertEquals(expected.length, encoder3.encode(input, directOutput));
+            directOutput.flip();
+            directOutput.get(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid float encoding")
+    void invalidFloatEncoding() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            IOException e1 = assertThrowsExactly(IOException.class, () -> {
+                encoder.encode(new float[239]);
+            });
+            assertEquals("Failed to encode: invalid argument", e1.getMessage());
+        }
+    }
+
     @Test
     @DisplayName("Reset state")
     void resetState() throws IOException, UnknownPlatformException {
@@ -245,4 +433,142 @@ public class OpusEncoderTest {
         }
     }
 
+    @Test
+    @DisplayName("Unsynchronized")
+    void unsynchronized() throws Exception {
+        try (OpusEncoder encoder = OpusEncoder.unsynchronized(48000, 1, OpusEncoder.Application.VOIP)) {
+            assertTrue(encoder.isThreadConfined());
+            assertTrue(encoder.encode(new short[960]).length > 0);
+
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    encoder.encode(new short[960]);
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }, "Other");
+            thread.start();
+            thread.join();
+            assertInstanceOf(IllegalStateException.class, error.get());
+            assertEquals("Codec is confined to thread " + Thread.currentThread().getName(), error.get().getMessage());
+
+            // Methods that don't touch the native state work on any thread
+            AtomicReference<String> state = new AtomicReference<>();
+            thread = new Thread(() -> state.set(encoder.isClosed() + " " + encoder), "Other");
+            thread.start();
+            thread.join();
+            assertEquals("false " + encoder, state.get());
+        }
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            assertFalse(encoder.isThreadConfined());
+        }
+    }
+
+    @Test
+    @DisplayName("Options")
+    void options() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.AUDIO)) {
+            encoder.setBitrate(24000);
+            assertEquals(24000, encoder.getBitrate());
+            encoder.setComplexity(3);
+            assertEquals(3, encoder.getComplexity());
+            encoder.setVbr(false);
+            assertFalse(encoder.isVbr());
+            encoder.setVbrConstraint(false);
+            assertFalse(encoder.isVbrConstraint());
+            encoder.setDtx(true);
+            assertTrue(encoder.isDtx());
+            encoder.setSignal(OpusEncoder.Signal.VOICE);
+            assertEquals(OpusEncoder.Signal.VOICE, encoder.getSignal());
+            encoder.setMaxBandwidth(Bandwidth.WIDEBAND);
+            assertEquals(Bandwidth.WIDEBAND, encoder.getMaxBandwidth());
+            encoder.setFrameDuration(OpusEncoder.FrameDuration.MS_10);
+            assertEquals(OpusEncoder.FrameDuration.MS_10, encoder.getFrameDuration());
+            assertEquals(OpusEncoder.InbandFec.ENABLED_WITHOUT_SILK_SWITCH, encoder.getInbandFec());
+            encoder.setInbandFec(OpusEncoder.InbandFec.DISABLED);
+            assertEquals(OpusEncoder.InbandFec.DISABLED, encoder.getInbandFec());
+            assertTrue(encoder.getLookahead() > 0);
+
+            assertTrue(encoder.encode(new short[960]).length > 0);
+
+            encoder.setMaxPayloadSize(100);
+            encoder.resetOptions();
+            assertEquals(1024, encoder.getMaxPayloadSize());
+            assertEquals(OpusEncoder.Signal.AUTO, encoder.getSignal());
+            assertEquals(OpusEncoder.FrameDuration.ARGUMENT, encoder.getFrameDuration());
+            assertEquals(OpusEncoder.InbandFec.ENABLED_WITHOUT_SILK_SWITCH, encoder.getInbandFec());
+            assertTrue(encoder.isVbr());
+            assertFalse(encoder.isDtx());
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid options")
+    void invalidOptions() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.AUDIO)) {
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                encoder.setBitrate(100);
+            });
+            assertEquals("Invalid bitrate: 100", e.getMessage());
+            e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                encoder.setComplexity(11);
+            });
+            assertEquals("Invalid complexity: 11", e.getMessage());
+            e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                encoder.setDredDuration(105);
+            });
+            assertEquals("Invalid DRED duration: 105", e.getMessage());
+            encoder.setBitrate(OpusEncoder.BITRATE_MAX);
+            encoder.setBitrate(OpusEncoder.BITRATE_AUTO);
+        }
+    }
+
+    @Test
+    @DisplayName("Silence detection")
+    void silenceDetection() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            encoder.setSilenceDetection(-60D, 40);
+            assertEquals(-60D, encoder.getSilenceThreshold());
+
+            short[] silence = new short[960];
+            int encoded = 0;
+            for (int i = 0; i < 30; i++) {
+                if (encoder.encode(silence).length > 0) {
+                    encoded++;
+                }
+            }
+            // Two frames of hangover and one refresh frame after 400 ms
+            assertEquals(3, encoded);
+
+            short[] loud = new short[960];
+            for (int i = 0; i < loud.length; i++) {
+                loud[i] = (short) (Math.sin(i * 0.05D) * 8000D);
+            }
+            byte[] packet = new byte[1500];
+            assertTrue(encoder.encode(loud, 0, 960, packet, 0, packet.length) > 0);
+            assertTrue(encoder.encode(silence, 0, 960, packet, 0, packet.length) > 0);
+
+            encoder.setSilenceDetection(OpusEncoder.SILENCE_DETECTION_DISABLED, 0);
+            for (int i = 0; i < 30; i++) {
+                assertTrue(encoder.encode(silence).length > 0);
+            }
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                encoder.setSilenceDetection(3D, 0);
+            });
+            assertEquals("Invalid silence threshold: 3.0", e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Mean square")
+    void meanSquare() {
+        assertEquals(0D, OpusEncoder.meanSquare(new short[10], 0, 10));
+        assertEquals(32768D * 32768D, OpusEncoder.meanSquare(new short[]{1, Short.MIN_VALUE, Short.MIN_VALUE}, 1, 2));
+    }
+
+    private static ByteOrder nonNativeOrder() {
+        return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    }
+
 }
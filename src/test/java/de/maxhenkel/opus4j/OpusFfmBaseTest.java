@@ -0,0 +1,24 @@
+package de.maxhenkel.opus4j;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusFfmBaseTest {
+
+    @Test
+    @DisplayName("Unavailable without the Java 22 classes")
+    void unavailable() {
+        assertFalse(OpusFfm.isAvailable());
+        UnsupportedOperationException e = assertThrowsExactly(UnsupportedOperationException.class, () -> {
+            OpusFfm.createEncoder(48000, 1, OpusEncoder.Application.AUDIO);
+        });
+        assertEquals("The FFM codecs require Java 22 or newer", e.getMessage());
+        e = assertThrowsExactly(UnsupportedOperationException.class, () -> {
+            OpusFfm.createUnsynchronizedDecoder(48000, 1);
+        });
+        assertEquals("The FFM codecs require Java 22 or newer", e.getMessage());
+    }
+
+}
@@ -0,0 +1,150 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusJitterBufferTest {
+
+    @Test
+    @DisplayName("In order")
+    void inOrder() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            OpusJitterBuffer jitterBuffer = new OpusJitterBuffer(decoder, 960, 16, 2, 8, 1500);
+            short[] output = new short[960];
+
+            byte[] packet = encoder.encode(new short[960]);
+            assertTrue(jitterBuffer.put(0, packet, 0, packet.length));
+            // Not enough packets for the playout delay yet
+            assertEquals(960, jitterBuffer.get(output, 0));
+            assertEquals(1, jitterBuffer.getBufferedPackets());
+
+            packet = encoder.encode(new short[960]);
+            assertTrue(jitterBuffer.put(1, packet, 0, packet.length));
+            assertEquals(960, jitterBuffer.get(output, 0));
+            assertEquals(960, jitterBuffer.get(output, 0));
+            assertEquals(0, jitterBuffer.getBufferedPackets());
+            assertEquals(0, jitterBuffer.getConcealedFrames());
+            assertEquals(0, jitterBuffer.getRecoveredFrames());
+        }
+    }
+
+    @Test
+    @DisplayName("Reorder")
+    void reorder() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            OpusJitterBuffer jitterBuffer = new OpusJitterBuffer(decoder, 960, 16, 3, 8, 1500);
+            byte[][] packets = new byte[3][];
+            for (int i = 0; i < packets.length; i++) {
+                packets[i] = encoder.encode(new short[960]);
+            }
+            assertTrue(jitterBuffer.put(1, packets[1], 0, packets[1].length));
+            assertTrue(jitterBuffer.put(2, packets[2], 0, packets[2].length));
+            assertTrue(jitterBuffer.put(0, packets[0], 0, packets[0].length));
+            assertFalse(jitterBuffer.put(0, packets[0], 0, packets[0].length));
+
+            short[] output = new short[960];
+            for (int i = 0; i < 3; i++) {
+                assertEquals(960, jitterBuffer.get(output, 0));
+            }
+            assertEquals(0, jitterBuffer.getConcealedFrames());
+            assertFalse(jitterBuffer.put(1, packets[1], 0, packets[1].length));
+            assertEquals(1, jitterBuffer.getLatePackets());
+        }
+    }
+
+    @Test
+    @DisplayName("Recover lost packet")
+    void recoverLostPacket() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            encoder.setMaxPacketLossPercentage(0.2F);
+            OpusJitterBuffer jitterBuffer = new OpusJitterBuffer(decoder, 960, 16, 2, 8, 1500);
+            byte[][] packets = new byte[4][];
+            for (int i = 0; i < packets.length; i++) {
+                packets[i] = encoder.encode(new short[960]);
+            }
+            jitterBuffer.put(0, packets[0], 0, packets[0].length);
+            jitterBuffer.put(2, packets[2], 0, packets[2].length);
+
+            short[] output = new short[960];
+            assertEquals(960, jitterBuffer.get(output, 0));
+            // Packet 1 is recovered with the FEC data of packet 2
+            assertEquals(960, jitterBuffer.get(output, 0));
+            assertEquals(1, jitterBuffer.getRecoveredFrames());
+            // The decoded packet 2 of the recovery
+            assertEquals(960, jitterBuffer.get(output, 0));
+            // Packet 3 is missing and there is no following packet
+            assertEquals(960, jitterBuffer.get(output, 0));
+            assertEquals(1, jitterBuffer.getConcealedFrames());
+        }
+    }
+
+    @Test
+    @DisplayName("Corrupt packet")
+    void corruptPacket() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            OpusJitterBuffer jitterBuffer = new OpusJitterBuffer(decoder, 960, 16, 2, 8, 1500);
+            // A code 3 packet without any frames
+            byte[] garbage = new byte[]{(byte) 0xFB, 0x00, 0x12, 0x34};
+            byte[] packet = encoder.encode(new short[960]);
+            assertTrue(jitterBuffer.put(0, garbage, 0, garbage.length));
+            assertTrue(jitterBuffer.put(1, packet, 0, packet.length));
+
+            short[] output = new short[960];
+            assertEquals(960, jitterBuffer.get(output, 0));
+            assertEquals(1, jitterBuffer.getCorruptPackets());
+            assertEquals(1, jitterBuffer.getConcealedFrames());
+            assertEquals(960, jitterBuffer.get(output, 0));
+            assertEquals(1, jitterBuffer.getConcealedFrames());
+            assertEquals(0, jitterBuffer.getBufferedPackets());
+        }
+    }
+
+    @Test
+    @DisplayName("Sequence jump")
+    void sequenceJump() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            OpusJitterBuffer jitterBuffer = new OpusJitterBuffer(decoder, 960, 16, 1, 8, 1500);
+            byte[] packet = encoder.encode(new short[960]);
+            assertTrue(jitterBuffer.put(0, packet, 0, packet.length));
+            assertTrue(jitterBuffer.put(1, packet, 0, packet.length));
+            // Skipping to a packet far ahead must not step through every sequence number
+            assertTrue(jitterBuffer.put(Integer.MAX_VALUE - 10, packet, 0, packet.length));
+            assertEquals(2, jitterBuffer.getDroppedPackets());
+            assertEquals(1, jitterBuffer.getBufferedPackets());
+            assertTrue(jitterBuffer.put(Integer.MAX_VALUE - 9, packet, 0, packet.length));
+            assertEquals(2, jitterBuffer.getBufferedPackets());
+            // The old packets are late now
+            assertFalse(jitterBuffer.put(2, packet, 0, packet.length));
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid packet")
+    void invalidPacket() throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            OpusJitterBuffer jitterBuffer = new OpusJitterBuffer(decoder, 960, 16, 2, 8, 100);
+            IllegalArgumentException e1 = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                jitterBuffer.put(0, new byte[101], 0, 101);
+            });
+            assertEquals("Packet is larger than the max packet size: 101", e1.getMessage());
+            IllegalArgumentException e2 = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                jitterBuffer.put(0, new byte[1], 0, 0);
+            });
+            assertEquals("Packet must not be empty", e2.getMessage());
+            assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                jitterBuffer.get(new short[959], 0);
+            });
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusMixerTest {
+
+    @Test
+    @DisplayName("Mix")
+    void mix() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder1 = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusEncoder encoder2 = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            byte[] packet1 = encoder1.encode(sine(960, 0.05D, 20000D));
+            byte[] packet2 = encoder2.encode(sine(960, 0.01D, 20000D));
+
+            try (OpusDecoder referenceDecoder1 = new OpusDecoder(48000, 1);
+                 OpusDecoder referenceDecoder2 = new OpusDecoder(48000, 1);
+                 OpusDecoder decoder1 = new OpusDecoder(48000, 1);
+                 OpusDecoder decoder2 = new OpusDecoder(48000, 1);
+                 OpusMixer mixer = new OpusMixer(48000, 1, 960)) {
+                short[] decoded1 = referenceDecoder1.decode(packet1);
+                short[] decoded2 = referenceDecoder2.decode(packet2);
+
+                short[] output = new short[960];
+                int samples = mixer.mix(new OpusDecoder[]{decoder1, decoder2}, new byte[][]{packet1, packet2}, 2, output, 0);
+                assertEquals(960, samples);
+                for (int i = 0; i < output.length; i++) {
+                    int expected = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, decoded1[i] + decoded2[i]));
+                    assertEquals(expected, output[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Mix PLC")
+    void mixPlc() throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder1 = new OpusDecoder(48000, 2);
+             OpusDecoder decoder2 = new OpusDecoder(48000, 2);
+             OpusMixer mixer = new OpusMixer(48000, 2, 960)) {
+            short[] output = new short[960 * 2];
+            assertEquals(960, mixer.mix(new OpusDecoder[]{decoder1, decoder2}, null, 2, output, 0));
+            assertEquals(960, mixer.mix(new OpusDecoder[]{decoder1, decoder2}, new byte[][]{null, null}, 2, output, 0));
+        }
+    }
+
+    @Test
+    @DisplayName("Mix PLC with a larger mixer")
+    void mixPlcLargerMixer() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            byte[] packet = encoder.encode(sine(960, 0.05D, 8000D));
+            try (OpusDecoder decoder = new OpusDecoder(48000, 1);
+                 OpusMixer mixer = new OpusMixer(48000, 1, 5760)) {
+                decoder.setFrameSize(960);
+                short[] output = new short[5760];
+                assertEquals(960, mixer.mix(new OpusDecoder[]{decoder}, new byte[][]{packet}, 1, output, 0));
+                assertEquals(960, mixer.mix(new OpusDecoder[]{decoder}, new byte[][]{null}, 1, output, 0));
+                assertEquals(960, mixer.mix(new OpusDecoder[]{decoder}, null, 1, output, 0));
+            }
+        }
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1);
+             OpusMixer mixer = new OpusMixer(48000, 1, 1000)) {
+            decoder.setFrameSize(960);
+            assertEquals(960, mixer.mix(new OpusDecoder[]{decoder}, null, 1, new short[1000], 0));
+        }
+    }
+
+    @Test
+    @DisplayName("Mix shorter frames")
+    void mixShorterFrames() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            byte[] packet1 = encoder.encode(sine(480, 0.05D, 8000D));
+            byte[] packet2 = encoder.encode(sine(960, 0.05D, 8000D));
+            try (OpusDecoder decoder1 = new OpusDecoder(48000, 1);
+                 OpusDecoder decoder2 = new OpusDecoder(48000, 1);
+                 OpusMixer mixer = new OpusMixer(48000, 1, 960)) {
+                short[] output = new short[960];
+                assertEquals(960, mixer.mix(new OpusDecoder[]{decoder1, decoder2}, new byte[][]{packet1, packet2}, 2, output, 0));
+                assertEquals(480, mixer.mix(new OpusDecoder[]{decoder1, decoder2}, new byte[][]{packet1, packet1}, 2, output, 0));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Mix invalid channels")
+    void mixInvalidChannels() throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder = new OpusDecoder(48000, 2);
+             OpusMixer mixer = new OpusMixer(48000, 1, 960)) {
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                mixer.mix(new OpusDecoder[]{decoder}, null, 1, new short[960], 0);
+            });
+            assertEquals("Invalid number of decoder channels: 2", e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Mix invalid sample rate")
+    void mixInvalidSampleRate() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            byte[] packet = encoder.encode(sine(960, 0.05D, 8000D));
+            try (OpusDecoder referenceDecoder = new OpusDecoder(48000, 1);
+                 OpusDecoder decoder1 = new OpusDecoder(48000, 1);
+                 OpusDecoder decoder2 = new OpusDecoder(16000, 1);
+                 OpusMixer mixer = new OpusMixer(48000, 1, 960)) {
+                IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+                    mixer.mix(new OpusDecoder[]{decoder1, decoder2}, new byte[][]{packet, null}, 2, new short[960], 0);
+                });
+                assertEquals("Invalid decoder sample rate: 16000", e.getMessage());
+                // The valid decoder didn't decode its packet before the invalid decoder was rejected
+                assertArrayEquals(referenceDecoder.decode(packet), decoder1.decode(packet));
+            }
+        }
+        IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+            new OpusMixer(44100, 1, 960);
+        });
+        assertEquals("Invalid sample rate: 44100", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Mix concurrently in reversed order")
+    void mixConcurrentReversedOrder() throws Exception {
+        try (OpusDecoder decoder1 = new OpusDecoder(48000, 1);
+             OpusDecoder decoder2 = new OpusDecoder(48000, 1);
+             OpusMixer mixer1 = new OpusMixer(48000, 1, 960);
+             OpusMixer mixer2 = new OpusMixer(48000, 1, 960)) {
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread thread1 = mixRepeatedly(mixer1, new OpusDecoder[]{decoder1, decoder2}, error);
+            Thread thread2 = mixRepeatedly(mixer2, new OpusDecoder[]{decoder2, decoder1}, error);
+            thread1.join(30000L);
+            thread2.join(30000L);
+            assertFalse(thread1.isAlive(), "Mixer deadlocked");
+            assertFalse(thread2.isAlive(), "Mixer deadlocked");
+            assertNull(error.get());
+        }
+    }
+
+    private static Thread mixRepeatedly(OpusMixer mixer, OpusDecoder[] decoders, AtomicReference<Throwable> error) {
+        Thread thread = new Thread(() -> {
+            short[] output = new short[960];
+            try {
+                for (int i = 0; i < 2000; i++) {
+                    mixer.mix(decoders, null, decoders.length, output, 0);
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    @DisplayName("Mix closed decoder")
+    void mixClosedDecoder() throws IOException, UnknownPlatformException {
+        try (OpusMixer mixer = new OpusMixer(48000, 1, 960)) {
+            OpusDecoder decoder = new OpusDecoder(48000, 1);
+            decoder.close();
+            RuntimeException e = assertThrowsExactly(RuntimeException.class, () -> {
+                mixer.mix(new OpusDecoder[]{decoder}, null, 1, new short[960], 0);
+            });
+            assertEquals("Decoder is closed", e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Mix after close")
+    void mixAfterClose() throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            OpusMixer mixer = new OpusMixer(48000, 1, 960);
+            mixer.close();
+            mixer.close();
+            assertTrue(mixer.isClosed());
+            RuntimeException e = assertThrowsExactly(RuntimeException.class, () -> {
+                mixer.mix(new OpusDecoder[]{decoder}, null, 1, new short[960], 0);
+            });
+            assertEquals("Mixer is closed", e.getMessage());
+        }
+    }
+
+    private static short[] sine(int length, double step, double amplitude) {
+        short[] samples = new short[length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (Math.sin(i * step) * amplitude);
+        }
+        return samples;
+    }
+
+}
@@ -0,0 +1,94 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusMultistreamDecoderTest {
+
+    @Test
+    @DisplayName("Decode")
+    void decode() throws IOException, UnknownPlatformException {
+        try (OpusMultistreamEncoder encoder = new OpusMultistreamEncoder(48000, 6, 1, OpusEncoder.Application.AUDIO);
+             OpusMultistreamDecoder decoder = new OpusMultistreamDecoder(48000, encoder)) {
+            byte[] encoded = encoder.encode(new short[960 * 6]);
+            short[] decoded = decoder.decode(encoded);
+            assertEquals(960 * 6, decoded.length);
+        }
+    }
+
+    @Test
+    @DisplayName("Decode into array")
+    void decodeInto() throws IOException, UnknownPlatformException {
+        try (OpusMultistreamEncoder encoder = new OpusMultistreamEncoder(48000, 6, 1, OpusEncoder.Application.AUDIO);
+             OpusMultistreamDecoder decoder = new OpusMultistreamDecoder(48000, encoder)) {
+            byte[] encoded = encoder.encode(new short[960 * 6]);
+            float[] output = new float[960 * 6];
+            assertEquals(960, decoder.decode(encoded, 0, encoded.length, output, 0));
+            assertEquals(960, decoder.decode(null, 0, 0, output, 0));
+        }
+    }
+
+    @Test
+    @DisplayName("Decode batch")
+    void decodeBatch() throws IOException, UnknownPlatformException {
+        try (OpusMultistreamEncoder encoder = new OpusMultistreamEncoder(48000, 6, 1, OpusEncoder.Application.AUDIO);
+             OpusMultistreamDecoder decoder = new OpusMultistreamDecoder(48000, encoder)) {
+            byte[] packets = new byte[16384];
+            int[] packetLengths = new int[3];
+            encoder.encodeBatch(new short[960 * 6 * 3], 0, 960, 3, packets, 0, packets.length, packetLengths);
+            int[] packetOffsets = new int[]{0, packetLengths[0], packetLengths[0] + packetLengths[1]};
+            short[] output = new short[960 * 6 * 3];
+            int[] frameSizes = new int[3];
+            assertEquals(960 * 3, decoder.decodeBatch(packets, packetOffsets, packetLengths, 3, output, 0, frameSizes));
+            assertArrayEquals(new int[]{960, 960, 960}, frameSizes);
+        }
+    }
+
+    @Test
+    @DisplayName("Decode out of bounds")
+    void decodeOutOfBounds() throws IOException, UnknownPlatformException {
+        try (OpusMultistreamDecoder decoder = new OpusMultistreamDecoder(48000, 2, 1, 1, new byte[]{0, 1})) {
+            ArrayIndexOutOfBoundsException e = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decode(null, 0, 0, new short[960 * 2 - 1], 0);
+            });
+            assertEquals("Range [0, 0 + 1920) out of bounds for length 1919", e.getMessage());
+            ShortBuffer output = ByteBuffer.allocateDirect(960 * 4 * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+            output.limit(960 * 2 - 1);
+            e = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                decoder.decode(null, output);
+            });
+            assertEquals("Range [0, 0 + 1920) out of bounds for length 1919", e.getMessage());
+            assertEquals(0, output.position());
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid mapping")
+    void invalidMapping() {
+        IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+            new OpusMultistreamDecoder(48000, 2, 1, 1, new byte[]{0});
+        });
+        assertEquals("Invalid mapping length: 1", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Closed")
+    void closed() throws IOException, UnknownPlatformException {
+        OpusMultistreamDecoder decoder = new OpusMultistreamDecoder(48000, 2, 1, 1, new byte[]{0, 1});
+        decoder.close();
+        assertTrue(decoder.isClosed());
+        RuntimeException e = assertThrowsExactly(RuntimeException.class, () -> {
+            decoder.decode(null);
+        });
+        assertEquals("Decoder is closed", e.getMessage());
+    }
+
+}
@@ -0,0 +1,99 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusMultistreamEncoderTest {
+
+    @Test
+    @DisplayName("Surround layout")
+    void surroundLayout() throws IOException, UnknownPlatformException {
+        try (OpusMultistreamEncoder encoder = new OpusMultistreamEncoder(48000, 6, 1, OpusEncoder.Application.AUDIO)) {
+            assertEquals(6, encoder.getChannels());
+            assertEquals(4, encoder.getStreams());
+            assertEquals(2, encoder.getCoupledStreams());
+            assertEquals(6, encoder.getMapping().length);
+        }
+    }
+
+    @Test
+    @DisplayName("Encode")
+    void encode() throws IOException, UnknownPlatformException {
+        try (OpusMultistreamEncoder encoder = new OpusMultistreamEncoder(48000, 6, 1, OpusEncoder.Application.AUDIO)) {
+            byte[] encoded = encoder.encode(new short[960 * 6]);
+            assertTrue(encoded.length > 0);
+        }
+    }
+
+    @Test
+    @DisplayName("Encode into array")
+    void encodeInto() throws IOException, UnknownPlatformException {
+        try (OpusMultistreamEncoder encoder = new OpusMultistreamEncoder(48000, 6, 1, OpusEncoder.Application.AUDIO)) {
+            byte[] output = new byte[4096];
+            int length = encoder.encode(new short[960 * 6], 0, 960, output, 0, output.length);
+            assertTrue(length > 0);
+        }
+    }
+
+    @Test
+    @DisplayName("Encode batch")
+    void encodeBatch() throws IOException, UnknownPlatformException {
+        try (OpusMultistreamEncoder encoder = new OpusMultistreamEncoder(48000, 6, 1, OpusEncoder.Application.AUDIO)) {
+            byte[] output = new byte[16384];
+            int[] packetLengths = new int[4];
+            int length = encoder.encodeBatch(new float[960 * 6 * 4], 0, 960, 4, output, 0, output.length, packetLengths);
+            int sum = 0;
+            for (int packetLength : packetLengths) {
+                assertTrue(packetLength > 0);
+                sum += packetLength;
+            }
+            assertEquals(sum, length);
+        }
+    }
+
+    @Test
+    @DisplayName("Encode out of bounds")
+    void encodeOutOfBounds() throws IOException, UnknownPlatformException {
+        try (OpusMultistreamEncoder encoder = new OpusMultistreamEncoder(48000, 6, 1, OpusEncoder.Application.AUDIO)) {
+            assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                encoder.encode(new short[960 * 6], 1, 960, new byte[4096], 0, 4096);
+            });
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid channels")
+    void invalidChannels() {
+        IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+            new OpusMultistreamEncoder(48000, 0, 1, OpusEncoder.Application.AUDIO);
+        });
+        assertEquals("Invalid number of channels: 0", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Invalid mapping family")
+    void invalidMappingFamily() {
+        IOException e = assertThrowsExactly(IOException.class, () -> {
+            new OpusMultistreamEncoder(48000, 6, 0, OpusEncoder.Application.AUDIO);
+        });
+        assertEquals("Failed to create encoder: invalid argument", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Closed")
+    void closed() throws IOException, UnknownPlatformException {
+        OpusMultistreamEncoder encoder = new OpusMultistreamEncoder(48000, 6, 1, OpusEncoder.Application.AUDIO);
+        encoder.close();
+        assertTrue(encoder.isClosed());
+        RuntimeException e = assertThrowsExactly(RuntimeException.class, () -> {
+            encoder.encode(new short[960 * 6]);
+        });
+        assertEquals("Encoder is closed", e.getMessage());
+    }
+
+}
@@ -0,0 +1,145 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusPacketTest {
+
+    @Test
+    @DisplayName("Samples per frame")
+    void samplesPerFrame() {
+        // SILK NB 10 ms
+        assertEquals(480, OpusPacket.getSamplesPerFrame(new byte[]{0x00}, 0, 1));
+        // SILK WB 60 ms
+        assertEquals(2880, OpusPacket.getSamplesPerFrame(new byte[]{0x58}, 0, 1));
+        // Hybrid FB 20 ms
+        assertEquals(960, OpusPacket.getSamplesPerFrame(new byte[]{0x78}, 0, 1));
+        // CELT NB 2.5 ms
+        assertEquals(120, OpusPacket.getSamplesPerFrame(new byte[]{(byte) 0x80}, 0, 1));
+        // CELT FB 20 ms
+        assertEquals(960, OpusPacket.getSamplesPerFrame(new byte[]{(byte) 0xF8}, 0, 1));
+    }
+
+    @Test
+    @DisplayName("Bandwidth")
+    void bandwidth() {
+        assertEquals(Bandwidth.NARROWBAND, OpusPacket.getBandwidth(new byte[]{0x00}, 0, 1));
+        assertEquals(Bandwidth.MEDIUMBAND, OpusPacket.getBandwidth(new byte[]{0x20}, 0, 1));
+        assertEquals(Bandwidth.WIDEBAND, OpusPacket.getBandwidth(new byte[]{0x48}, 0, 1));
+        assertEquals(Bandwidth.SUPERWIDEBAND, OpusPacket.getBandwidth(new byte[]{0x68}, 0, 1));
+        assertEquals(Bandwidth.FULLBAND, OpusPacket.getBandwidth(new byte[]{0x78}, 0, 1));
+        assertEquals(Bandwidth.NARROWBAND, OpusPacket.getBandwidth(new byte[]{(byte) 0x80}, 0, 1));
+        assertEquals(Bandwidth.WIDEBAND, OpusPacket.getBandwidth(new byte[]{(byte) 0xA0}, 0, 1));
+        assertEquals(Bandwidth.FULLBAND, OpusPacket.getBandwidth(new byte[]{(byte) 0xF8}, 0, 1));
+    }
+
+    @Test
+    @DisplayName("Frame and sample count")
+    void frameAndSampleCount() {
+        byte[] code0 = new byte[]{0x78, 1, 2};
+        assertEquals(1, OpusPacket.getFrameCount(code0, 0, code0.length));
+        assertEquals(960, OpusPacket.getSampleCount(code0, 0, code0.length, 48000));
+        assertEquals(320, OpusPacket.getSampleCount(code0, 0, code0.length, 16000));
+
+        byte[] code1 = new byte[]{0x79, 1, 2};
+        assertEquals(2, OpusPacket.getFrameCount(code1, 0, code1.length));
+        assertEquals(1920, OpusPacket.getSampleCount(code1, 0, code1.length, 48000));
+
+        byte[] code3 = new byte[]{0x7B, 6};
+        assertEquals(6, OpusPacket.getFrameCount(code3, 0, code3.length));
+        assertEquals(5760, OpusPacket.getSampleCount(code3, 0, code3.length, 48000));
+
+        byte[] tooLong = new byte[]{0x7B, 7};
+        IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+            OpusPacket.getSampleCount(tooLong, 0, tooLong.length, 48000);
+        });
+        assertEquals("Packet is longer than 120 ms", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Channels")
+    void channels() {
+        assertEquals(1, OpusPacket.getChannelCount(new byte[]{0x78}, 0, 1));
+        assertEquals(2, OpusPacket.getChannelCount(new byte[]{0x7C}, 0, 1));
+    }
+
+    @Test
+    @DisplayName("LBRR")
+    void lbrr() {
+        // SILK WB 20 ms mono - the first bit is the VAD flag and the second the LBRR flag
+        assertTrue(OpusPacket.hasLbrr(new byte[]{0x48, 0x40}, 0, 2));
+        assertFalse(OpusPacket.hasLbrr(new byte[]{0x48, (byte) 0x80}, 0, 2));
+        // SILK WB 20 ms stereo - the LBRR flag of the side channel
+        assertTrue(OpusPacket.hasLbrr(new byte[]{0x4C, 0x10}, 0, 2));
+        // CELT never has LBRR
+        assertFalse(OpusPacket.hasLbrr(new byte[]{(byte) 0xF8, (byte) 0xFF}, 0, 2));
+        // Empty frame
+        assertFalse(OpusPacket.hasLbrr(new byte[]{0x48}, 0, 1));
+    }
+
+    @Test
+    @DisplayName("Valid")
+    void valid() {
+        assertTrue(OpusPacket.isValid(new byte[]{0x78, 1, 2}, 0, 3));
+        // Code 1 needs an even number of bytes
+        assertFalse(OpusPacket.isValid(new byte[]{0x79, 1, 2, 3}, 0, 4));
+        // Code 2 with a first frame that is longer than the packet
+        assertFalse(OpusPacket.isValid(new byte[]{0x7A, 5, 1}, 0, 3));
+        // Code 3 CBR with 2 frames and 3 bytes
+        assertFalse(OpusPacket.isValid(new byte[]{0x7B, 2, 1, 2, 3}, 0, 5));
+        // Code 3 VBR with padding
+        assertTrue(OpusPacket.isValid(new byte[]{0x7B, (byte) 0xC2, 1, 1, 9, 9, 0}, 0, 7));
+        assertFalse(OpusPacket.isValid(new byte[0], 0, 0));
+    }
+
+    @Test
+    @DisplayName("Offset and buffers")
+    void offsetAndBuffers() {
+        byte[] packet = new byte[]{0, 0, 0x7C, 0x40};
+        assertEquals(2, OpusPacket.getChannelCount(packet, 2, 2));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        buffer.put(packet);
+        buffer.position(2);
+        assertEquals(2, OpusPacket.getChannelCount(buffer));
+        assertEquals(Bandwidth.FULLBAND, OpusPacket.getBandwidth(buffer));
+        assertEquals(960, OpusPacket.getSampleCount(buffer, 48000));
+        assertEquals(2, buffer.position());
+
+        ArrayIndexOutOfBoundsException e = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+            OpusPacket.getFrameCount(packet, 3, 2);
+        });
+        assertEquals("Range [3, 3 + 2) out of bounds for length 4", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Empty")
+    void empty() {
+        IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+            OpusPacket.getFrameCount(new byte[0], 0, 0);
+        });
+        assertEquals("Packet is empty", e.getMessage());
+        assertThrowsExactly(IllegalArgumentException.class, () -> {
+            OpusPacket.getFrameCount(new byte[]{0x7B}, 0, 1);
+        });
+    }
+
+    @Test
+    @DisplayName("Encoded packet")
+    void encodedPacket() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 2, OpusEncoder.Application.VOIP)) {
+            byte[] packet = encoder.encode(new short[960 * 2]);
+            assertTrue(OpusPacket.isValid(packet, 0, packet.length));
+            assertEquals(1, OpusPacket.getFrameCount(packet, 0, packet.length));
+            assertEquals(960, OpusPacket.getSampleCount(packet, 0, packet.length, 48000));
+            assertEquals(2, OpusPacket.getChannelCount(packet, 0, packet.length));
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusParallelEncoderTest {
+
+    @Test
+    @DisplayName("Parallel matches sequential")
+    void parallelMatchesSequential() throws IOException, UnknownPlatformException {
+        short[] input = sine(250 * 960);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            OpusParallelEncoder parallelEncoder = new OpusParallelEncoder(48000, 1, OpusEncoder.Application.AUDIO, 960, 20, 5, encoder -> encoder.setBitrate(64000), pool);
+            byte[][] packets = parallelEncoder.encode(input, 0, 250);
+            assertEquals(250, packets.length);
+
+            short[] parallel = decode(packets);
+            short[] sequential;
+            try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.AUDIO)) {
+                encoder.setBitrate(64000);
+                byte[][] sequentialPackets = new byte[250][];
+                for (int i = 0; i < sequentialPackets.length; i++) {
+                    short[] frame = new short[960];
+                    System.arraycopy(input, i * 960, frame, 0, 960);
+                    sequentialPackets[i] = encoder.encode(frame);
+                }
+                sequential = decode(sequentialPackets);
+                assertEquals(encoder.getLookahead(), parallelEncoder.getPreSkip());
+            }
+            // Both streams have the same delay, so they line up across all segment boundaries
+            assertTrue(correlation(parallel, sequential) > 0.9D);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Write Ogg")
+    void writeOgg() throws IOException, UnknownPlatformException {
+        OpusParallelEncoder parallelEncoder = new OpusParallelEncoder(48000, 2, OpusEncoder.Application.AUDIO, 960);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OggOpusOutputStream out = new OggOpusOutputStream(bytes, 2, 48000, parallelEncoder.getPreSkip(), 0, OggOpusOutputStream.DEFAULT_PAGE_DURATION, Collections.emptyList())) {
+            parallelEncoder.encode(new short[1234 * 960 * 2], 0, 1234, out);
+            assertEquals(1234L * 960L, out.getGranulePosition());
+        }
+        try (OggOpusInputStream in = new OggOpusInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(parallelEncoder.getPreSkip(), in.getPreSkip());
+        }
+    }
+
+    @Test
+    @DisplayName("Out of bounds")
+    void outOfBounds() throws IOException, UnknownPlatformException {
+        OpusParallelEncoder parallelEncoder = new OpusParallelEncoder(48000, 1, OpusEncoder.Application.AUDIO, 960);
+        ArrayIndexOutOfBoundsException e = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+            parallelEncoder.encode(new short[960], 0, 2);
+        });
+        assertEquals("Range [0, 0 + 1920) out of bounds for length 960", e.getMessage());
+        e = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+            parallelEncoder.encode(new short[960], 0, 3000000);
+        });
+        assertEquals("Range [0, 0 + 2880000000) out of bounds for length 960", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Failing task")
+    void failingTask() throws IOException, UnknownPlatformException {
+        AtomicInteger encoders = new AtomicInteger();
+        OpusParallelEncoder parallelEncoder = new OpusParallelEncoder(48000, 1, OpusEncoder.Application.AUDIO, 960, 1, 1, encoder -> {
+            if (encoders.incrementAndGet() > 1) {
+                throw new IllegalStateException("Test");
+            }
+        }, ForkJoinPool.commonPool());
+        assertThrowsExactly(IllegalStateException.class, () -> {
+            parallelEncoder.encode(new short[960 * 8], 0, 8);
+        });
+    }
+
+    @Test
+    @DisplayName("Pre-roll shorter than the lookahead")
+    void preRollTooShort() {
+        IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> {
+            new OpusParallelEncoder(48000, 1, OpusEncoder.Application.AUDIO, 960, 20, 0, null, ForkJoinPool.commonPool());
+        });
+        assertEquals("Invalid number of pre-roll frames: 0", e.getMessage());
+    }
+
+    private static short[] decode(byte[][] packets) throws IOException, UnknownPlatformException {
+        try (OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            short[] output = new short[packets.length * 960];
+            for (int i = 0; i < packets.length; i++) {
+                decoder.decode(packets[i], 0, packets[i].length, output, i * 960);
+            }
+            return output;
+        }
+    }
+
+    private static double correlation(short[] a, short[] b) {
+        double ab = 0D;
+        double aa = 0D;
+        double bb = 0D;
+        for (int i = 0; i < a.length; i++) {
+            ab += a[i] * b[i];
+            aa += a[i] * a[i];
+            bb += b[i] * b[i];
+        }
+        return ab / Math.sqrt(aa * bb);
+    }
+
+    private static short[] sine(int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (Math.sin(i * 2D * Math.PI * 440D / 48000D) * 8000D);
+        }
+        return samples;
+    }
+
+}
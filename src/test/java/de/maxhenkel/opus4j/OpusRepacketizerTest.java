@@ -0,0 +1,102 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusRepacketizerTest {
+
+    @Test
+    @DisplayName("Merge and split")
+    void mergeAndSplit() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusRepacketizer repacketizer = new OpusRepacketizer()) {
+            byte[] packets = new byte[4096];
+            int[] packetLengths = new int[3];
+            encoder.encodeBatch(new short[960 * 3], 0, 960, 3, packets, 0, packets.length, packetLengths);
+            int[] packetOffsets = new int[]{0, packetLengths[0], packetLengths[0] + packetLengths[1]};
+
+            byte[] merged = new byte[4096];
+            int mergedLength = repacketizer.merge(packets, packetOffsets, packetLengths, 3, merged, 0, merged.length);
+            assertTrue(mergedLength > 0);
+
+            try (OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+                decoder.setFrameSize(960 * 3);
+                assertEquals(960 * 3, decoder.decode(merged, 0, mergedLength, new short[960 * 3], 0));
+            }
+
+            byte[] split = new byte[4096];
+            int[] splitLengths = new int[6];
+            assertEquals(3, repacketizer.split(merged, 0, mergedLength, split, 0, split.length, splitLengths));
+            int offset = 0;
+            for (int i = 0; i < 3; i++) {
+                assertTrue(splitLengths[i] > 0);
+                offset += splitLengths[i];
+            }
+            assertTrue(offset <= split.length);
+        }
+    }
+
+    @Test
+    @DisplayName("Merge too long")
+    void mergeTooLong() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusRepacketizer repacketizer = new OpusRepacketizer()) {
+            byte[] packets = new byte[4096];
+            int[] packetLengths = new int[7];
+            encoder.encodeBatch(new short[960 * 7], 0, 960, 7, packets, 0, packets.length, packetLengths);
+            int[] packetOffsets = new int[7];
+            for (int i = 1; i < 7; i++) {
+                packetOffsets[i] = packetOffsets[i - 1] + packetLengths[i - 1];
+            }
+            IOException e = assertThrowsExactly(IOException.class, () -> {
+                repacketizer.merge(packets, packetOffsets, packetLengths, 7, new byte[4096], 0, 4096);
+            });
+            assertEquals("Failed to merge packets: corrupted stream", e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Merge out of bounds")
+    void mergeOutOfBounds() throws IOException, UnknownPlatformException {
+        try (OpusRepacketizer repacketizer = new OpusRepacketizer()) {
+            ArrayIndexOutOfBoundsException e = assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                repacketizer.merge(new byte[10], new int[]{5}, new int[]{6}, 1, new byte[100], 0, 100);
+            });
+            assertEquals("Range [5, 5 + 6) out of bounds for length 10", e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Split too many frames")
+    void splitTooManyFrames() throws IOException, UnknownPlatformException {
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusRepacketizer repacketizer = new OpusRepacketizer()) {
+            byte[] packets = new byte[4096];
+            int[] packetLengths = new int[2];
+            encoder.encodeBatch(new short[960 * 2], 0, 960, 2, packets, 0, packets.length, packetLengths);
+            byte[] merged = new byte[4096];
+            int mergedLength = repacketizer.merge(packets, new int[]{0, packetLengths[0]}, packetLengths, 2, merged, 0, merged.length);
+            assertThrowsExactly(ArrayIndexOutOfBoundsException.class, () -> {
+                repacketizer.split(merged, 0, mergedLength, new byte[4096], 0, 4096, new int[1]);
+            });
+        }
+    }
+
+    @Test
+    @DisplayName("Closed")
+    void closed() throws IOException, UnknownPlatformException {
+        OpusRepacketizer repacketizer = new OpusRepacketizer();
+        repacketizer.close();
+        assertTrue(repacketizer.isClosed());
+        RuntimeException e = assertThrowsExactly(RuntimeException.class, () -> {
+            repacketizer.split(new byte[1], 0, 1, new byte[1], 0, 1, new int[1]);
+        });
+        assertEquals("Repacketizer is closed", e.getMessage());
+    }
+
+}
@@ -0,0 +1,118 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Preload")
+    void preload() throws IOException, UnknownPlatformException {
+        Opus.preload();
+        assertTrue(Opus.isLoaded());
+        assertTrue(Opus.getLoadTime(TimeUnit.NANOSECONDS) >= 0L);
+        Path path = Opus.getLibraryPath();
+        if (path != null) {
+            assertTrue(Files.isRegularFile(path));
+            String resource = NativeLoader.getResourcePath(System.getProperty("os.name"), System.getProperty("os.arch"));
+            try (InputStream in = NativeLoader.class.getResourceAsStream(resource + NativeLoader.HASH_SUFFIX)) {
+                if (in != null) {
+                    assertEquals(new Scanner(in, "US-ASCII").next(), NativeLoader.sha256(path));
+                }
+            }
+        }
+        Opus.preload();
+        try (OpusEncoder encoder = new OpusEncoder(48000, 1, OpusEncoder.Application.VOIP)) {
+            assertFalse(encoder.isClosed());
+        }
+    }
+
+    @Test
+    @DisplayName("Resource path")
+    void resourcePath() {
+        assertEquals("/natives/windows-x64/libopus4j.dll", NativeLoader.getResourcePath("Windows 11", "amd64"));
+        assertEquals("/natives/windows-aarch64/libopus4j.dll", NativeLoader.getResourcePath("Windows 11", "aarch64"));
+        assertEquals("/natives/linux-x64/libopus4j.so", NativeLoader.getResourcePath("Linux", "amd64"));
+        assertEquals("/natives/linux-aarch64/libopus4j.so", NativeLoader.getResourcePath("Linux", "aarch64"));
+        assertEquals("/natives/mac-x64/libopus4j.dylib", NativeLoader.getResourcePath("Mac OS X", "x86_64"));
+        assertEquals("/natives/mac-aarch64/libopus4j.dylib", NativeLoader.getResourcePath("Mac OS X", "aarch64"));
+        assertNull(NativeLoader.getResourcePath("FreeBSD", "amd64"));
+        assertNull(NativeLoader.getResourcePath("Linux", "riscv64"));
+        assertNull(NativeLoader.getResourcePath(null, "amd64"));
+    }
+
+    @Test
+    @DisplayName("Content hash")
+    void contentHash() {
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", NativeLoader.sha256(new byte[0]));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", NativeLoader.sha256("abc".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    @DisplayName("File hash")
+    void fileHash() throws IOException {
+        Path path = tempDir.resolve("library");
+        Files.write(path, "abc".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", NativeLoader.sha256(path));
+    }
+
+    @Test
+    @DisplayName("Cache directory")
+    void cacheDirectory() throws IOException {
+        Path directory = tempDir.resolve("cache").resolve("opus4j");
+        System.setProperty(Opus.CACHE_DIR_PROPERTY, directory.toString());
+        try {
+            assertEquals(directory, NativeLoader.getCacheDirectory());
+            assertTrue(Files.isDirectory(directory));
+            if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(directory));
+            }
+        } finally {
+            System.clearProperty(Opus.CACHE_DIR_PROPERTY);
+        }
+        assertEquals("opus4j-alice", NativeLoader.getDefaultCacheDirectoryName("alice"));
+        assertEquals("opus4j-DOMAIN_bob", NativeLoader.getDefaultCacheDirectoryName("DOMAIN\\bob"));
+        assertEquals("opus4j", NativeLoader.getDefaultCacheDirectoryName(null));
+    }
+
+    @Test
+    @DisplayName("Existing cache directory")
+    void existingCacheDirectory() throws IOException {
+        Path directory = tempDir.resolve("shared");
+        Files.createDirectory(directory);
+        if (!directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return;
+        }
+        System.setProperty(Opus.CACHE_DIR_PROPERTY, directory.toString());
+        try {
+            // Existing directories are used without changing their permissions
+            Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxr-xr-x"));
+            assertEquals(directory, NativeLoader.getCacheDirectory());
+            assertEquals(PosixFilePermissions.fromString("rwxr-xr-x"), Files.getPosixFilePermissions(directory));
+
+            // Directories that other users can write to are not used
+            Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxrwxrwx"));
+            assertNull(NativeLoader.getCacheDirectory());
+            assertEquals(PosixFilePermissions.fromString("rwxrwxrwx"), Files.getPosixFilePermissions(directory));
+        } finally {
+            System.clearProperty(Opus.CACHE_DIR_PROPERTY);
+        }
+    }
+
+}
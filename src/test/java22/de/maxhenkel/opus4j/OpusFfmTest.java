@@ -0,0 +1,107 @@
+package de.maxhenkel.opus4j;
+
+import de.maxhenkel.nativeutils.UnknownPlatformException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusFfmTest {
+
+    @Test
+    @DisplayName("Available")
+    void available() throws IOException, UnknownPlatformException {
+        assertTrue(OpusFfm.isAvailable());
+        try (OpusFfmEncoder<MemorySegment> encoder = OpusFfm.createUnsynchronizedEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusFfmDecoder<MemorySegment> decoder = OpusFfm.createDecoder(48000, 1)) {
+            assertTrue(encoder.isThreadConfined());
+            assertFalse(decoder.isThreadConfined());
+        }
+    }
+
+    @Test
+    @DisplayName("Encode and decode native segments")
+    void encodeDecodeNative() throws IOException, UnknownPlatformException {
+        try (OpusFfmEncoder<MemorySegment> encoder = OpusFfm.createEncoder(48000, 2, OpusEncoder.Application.AUDIO);
+             OpusFfmDecoder<MemorySegment> decoder = OpusFfm.createDecoder(48000, 2);
+             Arena arena = Arena.ofConfined()) {
+            MemorySegment input = arena.allocate(ValueLayout.JAVA_SHORT, 960 * 2);
+            for (int i = 0; i < 960 * 2; i++) {
+                input.setAtIndex(ValueLayout.JAVA_SHORT, i, (short) (Math.sin(i / 20D) * 8000D));
+            }
+            MemorySegment packet = arena.allocate(1024);
+            int length = encoder.encode(input, packet);
+            assertTrue(length > 0);
+
+            MemorySegment output = arena.allocate(ValueLayout.JAVA_SHORT, 960 * 2);
+            assertEquals(960, decoder.decode(packet.asSlice(0L, length), output));
+        }
+    }
+
+    @Test
+    @DisplayName("Encode and decode heap segments")
+    void encodeDecodeHeap() throws IOException, UnknownPlatformException {
+        try (OpusFfmEncoder<MemorySegment> encoder = OpusFfm.createEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusFfmDecoder<MemorySegment> decoder = OpusFfm.createDecoder(48000, 1)) {
+            byte[] packet = new byte[1024];
+            int length = encoder.encode(MemorySegment.ofArray(new short[960]), MemorySegment.ofArray(packet));
+            assertTrue(length > 0);
+
+            short[] output = new short[960];
+            assertEquals(960, decoder.decode(MemorySegment.ofArray(packet).asSlice(0L, length), MemorySegment.ofArray(output)));
+            assertEquals(480, decoder.decode(null, MemorySegment.ofArray(new short[480])));
+        }
+    }
+
+    @Test
+    @DisplayName("Interoperability with the JNI codecs")
+    void interoperability() throws IOException, UnknownPlatformException {
+        try (OpusFfmEncoder<MemorySegment> encoder = OpusFfm.createEncoder(48000, 1, OpusEncoder.Application.VOIP);
+             OpusDecoder decoder = new OpusDecoder(48000, 1)) {
+            decoder.setFrameSize(960);
+            byte[] packet = new byte[1024];
+            int length = encoder.encodeFloat(MemorySegment.ofArray(new float[960]), MemorySegment.ofArray(packet));
+            assertEquals(960, decoder.decode(packet, 0, length, new short[960], 0));
+        }
+    }
+
+    @Test
+    @DisplayName("Encoder options")
+    void options() throws IOException, UnknownPlatformException {
+        try (OpusFfmEncoder<MemorySegment> encoder = OpusFfm.createEncoder(48000, 1, OpusEncoder.Application.AUDIO)) {
+            encoder.setBitrate(32000);
+            assertEquals(32000, encoder.getBitrate());
+            encoder.setComplexity(3);
+            assertEquals(3, encoder.getComplexity());
+            assertTrue(encoder.getLookahead() > 0);
+            assertThrowsExactly(IllegalArgumentException.class, () -> encoder.setComplexity(11));
+        }
+    }
+
+    @Test
+    @DisplayName("Invalid PCM length")
+    void invalidLength() throws IOException, UnknownPlatformException {
+        try (OpusFfmEncoder<MemorySegment> encoder = OpusFfm.createEncoder(48000, 2, OpusEncoder.Application.AUDIO)) {
+            IllegalArgumentException e = assertThrowsExactly(IllegalArgumentException.class, () -> encoder.encode(MemorySegment.ofArray(new short[961]), MemorySegment.ofArray(new byte[1024])));
+            assertEquals("Invalid PCM length: 1922", e.getMessage());
+            IOException e2 = assertThrowsExactly(IOException.class, () -> encoder.encode(MemorySegment.ofArray(new short[962]), MemorySegment.ofArray(new byte[1024])));
+            assertEquals("Failed to encode: invalid argument", e2.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Closed")
+    void closed() throws IOException, UnknownPlatformException {
+        OpusFfmDecoder<MemorySegment> decoder = OpusFfm.createDecoder(48000, 1);
+        decoder.close();
+        assertTrue(decoder.isClosed());
+        RuntimeException e = assertThrowsExactly(RuntimeException.class, () -> decoder.decode(null, MemorySegment.ofArray(new short[960])));
+        assertEquals("Decoder is closed", e.getMessage());
+    }
+
+}